@@ -14,20 +14,14 @@
 
 package org.odk.collect.android.activities;
 
-import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.LinearLayoutManager;
-import android.view.KeyEvent;
 
 import org.javarosa.core.model.FormIndex;
-import org.odk.collect.android.R;
-import org.odk.collect.android.adapters.HierarchyListAdapter;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.exception.JavaRosaException;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.logic.HierarchyElement;
 
-import java.util.ArrayList;
-
 import timber.log.Timber;
 
 public class EditFormHierarchyActivity extends FormHierarchyActivity {
@@ -43,22 +37,10 @@ public class EditFormHierarchyActivity extends FormHierarchyActivity {
 
         switch (element.getType()) {
             case EXPANDED:
-                element.setType(COLLAPSED);
-                ArrayList<HierarchyElement> children = element.getChildren();
-                for (int i = 0; i < children.size(); i++) {
-                    formList.remove(position + 1);
-                }
-                element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_minimized));
+                collapseElement(element);
                 break;
             case COLLAPSED:
-                element.setType(EXPANDED);
-                ArrayList<HierarchyElement> children1 = element.getChildren();
-                for (int i = 0; i < children1.size(); i++) {
-                    Timber.i("adding child: %s", children1.get(i).getFormIndex());
-                    formList.add(position + 1 + i, children1.get(i));
-
-                }
-                element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_maximized));
+                expandElement(element);
                 break;
             case QUESTION:
                 Collect.getInstance().getFormController().jumpToIndex(index);
@@ -81,20 +63,18 @@ public class EditFormHierarchyActivity extends FormHierarchyActivity {
                 return;
         }
 
-        recyclerView.setAdapter(new HierarchyListAdapter(formList, this::onElementClick));
         ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
     }
 
     @Override
-    public boolean onKeyDown(int keyCode, KeyEvent event) {
-        switch (keyCode) {
-            case KeyEvent.KEYCODE_BACK:
-                FormController fc = Collect.getInstance().getFormController();
-                if (fc != null) {
-                    fc.getTimerLogger().exitView();
-                    fc.jumpToIndex(startIndex);
-                }
-        }
-        return super.onKeyDown(keyCode, event);
+    public void onBackPressed() {
+        navigateWhenStopped(() -> {
+            FormController fc = Collect.getInstance().getFormController();
+            if (fc != null) {
+                fc.getTimerLogger().exitView();
+                fc.jumpToIndex(startIndex);
+            }
+            finish();
+        });
     }
 }
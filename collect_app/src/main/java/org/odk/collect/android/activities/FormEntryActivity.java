@@ -734,25 +734,14 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
                  * from Android 1.6) we want to handle images the audio and video
                  */
                 // The intent is empty, but we know we saved the image to the temp
-                // file
-                ImageConverter.execute(Collect.TMPFILE_PATH, getWidgetWaitingForBinaryData(), this);
-                File fi = new File(Collect.TMPFILE_PATH);
-
-                String instanceFolder = formController.getInstanceFile()
-                        .getParent();
-                String s = instanceFolder + File.separator + System.currentTimeMillis() + ".jpg";
-
-                File nf = new File(s);
-                if (!fi.renameTo(nf)) {
-                    Timber.e("Failed to rename %s", fi.getAbsolutePath());
-                } else {
-                    Timber.i("Renamed %s to %s", fi.getAbsolutePath(), nf.getAbsolutePath());
-                }
+                // file. Large images take a while to convert so it's done in the background,
+                // behind a progress dialog so that the form can't be left until it's set.
+                ProgressDialogFragment.newInstance(getString(R.string.please_wait))
+                        .show(getSupportFragmentManager(), ProgressDialogFragment.COLLECT_PROGRESS_DIALOG_TAG);
 
-                if (getCurrentViewIfODKView() != null) {
-                    getCurrentViewIfODKView().setBinaryData(nf);
-                }
-                saveAnswersForCurrentScreen(DO_NOT_EVALUATE_CONSTRAINTS);
+                mediaLoadingFragment.beginImageConversionTask(Collect.TMPFILE_PATH,
+                        formController.getInstanceFile().getParent(),
+                        ImageConverter.getMaxPixels(getWidgetWaitingForBinaryData(), this));
                 break;
             case RequestCodes.ALIGNED_IMAGE:
                 /*
@@ -762,11 +751,11 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
                  */
                 String path = intent
                         .getStringExtra(android.provider.MediaStore.EXTRA_OUTPUT);
-                fi = new File(path);
-                instanceFolder = formController.getInstanceFile().getParent();
-                s = instanceFolder + File.separator + System.currentTimeMillis() + ".jpg";
+                File fi = new File(path);
+                String instanceFolder = formController.getInstanceFile().getParent();
+                String s = instanceFolder + File.separator + System.currentTimeMillis() + ".jpg";
 
-                nf = new File(s);
+                File nf = new File(s);
                 if (!fi.renameTo(nf)) {
                     Timber.e("Failed to rename %s", fi.getAbsolutePath());
                 } else {
@@ -16,6 +16,7 @@ package org.odk.collect.android.activities;
 
 import android.app.AlertDialog;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.DividerItemDecoration;
@@ -40,6 +41,7 @@ import org.odk.collect.android.logic.HierarchyElement;
 import org.odk.collect.android.utilities.FormEntryPromptUtils;
 import org.odk.collect.android.views.ODKView;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,7 +54,7 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
     protected static final int COLLAPSED = 3;
     protected static final int QUESTION = 4;
 
-    List<HierarchyElement> formList;
+    List<HierarchyElement> formList = new ArrayList<>();
     TextView path;
 
     FormIndex startIndex;
@@ -61,6 +63,12 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
     protected Button jumpBeginningButton;
     protected Button jumpEndButton;
     protected RecyclerView recyclerView;
+    private TextView emptyView;
+    private HierarchyListAdapter adapter;
+    private HierarchyLoadingTask hierarchyLoadingTask;
+    // what to do once the running task has stopped, it reads the form in the background
+    private Runnable pendingNavigation;
+    private boolean scrolledToStartIndex;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -72,7 +80,7 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
 
-        TextView emptyView = findViewById(android.R.id.empty);
+        emptyView = findViewById(android.R.id.empty);
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
@@ -103,13 +111,7 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
         jumpBeginningButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                FormController fc = Collect.getInstance().getFormController();
-                if (fc != null) {
-                    fc.getTimerLogger().exitView();
-                    fc.jumpToIndex(FormIndex.createBeginningOfFormIndex());
-                }
-                setResult(RESULT_OK);
-                finish();
+                jumpAndFinish(FormIndex.createBeginningOfFormIndex());
             }
         });
 
@@ -117,32 +119,44 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
         jumpEndButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                FormController fc = Collect.getInstance().getFormController();
-                if (fc != null) {
-                    fc.getTimerLogger().exitView();
-                    fc.jumpToIndex(FormIndex.createEndOfFormIndex());
-                }
-                setResult(RESULT_OK);
-                finish();
+                jumpAndFinish(FormIndex.createEndOfFormIndex());
             }
         });
 
         refreshView();
+    }
 
-        // Kinda slow, but works. This scrolls to the last question the user was looking at.
-        if (recyclerView != null && recyclerView.getAdapter() != null && recyclerView.getAdapter().getItemCount() > 0) {
-            emptyView.setVisibility(View.GONE);
-            recyclerView.post(() -> {
-                int position = 0;
-                for (HierarchyElement hierarchyElement : formList) {
-                    if (shouldScrollToTheGivenIndex(hierarchyElement.getFormIndex(), formController)) {
-                        position = formList.indexOf(hierarchyElement);
-                        break;
-                    }
-                }
-                ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
-            });
+    @Override
+    protected void onDestroy() {
+        pendingNavigation = null;
+        if (hierarchyLoadingTask != null) {
+            hierarchyLoadingTask.cancel(false);
         }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onBackPressed() {
+        navigateWhenStopped(() -> super.onBackPressed());
+    }
+
+    /**
+     * Scrolls to the last question the user was looking at, once the first level is shown.
+     */
+    private void scrollToStartIndex() {
+        FormController formController = Collect.getInstance().getFormController();
+        if (formController == null || formList.isEmpty()) {
+            return;
+        }
+
+        int position = 0;
+        for (int i = 0; i < formList.size(); i++) {
+            if (shouldScrollToTheGivenIndex(formList.get(i).getFormIndex(), formController)) {
+                position = i;
+                break;
+            }
+        }
+        ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
     }
 
     private boolean shouldScrollToTheGivenIndex(FormIndex formIndex, FormController formController) {
@@ -151,14 +165,61 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
     }
 
     protected void goUpLevel() {
-        Collect.getInstance().getFormController().stepToOuterScreenEvent();
+        navigateWhenStopped(() -> {
+            Collect.getInstance().getFormController().stepToOuterScreenEvent();
 
-        refreshView();
+            refreshView();
+        });
+    }
+
+    protected void jumpAndFinish(FormIndex index) {
+        navigateWhenStopped(() -> {
+            FormController fc = Collect.getInstance().getFormController();
+            if (fc != null) {
+                fc.getTimerLogger().exitView();
+                fc.jumpToIndex(index);
+            }
+            setResult(RESULT_OK);
+            finish();
+        });
     }
 
-    private String getCurrentPath() {
+    /**
+     * Runs something that moves the current index once no task is reading the form in the
+     * background, stopping the running one first. The tasks read the form through the shared
+     * FormController, so it must not be moved or changed while they run.
+     */
+    protected void navigateWhenStopped(Runnable navigation) {
+        if (hierarchyLoadingTask == null) {
+            navigation.run();
+        } else {
+            pendingNavigation = navigation;
+            hierarchyLoadingTask.cancel(false);
+        }
+    }
+
+    /**
+     * @return whether a task is reading the form in the background, in which case the elements
+     * that are shown can't be acted on
+     */
+    protected boolean isLoading() {
+        return hierarchyLoadingTask != null;
+    }
+
+    private void onLoadingStopped(HierarchyLoadingTask task) {
+        if (task != hierarchyLoadingTask) {
+            return;
+        }
+        hierarchyLoadingTask = null;
+        if (pendingNavigation != null) {
+            Runnable navigation = pendingNavigation;
+            pendingNavigation = null;
+            navigation.run();
+        }
+    }
+
+    private String getCurrentPath(FormIndex index) {
         FormController formController = Collect.getInstance().getFormController();
-        FormIndex index = formController.getFormIndex();
         // move to enclosing group...
         index = formController.stepIndexOut(index);
 
@@ -170,6 +231,10 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
         return ODKView.getGroupsPath(groups.toArray(new FormEntryCaption[groups.size()]));
     }
 
+    /**
+     * Shows the level of the hierarchy that contains the current index. The level is built in the
+     * background, stepping over the repeats in it, so the current index isn't moved.
+     */
     public void refreshView() {
         try {
             FormController formController = Collect.getInstance().getFormController();
@@ -177,17 +242,15 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
             currentIndex = formController.getFormIndex();
 
             // If we're not at the first level, we're inside a repeated group so we want to only
-            // display
-            // everything enclosed within that group.
+            // display everything enclosed within that group.
             String contextGroupRef = "";
-            formList = new ArrayList<>();
-
-            // If we're currently at a repeat node, record the name of the node and step to the next
-            // node to display.
-            if (formController.getEvent() == FormEntryController.EVENT_REPEAT) {
-                contextGroupRef =
-                        formController.getFormIndex().getReference().toString(true);
-                formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
+            FormIndex firstIndex;
+
+            // If we're currently at a repeat node, record the name of the node and start from the
+            // next node to display.
+            if (formController.getEvent(currentIndex) == FormEntryController.EVENT_REPEAT) {
+                contextGroupRef = currentIndex.getReference().toString(true);
+                firstIndex = formController.getNextRelevantIndex(currentIndex, true);
             } else {
                 FormIndex startTest = formController.stepIndexOut(currentIndex);
                 // If we have a 'group' tag, we want to step back until we hit a repeat or the
@@ -196,154 +259,222 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
                         && formController.getEvent(startTest) == FormEntryController.EVENT_GROUP) {
                     startTest = formController.stepIndexOut(startTest);
                 }
-                if (startTest == null) {
-                    // check to see if the question is at the first level of the hierarchy. If it
-                    // is,
-                    // display the root level from the beginning.
-                    formController.jumpToIndex(FormIndex
-                            .createBeginningOfFormIndex());
-                } else {
-                    // otherwise we're at a repeated group
-                    formController.jumpToIndex(startTest);
-                }
+
+                // If the question is at the first level of the hierarchy, display the root level
+                // from the beginning. Otherwise we're at a repeated group.
+                firstIndex = startTest == null ? FormIndex.createBeginningOfFormIndex() : startTest;
 
                 // now test again for repeat. This should be true at this point or we're at the
                 // beginning
-                if (formController.getEvent() == FormEntryController.EVENT_REPEAT) {
-                    contextGroupRef =
-                            formController.getFormIndex().getReference().toString(true);
-                    formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
+                if (formController.getEvent(firstIndex) == FormEntryController.EVENT_REPEAT) {
+                    contextGroupRef = firstIndex.getReference().toString(true);
+                    firstIndex = formController.getNextRelevantIndex(firstIndex, true);
                 }
             }
 
-            int event = formController.getEvent();
-            if (event == FormEntryController.EVENT_BEGINNING_OF_FORM) {
+            if (formController.getEvent(firstIndex) == FormEntryController.EVENT_BEGINNING_OF_FORM) {
                 // The beginning of form has no valid prompt to display.
-                formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
-                contextGroupRef =
-                        formController.getFormIndex().getReference().getParentRef().toString(true);
+                firstIndex = formController.getNextRelevantIndex(firstIndex, true);
+                if (firstIndex.isInForm()) {
+                    contextGroupRef = firstIndex.getReference().getParentRef().toString(true);
+                }
                 path.setVisibility(View.GONE);
                 jumpPreviousButton.setEnabled(false);
             } else {
                 path.setVisibility(View.VISIBLE);
-                path.setText(getCurrentPath());
+                path.setText(getCurrentPath(firstIndex));
                 jumpPreviousButton.setEnabled(true);
             }
 
-            // Refresh the current event in case we did step forward.
-            event = formController.getEvent();
-
-            // Big change from prior implementation:
-            //
-            // The ref strings now include the instance number designations
-            // i.e., [0], [1], etc. of the repeat groups (and also [1] for
-            // non-repeat elements).
-            //
-            // The contextGroupRef is now also valid for the top-level form.
-            //
-            // The repeatGroupRef is null if we are not skipping a repeat
-            // section.
-            //
-            String repeatGroupRef = null;
-
-            event_search:
-            while (event != FormEntryController.EVENT_END_OF_FORM) {
-
-                // get the ref to this element
-                String currentRef = formController.getFormIndex().getReference().toString(true);
-
-                // retrieve the current group
-                String curGroup = (repeatGroupRef == null) ? contextGroupRef : repeatGroupRef;
-
-                if (!currentRef.startsWith(curGroup)) {
-                    // We have left the current group
-                    if (repeatGroupRef == null) {
-                        // We are done.
-                        break;
-                    } else {
-                        // exit the inner repeat group
-                        repeatGroupRef = null;
-                    }
-                }
+            if (hierarchyLoadingTask != null) {
+                // refreshView is meant to be called through navigateWhenStopped
+                hierarchyLoadingTask.cancel(false);
+            }
+            hierarchyLoadingTask = new HierarchyLoadingTask(this, firstIndex, contextGroupRef);
+            hierarchyLoadingTask.execute();
+        } catch (Exception e) {
+            Timber.e(e);
+            createErrorDialog(e.getMessage());
+        }
+    }
 
-                if (repeatGroupRef != null) {
-                    // We're in a repeat group within the one we want to list
-                    // skip this question/group/repeat and move to the next index.
-                    event =
-                            formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
-                    continue;
-                }
+    private void onHierarchyLoaded(HierarchyLoadingTask task, List<HierarchyElement> elements, Exception error) {
+        if (task != hierarchyLoadingTask) {
+            return;
+        }
+        onLoadingStopped(task);
+        if (error != null) {
+            createErrorDialog(error.getMessage());
+            return;
+        }
 
-                switch (event) {
-                    case FormEntryController.EVENT_QUESTION:
-
-                        FormEntryPrompt fp = formController.getQuestionPrompt();
-                        String label = getLabel(fp);
-                        if (!fp.isReadOnly() || (label != null && label.length() > 0)) {
-                            // show the question if it is an editable field.
-                            // or if it is read-only and the label is not blank.
-                            String answerDisplay = FormEntryPromptUtils.getAnswerText(fp, this, formController);
-                            formList.add(
-                                    new HierarchyElement(FormEntryPromptUtils.markQuestionIfIsRequired(label, fp.isRequired()), answerDisplay, null,
-                                            QUESTION, fp.getIndex()));
-                        }
-                        break;
-                    case FormEntryController.EVENT_GROUP:
-                        // ignore group events
-                        break;
-                    case FormEntryController.EVENT_PROMPT_NEW_REPEAT:
-                        // this would display the 'add new repeat' dialog
-                        // ignore it.
-                        break;
-                    case FormEntryController.EVENT_REPEAT:
-                        FormEntryCaption fc = formController.getCaptionPrompt();
-                        // push this repeat onto the stack.
-                        repeatGroupRef = currentRef;
-                        // Because of the guard conditions above, we will skip
-                        // everything until we exit this repeat.
-                        //
-                        // Note that currentRef includes the multiplicity of the
-                        // repeat (e.g., [0], [1], ...), so every repeat will be
-                        // detected as different and reach this case statement.
-                        // Only the [0] emits the repeat header.
-                        // Every one displays the descend-into action element.
-
-                        if (fc.getMultiplicity() == 0) {
-                            // Display the repeat header for the group.
-                            HierarchyElement group =
-                                    new HierarchyElement(getLabel(fc), null, ContextCompat
-                                            .getDrawable(this, R.drawable.expander_ic_minimized),
-                                            COLLAPSED, fc.getIndex());
-                            formList.add(group);
-                        }
-                        String repeatLabel = getLabel(fc);
-                        if (fc.getFormElement().getChildren().size() == 1 && fc.getFormElement().getChild(0) instanceof GroupDef) {
-                            formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
-                            FormEntryCaption fc2 = formController.getCaptionPrompt();
-                            if (getLabel(fc2) != null) {
-                                repeatLabel = getLabel(fc2);
-                            }
-                        }
-                        repeatLabel += " (" + (fc.getMultiplicity() + 1) + ")\u200E";
-                        // Add this group name to the drop down list for this repeating group.
-                        HierarchyElement h = formList.get(formList.size() - 1);
-                        h.addChild(new HierarchyElement(repeatLabel, null, null, CHILD, fc.getIndex()));
-                        break;
+        formList = elements;
+        adapter = new HierarchyListAdapter(formList, element -> {
+            if (!isLoading()) {
+                onElementClick(element);
+            }
+        });
+        recyclerView.setAdapter(adapter);
+        emptyView.setVisibility(formList.isEmpty() ? View.VISIBLE : View.GONE);
+
+        if (!scrolledToStartIndex) {
+            scrolledToStartIndex = true;
+            scrollToStartIndex();
+        }
+    }
+
+    /**
+     * Builds the elements of one level of the hierarchy, starting from the given index. Repeats
+     * are added as a single collapsed element whose instances are only listed once it's expanded.
+     *
+     * Runs in the background and only reads the form, it doesn't move the current index.
+     */
+    private List<HierarchyElement> buildHierarchyLevel(FormController formController,
+                                                       FormIndex index, String contextGroupRef,
+                                                       AsyncTask<?, ?, ?> task) {
+        List<HierarchyElement> elements = new ArrayList<>();
+
+        // The ref strings include the instance number designations i.e., [0], [1], etc. of the
+        // repeat groups (and also [1] for non-repeat elements), so every repeat instance is
+        // detected as different.
+        while (index.isInForm() && !task.isCancelled()) {
+            int event = formController.getEvent(index);
+            if (event == FormEntryController.EVENT_END_OF_FORM) {
+                break;
+            }
+
+            if (!index.getReference().toString(true).startsWith(contextGroupRef)) {
+                // We have left the current group. We are done.
+                break;
+            }
+
+            boolean descend = true;
+            switch (event) {
+                case FormEntryController.EVENT_QUESTION:
+                    FormEntryPrompt fp = formController.getQuestionPrompt(index);
+                    String label = getLabel(fp);
+                    if (!fp.isReadOnly() || (label != null && label.length() > 0)) {
+                        // show the question if it is an editable field.
+                        // or if it is read-only and the label is not blank.
+                        String answerDisplay = FormEntryPromptUtils.getAnswerText(fp, this, formController);
+                        elements.add(
+                                new HierarchyElement(FormEntryPromptUtils.markQuestionIfIsRequired(label, fp.isRequired()), answerDisplay, null,
+                                        QUESTION, fp.getIndex()));
+                    }
+                    break;
+                case FormEntryController.EVENT_GROUP:
+                    // ignore group events
+                    break;
+                case FormEntryController.EVENT_PROMPT_NEW_REPEAT:
+                    // this would display the 'add new repeat' dialog
+                    // ignore it.
+                    break;
+                case FormEntryController.EVENT_REPEAT:
+                    FormEntryCaption fc = formController.getCaptionPrompt(index);
+                    if (fc.getMultiplicity() == 0) {
+                        // Display the repeat header for the group. Its instances are only
+                        // listed once it's expanded.
+                        elements.add(new HierarchyElement(getLabel(fc), null, ContextCompat
+                                .getDrawable(this, R.drawable.expander_ic_minimized),
+                                COLLAPSED, fc.getIndex()));
+                    }
+                    // skip the contents of the repeat, they're shown when going into it
+                    descend = false;
+                    break;
+            }
+            index = formController.getNextRelevantIndex(index, descend);
+        }
+        return elements;
+    }
+
+    /**
+     * Builds the elements of the instances of the repeat whose header is at the given index.
+     *
+     * Runs in the background like {@link #buildHierarchyLevel}.
+     */
+    private List<HierarchyElement> buildRepeatInstances(FormController formController, FormIndex index,
+                                                        AsyncTask<?, ?, ?> task) {
+        List<HierarchyElement> instances = new ArrayList<>();
+        RepeatMatcher repeat = new RepeatMatcher(index);
+        while (index.isInForm() && !task.isCancelled()
+                && formController.getEvent(index) == FormEntryController.EVENT_REPEAT
+                && repeat.matches(index)) {
+            FormEntryCaption fc = formController.getCaptionPrompt(index);
+            String repeatLabel = getLabel(fc);
+            if (fc.getFormElement().getChildren().size() == 1 && fc.getFormElement().getChild(0) instanceof GroupDef) {
+                FormIndex groupIndex = formController.getNextRelevantIndex(index, true);
+                if (groupIndex.isInForm()) {
+                    FormEntryCaption fc2 = formController.getCaptionPrompt(groupIndex);
+                    if (getLabel(fc2) != null) {
+                        repeatLabel = getLabel(fc2);
+                    }
                 }
-                event =
-                        formController.stepToNextEvent(FormController.STEP_INTO_GROUP);
             }
+            repeatLabel += " (" + (fc.getMultiplicity() + 1) + ")\u200E";
+            instances.add(new HierarchyElement(repeatLabel, null, null, CHILD, fc.getIndex()));
 
-            recyclerView.setAdapter(new HierarchyListAdapter(formList, this::onElementClick));
+            index = formController.getNextRelevantIndex(index, false);
+        }
+        return instances;
+    }
 
-            // set the controller back to the current index in case the user hits 'back'
-            formController.jumpToIndex(currentIndex);
-        } catch (Exception e) {
-            Timber.e(e);
-            createErrorDialog(e.getMessage());
+    /**
+     * Shows the instances of a repeat under its header. They are listed in the background the
+     * first time the repeat is expanded.
+     */
+    protected void expandElement(HierarchyElement element) {
+        if (!element.getChildren().isEmpty()) {
+            showRepeatInstances(element);
+        } else if (!isLoading()) {
+            hierarchyLoadingTask = new HierarchyLoadingTask(this, element);
+            hierarchyLoadingTask.execute();
         }
     }
 
+    private void onRepeatInstancesLoaded(HierarchyLoadingTask task, HierarchyElement repeatHeader,
+                                         List<HierarchyElement> instances, Exception error) {
+        if (task != hierarchyLoadingTask) {
+            return;
+        }
+        onLoadingStopped(task);
+        if (error != null) {
+            createErrorDialog(error.getMessage());
+            return;
+        }
+
+        for (HierarchyElement instance : instances) {
+            repeatHeader.addChild(instance);
+        }
+        if (formList.contains(repeatHeader)) {
+            showRepeatInstances(repeatHeader);
+        }
+    }
+
+    private void showRepeatInstances(HierarchyElement element) {
+        int position = formList.indexOf(element);
+        element.setType(EXPANDED);
+        List<HierarchyElement> children = element.getChildren();
+        formList.addAll(position + 1, children);
+        element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_maximized));
+
+        adapter.notifyItemChanged(position);
+        adapter.notifyItemRangeInserted(position + 1, children.size());
+    }
+
+    /**
+     * Hides the instances of a repeat shown under its header.
+     */
+    protected void collapseElement(HierarchyElement element) {
+        int position = formList.indexOf(element);
+        element.setType(COLLAPSED);
+        int childCount = element.getChildren().size();
+        formList.subList(position + 1, position + 1 + childCount).clear();
+        element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_minimized));
+
+        adapter.notifyItemChanged(position);
+        adapter.notifyItemRangeRemoved(position + 1, childCount);
+    }
+
     protected abstract void onElementClick(HierarchyElement element);
 
     /**
@@ -375,4 +506,84 @@ public abstract class FormHierarchyActivity extends CollectAbstractActivity {
         return formEntryCaption.getShortText() != null && !formEntryCaption.getShortText().isEmpty()
                 ? formEntryCaption.getShortText() : formEntryCaption.getLongText();
     }
+
+    /**
+     * Matches the indices of the instances of the same repeat.
+     */
+    private static class RepeatMatcher {
+        private final String genericRef;
+
+        RepeatMatcher(FormIndex repeatIndex) {
+            genericRef = repeatIndex.getReference().genericize().toString(false);
+        }
+
+        boolean matches(FormIndex index) {
+            return index.getReference().genericize().toString(false).equals(genericRef);
+        }
+    }
+
+    /**
+     * Reads either a level of the hierarchy or the instances of a repeat.
+     */
+    private static class HierarchyLoadingTask extends AsyncTask<Void, Void, List<HierarchyElement>> {
+        private final WeakReference<FormHierarchyActivity> activity;
+        private final FormIndex firstIndex;
+        private final String contextGroupRef;
+        private final HierarchyElement repeatHeader;
+        private Exception error;
+
+        HierarchyLoadingTask(FormHierarchyActivity activity, FormIndex firstIndex, String contextGroupRef) {
+            this.activity = new WeakReference<>(activity);
+            this.firstIndex = firstIndex;
+            this.contextGroupRef = contextGroupRef;
+            this.repeatHeader = null;
+        }
+
+        HierarchyLoadingTask(FormHierarchyActivity activity, HierarchyElement repeatHeader) {
+            this.activity = new WeakReference<>(activity);
+            this.firstIndex = repeatHeader.getFormIndex();
+            this.contextGroupRef = null;
+            this.repeatHeader = repeatHeader;
+        }
+
+        @Override
+        protected List<HierarchyElement> doInBackground(Void... voids) {
+            FormHierarchyActivity activity = this.activity.get();
+            FormController formController = Collect.getInstance().getFormController();
+            if (activity == null || formController == null) {
+                return new ArrayList<>();
+            }
+
+            try {
+                return repeatHeader == null
+                        ? activity.buildHierarchyLevel(formController, firstIndex, contextGroupRef, this)
+                        : activity.buildRepeatInstances(formController, firstIndex, this);
+            } catch (Exception e) {
+                Timber.e(e);
+                error = e;
+                return new ArrayList<>();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<HierarchyElement> elements) {
+            FormHierarchyActivity activity = this.activity.get();
+            if (activity == null || activity.isFinishing()) {
+                return;
+            }
+            if (repeatHeader == null) {
+                activity.onHierarchyLoaded(this, elements, error);
+            } else {
+                activity.onRepeatInstancesLoaded(this, repeatHeader, elements, error);
+            }
+        }
+
+        @Override
+        protected void onCancelled(List<HierarchyElement> elements) {
+            FormHierarchyActivity activity = this.activity.get();
+            if (activity != null) {
+                activity.onLoadingStopped(this);
+            }
+        }
+    }
 }
@@ -148,6 +148,14 @@ public class GeoPointMapActivity extends CollectAbstractActivity implements OnMa
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (helper != null) {
+            helper.onDestroy();
+        }
+        super.onDestroy();
+    }
+
     public void returnLocation() {
         Intent i = new Intent();
         if (setClear || (readOnly && latLng == null)) {
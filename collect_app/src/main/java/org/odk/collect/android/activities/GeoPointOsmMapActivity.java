@@ -317,6 +317,14 @@ public class GeoPointOsmMapActivity extends CollectAbstractActivity implements L
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (helper != null) {
+            helper.onDestroy();
+        }
+        super.onDestroy();
+    }
+
     private void upMyLocationOverlayLayers() {
         showLocationButton.setClickable(marker != null);
 
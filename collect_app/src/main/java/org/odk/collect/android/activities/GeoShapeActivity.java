@@ -101,6 +101,13 @@ public class GeoShapeActivity extends CollectAbstractActivity implements IRegist
         super.onStop();
     }
 
+    @Override protected void onDestroy() {
+        if (helper != null) {
+            helper.onDestroy();
+        }
+        super.onDestroy();
+    }
+
     @Override protected void onSaveInstanceState(Bundle state) {
         super.onSaveInstanceState(state);
         state.putParcelable(MAP_CENTER_KEY, map.getCenter());
@@ -164,6 +164,9 @@ public class GeoTraceActivity extends CollectAbstractActivity implements IRegist
         if (schedulerHandler != null && !schedulerHandler.isCancelled()) {
             schedulerHandler.cancel(true);
         }
+        if (helper != null) {
+            helper.onDestroy();
+        }
         super.onDestroy();
     }
 
@@ -15,20 +15,16 @@
 package org.odk.collect.android.activities;
 
 import android.os.Bundle;
-import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.view.View;
 import android.widget.Button;
 
 import org.javarosa.core.model.FormIndex;
 import org.odk.collect.android.R;
-import org.odk.collect.android.adapters.HierarchyListAdapter;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.exception.JavaRosaException;
 import org.odk.collect.android.logic.HierarchyElement;
 
-import java.util.ArrayList;
-
 import timber.log.Timber;
 
 public class ViewFormHierarchyActivity extends FormHierarchyActivity {
@@ -49,8 +45,10 @@ public class ViewFormHierarchyActivity extends FormHierarchyActivity {
         exitButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                setResult(RESULT_OK);
-                finish();
+                navigateWhenStopped(() -> {
+                    setResult(RESULT_OK);
+                    finish();
+                });
             }
         });
 
@@ -71,22 +69,10 @@ public class ViewFormHierarchyActivity extends FormHierarchyActivity {
 
         switch (element.getType()) {
             case EXPANDED:
-                element.setType(COLLAPSED);
-                ArrayList<HierarchyElement> children = element.getChildren();
-                for (int i = 0; i < children.size(); i++) {
-                    formList.remove(position + 1);
-                }
-                element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_minimized));
+                collapseElement(element);
                 break;
             case COLLAPSED:
-                element.setType(EXPANDED);
-                ArrayList<HierarchyElement> children1 = element.getChildren();
-                for (int i = 0; i < children1.size(); i++) {
-                    Timber.i("adding child: %s", children1.get(i).getFormIndex());
-                    formList.add(position + 1 + i, children1.get(i));
-
-                }
-                element.setIcon(ContextCompat.getDrawable(this, R.drawable.expander_ic_maximized));
+                expandElement(element);
                 break;
             case QUESTION:
                 Collect.getInstance().getFormController().jumpToIndex(index);
@@ -108,7 +94,6 @@ public class ViewFormHierarchyActivity extends FormHierarchyActivity {
                 return;
         }
 
-        recyclerView.setAdapter(new HierarchyListAdapter(formList, this::onElementClick));
         ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
     }
 }
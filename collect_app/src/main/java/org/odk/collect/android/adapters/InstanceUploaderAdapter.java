@@ -21,6 +21,7 @@ import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.tasks.sms.SmsService;
 import org.odk.collect.android.tasks.sms.contracts.SmsSubmissionManagerContract;
+import org.odk.collect.android.tasks.sms.models.SmsProgress;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 import org.odk.collect.android.utilities.ThemeUtils;
 import org.odk.collect.android.views.ProgressBar;
@@ -88,11 +89,12 @@ public class InstanceUploaderAdapter extends CursorAdapter {
 
         long instanceId = cursor.getLong(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns._ID));
 
-        SmsSubmission model = submissionManager.getSubmissionModel(String.valueOf(instanceId));
+        SmsSubmission model = submissionManager.getSubmissionDetails(String.valueOf(instanceId));
+        SmsProgress progress = model != null ? submissionManager.getSubmissionProgress(String.valueOf(instanceId)) : null;
 
         boolean smsTransportEnabled = ((String) GeneralSharedPreferences.getInstance().get(KEY_SUBMISSION_TRANSPORT_TYPE)).equalsIgnoreCase(context.getString(R.string.transport_type_value_sms));
 
-        boolean isSmsSubmission = model != null && smsTransportEnabled;
+        boolean isSmsSubmission = progress != null && smsTransportEnabled;
 
         String status = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.STATUS));
 
@@ -113,7 +115,7 @@ public class InstanceUploaderAdapter extends CursorAdapter {
         }
 
         if (isSmsSubmission) {
-            viewHolder.progressBar.setProgressPercent((int) model.getCompletion().getPercentage(), false);
+            viewHolder.progressBar.setProgressPercent((int) progress.getPercentage(), false);
 
             int smsStatus = submissionManager.checkNextMessageResultCode(String.valueOf(instanceId));
 
@@ -122,7 +124,7 @@ public class InstanceUploaderAdapter extends CursorAdapter {
             SmsRxEvent currentStatus = new SmsRxEvent();
             currentStatus.setResultCode(smsStatus);
             currentStatus.setLastUpdated(model.getLastUpdated());
-            currentStatus.setProgress(model.getCompletion());
+            currentStatus.setProgress(progress);
 
             setDisplaySubTextView(currentStatus, viewHolder);
 
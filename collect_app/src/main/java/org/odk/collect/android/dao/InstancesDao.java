@@ -16,9 +16,13 @@
 
 package org.odk.collect.android.dao;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.support.v4.content.CursorLoader;
 
 import org.odk.collect.android.application.Collect;
@@ -29,6 +33,8 @@ import org.odk.collect.android.utilities.ApplicationConstants;
 import java.util.ArrayList;
 import java.util.List;
 
+import timber.log.Timber;
+
 /**
  * This class is used to encapsulate all access to the {@link org.odk.collect.android.provider.InstanceProvider#DATABASE_NAME}
  * For more information about this pattern go to https://en.wikipedia.org/wiki/Data_access_object
@@ -292,6 +298,53 @@ public class InstancesDao {
         }
     }
 
+    /**
+     * Removes the instances with the given file paths and saves the new ones in a single
+     * transaction.
+     *
+     * @return the URIs of the saved instances in the order they were given, or an empty list if
+     * nothing could be changed
+     */
+    public List<Uri> replaceInstances(List<String> filePathsToRemove, List<ContentValues> instancesToSave) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int start = 0; start < filePathsToRemove.size(); start += ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER) {
+            int end = Math.min(filePathsToRemove.size(), start + ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER);
+            StringBuilder selection = new StringBuilder(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH + " IN (");
+            for (int i = start; i < end; i++) {
+                selection.append(i > start ? ",?" : "?");
+            }
+            selection.append(')');
+
+            operations.add(ContentProviderOperation.newDelete(InstanceProviderAPI.InstanceColumns.CONTENT_URI)
+                    .withSelection(selection.toString(),
+                            filePathsToRemove.subList(start, end).toArray(new String[end - start]))
+                    .build());
+        }
+
+        int firstInsert = operations.size();
+        for (ContentValues values : instancesToSave) {
+            operations.add(ContentProviderOperation.newInsert(InstanceProviderAPI.InstanceColumns.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+
+        List<Uri> uris = new ArrayList<>();
+        if (operations.isEmpty()) {
+            return uris;
+        }
+
+        try {
+            ContentProviderResult[] results = Collect.getInstance().getContentResolver()
+                    .applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+            for (int i = firstInsert; i < results.length; i++) {
+                uris.add(results[i].uri);
+            }
+        } catch (RemoteException | OperationApplicationException e) {
+            Timber.e(e, "Unable to update the instances");
+        }
+        return uris;
+    }
+
     /**
      * Returns all instances available through the cursor and closes the cursor.
      */
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.utilities.FileUtils;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * Remembers the MD5 hash of files together with their size and last modified time so that a
+ * file that hasn't changed since it was last hashed doesn't have to be read again.
+ *
+ * A file modified within {@link #RACY_INTERVAL} of being hashed is not remembered: it could be
+ * modified again without its size or timestamp changing, since some file systems only keep
+ * timestamps to the second or two.
+ *
+ * The hashes of zip archives in form media folders are also kept after the archives have been
+ * extracted and deleted, so that the media of a form can still be compared with its manifest.
+ */
+public final class FileHashCache {
+
+    private static final String DATABASE_NAME = "file_hashes.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_NAME = "file_hashes";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_MD5 = "md5";
+
+    private static final String EXTRACTED_ARCHIVES_TABLE_NAME = "extracted_archives";
+
+    private static final long RACY_INTERVAL = 3000;
+
+    private static FileHashCache instance;
+
+    private final DatabaseHelper dbHelper;
+
+    @VisibleForTesting
+    FileHashCache() {
+        dbHelper = new DatabaseHelper();
+    }
+
+    public static synchronized FileHashCache getInstance() {
+        if (instance == null) {
+            instance = new FileHashCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the MD5 hash of a file, only reading it if its size or last modified time changed
+     * since it was last hashed.
+     *
+     * @return the hash, or null if the file couldn't be read
+     */
+    public String getMd5Hash(File file) {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        String md5 = getCachedMd5Hash(path, size, lastModified);
+        if (md5 != null) {
+            return md5;
+        }
+
+        md5 = FileUtils.getMd5Hash(file);
+        if (md5 != null && System.currentTimeMillis() - lastModified > RACY_INTERVAL
+                && file.lastModified() == lastModified && file.length() == size) {
+            put(path, size, lastModified, md5);
+        }
+        return md5;
+    }
+
+    /**
+     * Forgets the hash of a file, e.g. because it has been deleted.
+     */
+    public void remove(File file) {
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String[] args = {file.getAbsolutePath()};
+            db.delete(TABLE_NAME, KEY_PATH + "=?", args);
+            db.delete(EXTRACTED_ARCHIVES_TABLE_NAME, KEY_PATH + "=?", args);
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Remembers the hash of an archive that is about to be deleted once it has been extracted.
+     */
+    public void putExtractedArchive(File archive) {
+        String md5 = getMd5Hash(archive);
+        if (md5 == null) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_PATH, archive.getAbsolutePath());
+        values.put(KEY_MD5, md5);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.insertWithOnConflict(EXTRACTED_ARCHIVES_TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.delete(TABLE_NAME, KEY_PATH + "=?", new String[]{archive.getAbsolutePath()});
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Returns the hash of an archive that has been extracted and deleted, or null if there was
+     * none at that path.
+     */
+    public String getExtractedArchiveMd5Hash(File archive) {
+        Cursor c = null;
+        try {
+            c = dbHelper.getReadableDatabase().query(EXTRACTED_ARCHIVES_TABLE_NAME,
+                    new String[]{KEY_MD5}, KEY_PATH + "=?",
+                    new String[]{archive.getAbsolutePath()}, null, null, null);
+            return c.moveToFirst() ? c.getString(0) : null;
+        } catch (SQLException e) {
+            Timber.w(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private String getCachedMd5Hash(String path, long size, long lastModified) {
+        Cursor c = null;
+        try {
+            c = dbHelper.getReadableDatabase().query(TABLE_NAME, new String[]{KEY_MD5},
+                    KEY_PATH + "=? AND " + KEY_SIZE + "=? AND " + KEY_LAST_MODIFIED + "=?",
+                    new String[]{path, String.valueOf(size), String.valueOf(lastModified)},
+                    null, null, null);
+            return c.moveToFirst() ? c.getString(0) : null;
+        } catch (SQLException e) {
+            // the cache is only an optimization
+            Timber.w(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private void put(String path, long size, long lastModified, String md5) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_PATH, path);
+        values.put(KEY_SIZE, size);
+        values.put(KEY_LAST_MODIFIED, lastModified);
+        values.put(KEY_MD5, md5);
+        try {
+            dbHelper.getWritableDatabase().insertWithOnConflict(TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper() {
+            super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                    + KEY_PATH + " text primary key, "
+                    + KEY_SIZE + " integer not null, "
+                    + KEY_LAST_MODIFIED + " integer not null, "
+                    + KEY_MD5 + " text not null);");
+            createExtractedArchivesTable(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                createExtractedArchivesTable(db);
+            }
+        }
+
+        private static void createExtractedArchivesTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + EXTRACTED_ARCHIVES_TABLE_NAME + " ("
+                    + KEY_PATH + " text primary key, "
+                    + KEY_MD5 + " text not null);");
+        }
+    }
+}
@@ -11,6 +11,8 @@ import org.odk.collect.android.application.Collect;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -29,6 +31,10 @@ public class ItemsetDbAdapter {
     private static final String KEY_ITEMSET_HASH = "hash";
     private static final String KEY_PATH = "path";
 
+    private static final String KEY_LIST_NAME = "list_name";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_LABEL = "label";
+
     private static final String CREATE_ITEMSET_TABLE =
             "CREATE TABLE IF NOT EXISTS " + ITEMSET_TABLE + " (_id integer primary key autoincrement, "
                     + KEY_ITEMSET_HASH + " text, "
@@ -138,6 +144,67 @@ public class ItemsetDbAdapter {
         return true;
     }
 
+    /**
+     * Indexes the columns itemset queries filter on, which are all the columns but the id, name
+     * and labels. Each index starts with the list name since every query selects a single list.
+     */
+    public void createIndexes(String pathHash, String[] columns) {
+        List<String> filterColumns = new ArrayList<>();
+        for (String column : columns) {
+            if (!column.isEmpty() && !column.equals(KEY_ID) && !column.equals(KEY_LIST_NAME)
+                    && !column.equals(KEY_NAME) && !column.equals(KEY_LABEL)
+                    && !column.startsWith(KEY_LABEL + "::")) {
+                filterColumns.add(column);
+            }
+        }
+
+        String tableName = DATABASE_TABLE + pathHash;
+        if (filterColumns.isEmpty()) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + tableName + "_list_name ON " + tableName
+                    + " (" + KEY_LIST_NAME + ");");
+        }
+        for (int i = 0; i < filterColumns.size(); i++) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + tableName + "_filter_" + i + " ON " + tableName
+                    + " (" + KEY_LIST_NAME + ", \"" + filterColumns.get(i) + "\");");
+        }
+    }
+
+    /**
+     * Indexes the itemset table if it was created before its columns were indexed, e.g. when the
+     * csv hasn't changed since the app was updated.
+     */
+    public void ensureIndexes(String pathHash) {
+        String tableName = DATABASE_TABLE + pathHash;
+        Cursor c = db.query("sqlite_master", new String[] {"type"}, "tbl_name=?",
+                new String[] {tableName}, null, null, null);
+        boolean exists = false;
+        boolean indexed = false;
+        try {
+            while (c.moveToNext()) {
+                exists |= "table".equals(c.getString(0));
+                indexed |= "index".equals(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        if (!exists || indexed) {
+            return;
+        }
+
+        List<String> columns = new ArrayList<>();
+        c = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameColumn = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameColumn));
+            }
+        } finally {
+            c.close();
+        }
+        Timber.i("Indexing itemsets of %s", tableName);
+        createIndexes(pathHash, columns.toArray(new String[columns.size()]));
+    }
+
     public boolean tableExists(String tableName) {
         // select name from sqlite_master where type = 'table'
         String selection = "type=? and name=?";
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
+
+import org.odk.collect.android.application.Collect;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Remembers which attachments of a submission the server has already acknowledged when a large
+ * submission is sent in several posts, so that a failed upload can resume with the attachments
+ * that are left instead of starting over.
+ *
+ * Attachments are identified by name, size and last modified time, and everything recorded for
+ * an instance is forgotten when its submission file changes or the instance is deleted.
+ */
+public final class SubmissionUploadProgress {
+
+    private static final String DATABASE_NAME = "upload_progress.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_NAME = "upload_progress";
+    private static final String KEY_INSTANCE_PATH = "instance_path";
+    private static final String KEY_SUBMISSION_SIZE = "submission_size";
+    private static final String KEY_SUBMISSION_LAST_MODIFIED = "submission_last_modified";
+    private static final String KEY_FILE_NAME = "file_name";
+    private static final String KEY_FILE_SIZE = "file_size";
+    private static final String KEY_FILE_LAST_MODIFIED = "file_last_modified";
+
+    private static SubmissionUploadProgress instance;
+
+    private final DatabaseHelper dbHelper;
+
+    @VisibleForTesting
+    SubmissionUploadProgress() {
+        dbHelper = new DatabaseHelper();
+    }
+
+    public static synchronized SubmissionUploadProgress getInstance() {
+        if (instance == null) {
+            instance = new SubmissionUploadProgress();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the attachments that the server hasn't acknowledged yet for this version of the
+     * submission, in their original order.
+     */
+    public List<File> getRemainingFiles(File instanceFile, File submissionFile, List<File> files) {
+        Map<String, long[]> acknowledged = getAcknowledgedFiles(instanceFile, submissionFile);
+        if (acknowledged.isEmpty()) {
+            return files;
+        }
+
+        List<File> remainingFiles = new ArrayList<>();
+        for (File file : files) {
+            long[] sizeAndLastModified = acknowledged.get(file.getName());
+            if (sizeAndLastModified == null || sizeAndLastModified[0] != file.length()
+                    || sizeAndLastModified[1] != file.lastModified()) {
+                remainingFiles.add(file);
+            }
+        }
+        return remainingFiles;
+    }
+
+    /**
+     * Records attachments that the server acknowledged in a post marked as incomplete.
+     */
+    public void addAcknowledgedFiles(File instanceFile, File submissionFile, List<File> files) {
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (File file : files) {
+                    ContentValues values = new ContentValues();
+                    values.put(KEY_INSTANCE_PATH, instanceFile.getAbsolutePath());
+                    values.put(KEY_SUBMISSION_SIZE, submissionFile.length());
+                    values.put(KEY_SUBMISSION_LAST_MODIFIED, submissionFile.lastModified());
+                    values.put(KEY_FILE_NAME, file.getName());
+                    values.put(KEY_FILE_SIZE, file.length());
+                    values.put(KEY_FILE_LAST_MODIFIED, file.lastModified());
+                    db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            // the next attempt sends every attachment again
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Forgets the progress of an instance, e.g. because it has been fully submitted.
+     */
+    public void clear(File instanceFile) {
+        try {
+            dbHelper.getWritableDatabase().delete(TABLE_NAME, KEY_INSTANCE_PATH + "=?",
+                    new String[]{instanceFile.getAbsolutePath()});
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Forgets the progress of every instance in the given folders, e.g. because the instances
+     * have been deleted.
+     */
+    public void clearFolders(List<File> instanceDirectories) {
+        if (instanceDirectories.isEmpty()) {
+            return;
+        }
+
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (File directory : instanceDirectories) {
+                    String prefix = directory.getAbsolutePath() + File.separator;
+                    db.delete(TABLE_NAME, "substr(" + KEY_INSTANCE_PATH + ", 1, ?)=?",
+                            new String[]{String.valueOf(prefix.length()), prefix});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    private Map<String, long[]> getAcknowledgedFiles(File instanceFile, File submissionFile) {
+        Map<String, long[]> acknowledged = new HashMap<>();
+        Cursor c = null;
+        try {
+            c = dbHelper.getReadableDatabase().query(TABLE_NAME,
+                    new String[]{KEY_SUBMISSION_SIZE, KEY_SUBMISSION_LAST_MODIFIED,
+                            KEY_FILE_NAME, KEY_FILE_SIZE, KEY_FILE_LAST_MODIFIED},
+                    KEY_INSTANCE_PATH + "=?", new String[]{instanceFile.getAbsolutePath()},
+                    null, null, null);
+            while (c.moveToNext()) {
+                if (c.getLong(0) != submissionFile.length() || c.getLong(1) != submissionFile.lastModified()) {
+                    // the submission changed since those attachments were sent
+                    c.close();
+                    c = null;
+                    clear(instanceFile);
+                    return new HashMap<>();
+                }
+                acknowledged.put(c.getString(2), new long[]{c.getLong(3), c.getLong(4)});
+            }
+        } catch (SQLException e) {
+            Timber.w(e);
+            return new HashMap<>();
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return acknowledged;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper() {
+            super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                    + KEY_INSTANCE_PATH + " text not null, "
+                    + KEY_SUBMISSION_SIZE + " integer not null, "
+                    + KEY_SUBMISSION_LAST_MODIFIED + " integer not null, "
+                    + KEY_FILE_NAME + " text not null, "
+                    + KEY_FILE_SIZE + " integer not null, "
+                    + KEY_FILE_LAST_MODIFIED + " integer not null, "
+                    + "primary key (" + KEY_INSTANCE_PATH + ", " + KEY_FILE_NAME + "));");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // losing the progress only means sending some attachments again
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            onCreate(db);
+        }
+    }
+}
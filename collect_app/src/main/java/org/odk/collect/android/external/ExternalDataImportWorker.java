@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.odk.collect.android.exception.ExternalDataException;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import timber.log.Timber;
+
+/**
+ * Imports the external data csv files of a form into their databases in the background so that
+ * opening the form doesn't have to wait for them. Enqueued as soon as new media files for a form
+ * are installed.
+ */
+public class ExternalDataImportWorker extends Worker {
+    private static final String MEDIA_FOLDER_PATH = "mediaFolderPath";
+    private static final String FORM_FILE_PATH = "formFilePath";
+
+    public ExternalDataImportWorker(@NonNull Context c, @NonNull WorkerParameters parameters) {
+        super(c, parameters);
+    }
+
+    /**
+     * Requests that the external data in the given form media folder be imported, along with
+     * the search index for the columns the form searches. Imports for the same folder run one
+     * after the other so a newer download is always imported last.
+     */
+    public static void enqueue(File mediaFolder, File formFile) {
+        Data inputData = new Data.Builder()
+                .putString(MEDIA_FOLDER_PATH, mediaFolder.getAbsolutePath())
+                .putString(FORM_FILE_PATH, formFile.getAbsolutePath())
+                .build();
+        OneTimeWorkRequest importWork =
+                new OneTimeWorkRequest.Builder(ExternalDataImportWorker.class)
+                        .addTag(ExternalDataImportWorker.class.getName())
+                        .setInputData(inputData)
+                        .build();
+        WorkManager.getInstance().beginUniqueWork(getUniqueWorkName(mediaFolder),
+                ExistingWorkPolicy.APPEND, importWork).enqueue();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String mediaFolderPath = getInputData().getString(MEDIA_FOLDER_PATH);
+        if (mediaFolderPath == null) {
+            return Result.FAILURE;
+        }
+
+        File mediaFolder = new File(mediaFolderPath);
+        if (!mediaFolder.exists()) {
+            // the form was deleted in the meantime
+            return Result.SUCCESS;
+        }
+
+        String formFilePath = getInputData().getString(FORM_FILE_PATH);
+        Map<String, Set<String>> searchedColumns = formFilePath == null || !new File(formFilePath).exists()
+                ? new HashMap<String, Set<String>>()
+                : ExternalDataUtil.getSearchedColumnsByDataSet(new File(formFilePath));
+
+        try {
+            final long start = System.currentTimeMillis();
+            ExternalDataReaderImpl externalDataReader = new ExternalDataReaderImpl(null, searchedColumns);
+            if (externalDataReader.importMediaFolder(mediaFolder)) {
+                Timber.i("Imported external data in %s in %.3f seconds", mediaFolderPath,
+                        (System.currentTimeMillis() - start) / 1000F);
+            }
+            externalDataReader.indexMediaFolder(mediaFolder);
+        } catch (ExternalDataException e) {
+            // the csv is left in place so the error is reported when the form is opened. This
+            // isn't a failure of the work, which would fail the imports appended after it.
+            Timber.w(e, "Could not import external data in %s", mediaFolderPath);
+        }
+        return Result.SUCCESS;
+    }
+
+    private static String getUniqueWorkName(File mediaFolder) {
+        return ExternalDataImportWorker.class.getName() + ":" + mediaFolder.getAbsolutePath();
+    }
+}
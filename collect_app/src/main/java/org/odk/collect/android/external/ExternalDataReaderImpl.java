@@ -19,13 +19,24 @@
 package org.odk.collect.android.external;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 
 import org.apache.commons.io.FileUtils;
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.exception.ExternalDataException;
 import org.odk.collect.android.tasks.FormLoaderTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import timber.log.Timber;
 
@@ -36,12 +47,121 @@ import timber.log.Timber;
  */
 public class ExternalDataReaderImpl implements ExternalDataReader {
 
+    // imports of a media folder started at download time and when the form is opened can overlap
+    private static final Map<String, ReentrantLock> IMPORT_LOCKS = new HashMap<String, ReentrantLock>();
+    private static final long LOCK_WAIT_INTERVAL_MS = 250;
+
     private final FormLoaderTask formLoaderTask;
+    private final Map<String, Set<String>> searchedColumns;
 
-    public ExternalDataReaderImpl(FormLoaderTask formLoaderTask) {
+    /**
+     * @param formLoaderTask  the task that reports progress and can cancel the import, or null
+     *                        when importing in the background
+     * @param searchedColumns the columns the form queries with search() keyed by data set, see
+     *                        {@link ExternalDataUtil#getSearchedColumnsByDataSet(File)}. They are
+     *                        indexed as part of the import.
+     */
+    public ExternalDataReaderImpl(FormLoaderTask formLoaderTask, Map<String, Set<String>> searchedColumns) {
         this.formLoaderTask = formLoaderTask;
+        this.searchedColumns = searchedColumns;
+    }
+
+    /**
+     * Extracts the external data archives in the media folder and imports its csv files. Both
+     * happen under a lock on the folder so that imports of the same folder at download time and
+     * when the form is opened don't extract or delete the same files at the same time. Opening
+     * the form shows that it is waiting for a background import and can be cancelled meanwhile.
+     *
+     * @return whether there was anything to import
+     */
+    public boolean importMediaFolder(File mediaFolder) {
+        ReentrantLock importLock = getImportLock(mediaFolder);
+        if (!acquire(importLock)) {
+            return false;
+        }
+        try {
+            Map<String, File> externalDataMap = ExternalDataUtil.getExternalDataFilesToImport(mediaFolder);
+            if (externalDataMap.isEmpty()) {
+                return false;
+            }
+
+            publishProgress(Collect.getInstance().getString(R.string.survey_loading_reading_csv_message));
+            doImport(externalDataMap);
+            return true;
+        } finally {
+            importLock.unlock();
+        }
+    }
+
+    /**
+     * Builds the search index of the data sets in the media folder that were imported before
+     * the form queried them with search(), e.g. by a previous version of the form.
+     */
+    public void indexMediaFolder(File mediaFolder) {
+        ReentrantLock importLock = getImportLock(mediaFolder);
+        if (!acquire(importLock)) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, Set<String>> entry : searchedColumns.entrySet()) {
+                File dbFile = new File(mediaFolder, entry.getKey() + ".db");
+                if (!dbFile.exists()) {
+                    continue;
+                }
+                // a missing index only makes searches slower
+                ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(dbFile);
+                try {
+                    externalSQLiteOpenHelper.ensureSearchIndex(entry.getValue());
+                } catch (SQLiteException e) {
+                    Timber.w(e, "Could not index %s for search", dbFile.getName());
+                } finally {
+                    externalSQLiteOpenHelper.close();
+                }
+            }
+        } finally {
+            importLock.unlock();
+        }
     }
 
+    private static ReentrantLock getImportLock(File mediaFolder) {
+        synchronized (IMPORT_LOCKS) {
+            String path = mediaFolder.getAbsolutePath();
+            ReentrantLock importLock = IMPORT_LOCKS.get(path);
+            if (importLock == null) {
+                importLock = new ReentrantLock();
+                IMPORT_LOCKS.put(path, importLock);
+            }
+            return importLock;
+        }
+    }
+
+    /**
+     * @return false if the import was cancelled while waiting for another import of the folder
+     */
+    private boolean acquire(ReentrantLock importLock) {
+        if (importLock.tryLock()) {
+            return true;
+        }
+
+        Timber.i("Waiting for another import of the same external data to finish");
+        publishProgress(Collect.getInstance().getString(R.string.ext_import_waiting_message));
+        try {
+            while (!importLock.tryLock(LOCK_WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Imports the given csv files. Called by {@link #importMediaFolder(File)} with the lock on
+     * their folder held.
+     */
     @Override
     public void doImport(Map<String, File> externalDataMap) {
         for (Map.Entry<String, File> stringFileEntry : externalDataMap.entrySet()) {
@@ -50,58 +170,115 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
             if (dataSetFile.exists()) {
                 File dbFile = new File(dataSetFile.getParentFile().getAbsolutePath(),
                         dataSetName + ".db");
-                if (dbFile.exists()) {
-                    // this means the someone updated the csv file, so we need to reload it
-                    boolean deleted = dbFile.delete();
-                    if (!deleted) {
-                        Timber.e("%s has changed but we could not delete the previous DB at %s",
-                                dataSetFile.getName(), dbFile.getAbsolutePath());
-                        continue;
-                    }
+                if (!importDataSet(dataSetFile, dbFile, getSearchedColumns(dataSetName))) {
+                    continue;
+                }
+
+                if (isCancelled()) {
+                    // then just exit and do not process any other CSVs.
+                    return;
                 }
-                ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(
-                        dbFile);
-                externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, formLoaderTask);
 
-                if (formLoaderTask.isCancelled()) {
-                    Timber.w(
-                            "The import was cancelled, so we need to rollback.");
+                // rename the dataSetFile into "dataSetFile.csv.imported" in order not to be
+                // loaded again
+                File importedFile = new File(dataSetFile.getParentFile(),
+                        dataSetFile.getName() + ".imported");
+                if (importedFile.exists()) {
+                    FileUtils.deleteQuietly(importedFile);
+                }
+                boolean renamed = dataSetFile.renameTo(importedFile);
+                if (!renamed) {
+                    Timber.e("%s could not be renamed to be archived. It will be re-imported "
+                            + "again! :(", dataSetFile.getName());
+                } else {
+                    Timber.e("%s was renamed to %s", dataSetFile.getName(), importedFile.getName());
+                }
+            }
+        }
+    }
 
-                    // we need to drop the database file since it might be partially populated.
-                    // It will be re-created next time.
+    /**
+     * Imports a csv into its database. If the database already exists only the rows that changed
+     * are applied, otherwise it is rebuilt from scratch.
+     *
+     * @return false if the database could not be prepared for the import
+     */
+    private boolean importDataSet(File dataSetFile, File dbFile, Collection<String> columns) {
+        try {
+            return importOrUpdateDataSet(dataSetFile, dbFile, columns);
+        } finally {
+            ExternalSQLiteOpenHelper.onDataChanged();
+        }
+    }
 
-                    Timber.w("Closing database to be deleted %s", dbFile.toString());
+    private boolean importOrUpdateDataSet(File dataSetFile, File dbFile, Collection<String> columns) {
+        if (dbFile.exists()) {
+            // this means the someone updated the csv file, so try to bring the db up to date
+            ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(dbFile);
+            try {
+                if (externalSQLiteOpenHelper.updateFromCSV(dataSetFile, this, formLoaderTask, columns)) {
+                    return true;
+                }
+            } finally {
+                externalSQLiteOpenHelper.close();
+            }
 
-                    // then close the database
-                    SQLiteDatabase db = externalSQLiteOpenHelper.getReadableDatabase();
-                    db.close();
+            // we need to reload it
+            boolean deleted = dbFile.delete();
+            if (!deleted) {
+                Timber.e("%s has changed but we could not delete the previous DB at %s",
+                        dataSetFile.getName(), dbFile.getAbsolutePath());
+                return false;
+            }
+        }
+        ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(
+                dbFile);
+        try {
+            externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, formLoaderTask, columns);
+        } catch (ExternalDataException e) {
+            // don't leave a partially populated db behind
+            externalSQLiteOpenHelper.close();
+            FileUtils.deleteQuietly(dbFile);
+            throw e;
+        }
 
-                    // the physically delete the db.
-                    try {
-                        FileUtils.forceDelete(dbFile);
-                        Timber.w("Deleted %s", dbFile.getName());
-                    } catch (IOException e) {
-                        Timber.e(e);
-                    }
+        if (isCancelled()) {
+            Timber.w(
+                    "The import was cancelled, so we need to rollback.");
 
-                    // then just exit and do not process any other CSVs.
-                    return;
+            // we need to drop the database file since it might be partially populated.
+            // It will be re-created next time.
 
-                } else {
-                    // rename the dataSetFile into "dataSetFile.csv.imported" in order not to be
-                    // loaded again
-                    File importedFile = new File(dataSetFile.getParentFile(),
-                            dataSetFile.getName() + ".imported");
-                    boolean renamed = dataSetFile.renameTo(importedFile);
-                    if (!renamed) {
-                        Timber.e("%s could not be renamed to be archived. It will be re-imported "
-                                + "again! :(", dataSetFile.getName());
-                    } else {
-                        Timber.e("%s was renamed to %s", dataSetFile.getName(), importedFile.getName());
-                    }
-                }
+            Timber.w("Closing database to be deleted %s", dbFile.toString());
+
+            // then close the database
+            SQLiteDatabase db = externalSQLiteOpenHelper.getReadableDatabase();
+            db.close();
+
+            // the physically delete the db.
+            try {
+                FileUtils.forceDelete(dbFile);
+                Timber.w("Deleted %s", dbFile.getName());
+            } catch (IOException e) {
+                Timber.e(e);
             }
         }
+        return true;
     }
 
+    private Collection<String> getSearchedColumns(String dataSetName) {
+        // SCTO-545
+        Set<String> columns = searchedColumns.get(dataSetName.toLowerCase(Locale.US));
+        return columns == null ? Collections.<String>emptySet() : columns;
+    }
+
+    private void publishProgress(String message) {
+        if (formLoaderTask != null) {
+            formLoaderTask.publishExternalDataLoadingProgress(message);
+        }
+    }
+
+    private boolean isCancelled() {
+        return formLoaderTask != null && formLoaderTask.isCancelled();
+    }
 }
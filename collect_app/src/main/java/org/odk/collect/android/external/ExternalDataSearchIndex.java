@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Full-text index over the columns that search() queries. Every value is indexed as the set of
+ * its lowercase trigrams so that a contains, matches, startsWith or endsWith search only has to
+ * check the rows that hold all the trigrams of the queried value instead of scanning the whole
+ * table. The index only narrows down the candidates, the LIKE expressions of the search are
+ * still applied to them so the results are exactly the same.
+ */
+public final class ExternalDataSearchIndex {
+
+    public static final String FTS_TABLE_NAME = ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + "_fts";
+
+    private static final int TRIGRAM_LENGTH = 3;
+
+    private ExternalDataSearchIndex() {
+
+    }
+
+    /**
+     * Makes sure the given columns are indexed, building or extending the index if needed.
+     * Columns that don't exist in the data set are ignored.
+     */
+    public static void ensureIndexed(SQLiteDatabase db, Collection<String> columns) {
+        if (needsIndexing(db, columns)) {
+            build(db, new ArrayList<String>(getColumnsToIndex(db, columns)));
+        }
+    }
+
+    /**
+     * Rebuilds the index after the data set has changed, over the columns that were indexed
+     * and the given ones.
+     */
+    static void rebuild(SQLiteDatabase db, Collection<String> columns) {
+        Set<String> columnsToIndex = getColumnsToIndex(db, columns);
+        if (!columnsToIndex.isEmpty()) {
+            build(db, new ArrayList<String>(columnsToIndex));
+        }
+    }
+
+    /**
+     * @return whether {@link #ensureIndexed(SQLiteDatabase, Collection)} would have to build
+     * the index for the given columns
+     */
+    public static boolean needsIndexing(SQLiteDatabase db, Collection<String> columns) {
+        return !getIndexedColumns(db).containsAll(getColumnsToIndex(db, columns));
+    }
+
+    public static boolean isIndexed(SQLiteDatabase db, Collection<String> columns) {
+        return getIndexedColumns(db).containsAll(columns);
+    }
+
+    /**
+     * Returns a selection that restricts a query on the data set to the rows whose indexed
+     * columns may contain the queried value. It takes one argument per column, see
+     * {@link #getMatchArguments(List, String)}.
+     */
+    public static String createCandidateSelection(List<String> columns) {
+        StringBuilder sb = new StringBuilder("rowid IN (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) {
+                sb.append(" UNION ");
+            }
+            sb.append("SELECT docid FROM ").append(FTS_TABLE_NAME)
+                    .append(" WHERE ").append(FTS_TABLE_NAME).append(" MATCH ?");
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * @return the arguments of {@link #createCandidateSelection(List)}, or null if the index
+     * can't be used for this value because it is too short or contains LIKE wildcards
+     */
+    public static String[] getMatchArguments(List<String> columns, String queriedValue) {
+        if (queriedValue == null || queriedValue.length() < TRIGRAM_LENGTH
+                || queriedValue.indexOf('%') != -1 || queriedValue.indexOf('_') != -1) {
+            return null;
+        }
+
+        Set<String> tokens = toTrigramTokens(queriedValue);
+        String[] args = new String[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            StringBuilder sb = new StringBuilder();
+            for (String token : tokens) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(columns.get(i)).append(':').append(token);
+            }
+            args[i] = sb.toString();
+        }
+        return args;
+    }
+
+    /**
+     * Returns the text that is indexed for a value: its distinct trigram tokens separated by
+     * spaces.
+     */
+    static String toTrigramDocument(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String token : toTrigramTokens(value)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits a lowercased value into its trigrams and encodes each one as a single token for the
+     * FTS simple tokenizer, which only keeps ASCII letters and digits and non-ASCII characters.
+     * Other characters are escaped. Different trigrams may share a token, which only adds
+     * candidates that the LIKE expressions filter out.
+     */
+    private static Set<String> toTrigramTokens(String value) {
+        String lowerCaseValue = value.toLowerCase(Locale.US);
+        Set<String> tokens = new LinkedHashSet<String>();
+        for (int i = 0; i + TRIGRAM_LENGTH <= lowerCaseValue.length(); i++) {
+            StringBuilder token = new StringBuilder();
+            for (int j = i; j < i + TRIGRAM_LENGTH; j++) {
+                char c = lowerCaseValue.charAt(j);
+                if (c > 127 || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                    token.append(c);
+                } else {
+                    token.append('z').append(String.format(Locale.US, "%02x", (int) c));
+                }
+            }
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static void build(SQLiteDatabase db, List<String> columns) {
+        final long start = System.currentTimeMillis();
+
+        StringBuilder createSql = new StringBuilder("CREATE VIRTUAL TABLE ")
+                .append(FTS_TABLE_NAME)
+                .append(" USING fts4(");
+        StringBuilder insertSql = new StringBuilder("INSERT INTO ")
+                .append(FTS_TABLE_NAME)
+                .append(" (docid");
+        StringBuilder placeholders = new StringBuilder("?");
+        for (String column : columns) {
+            createSql.append(column).append(", ");
+            insertSql.append(", ").append(column);
+            placeholders.append(", ?");
+        }
+        // the index doesn't need its own copy of the values, they are in the data set table
+        createSql.append("content=\"\");");
+        insertSql.append(") VALUES (").append(placeholders).append(");");
+
+        String[] projection = new String[columns.size() + 1];
+        projection[0] = "rowid";
+        for (int i = 0; i < columns.size(); i++) {
+            projection[i + 1] = columns.get(i);
+        }
+
+        int rowCount = 0;
+        db.beginTransaction();
+        SQLiteStatement insertStatement = null;
+        Cursor cursor = null;
+        try {
+            db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME + ";");
+            db.execSQL(createSql.toString());
+
+            insertStatement = db.compileStatement(insertSql.toString());
+            cursor = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, projection, null, null,
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                insertStatement.clearBindings();
+                insertStatement.bindLong(1, cursor.getLong(0));
+                for (int i = 1; i < projection.length; i++) {
+                    insertStatement.bindString(i + 1, toTrigramDocument(cursor.getString(i)));
+                }
+                insertStatement.executeInsert();
+                rowCount++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
+            db.endTransaction();
+        }
+
+        Timber.i("Indexed %d records on %s in %.3f seconds", rowCount, columns,
+                (System.currentTimeMillis() - start) / 1000F);
+    }
+
+    /**
+     * @return the columns that are indexed and the given ones that exist in the data set
+     */
+    private static Set<String> getColumnsToIndex(SQLiteDatabase db, Collection<String> columns) {
+        List<String> tableColumns = getColumns(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+        Set<String> columnsToIndex = new LinkedHashSet<String>(getIndexedColumns(db));
+        for (String column : columns) {
+            if (tableColumns.contains(column)) {
+                columnsToIndex.add(column);
+            }
+        }
+        return columnsToIndex;
+    }
+
+    private static List<String> getIndexedColumns(SQLiteDatabase db) {
+        return getColumns(db, FTS_TABLE_NAME);
+    }
+
+    private static List<String> getColumns(SQLiteDatabase db, String tableName) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -22,6 +22,9 @@ import android.widget.Toast;
 
 import com.google.android.gms.analytics.HitBuilders;
 
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.IFormElement;
+import org.javarosa.core.model.QuestionDef;
 import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.instance.FormInstance;
@@ -30,19 +33,29 @@ import org.javarosa.form.api.FormEntryPrompt;
 import org.javarosa.xpath.XPathParseTool;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathStringLiteral;
 import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.FileHashCache;
 import org.odk.collect.android.exception.ExternalDataException;
 import org.odk.collect.android.external.handler.ExternalDataHandlerSearch;
+import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.utilities.XmlHeaderParser;
+import org.odk.collect.android.utilities.ZipUtils;
 
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -58,6 +71,7 @@ public final class ExternalDataUtil {
 
     public static final String EXTERNAL_DATA_TABLE_NAME = "externalData";
     public static final String SORT_COLUMN_NAME = "c_sortby";
+    public static final String ROW_HASH_COLUMN_NAME = "row_hash";
 
     public static final Pattern SEARCH_FUNCTION_REGEX = Pattern.compile("search\\(.+\\)");
     private static final String COLUMN_SEPARATOR = ",";
@@ -163,6 +177,86 @@ public final class ExternalDataUtil {
         }
     }
 
+    /**
+     * Finds the search() appearances of a form whose data set and queried columns are literals,
+     * so the columns can be indexed before the form is filled in.
+     *
+     * @return the safe names of the queried columns keyed by normalized data set name
+     */
+    public static Map<String, Set<String>> getSearchedColumnsByDataSet(FormDef formDef) {
+        Map<String, Set<String>> searchedColumns = new HashMap<String, Set<String>>();
+        collectSearchedColumns(formDef.getChildren(), searchedColumns);
+        return searchedColumns;
+    }
+
+    /**
+     * Same as {@link #getSearchedColumnsByDataSet(FormDef)} but reads the appearances straight
+     * from the form file, so the columns are known when importing the data in the background
+     * without parsing the whole form.
+     */
+    public static Map<String, Set<String>> getSearchedColumnsByDataSet(File formFile) {
+        Map<String, Set<String>> searchedColumns = new HashMap<String, Set<String>>();
+        try {
+            for (String appearance : XmlHeaderParser.parseBodyAttributeValues(formFile, "appearance")) {
+                addSearchedColumns(appearance, searchedColumns);
+            }
+        } catch (IOException e) {
+            // reported when the form is opened
+            Timber.w(e);
+        }
+        return searchedColumns;
+    }
+
+    private static void collectSearchedColumns(List<IFormElement> formElements,
+                                               Map<String, Set<String>> searchedColumns) {
+        if (formElements == null) {
+            return;
+        }
+        for (IFormElement formElement : formElements) {
+            if (formElement instanceof QuestionDef) {
+                addSearchedColumns(((QuestionDef) formElement).getAppearanceAttr(), searchedColumns);
+            }
+            collectSearchedColumns(formElement.getChildren(), searchedColumns);
+        }
+    }
+
+    private static void addSearchedColumns(String appearance, Map<String, Set<String>> searchedColumns) {
+        Matcher matcher = SEARCH_FUNCTION_REGEX.matcher(appearance == null ? "" : appearance.trim());
+        if (matcher.find()) {
+            addSearchedColumnsOfFunction(matcher.group(0), searchedColumns);
+        }
+    }
+
+    private static void addSearchedColumnsOfFunction(String function, Map<String, Set<String>> searchedColumns) {
+        try {
+            XPathExpression xpathExpression = XPathParseTool.parseXPath(function);
+            if (!(xpathExpression instanceof XPathFuncExpr)) {
+                return;
+            }
+            XPathExpression[] args = ((XPathFuncExpr) xpathExpression).args;
+            if (args.length < 4 || !(args[0] instanceof XPathStringLiteral)
+                    || !(args[2] instanceof XPathStringLiteral)) {
+                return;
+            }
+
+            // SCTO-545
+            String dataSetName = ((XPathStringLiteral) args[0]).s.toLowerCase(Locale.US);
+            if (dataSetName.endsWith(".csv")) {
+                dataSetName = dataSetName.substring(0, dataSetName.lastIndexOf(".csv"));
+            }
+
+            Set<String> columns = searchedColumns.get(dataSetName);
+            if (columns == null) {
+                columns = new HashSet<String>();
+                searchedColumns.put(dataSetName, columns);
+            }
+            columns.addAll(createListOfColumns(((XPathStringLiteral) args[2]).s));
+        } catch (XPathSyntaxException e) {
+            // reported when the question is displayed
+            Timber.i(e);
+        }
+    }
+
     public static ArrayList<SelectChoice> populateExternalChoices(FormEntryPrompt formEntryPrompt,
             XPathFuncExpr xpathfuncexpr) {
         try {
@@ -286,6 +380,53 @@ public final class ExternalDataUtil {
         return parts;
     }
 
+    /**
+     * Unzips any zip archives in the media folder of a form and returns the csv files that have
+     * to be imported, keyed by data set name.
+     */
+    public static Map<String, File> getExternalDataFilesToImport(File mediaFolder) {
+        // SCTO-594
+        File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().toLowerCase(Locale.US).endsWith(".zip");
+            }
+        });
+
+        if (zipFiles != null) {
+            ZipUtils.unzip(zipFiles);
+            for (File zipFile : zipFiles) {
+                // remembered so that update checks can compare it with the manifest
+                FileHashCache.getInstance().putExtractedArchive(zipFile);
+                boolean deleted = zipFile.delete();
+                if (!deleted) {
+                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
+                }
+            }
+        }
+
+        File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String lowerCaseName = file.getName().toLowerCase(Locale.US);
+                return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(
+                        FormLoaderTask.ITEMSETS_CSV);
+            }
+        });
+
+        Map<String, File> externalDataMap = new HashMap<String, File>();
+
+        if (csvFiles != null) {
+            for (File csvFile : csvFiles) {
+                String dataSetName = csvFile.getName().substring(0,
+                        csvFile.getName().lastIndexOf("."));
+                externalDataMap.put(dataSetName, csvFile);
+            }
+        }
+
+        return externalDataMap;
+    }
+
     public static boolean containsAnyData(String[] row) {
         if (row == null || row.length == 0) {
             return false;
@@ -18,10 +18,18 @@
 
 package org.odk.collect.android.external;
 
-import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import org.apache.commons.io.IOUtils;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.DatabaseContext;
@@ -33,9 +41,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import au.com.bytecode.opencsv.CSVReader;
 import timber.log.Timber;
@@ -51,24 +60,108 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     private static final char DELIMITING_CHAR = ",".charAt(0);
     private static final char QUOTE_CHAR = "\"".charAt(0);
     private static final char ESCAPE_CHAR = "\0".charAt(0);
-
+    private static final char VALUE_SEPARATOR = '\u001F';
+    private static final String SEEN_KEYS_TABLE_NAME = "seen_keys";
+    private static final int TRANSACTION_BATCH_SIZE = 5000;
+    private static final int PROGRESS_INTERVAL = 1000;
+    // how far after the previous row a row that has no room in the generated sort order is put
+    private static final double SORT_VALUE_STEP = 1.0 / 64;
+
+    private static final String META_TABLE_NAME = "externalDataMeta";
+    private static final String DATA_VERSION_COLUMN_NAME = "data_version";
+
+    // counts the changes to any database in this process so that open helpers know when to
+    // read their data version again
+    private static final AtomicLong DATA_CHANGES = new AtomicLong();
+
+    private long dataVersion;
+    private long dataVersionChanges = -1;
     private File dataSetFile;
     private ExternalDataReader externalDataReader;
     private FormLoaderTask formLoaderTask;
+    private Collection<String> searchedColumns = Collections.emptyList();
 
     public ExternalSQLiteOpenHelper(File dbFile) {
         super(new DatabaseContext(dbFile.getParentFile().getAbsolutePath()), dbFile.getName(), null, VERSION);
     }
 
+    /**
+     * Records that the data in a database file has been imported, updated or deleted so that
+     * open helpers read its data version again.
+     */
+    static void onDataChanged() {
+        DATA_CHANGES.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the data in this database changes. It is stored in
+     * the database and is only read again after an import in this process.
+     */
+    public long getDataVersion() {
+        long changes = DATA_CHANGES.get();
+        if (changes != dataVersionChanges) {
+            dataVersion = readDataVersion(getReadableDatabase());
+            dataVersionChanges = changes;
+        }
+        return dataVersion;
+    }
+
+    /**
+     * @param searchedColumns the columns that search() queries, which are indexed as part of the
+     *                        import. See {@link ExternalDataSearchIndex}.
+     */
     public void importFromCSV(File dataSetFile, ExternalDataReader externalDataReader,
-            FormLoaderTask formLoaderTask) {
+            FormLoaderTask formLoaderTask, Collection<String> searchedColumns) {
+        this.dataSetFile = dataSetFile;
+        this.externalDataReader = externalDataReader;
+        this.formLoaderTask = formLoaderTask;
+        this.searchedColumns = searchedColumns;
+
+        SQLiteDatabase writableDatabase = null;
+        try {
+            writableDatabase = getWritableDatabase();
+            if (!tableExists(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME)) {
+                importNamed(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+            }
+        } catch (Exception e) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_import_generic_error,
+                            dataSetFile.getName(), e.getMessage()), e);
+        } finally {
+            if (writableDatabase != null) {
+                writableDatabase.close();
+            }
+        }
+    }
+
+    /**
+     * Brings an existing database up to date with a new version of its csv by applying only the
+     * rows that were inserted, changed or deleted. Rows are matched on the first column whose
+     * name ends with "_key". The search index is brought up to date in the same transaction.
+     *
+     * @return false if the database can't be updated in place and has to be rebuilt, e.g.
+     * because the columns changed, there is no key column or the keys are not unique
+     */
+    public boolean updateFromCSV(File dataSetFile, ExternalDataReader externalDataReader,
+            FormLoaderTask formLoaderTask, Collection<String> searchedColumns) {
         this.dataSetFile = dataSetFile;
         this.externalDataReader = externalDataReader;
         this.formLoaderTask = formLoaderTask;
+        this.searchedColumns = searchedColumns;
 
         SQLiteDatabase writableDatabase = null;
         try {
             writableDatabase = getWritableDatabase();
+            if (!tableExists(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME)) {
+                // a previous import was interrupted before the table was created
+                importNamed(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+                return true;
+            }
+            return updateNamed(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+        } catch (Exception e) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_import_generic_error,
+                            dataSetFile.getName(), e.getMessage()), e);
         } finally {
             if (writableDatabase != null) {
                 writableDatabase.close();
@@ -76,27 +169,45 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * @return whether the search index doesn't cover the given columns yet
+     */
+    public boolean needsSearchIndex(Collection<String> columns) {
+        return ExternalDataSearchIndex.needsIndexing(getReadableDatabase(), columns);
+    }
+
+    /**
+     * Builds the search index for the given columns of an existing data set if it doesn't
+     * cover them yet. See {@link ExternalDataSearchIndex}.
+     */
+    public void ensureSearchIndex(Collection<String> columns) {
+        SQLiteDatabase writableDatabase = getWritableDatabase();
+        try {
+            ExternalDataSearchIndex.ensureIndexed(writableDatabase, columns);
+        } finally {
+            writableDatabase.close();
+        }
+    }
+
+    /**
+     * The data is not imported here because onCreate runs inside a single transaction where the
+     * journaling and synchronous settings cannot be relaxed. The import happens right after
+     * in {@link #importFromCSV(File, ExternalDataReader, FormLoaderTask)} instead, whenever the
+     * data table doesn't exist. The schema version is committed with this transaction, so the
+     * table is looked up rather than assumed in case the import was interrupted.
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
         if (externalDataReader == null) {
             // this means that the function handler needed the database through calling
             // getReadableDatabase() --> getWritableDatabase(),
-            // but this is not allowed, so just return;
+            // but this is not allowed, so the table is left to the next import
             Timber.e("The function handler triggered this external data population. This is not "
                             + "good.");
-            return;
-        }
-
-        try {
-            onCreateNamed(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
-        } catch (Exception e) {
-            throw new ExternalDataException(
-                    Collect.getInstance().getString(R.string.ext_import_generic_error,
-                            dataSetFile.getName(), e.getMessage()), e);
         }
     }
 
-    private void onCreateNamed(SQLiteDatabase db, String tableName) throws Exception {
+    private void importNamed(SQLiteDatabase db, String tableName) throws Exception {
         Timber.w("Reading data from '%s", dataSetFile.toString());
 
         onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
@@ -104,61 +215,28 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
 
         CSVReader reader = null;
         try {
-            reader = new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
-                    DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
-            String[] headerRow = reader.readNext();
-
-            headerRow[0] = removeByteOrderMark(headerRow[0]);
-
-            if (!ExternalDataUtil.containsAnyData(headerRow)) {
-                throw new ExternalDataException(
-                        Collect.getInstance().getString(R.string.ext_file_no_data_error));
-            }
-
-            List<String> conflictingColumns =
-                    ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
-
-            if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
-                // this means that after removing invalid characters, some column names resulted
-                // with the same name,
-                // so the create table query will fail with "duplicate column" error.
-                throw new ExternalDataException(
-                        Collect.getInstance().getString(R.string.ext_conflicting_columns_error,
-                                conflictingColumns));
-            }
-
-            Map<String, String> columnNamesCache = new HashMap<String, String>();
+            reader = openCsvReader();
+            CsvLayout layout = readLayout(reader);
 
             StringBuilder sb = new StringBuilder();
-
-            boolean sortColumnAlreadyPresent = false;
-
             sb
                     .append("CREATE TABLE IF NOT EXISTS ")
                     .append(tableName)
                     .append(" ( ");
 
-            for (int i = 0; i < headerRow.length; i++) {
-                String columnName = headerRow[i].trim();
-                if (columnName.length() == 0) {
-                    continue;
-                }
+            for (int i = 0; i < layout.columns.size(); i++) {
+                String column = layout.columns.get(i);
                 if (i != 0) {
                     sb.append(", ");
                 }
-                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                        columnNamesCache);
-                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                    sortColumnAlreadyPresent = true;
-                    sb.append(safeColumnName).append(" real ");
+                if (column.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sb.append(column).append(" real ");
+                } else if (column.equals(ExternalDataUtil.ROW_HASH_COLUMN_NAME)) {
+                    sb.append(column).append(" text ");
                 } else {
-                    sb.append(safeColumnName).append(" text collate nocase ");
+                    sb.append(column).append(" text collate nocase ");
                 }
             }
-            if (!sortColumnAlreadyPresent) {
-                sb.append(", ");
-                sb.append(ExternalDataUtil.SORT_COLUMN_NAME).append(" real ");
-            }
 
             sb.append(" );");
             String sql = sb.toString();
@@ -169,68 +247,50 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
             // create the indexes.
             // save the sql for later because inserts will be much faster if we don't have
             // indexes already.
-            List<String> createIndexesCommands = new ArrayList<String>();
-            for (String header : headerRow) {
-                if (header.endsWith("_key")) {
-                    String indexSQL = "CREATE INDEX " + header + "_idx ON " + tableName + " ("
-                            + ExternalDataUtil.toSafeColumnName(header, columnNamesCache) + ");";
-                    createIndexesCommands.add(indexSQL);
-                    Timber.w("Will create an index on %s later.", header);
-                }
-            }
-
-            // populate the database
-            String[] row = reader.readNext();
-            int rowCount = 0;
-            while (row != null && !formLoaderTask.isCancelled()) {
-                // SCTO-894 - first we should make sure that this is not an empty line
-                if (!ExternalDataUtil.containsAnyData(row)) {
-                    // yes, that is an empty row, ignore it
-                    row = reader.readNext();
-                    continue;
-                }
+            List<String> createIndexesCommands = getCreateIndexesCommands(layout, tableName);
 
-                // SCTO-894 - then check if the row contains less values than the header
-                // we should not ignore the existing values in the row,
-                // we will just fill up the rest with empty strings
-                if (row.length < headerRow.length) {
-                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
-                }
+            // the database is thrown away and rebuilt from the csv if the import does not
+            // complete, so durability can be traded for speed while loading
+            String previousJournalMode = queryPragma(db, "journal_mode");
+            String previousSynchronous = queryPragma(db, "synchronous");
+            relaxJournaling(db);
 
-                ContentValues values = new ContentValues();
-                if (!sortColumnAlreadyPresent) {
-                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
-                }
-
-                for (int i = 0; i < row.length && i < headerRow.length; i++) {
-                    String columnName = headerRow[i].trim();
-                    String columnValue = row[i];
-                    if (columnName.length() == 0) {
-                        continue;
-                    }
-                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                            columnNamesCache);
-                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                        try {
-                            values.put(safeColumnName, Double.parseDouble(columnValue));
-                        } catch (NumberFormatException e) {
-                            throw new ExternalDataException(Collect.getInstance().getString(
-                                    R.string.ext_sortBy_numeric_error, columnValue));
+            SQLiteStatement insertStatement = db.compileStatement(
+                    buildInsertStatement(tableName, layout.columns));
+            int rowCount = 0;
+            try {
+                // populate the database
+                final long start = System.currentTimeMillis();
+                String[] row = readNextRow(reader, layout);
+                db.beginTransaction();
+                try {
+                    while (row != null && !isCancelled()) {
+                        bindRow(insertStatement, row, layout, rowCount + 1, getRowHash(row, layout));
+                        insertStatement.executeInsert();
+
+                        row = readNextRow(reader, layout);
+                        rowCount++;
+                        if (rowCount % TRANSACTION_BATCH_SIZE == 0) {
+                            db.setTransactionSuccessful();
+                            db.endTransaction();
+                            db.beginTransaction();
+                        }
+                        if (rowCount % PROGRESS_INTERVAL == 0) {
+                            publishRate(rowCount, start);
                         }
-                    } else {
-                        values.put(safeColumnName, columnValue);
                     }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
                 }
-                db.insertOrThrow(tableName, null, values);
-                row = reader.readNext();
-                rowCount++;
-                if (rowCount % 100 == 0) {
-                    onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
-                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
-                }
+                Timber.i("Imported %d records from %s at %d records/sec", rowCount,
+                        dataSetFile.getName(), getRowsPerSecond(rowCount, start));
+            } finally {
+                insertStatement.close();
+                restoreJournaling(db, previousJournalMode, previousSynchronous);
             }
 
-            if (formLoaderTask.isCancelled()) {
+            if (isCancelled()) {
                 Timber.w("User canceled reading data from %s", dataSetFile.toString());
                 onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
             } else {
@@ -242,18 +302,449 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                     Timber.w(createIndexCommand);
                     db.execSQL(createIndexCommand);
                 }
+                if (!searchedColumns.isEmpty()) {
+                    onProgress(Collect.getInstance().getString(R.string.ext_search_index_progress_message,
+                            dataSetFile.getName()));
+                    ExternalDataSearchIndex.ensureIndexed(db, searchedColumns);
+                }
+                bumpDataVersion(db);
 
                 Timber.w("Read all data from %s", dataSetFile.toString());
                 onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
             }
         } finally {
-            if (reader != null) {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private boolean updateNamed(SQLiteDatabase db, String tableName) throws Exception {
+        Timber.w("Updating data from '%s", dataSetFile.toString());
+
+        onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                dataSetFile.getName(), ""));
+
+        CSVReader reader = null;
+        try {
+            reader = openCsvReader();
+            CsvLayout layout = readLayout(reader);
+
+            if (layout.keyIndex == -1) {
+                Timber.i("%s has no key column, it has to be imported again", dataSetFile.getName());
+                return false;
+            }
+            if (!layout.columns.equals(getTableColumns(db, tableName))) {
+                Timber.i("The columns of %s have changed, it has to be imported again", dataSetFile.getName());
+                return false;
+            }
+            // the indexes are missing if a previous import didn't complete and the lookups
+            // below depend on them
+            for (String createIndexCommand : getCreateIndexesCommands(layout, tableName)) {
+                db.execSQL(createIndexCommand.replace("CREATE INDEX", "CREATE INDEX IF NOT EXISTS"));
+            }
+
+            String keyColumn = layout.safeColumnNames[layout.keyIndex];
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) - COUNT(DISTINCT " + keyColumn
+                    + ") FROM " + tableName, null) > 0) {
+                Timber.i("The keys of %s are not unique, it has to be imported again", dataSetFile.getName());
+                return false;
+            }
+
+            int inserted = 0;
+            int updated = 0;
+            int deleted = 0;
+            int moved = 0;
+            int rowCount = 0;
+            final long start = System.currentTimeMillis();
+
+            // everything is applied in one transaction so the previous data is kept as it
+            // was if the update fails or is cancelled half way through
+            SQLiteStatement selectHashStatement = null;
+            SQLiteStatement selectSortValueStatement = null;
+            SQLiteStatement insertStatement = null;
+            SQLiteStatement updateStatement = null;
+            SQLiteStatement updateSortValueStatement = null;
+            SQLiteStatement seenKeyStatement = null;
+            db.beginTransaction();
+            try {
+                db.execSQL("CREATE TEMP TABLE " + SEEN_KEYS_TABLE_NAME
+                        + " (key TEXT PRIMARY KEY COLLATE NOCASE);");
+                selectHashStatement = db.compileStatement("SELECT " + ExternalDataUtil.ROW_HASH_COLUMN_NAME
+                        + " FROM " + tableName + " WHERE " + keyColumn + " = ?;");
+                selectSortValueStatement = db.compileStatement("SELECT " + ExternalDataUtil.SORT_COLUMN_NAME
+                        + " FROM " + tableName + " WHERE " + keyColumn + " = ?;");
+                insertStatement = db.compileStatement(buildInsertStatement(tableName, layout.columns));
+                updateStatement = db.compileStatement(buildUpdateStatement(tableName, layout.columns, keyColumn));
+                updateSortValueStatement = db.compileStatement("UPDATE " + tableName + " SET "
+                        + ExternalDataUtil.SORT_COLUMN_NAME + " = ? WHERE " + keyColumn + " = ?;");
+                seenKeyStatement = db.compileStatement("INSERT INTO " + SEEN_KEYS_TABLE_NAME + " (key) VALUES (?);");
+
+                // without a sort column the rows are sorted in csv order. Rows keep their sort
+                // value as long as it still comes after the previous row, so inserting or
+                // deleting a row doesn't renumber the rows after it.
+                double previousSortValue = 0;
+                String[] row = readNextRow(reader, layout);
+                while (row != null && !isCancelled()) {
+                    String key = ExternalDataUtil.nullSafe(row[layout.keyIndex]);
+
+                    seenKeyStatement.bindString(1, key);
+                    try {
+                        seenKeyStatement.executeInsert();
+                    } catch (SQLiteConstraintException e) {
+                        Timber.i("The key %s is repeated in %s, it has to be imported again", key,
+                                dataSetFile.getName());
+                        return false;
+                    }
+
+                    String previousHash = null;
+                    selectHashStatement.bindString(1, key);
+                    try {
+                        previousHash = selectHashStatement.simpleQueryForString();
+                    } catch (SQLiteDoneException e) {
+                        // this is a new row
+                    }
+
+                    double sortValue = 0;
+                    boolean sortValueChanged = false;
+                    if (layout.sortColumnIndex == -1) {
+                        Double previousRowSortValue = null;
+                        if (previousHash != null) {
+                            selectSortValueStatement.bindString(1, key);
+                            previousRowSortValue = Double.valueOf(selectSortValueStatement.simpleQueryForString());
+                        }
+                        if (previousRowSortValue != null && previousRowSortValue > previousSortValue) {
+                            sortValue = previousRowSortValue;
+                        } else {
+                            sortValue = previousSortValue + SORT_VALUE_STEP;
+                            sortValueChanged = previousRowSortValue != null;
+                        }
+                        previousSortValue = sortValue;
+                    }
+
+                    String rowHash = getRowHash(row, layout);
+                    if (previousHash == null) {
+                        bindRow(insertStatement, row, layout, sortValue, rowHash);
+                        insertStatement.executeInsert();
+                        inserted++;
+                    } else if (!previousHash.equals(rowHash)) {
+                        int bindIndex = bindRow(updateStatement, row, layout, sortValue, rowHash);
+                        updateStatement.bindString(bindIndex, key);
+                        updateStatement.executeUpdateDelete();
+                        updated++;
+                    } else if (sortValueChanged) {
+                        updateSortValueStatement.bindDouble(1, sortValue);
+                        updateSortValueStatement.bindString(2, key);
+                        updateSortValueStatement.executeUpdateDelete();
+                        moved++;
+                    }
+
+                    row = readNextRow(reader, layout);
+                    rowCount++;
+                    if (rowCount % PROGRESS_INTERVAL == 0) {
+                        publishRate(rowCount, start);
+                    }
+                }
+
+                if (isCancelled()) {
+                    Timber.w("User canceled updating data from %s", dataSetFile.toString());
+                    onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
+                    return true;
+                }
+
+                deleted = db.delete(tableName, keyColumn + " NOT IN (SELECT key FROM "
+                        + SEEN_KEYS_TABLE_NAME + ")", null);
+                if (inserted + updated + deleted > 0) {
+                    ExternalDataSearchIndex.rebuild(db, searchedColumns);
+                } else {
+                    ExternalDataSearchIndex.ensureIndexed(db, searchedColumns);
+                }
+                if (inserted + updated + moved + deleted > 0) {
+                    bumpDataVersion(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                IOUtils.closeQuietly(selectHashStatement);
+                IOUtils.closeQuietly(selectSortValueStatement);
+                IOUtils.closeQuietly(insertStatement);
+                IOUtils.closeQuietly(updateStatement);
+                IOUtils.closeQuietly(updateSortValueStatement);
+                IOUtils.closeQuietly(seenKeyStatement);
+                db.execSQL("DROP TABLE IF EXISTS " + SEEN_KEYS_TABLE_NAME + ";");
+            }
+
+            Timber.i("Updated %s in %.3f seconds: %d inserted, %d changed, %d moved, %d deleted",
+                    dataSetFile.getName(), (System.currentTimeMillis() - start) / 1000F, inserted, updated,
+                    moved, deleted);
+            onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
+            return true;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private CSVReader openCsvReader() throws IOException {
+        return new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
+                DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
+    }
+
+    /**
+     * Reads the header of the csv and resolves the safe name of every column once.
+     */
+    private CsvLayout readLayout(CSVReader reader) throws IOException {
+        String[] headerRow = reader.readNext();
+
+        if (!ExternalDataUtil.containsAnyData(headerRow)) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_file_no_data_error));
+        }
+
+        headerRow[0] = removeByteOrderMark(headerRow[0]);
+
+        List<String> conflictingColumns =
+                ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
+
+        if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
+            // this means that after removing invalid characters, some column names resulted
+            // with the same name,
+            // so the create table query will fail with "duplicate column" error.
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_conflicting_columns_error,
+                            conflictingColumns));
+        }
+
+        return new CsvLayout(headerRow);
+    }
+
+    /**
+     * Returns the next row of the csv that contains any data, padded to the length of the header.
+     */
+    private static String[] readNextRow(CSVReader reader, CsvLayout layout) throws IOException {
+        String[] row = reader.readNext();
+        // SCTO-894 - first we should make sure that this is not an empty line
+        while (row != null && !ExternalDataUtil.containsAnyData(row)) {
+            // yes, that is an empty row, ignore it
+            row = reader.readNext();
+        }
+
+        // SCTO-894 - then check if the row contains less values than the header
+        // we should not ignore the existing values in the row,
+        // we will just fill up the rest with empty strings
+        if (row != null && row.length < layout.headerRow.length) {
+            row = ExternalDataUtil.fillUpNullValues(row, layout.headerRow);
+        }
+        return row;
+    }
+
+    private static List<String> getCreateIndexesCommands(CsvLayout layout, String tableName) {
+        List<String> createIndexesCommands = new ArrayList<String>();
+        for (String header : layout.headerRow) {
+            if (header.endsWith("_key")) {
+                String indexSQL = "CREATE INDEX " + header + "_idx ON " + tableName + " ("
+                        + ExternalDataUtil.toSafeColumnName(header) + ");";
+                createIndexesCommands.add(indexSQL);
+                Timber.w("Will create an index on %s later.", header);
+            }
+        }
+        return createIndexesCommands;
+    }
+
+    /**
+     * Moves the data version on after the data changed. The version is at least the current
+     * time so that a database that is rebuilt from scratch doesn't get the version of the one
+     * it replaces.
+     */
+    private static void bumpDataVersion(SQLiteDatabase db) {
+        long version = Math.max(readDataVersion(db) + 1, System.currentTimeMillis());
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + META_TABLE_NAME + " (" + DATA_VERSION_COLUMN_NAME
+                + " integer not null);");
+        db.execSQL("DELETE FROM " + META_TABLE_NAME + ";");
+        db.execSQL("INSERT INTO " + META_TABLE_NAME + " (" + DATA_VERSION_COLUMN_NAME + ") VALUES (?);",
+                new Object[] {version});
+    }
+
+    private static long readDataVersion(SQLiteDatabase db) {
+        if (!tableExists(db, META_TABLE_NAME)) {
+            return 0;
+        }
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + DATA_VERSION_COLUMN_NAME + "), 0) FROM "
+                + META_TABLE_NAME, null);
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String tableName) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {tableName}) > 0;
+    }
+
+    private static List<String> getTableColumns(SQLiteDatabase db, String tableName) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static String buildInsertStatement(String tableName, List<String> columns) {
+        StringBuilder sb = new StringBuilder("INSERT INTO ")
+                .append(tableName)
+                .append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) {
+                sb.append(", ");
+                placeholders.append(", ");
+            }
+            sb.append(columns.get(i));
+            placeholders.append('?');
+        }
+        return sb.append(") VALUES (").append(placeholders).append(");").toString();
+    }
+
+    private static String buildUpdateStatement(String tableName, List<String> columns, String keyColumn) {
+        StringBuilder sb = new StringBuilder("UPDATE ")
+                .append(tableName)
+                .append(" SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(columns.get(i)).append(" = ?");
+        }
+        return sb.append(" WHERE ").append(keyColumn).append(" = ?;").toString();
+    }
+
+    /**
+     * Binds one csv row to a compiled insert or update statement. Values are bound in the order
+     * of {@link CsvLayout#columns}: the csv columns, the generated sort value if any and the
+     * row hash.
+     *
+     * @param generatedSortValue the value of the sort column if the csv doesn't have one
+     * @return the index of the next parameter to bind
+     */
+    private int bindRow(SQLiteStatement statement, String[] row, CsvLayout layout, double generatedSortValue,
+                        String rowHash) {
+        statement.clearBindings();
+        int bindIndex = 1;
+        for (int i = 0; i < layout.safeColumnNames.length; i++) {
+            if (layout.safeColumnNames[i] == null) {
+                continue;
+            }
+            String columnValue = i < row.length ? row[i] : null;
+            if (i == layout.sortColumnIndex) {
                 try {
-                    reader.close();
-                } catch (IOException e) {
-                    Timber.e(e);
+                    statement.bindDouble(bindIndex, Double.parseDouble(columnValue));
+                } catch (NumberFormatException | NullPointerException e) {
+                    throw new ExternalDataException(Collect.getInstance().getString(
+                            R.string.ext_sortBy_numeric_error, columnValue));
                 }
+            } else if (columnValue == null) {
+                statement.bindNull(bindIndex);
+            } else {
+                statement.bindString(bindIndex, columnValue);
+            }
+            bindIndex++;
+        }
+        if (layout.sortColumnIndex == -1) {
+            statement.bindDouble(bindIndex++, generatedSortValue);
+        }
+        statement.bindString(bindIndex++, rowHash);
+        return bindIndex;
+    }
+
+    /**
+     * Returns a hash of the csv values of a row so that an update only has to rewrite the rows
+     * whose hash changed. A generated sort value is not part of it because it only reflects
+     * where the row is in the csv.
+     */
+    private static String getRowHash(String[] row, CsvLayout layout) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < layout.safeColumnNames.length; i++) {
+            if (layout.safeColumnNames[i] != null) {
+                sb.append(i < row.length ? ExternalDataUtil.nullSafe(row[i]) : "").append(VALUE_SEPARATOR);
+            }
+        }
+        return Hashing.murmur3_128().hashString(sb, Charsets.UTF_8).toString();
+    }
+
+    private void publishRate(int rowCount, long start) {
+        onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                dataSetFile.getName(), Collect.getInstance().getString(
+                        R.string.ext_import_progress_rate, rowCount,
+                        getRowsPerSecond(rowCount, start))));
+    }
+
+    private static long getRowsPerSecond(int rowCount, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        return rowCount * 1000L / elapsed;
+    }
+
+    private static void relaxJournaling(SQLiteDatabase db) {
+        queryPragma(db, "journal_mode=MEMORY");
+        db.execSQL("PRAGMA synchronous=OFF");
+    }
+
+    private static void restoreJournaling(SQLiteDatabase db, String journalMode, String synchronous) {
+        if (synchronous != null) {
+            db.execSQL("PRAGMA synchronous=" + synchronous);
+        }
+        if (journalMode != null) {
+            queryPragma(db, "journal_mode=" + journalMode);
+        }
+    }
+
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isCancelled() {
+        return formLoaderTask != null && formLoaderTask.isCancelled();
+    }
+
+    /**
+     * How the columns of a csv map to the columns of its table.
+     */
+    private static class CsvLayout {
+        private final String[] headerRow;
+        // the safe name of every csv column, null if the column is skipped
+        private final String[] safeColumnNames;
+        // the columns of the table in the order their values are bound
+        private final List<String> columns = new ArrayList<String>();
+        private int sortColumnIndex = -1;
+        private int keyIndex = -1;
+
+        CsvLayout(String[] headerRow) {
+            this.headerRow = headerRow;
+            safeColumnNames = new String[headerRow.length];
+
+            for (int i = 0; i < headerRow.length; i++) {
+                String columnName = headerRow[i].trim();
+                if (columnName.length() == 0) {
+                    continue;
+                }
+                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName);
+                safeColumnNames[i] = safeColumnName;
+                columns.add(safeColumnName);
+                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sortColumnIndex = i;
+                }
+                if (keyIndex == -1 && headerRow[i].endsWith("_key")) {
+                    keyIndex = i;
+                }
+            }
+            if (sortColumnIndex == -1) {
+                columns.add(ExternalDataUtil.SORT_COLUMN_NAME);
             }
+            columns.add(ExternalDataUtil.ROW_HASH_COLUMN_NAME);
         }
     }
 
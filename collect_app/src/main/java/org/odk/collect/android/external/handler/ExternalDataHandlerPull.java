@@ -45,6 +45,12 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
     public static final String HANDLER_NAME = "pulldata";
 
+    private static final int CACHE_MAX_ENTRIES = 1000;
+
+    // calculates are re-evaluated on every change in the form so the same lookups keep coming back
+    private final PullDataCache cache = new PullDataCache(CACHE_MAX_ENTRIES);
+    private boolean usageTracked;
+
     public ExternalDataHandlerPull(ExternalDataManager externalDataManager) {
         super(externalDataManager);
     }
@@ -71,12 +77,16 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
     @Override
     public Object eval(Object[] args, EvaluationContext ec) {
-        Collect.getInstance().getDefaultTracker()
-                .send(new HitBuilders.EventBuilder()
-                        .setCategory("ExternalData")
-                        .setAction("pulldata()")
-                        .setLabel(Collect.getCurrentFormIdentifierHash())
-                        .build());
+        // once per form session is enough to know the function is used
+        if (!usageTracked) {
+            usageTracked = true;
+            Collect.getInstance().getDefaultTracker()
+                    .send(new HitBuilders.EventBuilder()
+                            .setCategory("ExternalData")
+                            .setAction("pulldata()")
+                            .setLabel(Collect.getCurrentFormIdentifierHash())
+                            .build());
+        }
 
         if (args.length != 4) {
             Timber.e("4 arguments are needed to evaluate the %s function", HANDLER_NAME);
@@ -99,6 +109,13 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
                 return "";
             }
 
+            long dataVersion = sqLiteOpenHelper.getDataVersion();
+            String cachedValue = cache.get(dataSetName, dataVersion, queriedColumn,
+                    referenceColumn, referenceValue);
+            if (cachedValue != null) {
+                return cachedValue;
+            }
+
             SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
             String[] columns = {ExternalDataUtil.toSafeColumnName(queriedColumn)};
             String selection = ExternalDataUtil.toSafeColumnName(referenceColumn) + "=?";
@@ -106,14 +123,18 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
             c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, columns, selection,
                     selectionArgs, null, null, null);
+            String value;
             if (c.getCount() > 0) {
                 c.moveToFirst();
-                return ExternalDataUtil.nullSafe(c.getString(0));
+                value = ExternalDataUtil.nullSafe(c.getString(0));
             } else {
                 Timber.i("Could not find a value in %s where the column %s has the value %s",
                         queriedColumn, referenceColumn, referenceValue);
-                return "";
+                value = "";
             }
+            cache.put(dataSetName, dataVersion, queriedColumn, referenceColumn, referenceValue,
+                    value);
+            return value;
         } catch (SQLiteException e) {
             Timber.i(e);
             return "";
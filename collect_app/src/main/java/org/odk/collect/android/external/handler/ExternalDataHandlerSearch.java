@@ -29,6 +29,7 @@ import org.odk.collect.android.R.string;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.exception.ExternalDataException;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.ExternalDataSearchIndex;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 import org.odk.collect.android.external.ExternalSelectChoice;
@@ -158,18 +159,23 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
             String selection;
             String[] selectionArgs;
 
-            if (searchRows && useFilter) {
-                selection = "( " + createLikeExpression(queriedColumns) + " ) AND "
-                        + ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
-                String[] likeArgs = externalDataSearchType.constructLikeArguments(queriedValue,
-                        queriedColumns.size());
-                selectionArgs = new String[likeArgs.length + 1];
-                System.arraycopy(likeArgs, 0, selectionArgs, 0, likeArgs.length);
-                selectionArgs[selectionArgs.length - 1] = filterValue;
-            } else if (searchRows) {
-                selection = createLikeExpression(queriedColumns);
+            if (searchRows) {
+                selection = "( " + createLikeExpression(queriedColumns) + " )";
                 selectionArgs = externalDataSearchType.constructLikeArguments(queriedValue,
                         queriedColumns.size());
+
+                // narrow the LIKE expressions down to the rows the search index points to
+                String[] matchArgs = ExternalDataSearchIndex.getMatchArguments(queriedColumns, queriedValue);
+                if (matchArgs != null && ExternalDataSearchIndex.isIndexed(db, queriedColumns)) {
+                    selection = ExternalDataSearchIndex.createCandidateSelection(queriedColumns)
+                            + " AND " + selection;
+                    selectionArgs = concat(matchArgs, selectionArgs);
+                }
+
+                if (useFilter) {
+                    selection += " AND " + ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
+                    selectionArgs = concat(selectionArgs, new String[]{filterValue});
+                }
             } else if (useFilter) {
                 selection = ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
                 selectionArgs = new String[]{filterValue};
@@ -240,6 +246,13 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         return selectChoices;
     }
 
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
     protected String createLikeExpression(List<String> queriedColumns) {
         StringBuilder sb = new StringBuilder();
         for (String queriedColumn : queriedColumns) {
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external.handler;
+
+import android.support.v4.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of pulldata() results for a single form session. The entries of a data set are
+ * dropped as soon as its database is imported or updated again.
+ */
+class PullDataCache {
+
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    private final LruCache<String, String> results;
+    private final Map<String, Long> dataVersions = new HashMap<String, Long>();
+
+    PullDataCache(int maxEntries) {
+        results = new LruCache<String, String>(maxEntries);
+    }
+
+    /**
+     * @return the cached result, or null if the lookup has to be run
+     */
+    synchronized String get(String dataSetName, long dataVersion, String queriedColumn,
+                            String referenceColumn, String referenceValue) {
+        Long cachedDataVersion = dataVersions.get(dataSetName);
+        if (cachedDataVersion != null && cachedDataVersion != dataVersion) {
+            invalidate(dataSetName);
+        }
+        return results.get(getKey(dataSetName, queriedColumn, referenceColumn, referenceValue));
+    }
+
+    synchronized void put(String dataSetName, long dataVersion, String queriedColumn,
+                          String referenceColumn, String referenceValue, String result) {
+        Long cachedDataVersion = dataVersions.get(dataSetName);
+        if (cachedDataVersion != null && cachedDataVersion != dataVersion) {
+            invalidate(dataSetName);
+        }
+        dataVersions.put(dataSetName, dataVersion);
+        results.put(getKey(dataSetName, queriedColumn, referenceColumn, referenceValue), result);
+    }
+
+    synchronized int hitCount() {
+        return results.hitCount();
+    }
+
+    synchronized int missCount() {
+        return results.missCount();
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+
+    private void invalidate(String dataSetName) {
+        String prefix = dataSetName + KEY_SEPARATOR;
+        for (String key : results.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                results.remove(key);
+            }
+        }
+        dataVersions.remove(dataSetName);
+    }
+
+    private static String getKey(String dataSetName, String queriedColumn, String referenceColumn,
+                                 String referenceValue) {
+        return dataSetName + KEY_SEPARATOR + queriedColumn + KEY_SEPARATOR + referenceColumn
+                + KEY_SEPARATOR + referenceValue;
+    }
+}
@@ -7,11 +7,13 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 
 import org.odk.collect.android.activities.FormEntryActivity;
+import org.odk.collect.android.tasks.ImageConversionTask;
 import org.odk.collect.android.tasks.MediaLoadingTask;
 
 public class MediaLoadingFragment extends Fragment {
 
     private MediaLoadingTask mediaLoadingTask;
+    private ImageConversionTask imageConversionTask;
     private FormEntryActivity formEntryActivity;
 
     public void beginMediaLoadingTask(Uri uri) {
@@ -19,6 +21,11 @@ public class MediaLoadingFragment extends Fragment {
         mediaLoadingTask.execute(uri);
     }
 
+    public void beginImageConversionTask(String imagePath, String instanceFolder, int maxPixels) {
+        imageConversionTask = new ImageConversionTask(formEntryActivity, imagePath, instanceFolder, maxPixels);
+        imageConversionTask.execute();
+    }
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -32,6 +39,9 @@ public class MediaLoadingFragment extends Fragment {
         if (mediaLoadingTask != null) {
             mediaLoadingTask.onAttach(formEntryActivity);
         }
+        if (imageConversionTask != null) {
+            imageConversionTask.onAttach(formEntryActivity);
+        }
     }
 
     @Override
@@ -40,5 +50,8 @@ public class MediaLoadingFragment extends Fragment {
         if (mediaLoadingTask != null) {
             mediaLoadingTask.onDetach();
         }
+        if (imageConversionTask != null) {
+            imageConversionTask.onDetach();
+        }
     }
 }
@@ -25,6 +25,9 @@ public class CollectServerClient {
 
     public static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
 
+    private static final String ETAG_HEADER = "ETag";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
     protected OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
 
@@ -41,13 +44,34 @@ public class CollectServerClient {
      * @return DocumentFetchResult - an object that contains the results of the "get" operation
      */
     public DocumentFetchResult getXmlDocument(String urlString) {
+        return getXmlDocumentIfChanged(urlString, null, null);
+    }
+
+    /**
+     * Gets an XML document for a given url unless it didn't change since it was fetched with the
+     * given validators, in which case the result {@link DocumentFetchResult#isNotModified()}.
+     * The validators to fetch the document with next time are set on the result.
+     *
+     * @param urlString - url of the XML document
+     * @param eTag - ETag of the document last fetched, may be null
+     * @param lastModified - last modified date of the document last fetched, may be null
+     * @return DocumentFetchResult - an object that contains the results of the "get" operation
+     */
+    public DocumentFetchResult getXmlDocumentIfChanged(String urlString, @Nullable String eTag,
+                                                       @Nullable String lastModified) {
 
         // parse response
         Document doc;
         HttpGetResult inputStreamResult;
 
         try {
-            inputStreamResult = getHttpInputStream(urlString, HTTP_CONTENT_TYPE_TEXT_XML);
+            inputStreamResult = getHttpInputStream(urlString, HTTP_CONTENT_TYPE_TEXT_XML, eTag, lastModified);
+
+            if (inputStreamResult.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                DocumentFetchResult result = new DocumentFetchResult(null, HttpURLConnection.HTTP_NOT_MODIFIED);
+                result.setCacheValidators(eTag, lastModified);
+                return result;
+            }
 
             if (inputStreamResult.getStatusCode() != HttpURLConnection.HTTP_OK) {
                 String error = "getXmlDocument failed while accessing "
@@ -71,7 +95,9 @@ public class CollectServerClient {
             return new DocumentFetchResult(error, 0);
         }
 
-        return new DocumentFetchResult(doc, inputStreamResult.isOpenRosaResponse(), inputStreamResult.getHash());
+        DocumentFetchResult result = new DocumentFetchResult(doc, inputStreamResult.isOpenRosaResponse(), inputStreamResult.getHash());
+        result.setCacheValidators(inputStreamResult.getHeader(ETAG_HEADER), inputStreamResult.getHeader(LAST_MODIFIED_HEADER));
+        return result;
     }
 
     /**
@@ -84,6 +110,12 @@ public class CollectServerClient {
      */
     public @NonNull
     HttpGetResult getHttpInputStream(@NonNull String downloadUrl, @Nullable final String contentType) throws Exception {
+        return getHttpInputStream(downloadUrl, contentType, null, null);
+    }
+
+    private @NonNull
+    HttpGetResult getHttpInputStream(@NonNull String downloadUrl, @Nullable final String contentType,
+                                     @Nullable String eTag, @Nullable String lastModified) throws Exception {
         URI uri;
         try {
             // assume the downloadUrl is escaped properly
@@ -99,7 +131,10 @@ public class CollectServerClient {
             throw new Exception("Invalid server URL (no hostname): " + downloadUrl);
         }
 
-        return httpInterface.get(uri, contentType, webCredentialsUtils.getCredentials(uri));
+        if (eTag == null && lastModified == null) {
+            return httpInterface.get(uri, contentType, webCredentialsUtils.getCredentials(uri));
+        }
+        return httpInterface.getIfChanged(uri, contentType, webCredentialsUtils.getCredentials(uri), eTag, lastModified);
     }
 
     public static String getPlainTextMimeType() {
@@ -18,10 +18,10 @@ package org.odk.collect.android.http;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.DateFormat;
 import android.webkit.MimeTypeMap;
 
-import org.apache.commons.io.IOUtils;
 import org.odk.collect.android.BuildConfig;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -39,7 +39,6 @@ import org.opendatakit.httpclientandroidlib.auth.Credentials;
 import org.opendatakit.httpclientandroidlib.auth.UsernamePasswordCredentials;
 import org.opendatakit.httpclientandroidlib.client.AuthCache;
 import org.opendatakit.httpclientandroidlib.client.ClientProtocolException;
-import org.opendatakit.httpclientandroidlib.client.CookieStore;
 import org.opendatakit.httpclientandroidlib.client.CredentialsProvider;
 import org.opendatakit.httpclientandroidlib.client.HttpClient;
 import org.opendatakit.httpclientandroidlib.client.config.AuthSchemes;
@@ -60,11 +59,12 @@ import org.opendatakit.httpclientandroidlib.impl.auth.BasicScheme;
 import org.opendatakit.httpclientandroidlib.impl.client.BasicAuthCache;
 import org.opendatakit.httpclientandroidlib.impl.client.BasicCookieStore;
 import org.opendatakit.httpclientandroidlib.impl.client.HttpClientBuilder;
+import org.opendatakit.httpclientandroidlib.impl.conn.PoolingHttpClientConnectionManager;
+import org.opendatakit.httpclientandroidlib.pool.PoolStats;
 import org.opendatakit.httpclientandroidlib.protocol.BasicHttpContext;
 import org.opendatakit.httpclientandroidlib.protocol.HttpContext;
 import org.opendatakit.httpclientandroidlib.util.EntityUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -82,6 +82,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import timber.log.Timber;
@@ -94,20 +95,30 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     private static final String DATE_HEADER = "Date";
     private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
     private static final String GZIP_CONTENT_ENCODING = "gzip";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
 
     private static final int CONNECTION_TIMEOUT = 30000;
     private static final int UPLOAD_CONNECTION_TIMEOUT = 60000; // it can take up to 27 seconds to spin up an Aggregate
     private static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
+    private static final int MAX_CONNECTIONS_TOTAL = 20;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+    private static final int IDLE_CONNECTION_TIMEOUT = 30; // seconds
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000; // ms
 
-    // Retain authentication and cookies between requests. Gets mutated on each call to
+    // Retain authentication between requests. Gets mutated on each call to
     // HttpClient.execute).
     private HttpContext httpContext;
 
+    // shared by every instance, one per timeout
+    private static final Map<Integer, PooledHttpClient> CLIENTS = new HashMap<>();
+
     public HttpClientConnection() {
         httpContext = new BasicHttpContext();
 
-        httpContext.setAttribute(HttpClientContext.COOKIE_STORE, new BasicCookieStore());
         httpContext.setAttribute(HttpClientContext.CREDS_PROVIDER, new AgingCredentialsProvider(7 * 60 * 1000));
+        // created up front so that schemes cached by one request context are seen by the others
+        httpContext.setAttribute(HttpClientContext.AUTH_CACHE, new BasicAuthCache());
     }
 
     private enum ContentTypeMapping {
@@ -151,10 +162,16 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     @Override
     public @NonNull
     HttpGetResult get(@NonNull URI uri, @Nullable final String contentType, @Nullable HttpCredentialsInterface credentials) throws Exception {
+        return getIfChanged(uri, contentType, credentials, null, null);
+    }
+
+    @Override
+    public @NonNull
+    HttpGetResult getIfChanged(@NonNull URI uri, @Nullable final String contentType, @Nullable HttpCredentialsInterface credentials,
+                               @Nullable String eTag, @Nullable String lastModified) throws Exception {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(CONNECTION_TIMEOUT);
+        HttpClient httpclient = getHttpClient(CONNECTION_TIMEOUT);
 
         // if https then enable preemptive basic auth...
         if (uri.getScheme().equals("https")) {
@@ -164,18 +181,25 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         // set up request...
         HttpGet req = createOpenRosaHttpGet(uri);
         req.addHeader(ACCEPT_ENCODING_HEADER, GZIP_CONTENT_ENCODING);
+        if (eTag != null) {
+            req.addHeader(IF_NONE_MATCH_HEADER, eTag);
+        }
+        if (lastModified != null) {
+            req.addHeader(IF_MODIFIED_SINCE_HEADER, lastModified);
+        }
 
         HttpResponse response;
 
-        response = httpclient.execute(req, httpContext);
+        response = httpclient.execute(req, createRequestContext());
         int statusCode = response.getStatusLine().getStatusCode();
 
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED && (eTag != null || lastModified != null)) {
+            discardEntityBytes(response);
+            return new HttpGetResult(null, new HashMap<String, String>(), "", statusCode);
+        }
+
         if (statusCode != HttpStatus.SC_OK) {
             discardEntityBytes(response);
-            if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
-                // clear the cookies -- should not be necessary?
-                clearCookieStore();
-            }
             String errMsg =
                     Collect.getInstance().getString(R.string.file_fetch_failed, uri.toString(),
                             response.getStatusLine().getReasonPhrase(), String.valueOf(statusCode));
@@ -206,12 +230,11 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
 
         InputStream downloadStream = entity.getContent();
 
-        String hash = "";
-
+        // the hash is computed as the consumer reads the body instead of buffering it
+        Md5InputStream hashingStream = null;
         if (HTTP_CONTENT_TYPE_TEXT_XML.equals(contentType)) {
-            byte[] bytes = IOUtils.toByteArray(downloadStream);
-            downloadStream = new ByteArrayInputStream(bytes);
-            hash = FileUtils.getMd5Hash(new ByteArrayInputStream(bytes));
+            hashingStream = new Md5InputStream(downloadStream);
+            downloadStream = hashingStream;
         }
 
         Header contentEncoding = entity.getContentEncoding();
@@ -229,15 +252,16 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
             }
         }
 
-        return new HttpGetResult(downloadStream, responseHeaders, hash, statusCode);
+        return hashingStream != null
+                ? new HttpGetResult(downloadStream, responseHeaders, hashingStream, statusCode)
+                : new HttpGetResult(downloadStream, responseHeaders, "", statusCode);
     }
 
     @Override
     public @NonNull HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(CONNECTION_TIMEOUT);
+        HttpClient httpclient = getHttpClient(CONNECTION_TIMEOUT);
         HttpHead httpHead = createOpenRosaHttpHead(uri);
         Map<String, String> responseHeaders = new HashMap<>();
 
@@ -252,11 +276,9 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         try {
             Timber.i("Issuing HEAD request to: %s", uri.toString());
 
-            response = httpclient.execute(httpHead, httpContext);
+            response = httpclient.execute(httpHead, createRequestContext());
             statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
-                clearCookieStore();
-            } else if (statusCode == HttpStatus.SC_NO_CONTENT) {
+            if (statusCode == HttpStatus.SC_NO_CONTENT) {
                 for (Header head : response.getAllHeaders()) {
                     responseHeaders.put(head.getName(), head.getValue());
                 }
@@ -297,17 +319,19 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     public @NonNull ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList,
                                                       @NonNull File submissionFile,
                                                       @NonNull URI uri,
-                                                      @Nullable HttpCredentialsInterface credentials) throws IOException {
+                                                      @Nullable HttpCredentialsInterface credentials,
+                                                      @Nullable UploadProgressListener progressListener) throws IOException {
         addCredentialsForHost(uri, credentials);
-        clearCookieStore();
 
-        HttpClient httpclient = createHttpClient(UPLOAD_CONNECTION_TIMEOUT);
+        HttpClient httpclient = getHttpClient(UPLOAD_CONNECTION_TIMEOUT);
 
         // if https then enable preemptive basic auth...
         if (uri.getScheme().equals("https")) {
             enablePreemptiveBasicAuth(uri.getHost());
         }
 
+        // the posts of a submission split in several share their cookies
+        HttpContext requestContext = createRequestContext();
         ResponseMessageParser messageParser = null;
 
         boolean first = true;
@@ -316,6 +340,7 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         while (fileIndex < fileList.size() || first) {
             lastFileIndex = fileIndex;
             first = false;
+            boolean incomplete = false;
 
             MimeTypeMap mimeTypeMap = MimeTypeMap.getSingleton();
 
@@ -364,6 +389,7 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
                             Timber.e(e);
                         }
                         ++fileIndex; // advance over the last attachment added...
+                        incomplete = true;
                         break;
                     }
                 }
@@ -377,7 +403,7 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
 
             try {
                 Timber.i("Issuing POST request to: %s", uri.toString());
-                response = httpclient.execute(httppost, httpContext);
+                response = httpclient.execute(httppost, requestContext);
                 int responseCode = response.getStatusLine().getStatusCode();
                 HttpEntity httpEntity = response.getEntity();
                 Timber.i("Response code:%d", responseCode);
@@ -389,14 +415,14 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
 
                 discardEntityBytes(response);
 
-                if (responseCode == HttpStatus.SC_UNAUTHORIZED) {
-                    clearCookieStore();
-                }
-
                 if (responseCode != HttpStatus.SC_CREATED && responseCode != HttpStatus.SC_ACCEPTED) {
                     return messageParser;
                 }
 
+                if (incomplete && progressListener != null) {
+                    progressListener.onFilesAcknowledged(new ArrayList<>(fileList.subList(lastFileIndex, fileIndex)));
+                }
+
             } catch (IOException e) {
                 if (e instanceof UnknownHostException || e instanceof HttpHostConnectException
                         || e instanceof SocketException || e instanceof NoHttpResponseException
@@ -424,43 +450,50 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
     }
 
     /**
-     * Create an httpClient with connection timeouts and other parameters set.
-     * Save and reuse the connection manager across invocations (this is what
-     * requires synchronized access).
+     * Returns the client shared by all requests made with the given timeout. Its connections are
+     * pooled and kept alive so that consecutive requests to a server don't pay for a new TCP
+     * and TLS handshake each time.
      *
      * @return HttpClient properly configured.
      */
-    private synchronized HttpClient createHttpClient(int timeout) {
-        // configure connection
-        SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(
-                2 * timeout)
-                .build();
-
-        // if possible, bias toward digest auth (may not be in 4.0 beta 2)
-        List<String> targetPreferredAuthSchemes = new ArrayList<>();
-        targetPreferredAuthSchemes.add(AuthSchemes.DIGEST);
-        targetPreferredAuthSchemes.add(AuthSchemes.BASIC);
-
-        RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT)
-                .setConnectTimeout(timeout)
-                // support authenticating
-                .setAuthenticationEnabled(true)
-                // support redirecting to handle http: => https: transition
-                .setRedirectsEnabled(true)
-                .setMaxRedirects(1)
-                .setCircularRedirectsAllowed(true)
-                .setTargetPreferredAuthSchemes(targetPreferredAuthSchemes)
-                .setCookieSpec(CookieSpecs.DEFAULT)
-                .build();
-
-        return HttpClientBuilder.create()
-                .setDefaultSocketConfig(socketConfig)
-                .setDefaultRequestConfig(requestConfig)
-                .build();
+    private static HttpClient getHttpClient(int timeout) {
+        synchronized (CLIENTS) {
+            PooledHttpClient client = CLIENTS.get(timeout);
+            if (client == null) {
+                client = new PooledHttpClient(timeout);
+                CLIENTS.put(timeout, client);
+            }
+            return client.httpClient;
+        }
+    }
+
+    /**
+     * @return the statistics of the connection pool of each client, keyed by its timeout
+     */
+    public static Map<Integer, PoolStats> getConnectionPoolStats() {
+        Map<Integer, PoolStats> stats = new HashMap<>();
+        synchronized (CLIENTS) {
+            for (Map.Entry<Integer, PooledHttpClient> client : CLIENTS.entrySet()) {
+                stats.put(client.getKey(), client.getValue().connectionManager.getTotalStats());
+            }
+        }
+        return stats;
+    }
 
+    /**
+     * Creates the context of a single request. Credentials and the auth cache are looked up in
+     * the shared context while the per-request state HttpClient keeps in its context stays in the
+     * child, so that requests can run concurrently (e.g. form downloads). Each request has its
+     * own cookies, so concurrent requests never see or clear each other's session.
+     */
+    @VisibleForTesting
+    HttpContext createRequestContext() {
+        HttpContext requestContext = new BasicHttpContext(httpContext);
+        requestContext.setAttribute(HttpClientContext.COOKIE_STORE, new BasicCookieStore());
+        return requestContext;
     }
 
-    private void enablePreemptiveBasicAuth(String host) {
+    private synchronized void enablePreemptiveBasicAuth(String host) {
         AuthCache ac = (AuthCache) httpContext.getAttribute(HttpClientContext.AUTH_CACHE);
         HttpHost h = new HttpHost(host);
         if (ac == null) {
@@ -487,10 +520,6 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         return asList;
     }
 
-    private void clearCookieStore() {
-        ((CookieStore) httpContext.getAttribute(HttpClientContext.COOKIE_STORE)).clear();
-    }
-
     private CredentialsProvider getCredentialsProvider() {
         return (CredentialsProvider) httpContext.getAttribute(HttpClientContext.CREDS_PROVIDER);
     }
@@ -597,6 +626,52 @@ public class HttpClientConnection implements OpenRosaHttpInterface {
         return req;
     }
 
+    private static class PooledHttpClient {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final HttpClient httpClient;
+
+        PooledHttpClient(int timeout) {
+            // configure connection
+            SocketConfig socketConfig = SocketConfig.copy(SocketConfig.DEFAULT).setSoTimeout(
+                    2 * timeout)
+                    .build();
+
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+            // the socket config has to be set on the pool, the client's is ignored
+            connectionManager.setDefaultSocketConfig(socketConfig);
+            // a server may have closed a connection that was idle in the pool
+            connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+            // if possible, bias toward digest auth (may not be in 4.0 beta 2)
+            List<String> targetPreferredAuthSchemes = new ArrayList<>();
+            targetPreferredAuthSchemes.add(AuthSchemes.DIGEST);
+            targetPreferredAuthSchemes.add(AuthSchemes.BASIC);
+
+            RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT)
+                    .setConnectTimeout(timeout)
+                    // don't wait forever for a connection from the pool
+                    .setConnectionRequestTimeout(timeout)
+                    // support authenticating
+                    .setAuthenticationEnabled(true)
+                    // support redirecting to handle http: => https: transition
+                    .setRedirectsEnabled(true)
+                    .setMaxRedirects(1)
+                    .setCircularRedirectsAllowed(true)
+                    .setTargetPreferredAuthSchemes(targetPreferredAuthSchemes)
+                    .setCookieSpec(CookieSpecs.DEFAULT)
+                    .build();
+
+            httpClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
     public static class AgingCredentialsProvider implements CredentialsProvider {
 
         private final ConcurrentHashMap<AuthScope, Credentials> credMap;
@@ -17,6 +17,8 @@
 package org.odk.collect.android.http;
 
 import android.support.annotation.NonNull;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import timber.log.Timber;
@@ -29,12 +31,25 @@ public class HttpGetResult {
     private final InputStream inputStream;
     private final Map<String, String> headers;
     private final String hash;
+    private final Md5InputStream hashingStream;
     private final int statusCode;
 
     public HttpGetResult(InputStream is, @NonNull Map<String, String> headers, String hash, int statusCode) {
         inputStream = is;
         this.headers = headers;
         this.hash = hash;
+        this.hashingStream = null;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @param hashingStream the raw body, hashed as the consumer reads {@code is}
+     */
+    HttpGetResult(InputStream is, @NonNull Map<String, String> headers, @NonNull Md5InputStream hashingStream, int statusCode) {
+        inputStream = is;
+        this.headers = headers;
+        this.hash = null;
+        this.hashingStream = hashingStream;
         this.statusCode = statusCode;
     }
 
@@ -42,8 +57,36 @@ public class HttpGetResult {
         return inputStream;
     }
 
+    /**
+     * Returns the MD5 hash of the body. When it is computed while the body is read, it should
+     * only be asked for once the stream has been consumed; anything left is read first.
+     *
+     * @return the hash, or null if the body couldn't be read
+     */
     public String getHash() {
-        return hash;
+        if (hashingStream == null) {
+            return hash;
+        }
+        try {
+            return hashingStream.getHash();
+        } catch (IOException e) {
+            Timber.e(e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value of a header of the response, ignoring the case of its name.
+     *
+     * @return the value, or null if the response doesn't have that header
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
     }
 
     public boolean isOpenRosaResponse() {
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the MD5 hash of a stream while it is being read, so that a response body doesn't
+ * have to be held in memory to be hashed. Closing the stream reads whatever the consumer left
+ * behind so the hash always covers the whole body.
+ */
+class Md5InputStream extends FilterInputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest md;
+    private boolean closed;
+    private String hash;
+
+    Md5InputStream(InputStream in) throws NoSuchAlgorithmException {
+        super(in);
+        md = MessageDigest.getInstance("MD5");
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            md.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = in.read(buffer, offset, length);
+        if (count > 0) {
+            md.update(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes still have to be hashed
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        // not supported, the bytes read after a reset would be hashed twice
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // hashing the rest of the body
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the MD5 hash of the whole stream as 32 lowercase hex digits. The stream is read to
+     * the end and closed if it hasn't been already.
+     */
+    String getHash() throws IOException {
+        if (hash == null) {
+            close();
+            byte[] digest = md.digest();
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0F];
+            }
+            hash = new String(hex);
+        }
+        return hash;
+    }
+}
@@ -39,6 +39,20 @@ public interface OpenRosaHttpInterface {
     @NonNull
     HttpGetResult get(@NonNull URI uri, @Nullable String contentType, @Nullable HttpCredentialsInterface credentials) throws Exception;
 
+    /**
+     * Like {@link #get(URI, String, HttpCredentialsInterface)}, but asks the server to only send
+     * the body if it changed since it was fetched with the given validators. If it didn't, the
+     * result has the status code {@link java.net.HttpURLConnection#HTTP_NOT_MODIFIED} and no
+     * stream.
+     *
+     * @param eTag the ETag header of the response the body was last fetched with, may be null
+     * @param lastModified the Last-Modified header of that response, may be null
+     * @throws Exception a multitude of Exceptions such as IOException can be thrown
+     */
+    @NonNull
+    HttpGetResult getIfChanged(@NonNull URI uri, @Nullable String contentType, @Nullable HttpCredentialsInterface credentials,
+                               @Nullable String eTag, @Nullable String lastModified) throws Exception;
+
     /**
      * Performs a Http Head request.
      *
@@ -50,11 +64,12 @@ public interface OpenRosaHttpInterface {
     HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception;
 
     /**
-     * Uploads files to a Server.
+     * Uploads files to a Server. Large submissions are split into several posts.
      *
      * @param fileList List of Files to be uploaded
      * @param submissionFile The main file to be uploaded (Form file)
      * @param uri where to send the submissionFile and fileList
+     * @param progressListener notified of the files of each post the server accepted, may be null
      * @return ResponseMessageParser object that contains the response XML
      * @throws IOException can be thrown if files do not exist
      */
@@ -62,6 +77,16 @@ public interface OpenRosaHttpInterface {
     ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList,
                                                @NonNull File submissionFile,
                                                @NonNull URI uri,
-                                               @Nullable HttpCredentialsInterface credentials) throws IOException;
+                                               @Nullable HttpCredentialsInterface credentials,
+                                               @Nullable UploadProgressListener progressListener) throws IOException;
+
+    interface UploadProgressListener {
+        /**
+         * Called when the server accepted a post of a submission that is split into several.
+         *
+         * @param files the attachments sent in that post
+         */
+        void onFilesAcknowledged(List<File> files);
+    }
 
 }
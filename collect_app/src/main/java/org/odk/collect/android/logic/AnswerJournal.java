@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.logic;
+
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.AbstractTreeElement;
+import org.javarosa.core.model.instance.TreeElement;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * An append-only log of the answers changed since a savepoint was last written in full. Each
+ * entry holds the path of an instance node, with the multiplicity of every step, and the value
+ * it had when it changed. Replaying the entries over the saved instance gives the instance at
+ * the time of the last entry.
+ *
+ * Calculated values aren't logged since they're computed again when the form is initialized.
+ */
+public final class AnswerJournal {
+
+    private static final int MAGIC = 0x4F414A31; // "OAJ1"
+
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    private static final byte TYPE_NODE = 0;
+    private static final byte TYPE_ANSWER = 1;
+
+    private AnswerJournal() {
+
+    }
+
+    /**
+     * A change to one node of the instance.
+     */
+    public static final class Entry {
+        private final String[] names;
+        private final int[] multiplicities;
+        private final boolean answer;
+        private final String value;
+
+        Entry(String[] names, int[] multiplicities, boolean answer, String value) {
+            this.names = names;
+            this.multiplicities = multiplicities;
+            this.answer = answer;
+            this.value = value;
+        }
+
+        /**
+         * Creates an entry for the current value of a question.
+         */
+        static Entry forAnswer(TreeElement element) {
+            IAnswerData value = element.getValue();
+            return forElement(element, true, value != null ? value.uncast().getString() : null);
+        }
+
+        /**
+         * Creates an entry for a node that has to exist, e.g. a new repeat instance.
+         */
+        static Entry forNode(TreeElement element) {
+            return forElement(element, false, null);
+        }
+
+        private static Entry forElement(TreeElement element, boolean answer, String value) {
+            List<AbstractTreeElement> steps = new ArrayList<>();
+            for (AbstractTreeElement e = element; e != null && e.getName() != null; e = e.getParent()) {
+                steps.add(e);
+            }
+            Collections.reverse(steps);
+
+            String[] names = new String[steps.size()];
+            int[] multiplicities = new int[steps.size()];
+            for (int i = 0; i < steps.size(); i++) {
+                names[i] = steps.get(i).getName();
+                multiplicities[i] = steps.get(i).getMult();
+            }
+            return new Entry(names, multiplicities, answer, value);
+        }
+
+        /**
+         * Identifies the node the entry is for so that later changes can replace earlier ones.
+         */
+        String getKey() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                sb.append('/').append(names[i]).append('[').append(multiplicities[i]).append(']');
+            }
+            return sb.toString();
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeByte(answer ? TYPE_ANSWER : TYPE_NODE);
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                writeString(out, names[i]);
+                out.writeInt(multiplicities[i]);
+            }
+            out.writeBoolean(value != null);
+            if (value != null) {
+                writeString(out, value);
+            }
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            boolean answer = in.readByte() == TYPE_ANSWER;
+            int length = in.readInt();
+            if (length < 0 || length > 1024) {
+                throw new IOException("Invalid path length " + length);
+            }
+            String[] names = new String[length];
+            int[] multiplicities = new int[length];
+            for (int i = 0; i < length; i++) {
+                names[i] = readString(in);
+                multiplicities[i] = in.readInt();
+            }
+            String value = in.readBoolean() ? readString(in) : null;
+            return new Entry(names, multiplicities, answer, value);
+        }
+    }
+
+    /**
+     * Adds entries to the end of the journal, creating it if needed.
+     */
+    public static void append(File journalFile, Collection<Entry> entries) throws IOException {
+        boolean newJournal = !journalFile.exists() || journalFile.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(journalFile, true)));
+        try {
+            if (newJournal) {
+                out.writeInt(MAGIC);
+            }
+            for (Entry entry : entries) {
+                entry.write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Applies the entries of a journal to an instance restored from a savepoint, before it is
+     * imported into the form. Missing nodes are created. An incomplete entry at the end, left by
+     * a write that was interrupted, is ignored.
+     *
+     * @return the number of entries applied
+     */
+    public static int replay(File journalFile, TreeElement root) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        int count = 0;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an answer journal: " + journalFile.getName());
+            }
+            while (true) {
+                Entry entry;
+                try {
+                    entry = Entry.read(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(entry, root);
+                count++;
+            }
+        } catch (EOFException e) {
+            Timber.w("Empty answer journal %s", journalFile.getName());
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+    static void apply(Entry entry, TreeElement root) {
+        if (entry.names.length == 0 || !entry.names[0].equals(root.getName())) {
+            Timber.w("Skipping journal entry %s for a different instance", entry.getKey());
+            return;
+        }
+
+        TreeElement element = root;
+        for (int i = 1; i < entry.names.length; i++) {
+            TreeElement child = element.getChild(entry.names[i], entry.multiplicities[i]);
+            if (child == null) {
+                child = new TreeElement(entry.names[i], entry.multiplicities[i]);
+                element.addChild(child);
+            }
+            element = child;
+        }
+
+        if (entry.answer) {
+            element.setValue(entry.value != null ? new UncastData(entry.value) : null);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        // writeUTF is limited to 64 KB
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
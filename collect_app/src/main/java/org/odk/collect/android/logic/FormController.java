@@ -31,7 +31,9 @@ import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.data.IAnswerData;
 import org.javarosa.core.model.data.StringData;
 import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.InvalidReferenceException;
 import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.core.services.IPropertyManager;
 import org.javarosa.core.services.PrototypeManager;
 import org.javarosa.core.services.transport.payload.ByteArrayPayload;
@@ -56,7 +58,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -138,6 +142,21 @@ public class FormController {
     private final FormEntryController formEntryController;
     private FormIndex indexWaitingForData;
 
+    /*
+     * Changes to the instance since the last savepoint, by node, and whether the next savepoint
+     * has to contain the whole instance
+     */
+    private final Map<String, AnswerJournal.Entry> changesSinceSavepoint = new LinkedHashMap<>();
+    private boolean fullSavepointNeeded = true;
+
+    /*
+     * The index of every event of the form by its XPath as returned by getXPath, built the first
+     * time an XPath is looked up. Entries can be stale after answers change relevance, so they
+     * are checked before being used.
+     */
+    @Nullable
+    private Map<String, FormIndex> indicesByXPath;
+
     public FormController(File mediaFolder, FormEntryController fec, File instanceFile) {
         this.mediaFolder = mediaFolder;
         formEntryController = fec;
@@ -191,8 +210,12 @@ public class FormController {
      * @return xpath value for this index
      */
     public String getXPath(FormIndex index) {
+        return getXPath(index, getEvent());
+    }
+
+    private static String getXPath(FormIndex index, int event) {
         String value;
-        switch (getEvent()) {
+        switch (event) {
             case FormEntryController.EVENT_BEGINNING_OF_FORM:
                 value = "beginningOfForm";
                 break;
@@ -231,26 +254,86 @@ public class FormController {
                 Timber.e("Unexpected string from XPath");
                 throw new IllegalArgumentException("unexpected string from XPath");
             default:
-                FormIndex returned = null;
-                FormIndex saved = getFormIndex();
-                // the only way I know how to do this is to step through the entire form
-                // until the XPath of a form entry matches that of the supplied XPath
-                try {
-                    jumpToIndex(FormIndex.createBeginningOfFormIndex());
-                    int event = stepToNextEvent(true);
-                    while (event != FormEntryController.EVENT_END_OF_FORM) {
-                        String candidateXPath = getXPath(getFormIndex());
-                        // Log.i(t, "xpath: " + candidateXPath);
-                        if (candidateXPath.equals(xpath)) {
-                            returned = getFormIndex();
-                            break;
-                        }
-                        event = stepToNextEvent(true);
+                if (indicesByXPath != null) {
+                    FormIndex index = indicesByXPath.get(xpath);
+                    if (index != null && isCurrentXPathOf(index, xpath)) {
+                        return index;
                     }
-                } finally {
-                    jumpToIndex(saved);
                 }
-                return returned;
+
+                // the XPath may belong to an event that wasn't relevant when the indices were
+                // collected, so step through the entire form again
+                indicesByXPath = collectIndicesByXPath();
+                return indicesByXPath.get(xpath);
+        }
+    }
+
+    /**
+     * Returns whether an index found earlier still refers to a relevant event with this XPath.
+     */
+    private boolean isCurrentXPathOf(FormIndex index, String xpath) {
+        try {
+            int event = getEvent(index);
+            if (!getXPath(index, event).equals(xpath)) {
+                return false;
+            }
+            switch (event) {
+                case FormEntryController.EVENT_QUESTION:
+                case FormEntryController.EVENT_GROUP:
+                case FormEntryController.EVENT_REPEAT:
+                    return formEntryController.getModel().isIndexRelevant(index);
+                default:
+                    return true;
+            }
+        } catch (RuntimeException e) {
+            // the index no longer exists, e.g. its repeat has been removed
+            Timber.d(e);
+            return false;
+        }
+    }
+
+    /**
+     * Steps through the entire form and returns the index of every event by its XPath.
+     */
+    private Map<String, FormIndex> collectIndicesByXPath() {
+        Map<String, FormIndex> indices = new HashMap<>();
+        FormIndex saved = getFormIndex();
+        try {
+            jumpToIndex(FormIndex.createBeginningOfFormIndex());
+            int event = stepToNextEvent(true);
+            while (event != FormEntryController.EVENT_END_OF_FORM) {
+                String xpath = getXPath(getFormIndex(), event);
+                if (!indices.containsKey(xpath)) {
+                    indices.put(xpath, getFormIndex());
+                }
+                event = stepToNextEvent(true);
+            }
+        } finally {
+            jumpToIndex(saved);
+        }
+        return indices;
+    }
+
+    /**
+     * Adds the events of a repeat that was just created, and the prompt for the next one, to the
+     * indices looked up by XPath so that they don't have to be collected again.
+     */
+    private void addRepeatToIndicesByXPath(FormIndex repeatIndex) {
+        FormIndex saved = getFormIndex();
+        try {
+            TreeReference repeatRef = repeatIndex.getReference();
+            int event = jumpToIndex(repeatIndex);
+            while (event != FormEntryController.EVENT_END_OF_FORM) {
+                FormIndex index = getFormIndex();
+                indicesByXPath.put(getXPath(index, event), index);
+                if (!repeatRef.isParentOf(index.getReference(), false)) {
+                    // the first event after the repeat
+                    break;
+                }
+                event = stepToNextEvent(true);
+            }
+        } finally {
+            jumpToIndex(saved);
         }
     }
 
@@ -452,7 +535,9 @@ public class FormController {
      */
     public int answerQuestion(FormIndex index, IAnswerData data) throws JavaRosaException {
         try {
-            return formEntryController.answerQuestion(index, data, true);
+            int saveStatus = formEntryController.answerQuestion(index, data, true);
+            recordAnswerChange(index);
+            return saveStatus;
         } catch (Exception e) {
             throw new JavaRosaException(e);
         }
@@ -488,12 +573,73 @@ public class FormController {
      */
     public boolean saveAnswer(FormIndex index, IAnswerData data) throws JavaRosaException {
         try {
-            return formEntryController.saveAnswer(index, data, true);
+            boolean saved = formEntryController.saveAnswer(index, data, true);
+            recordAnswerChange(index);
+            return saved;
         } catch (Exception e) {
             throw new JavaRosaException(e);
         }
     }
 
+    /**
+     * Returns the changes to the instance since the last call so that they can be added to the
+     * savepoint journal.
+     *
+     * @return the changes, or null if the savepoint has to be written in full
+     */
+    @Nullable
+    public List<AnswerJournal.Entry> takeChangesSinceSavepoint() {
+        synchronized (changesSinceSavepoint) {
+            List<AnswerJournal.Entry> changes = fullSavepointNeeded
+                    ? null
+                    : new ArrayList<>(changesSinceSavepoint.values());
+            changesSinceSavepoint.clear();
+            fullSavepointNeeded = false;
+            return changes;
+        }
+    }
+
+    /**
+     * Makes the next savepoint contain the whole instance, e.g. because changes taken with
+     * {@link #takeChangesSinceSavepoint()} couldn't be written.
+     */
+    public void requireFullSavepoint() {
+        synchronized (changesSinceSavepoint) {
+            fullSavepointNeeded = true;
+        }
+    }
+
+    private void recordAnswerChange(FormIndex index) {
+        TreeElement element = getInstance().resolveReference(index.getReference());
+        if (element == null) {
+            requireFullSavepoint();
+            return;
+        }
+        recordChange(AnswerJournal.Entry.forAnswer(element));
+    }
+
+    private void recordNewNode(TreeElement element) {
+        if (element.isLeaf()) {
+            if (element.getValue() != null) {
+                recordChange(AnswerJournal.Entry.forAnswer(element));
+            }
+        } else {
+            recordChange(AnswerJournal.Entry.forNode(element));
+            for (int i = 0; i < element.getNumChildren(); i++) {
+                recordNewNode(element.getChildAt(i));
+            }
+        }
+    }
+
+    private void recordChange(AnswerJournal.Entry entry) {
+        synchronized (changesSinceSavepoint) {
+            // keep the order of the latest changes
+            String key = entry.getKey();
+            changesSinceSavepoint.remove(key);
+            changesSinceSavepoint.put(key, entry);
+        }
+    }
+
     /**
      * Navigates forward in the form.
      *
@@ -539,6 +685,62 @@ public class FormController {
         }
     }
 
+    /**
+     * Returns the next relevant index after the given one, like stepping to the next event would,
+     * but without moving the current index. If descend is false, the children of the given index
+     * are skipped, e.g. to go from one repeat instance to the next. Like stepping, it creates the
+     * instances of a repeat whose count is given by jr:count as it reaches them.
+     */
+    public FormIndex getNextRelevantIndex(FormIndex index, boolean descend) {
+        FormEntryModel model = formEntryController.getModel();
+        FormIndex next = model.incrementIndex(index, descend);
+        while (next.isInForm() && !model.isIndexRelevant(next)) {
+            // nothing in an irrelevant group is relevant either
+            next = model.incrementIndex(next, false);
+        }
+        createCountedRepeatIfNecessary(next);
+        return next;
+    }
+
+    /**
+     * Creates the instance of a repeat with a jr:count at the given index if it doesn't exist
+     * yet and the count says it should, as FormEntryModel does when the index is stepped to.
+     */
+    private void createCountedRepeatIfNecessary(FormIndex index) {
+        if (!index.isInForm()) {
+            return;
+        }
+        FormDef formDef = getFormDef();
+        IFormElement element = formDef.getChild(index);
+        if (!(element instanceof GroupDef) || !((GroupDef) element).getRepeat()
+                || ((GroupDef) element).getCountReference() == null) {
+            return;
+        }
+
+        TreeReference countRef = FormInstance.unpackReference(((GroupDef) element).getCountReference())
+                .contextualize(index.getReference());
+        TreeElement countElement = formDef.getMainInstance().resolveReference(countRef);
+        IAnswerData count = countElement == null ? null : countElement.getValue();
+        if (count == null || !(count.getValue() instanceof Number)
+                || formDef.getMainInstance().resolveReference(formDef.getChildInstanceRef(index)) != null
+                || index.getTerminal().getInstanceIndex() >= ((Number) count.getValue()).intValue()) {
+            return;
+        }
+
+        try {
+            formDef.createNewRepeat(index);
+        } catch (InvalidReferenceException e) {
+            throw new RuntimeException("Invalid reference while creating a new repeat: " + e.getMessage(), e);
+        }
+
+        TreeElement repeat = formDef.getMainInstance().resolveReference(index.getReference());
+        if (repeat != null) {
+            recordNewNode(repeat);
+        } else {
+            requireFullSavepoint();
+        }
+    }
+
     /**
      * Move the current form index to the index of the previous question in the form.
      * Step backward out of repeats and groups as needed. If the resulting question
@@ -773,7 +975,23 @@ public class FormController {
      * Creates a new repeated instance of the group referenced by the current FormIndex.
      */
     public void newRepeat() {
+        // the prompt becomes the new repeat
+        String promptXPath = getXPath(getFormIndex());
+
         formEntryController.newRepeat();
+
+        if (indicesByXPath != null) {
+            indicesByXPath.remove(promptXPath);
+            addRepeatToIndicesByXPath(getFormIndex());
+        }
+
+        // the new repeat and its default values
+        TreeElement repeat = getInstance().resolveReference(getFormIndex().getReference());
+        if (repeat != null) {
+            recordNewNode(repeat);
+        } else {
+            requireFullSavepoint();
+        }
     }
 
     /**
@@ -785,6 +1003,12 @@ public class FormController {
     public void deleteRepeat() {
         FormIndex fi = formEntryController.deleteRepeat();
         formEntryController.jumpToIndex(fi);
+
+        // the following repeats are renumbered so their indices have to be collected again
+        indicesByXPath = null;
+
+        // the following repeats are renumbered so the journal can't describe it
+        requireFullSavepoint();
     }
 
     /**
@@ -32,6 +32,7 @@ import org.odk.collect.android.database.ItemsetDbAdapter;
 import org.odk.collect.android.database.helpers.FormsDatabaseHelper;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.MediaUtils;
 
 import java.io.File;
@@ -194,9 +195,7 @@ public class FormsProvider extends ContentProvider {
             values.put(FormsColumns.MD5_HASH, md5);
 
             if (!values.containsKey(FormsColumns.JRCACHE_FILE_PATH)) {
-                String cachePath = Collect.CACHE_PATH + File.separator + md5
-                        + ".formdef";
-                values.put(FormsColumns.JRCACHE_FILE_PATH, cachePath);
+                values.put(FormsColumns.JRCACHE_FILE_PATH, FormDefCache.getCacheFilePath(form));
             }
             if (!values.containsKey(FormsColumns.FORM_MEDIA_PATH)) {
                 String pathNoExtension = filePath.substring(0,
@@ -239,6 +238,21 @@ public class FormsProvider extends ContentProvider {
         throw new SQLException("Failed to insert row into " + uri);
     }
 
+    /**
+     * Deletes the cached FormDefs of a form: the one for the form file as it was when the row was
+     * last written and the one for the file as it is now. They differ when the form file has been
+     * modified in place since, because the cache path is derived from its size and last modified
+     * time.
+     */
+    private void deleteFormDefCache(Cursor c) {
+        deleteFileOrDir(c.getString(c.getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+
+        File formFile = new File(c.getString(c.getColumnIndex(FormsColumns.FORM_FILE_PATH)));
+        if (formFile.exists()) {
+            deleteFileOrDir(FormDefCache.getCacheFilePath(formFile));
+        }
+    }
+
     private void deleteFileOrDir(String fileName) {
         File file = new File(fileName);
         if (file.exists()) {
@@ -293,9 +307,7 @@ public class FormsProvider extends ContentProvider {
                         if (del != null && del.getCount() > 0) {
                             del.moveToFirst();
                             do {
-                                deleteFileOrDir(del
-                                        .getString(del
-                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+                                deleteFormDefCache(del);
                                 String formFilePath = del.getString(del
                                         .getColumnIndex(FormsColumns.FORM_FILE_PATH));
                                 deleteFileOrDir(formFilePath);
@@ -321,8 +333,7 @@ public class FormsProvider extends ContentProvider {
                         if (c != null && c.getCount() > 0) {
                             c.moveToFirst();
                             do {
-                                deleteFileOrDir(c.getString(c
-                                        .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
+                                deleteFormDefCache(c);
                                 String formFilePath = c.getString(c
                                         .getColumnIndex(FormsColumns.FORM_FILE_PATH));
                                 deleteFileOrDir(formFilePath);
@@ -394,6 +405,8 @@ public class FormsProvider extends ContentProvider {
                                 .getAsString(FormsColumns.FORM_FILE_PATH);
                         values.put(FormsColumns.MD5_HASH,
                                 FileUtils.getMd5Hash(new File(formFile)));
+                        values.put(FormsColumns.JRCACHE_FILE_PATH,
+                                FormDefCache.getCacheFilePath(new File(formFile)));
                     }
 
                     Cursor c = null;
@@ -405,6 +418,10 @@ public class FormsProvider extends ContentProvider {
                             while (c.moveToNext()) {
                                 // before updating the paths, delete all the files
                                 if (values.containsKey(FormsColumns.FORM_FILE_PATH)) {
+                                    // either way, delete the old cache because we'll
+                                    // calculate a new one.
+                                    deleteFormDefCache(c);
+
                                     String newFile = values
                                             .getAsString(FormsColumns.FORM_FILE_PATH);
                                     String delFile = c
@@ -413,12 +430,6 @@ public class FormsProvider extends ContentProvider {
                                     if (!newFile.equalsIgnoreCase(delFile)) {
                                         deleteFileOrDir(delFile);
                                     }
-
-                                    // either way, delete the old cache because we'll
-                                    // calculate a new one.
-                                    deleteFileOrDir(c
-                                            .getString(c
-                                                    .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
                                 }
                             }
                         }
@@ -473,21 +484,19 @@ public class FormsProvider extends ContentProvider {
                                 String oldFile = update.getString(update
                                         .getColumnIndex(FormsColumns.FORM_FILE_PATH));
 
+                                // we're updating our file, so update the md5
+                                // and get rid of the cache (doesn't harm anything)
+                                deleteFormDefCache(update);
+
                                 if (formFile == null || !formFile.equalsIgnoreCase(oldFile)) {
                                     deleteFileOrDir(oldFile);
                                 }
 
-                                // we're updating our file, so update the md5
-                                // and get rid of the cache (doesn't harm anything)
-                                deleteFileOrDir(update
-                                        .getString(update
-                                                .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
                                 String newMd5 = FileUtils
                                         .getMd5Hash(new File(formFile));
                                 values.put(FormsColumns.MD5_HASH, newMd5);
                                 values.put(FormsColumns.JRCACHE_FILE_PATH,
-                                        Collect.CACHE_PATH + File.separator + newMd5
-                                                + ".formdef");
+                                        FormDefCache.getCacheFilePath(new File(formFile)));
                             }
 
                             // Make sure that the necessary fields are all set
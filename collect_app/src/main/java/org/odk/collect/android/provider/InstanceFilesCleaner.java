@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.provider;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.SubmissionUploadProgress;
+import org.odk.collect.android.utilities.MediaUtils;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.work.Data;
+import timber.log.Timber;
+
+/**
+ * Deletes the folders of deleted instances in the background, in the order they were deleted.
+ * The folders are handed to {@link InstanceFilesCleanupWorker} so that they're still deleted if
+ * the app is stopped before getting to them, with one media provider delete per type of media
+ * for each batch of folders.
+ */
+class InstanceFilesCleaner {
+
+    // keeps the media provider selection under SQLite's limit of variables
+    private static final int MAX_BATCH_SIZE = 200;
+
+    // leaves room in the input data of the work for the serialization of the paths
+    private static final int MAX_PATHS_BYTES = Data.MAX_DATA_BYTES / 2;
+
+    private static final InstanceFilesCleaner INSTANCE = new InstanceFilesCleaner();
+
+    InstanceFilesCleaner() {
+
+    }
+
+    static InstanceFilesCleaner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues the folders to be deleted with everything in them.
+     */
+    void delete(List<File> instanceDirectories) {
+        List<String> paths = new ArrayList<>();
+        int pathsBytes = 0;
+        for (File directory : instanceDirectories) {
+            String path = directory.getAbsolutePath();
+            int pathBytes = path.getBytes(Charset.forName("UTF-8")).length;
+            if (!paths.isEmpty() && pathsBytes + pathBytes > MAX_PATHS_BYTES) {
+                InstanceFilesCleanupWorker.enqueue(paths);
+                paths = new ArrayList<>();
+                pathsBytes = 0;
+            }
+            paths.add(path);
+            pathsBytes += pathBytes;
+        }
+
+        if (!paths.isEmpty()) {
+            InstanceFilesCleanupWorker.enqueue(paths);
+        }
+    }
+
+    /**
+     * Deletes the folders with everything in them. Called by {@link InstanceFilesCleanupWorker}.
+     */
+    static void deleteDirectories(List<File> instanceDirectories) {
+        for (int start = 0; start < instanceDirectories.size(); start += MAX_BATCH_SIZE) {
+            List<File> batch = instanceDirectories.subList(start,
+                    Math.min(instanceDirectories.size(), start + MAX_BATCH_SIZE));
+
+            List<File> directories = new ArrayList<>();
+            for (File directory : batch) {
+                // do not delete the directory if it might be an
+                // ODK Tables instance data directory. Let ODK Tables
+                // manage the lifetimes of its filled-in form data
+                // media attachments.
+                if (directory.isDirectory() && !Collect.isODKTablesInstanceDataDirectory(directory)) {
+                    directories.add(directory);
+                }
+            }
+
+            // the progress of split submissions is kept in another database
+            SubmissionUploadProgress.getInstance().clearFolders(batch);
+
+            // delete any media entries for files in these directories...
+            int media = MediaUtils.deleteMediaInFoldersFromMediaProvider(directories);
+            Timber.i("removed %d media files of %d instances from content providers", media, batch.size());
+
+            for (File directory : directories) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        // should make this recursive if we get worried about
+                        // the media directory containing directories
+                        f.delete();
+                    }
+                }
+            }
+            for (File directory : batch) {
+                directory.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.provider;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Deletes the files of deleted instances, see {@link InstanceFilesCleaner}.
+ */
+public class InstanceFilesCleanupWorker extends Worker {
+    private static final String DIRECTORY_PATHS = "directoryPaths";
+
+    public InstanceFilesCleanupWorker(@NonNull Context c, @NonNull WorkerParameters parameters) {
+        super(c, parameters);
+    }
+
+    /**
+     * Requests that the given instance folders be deleted. The folders are deleted one request
+     * after the other, in the order they were requested.
+     */
+    static void enqueue(List<String> directoryPaths) {
+        Data inputData = new Data.Builder()
+                .putStringArray(DIRECTORY_PATHS, directoryPaths.toArray(new String[directoryPaths.size()]))
+                .build();
+        OneTimeWorkRequest cleanupWork =
+                new OneTimeWorkRequest.Builder(InstanceFilesCleanupWorker.class)
+                        .addTag(InstanceFilesCleanupWorker.class.getName())
+                        .setInputData(inputData)
+                        .build();
+        WorkManager.getInstance().beginUniqueWork(InstanceFilesCleanupWorker.class.getName(),
+                ExistingWorkPolicy.APPEND, cleanupWork).enqueue();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String[] directoryPaths = getInputData().getStringArray(DIRECTORY_PATHS);
+        if (directoryPaths == null) {
+            return Result.FAILURE;
+        }
+
+        List<File> directories = new ArrayList<>();
+        for (String path : directoryPaths) {
+            directories.add(new File(path));
+        }
+        InstanceFilesCleaner.deleteDirectories(directories);
+
+        // folders that couldn't be deleted are left behind rather than failing the deletions
+        // appended after this one
+        return Result.SUCCESS;
+    }
+}
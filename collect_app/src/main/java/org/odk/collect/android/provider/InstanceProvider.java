@@ -15,35 +15,46 @@
 package org.odk.collect.android.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.helpers.InstancesDatabaseHelper;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
-import org.odk.collect.android.utilities.MediaUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 import timber.log.Timber;
 
 import static org.odk.collect.android.database.helpers.InstancesDatabaseHelper.INSTANCES_TABLE_NAME;
+import static org.odk.collect.android.utilities.ApplicationConstants.SQLITE_MAX_VARIABLE_NUMBER;
 import static org.odk.collect.android.utilities.PermissionUtils.checkIfStoragePermissionsGranted;
 
 public class InstanceProvider extends ContentProvider {
+    public static final String METHOD_DELETE_INSTANCES = "deleteInstances";
+    public static final String EXTRA_INSTANCE_IDS = "instanceIds";
+    public static final String EXTRA_DELETED_COUNT = "deletedCount";
+
     private static HashMap<String, String> sInstancesProjectionMap;
 
     private static final int INSTANCES = 1;
@@ -51,6 +62,14 @@ public class InstanceProvider extends ContentProvider {
 
     private static final UriMatcher URI_MATCHER;
 
+    // set while a batch is applied so that a single change is notified for the whole batch
+    private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<>();
+    // folders of the instances deleted by the batch being applied, removed once it's committed
+    private final ThreadLocal<List<File>> batchDirectories = new ThreadLocal<>();
+
+    @VisibleForTesting
+    InstanceFilesCleaner filesCleaner = InstanceFilesCleaner.getInstance();
+
     private static InstancesDatabaseHelper dbHelper;
     
     private synchronized InstancesDatabaseHelper getDbHelper() {
@@ -171,7 +190,7 @@ public class InstanceProvider extends ContentProvider {
             long rowId = instancesDatabaseHelper.getWritableDatabase().insert(INSTANCES_TABLE_NAME, null, values);
             if (rowId > 0) {
                 Uri instanceUri = ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, rowId);
-                getContext().getContentResolver().notifyChange(instanceUri, null);
+                notifyChange(instanceUri);
                 return instanceUri;
             }
         }
@@ -207,37 +226,35 @@ public class InstanceProvider extends ContentProvider {
         }
     }
 
-    private void deleteAllFilesInDirectory(File directory) {
-        if (directory.exists()) {
-            // do not delete the directory if it might be an
-            // ODK Tables instance data directory. Let ODK Tables
-            // manage the lifetimes of its filled-in form data
-            // media attachments.
-            if (directory.isDirectory() && !Collect.isODKTablesInstanceDataDirectory(directory)) {
-                // delete any media entries for files in this directory...
-                int images = MediaUtils.deleteImagesInFolderFromMediaProvider(directory);
-                int audio = MediaUtils.deleteAudioInFolderFromMediaProvider(directory);
-                int video = MediaUtils.deleteVideoInFolderFromMediaProvider(directory);
-
-                Timber.i("removed from content providers: %d image files, %d audio files,"
-                        + " and %d video files.", images, audio, video);
-
-                // delete all the files in the directory
-                File[] files = directory.listFiles();
-                for (File f : files) {
-                    // should make this recursive if we get worried about
-                    // the media directory containing directories
-                    f.delete();
+    /**
+     * Returns the folders of the instances matching the selection.
+     */
+    private List<File> getInstanceDirectories(SQLiteDatabase db, String where, String[] whereArgs) {
+        List<File> directories = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = db.query(INSTANCES_TABLE_NAME, new String[]{InstanceColumns.INSTANCE_FILE_PATH},
+                    where, whereArgs, null, null, null);
+            while (c.moveToNext()) {
+                String instanceFile = c.getString(0);
+                if (instanceFile != null) {
+                    directories.add(new File(instanceFile).getParentFile());
                 }
             }
-            directory.delete();
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
+        return directories;
     }
 
     /**
      * This method removes the entry from the content provider, and also removes any associated
      * files.
      * files:  form.xml, [formmd5].formdef, formname-media {directory}
+     *
+     * The files are removed in the background after the entries, see {@link InstanceFilesCleaner}.
      */
     @Override
     public int delete(@NonNull Uri uri, String where, String[] whereArgs) {
@@ -248,84 +265,163 @@ public class InstanceProvider extends ContentProvider {
         InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
         if (instancesDatabaseHelper != null) {
             SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+            List<File> directories = new ArrayList<>();
 
             switch (URI_MATCHER.match(uri)) {
                 case INSTANCES:
-                    Cursor del = null;
-                    try {
-                        del = this.query(uri, null, where, whereArgs, null);
-                        if (del != null && del.getCount() > 0) {
-                            del.moveToFirst();
-                            do {
-                                String instanceFile = del.getString(
-                                        del.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                                File instanceDir = (new File(instanceFile)).getParentFile();
-                                deleteAllFilesInDirectory(instanceDir);
-                            } while (del.moveToNext());
-                        }
-                    } finally {
-                        if (del != null) {
-                            del.close();
-                        }
-                    }
+                    directories.addAll(getInstanceDirectories(db, where, whereArgs));
                     count = db.delete(INSTANCES_TABLE_NAME, where, whereArgs);
                     break;
 
                 case INSTANCE_ID:
                     String instanceId = uri.getPathSegments().get(1);
 
-                    Cursor c = null;
-                    String status = null;
-                    try {
-                        c = this.query(uri, null, where, whereArgs, null);
-                        if (c != null && c.getCount() > 0) {
-                            c.moveToFirst();
-                            status = c.getString(c.getColumnIndex(InstanceColumns.STATUS));
-                            do {
-                                String instanceFile = c.getString(
-                                        c.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                                File instanceDir = (new File(instanceFile)).getParentFile();
-                                deleteAllFilesInDirectory(instanceDir);
-                            } while (c.moveToNext());
-                        }
-                    } finally {
-                        if (c != null) {
-                            c.close();
-                        }
-                    }
-
-                    //We are going to update the status, if the form is submitted
-                    //We will not delete the record in table but we will delete the file
-                    if (status != null && status.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
-                        ContentValues cv = new ContentValues();
-                        cv.put(InstanceColumns.DELETED_DATE, System.currentTimeMillis());
-                        count = Collect.getInstance().getContentResolver().update(uri, cv, null, null);
+                    String[] newWhereArgs;
+                    if (whereArgs == null || whereArgs.length == 0) {
+                        newWhereArgs = new String[] {instanceId};
                     } else {
-                        String[] newWhereArgs;
-                        if (whereArgs == null || whereArgs.length == 0) {
-                            newWhereArgs = new String[] {instanceId};
-                        } else {
-                            newWhereArgs = new String[whereArgs.length + 1];
-                            newWhereArgs[0] = instanceId;
-                            System.arraycopy(whereArgs, 0, newWhereArgs, 1, whereArgs.length);
-                        }
-
-                        count =
-                                db.delete(INSTANCES_TABLE_NAME,
-                                        InstanceColumns._ID
-                                                + "=?"
-                                                + (!TextUtils.isEmpty(where) ? " AND ("
-                                                + where + ')' : ""), newWhereArgs);
+                        newWhereArgs = new String[whereArgs.length + 1];
+                        newWhereArgs[0] = instanceId;
+                        System.arraycopy(whereArgs, 0, newWhereArgs, 1, whereArgs.length);
                     }
+                    String idWhere = InstanceColumns._ID
+                            + "=?"
+                            + (!TextUtils.isEmpty(where) ? " AND ("
+                            + where + ')' : "");
+
+                    count = deleteInstances(db, idWhere, newWhereArgs, directories);
                     break;
 
                 default:
                     throw new IllegalArgumentException("Unknown URI " + uri);
             }
 
+            deleteFilesOnceCommitted(directories);
+            notifyChange(uri);
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes many instances at once when called with {@link #METHOD_DELETE_INSTANCES} and the ids
+     * of the instances as a long array in {@link #EXTRA_INSTANCE_IDS}. The instances are deleted
+     * like through their own URIs, but in a single transaction and with a single notification.
+     * The number of instances deleted is returned in {@link #EXTRA_DELETED_COUNT}.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (!METHOD_DELETE_INSTANCES.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+
+        Bundle result = new Bundle();
+        long[] ids = extras != null ? extras.getLongArray(EXTRA_INSTANCE_IDS) : null;
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (ids == null || ids.length == 0 || instancesDatabaseHelper == null
+                || !checkIfStoragePermissionsGranted(getContext())) {
+            result.putInt(EXTRA_DELETED_COUNT, 0);
+            return result;
+        }
+
+        int count = 0;
+        List<File> directories = new ArrayList<>();
+        SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int start = 0; start < ids.length; start += SQLITE_MAX_VARIABLE_NUMBER) {
+                int end = Math.min(ids.length, start + SQLITE_MAX_VARIABLE_NUMBER);
+                StringBuilder selection = new StringBuilder(InstanceColumns._ID + " IN (");
+                String[] selectionArgs = new String[end - start];
+                for (int i = start; i < end; i++) {
+                    selection.append(i > start ? ",?" : "?");
+                    selectionArgs[i - start] = String.valueOf(ids[i]);
+                }
+                selection.append(')');
+
+                count += deleteInstances(db, selection.toString(), selectionArgs, directories);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // only once the rows are gone, so that no instance is left without its files
+        filesCleaner.delete(directories);
+        notifyChange(InstanceColumns.CONTENT_URI);
+
+        result.putInt(EXTRA_DELETED_COUNT, count);
+        return result;
+    }
+
+    /**
+     * Applies all the operations in a single transaction, e.g. to add and remove many instances
+     * at once, and notifies a single change once they're all applied.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (instancesDatabaseHelper == null) {
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+        List<File> directories = new ArrayList<>();
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        applyingBatch.set(true);
+        batchDirectories.set(directories);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            applyingBatch.set(false);
+            batchDirectories.remove();
+            db.endTransaction();
+            notifyChange(InstanceColumns.CONTENT_URI);
+        }
+
+        filesCleaner.delete(directories);
+        return results;
+    }
+
+    /**
+     * Queues the files of deleted instances to be removed, or keeps them until the batch being
+     * applied is committed so that they're kept if it's rolled back.
+     */
+    private void deleteFilesOnceCommitted(List<File> directories) {
+        List<File> pending = batchDirectories.get();
+        if (pending != null) {
+            pending.addAll(directories);
+        } else {
+            filesCleaner.delete(directories);
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        if (!Boolean.TRUE.equals(applyingBatch.get())) {
             getContext().getContentResolver().notifyChange(uri, null);
         }
+    }
+
+    /**
+     * Removes the instances matching the selection and adds their folders to the given list, for
+     * their files to be removed once the change is committed. Submitted instances keep their
+     * entry, marked as deleted, so that they're still listed as sent.
+     */
+    private int deleteInstances(SQLiteDatabase db, String where, String[] whereArgs, List<File> directories) {
+        directories.addAll(getInstanceDirectories(db, where, whereArgs));
 
+        String submitted = InstanceColumns.STATUS + "='" + InstanceProviderAPI.STATUS_SUBMITTED + "'";
+        ContentValues cv = new ContentValues();
+        long now = System.currentTimeMillis();
+        cv.put(InstanceColumns.DELETED_DATE, now);
+        cv.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, now);
+
+        int count = db.update(INSTANCES_TABLE_NAME, cv, '(' + where + ") AND " + submitted, whereArgs);
+        count += db.delete(INSTANCES_TABLE_NAME, '(' + where + ") AND NOT (" + submitted + ')', whereArgs);
         return count;
     }
 
@@ -397,7 +493,7 @@ public class InstanceProvider extends ContentProvider {
                     throw new IllegalArgumentException("Unknown URI " + uri);
             }
 
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return count;
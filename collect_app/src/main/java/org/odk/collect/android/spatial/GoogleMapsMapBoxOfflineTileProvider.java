@@ -20,9 +20,6 @@ package org.odk.collect.android.spatial;
  * @author jonnordling@gmail.com
  */
 
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Tile;
@@ -43,7 +40,7 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
 
     private LatLngBounds bounds;
 
-    private SQLiteDatabase database;
+    private MBTilesReader reader;
 
     // ------------------------------------------------------------------------
     // Constructors
@@ -54,8 +51,7 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
     }
 
     public GoogleMapsMapBoxOfflineTileProvider(String pathToFile) {
-        int flags = SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS;
-        this.database = SQLiteDatabase.openDatabase(pathToFile, null, flags);
+        this.reader = MBTilesReader.acquire(new File(pathToFile));
         this.calculateZoomConstraints();
         this.calculateBounds();
     }
@@ -68,22 +64,9 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
     public Tile getTile(int x, int y, int z) {
         Tile tile = NO_TILE;
         if (this.isZoomLevelAvailable(z) && this.isDatabaseAvailable()) {
-            String[] projection = {
-                    "tile_data"
-            };
-            int row = (int) (Math.pow(2, z) - y) - 1;
-            String predicate = "tile_row = ? AND tile_column = ? AND zoom_level = ?";
-            String[] values = {
-                    String.valueOf(row), String.valueOf(x), String.valueOf(z)
-            };
-            Cursor c = this.database.query("tiles", projection, predicate, values, null, null,
-                    null);
-            if (c != null) {
-                c.moveToFirst();
-                if (!c.isAfterLast()) {
-                    tile = new Tile(256, 256, c.getBlob(0));
-                }
-                c.close();
+            byte[] data = this.reader.getTile(x, y, z);
+            if (data != null) {
+                tile = new Tile(256, 256, data);
             }
         }
         return tile;
@@ -94,9 +77,9 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
     // ------------------------------------------------------------------------
     @Override
     public void close() {
-        if (this.database != null) {
-            this.database.close();
-            this.database = null;
+        if (this.reader != null) {
+            this.reader.release();
+            this.reader = null;
         }
     }
 
@@ -126,43 +109,23 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
 
     private void calculateZoomConstraints() {
         if (this.isDatabaseAvailable()) {
-
-            String[] projection = new String[]{"value"};
-            String[] minArgs = new String[]{"minzoom"};
-
-            Cursor c = this.database.query("metadata", projection, "name = ?", minArgs, null, null, null);
-
-            c.moveToFirst();
-            if (!c.isAfterLast()) {
-                this.minimumZoom = c.getInt(0);
+            String minZoom = this.reader.getMetadata("minzoom");
+            if (minZoom != null) {
+                this.minimumZoom = (int) Double.parseDouble(minZoom.trim());
             }
-            c.close();
-
-            String[] maxArgs = new String[]{"maxzoom"};
-            c = this.database.query("metadata", projection, "name = ?", maxArgs, null, null, null);
 
-            c.moveToFirst();
-            if (!c.isAfterLast()) {
-                this.maximumZoom = c.getInt(0);
+            String maxZoom = this.reader.getMetadata("maxzoom");
+            if (maxZoom != null) {
+                this.maximumZoom = (int) Double.parseDouble(maxZoom.trim());
             }
-            c.close();
         }
     }
 
     private void calculateBounds() {
         if (this.isDatabaseAvailable()) {
-            String[] projection = new String[]{
-                    "value"
-            };
-
-            String[] subArgs = new String[]{
-                    "bounds"
-            };
-            Cursor c = this.database.query("metadata", projection, "name = ?", subArgs, null, null,
-                    null);
-            c.moveToFirst();
-            if (!c.isAfterLast()) {
-                String[] parts = c.getString(0).split(",\\s*");
+            String bounds = this.reader.getMetadata("bounds");
+            if (bounds != null) {
+                String[] parts = bounds.split(",\\s*");
 
                 double w = Double.parseDouble(parts[0]);
                 double s = Double.parseDouble(parts[1]);
@@ -174,12 +137,11 @@ public class GoogleMapsMapBoxOfflineTileProvider implements TileProvider, Closea
 
                 this.bounds = new LatLngBounds(sw, ne);
             }
-            c.close();
         }
     }
 
     private boolean isDatabaseAvailable() {
-        return (this.database != null) && (this.database.isOpen());
+        return this.reader != null;
     }
 
-}
\ No newline at end of file
+}
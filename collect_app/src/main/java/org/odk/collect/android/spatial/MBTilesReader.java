@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.spatial;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Reads tiles from an MBTiles file for both the Google and the OSM maps. There is one reader per
+ * file, shared by every map showing it, with a cache of the tiles read recently, bounded by their
+ * size in bytes. Tiles that the file doesn't have are cached as well, but not the ones that
+ * couldn't be read so that they're tried again.
+ *
+ * When a tile has to be read from the file, the tiles around it at the same zoom level are read
+ * in the background as well since the map is likely to ask for them next while it's panned.
+ *
+ * Tiles are addressed like the maps do, with y growing southwards, and converted to the TMS rows
+ * that MBTiles uses.
+ */
+public final class MBTilesReader {
+
+    private static final int CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_PENDING_PREFETCHES = 32;
+
+    private static final String TILE_QUERY = "SELECT tile_data FROM tiles"
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    // cached for tiles that aren't in the file
+    private static final byte[] NO_TILE = new byte[0];
+
+    private static final Map<String, MBTilesReader> READERS = new HashMap<>();
+
+    private final String path;
+    private final SQLiteDatabase database;
+    // the database is used by one query at a time
+    private final Object databaseLock = new Object();
+    private final LruCache<Long, byte[]> tileCache;
+    private final ThreadPoolExecutor prefetchExecutor;
+    private int references;
+
+    private MBTilesReader(String path) {
+        this.path = path;
+        int flags = SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS;
+        database = SQLiteDatabase.openDatabase(path, null, flags);
+        tileCache = new LruCache<Long, byte[]>(CACHE_SIZE_BYTES) {
+            @Override
+            protected int sizeOf(Long key, byte[] value) {
+                return Math.max(value.length, 1);
+            }
+        };
+        prefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_PREFETCHES),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        prefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the reader for a file, opening it if no map uses it yet. Every reader returned has
+     * to be released once the map doesn't need it anymore.
+     */
+    public static MBTilesReader acquire(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (READERS) {
+            MBTilesReader reader = READERS.get(path);
+            if (reader == null) {
+                reader = new MBTilesReader(path);
+                READERS.put(path, reader);
+            }
+            reader.references++;
+            return reader;
+        }
+    }
+
+    /**
+     * Closes the file once no map uses it anymore.
+     */
+    public void release() {
+        synchronized (READERS) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            READERS.remove(path);
+        }
+
+        prefetchExecutor.shutdownNow();
+        tileCache.evictAll();
+        synchronized (databaseLock) {
+            database.close();
+        }
+    }
+
+    /**
+     * Returns the data of a tile, or null if the file doesn't have it or it couldn't be read.
+     */
+    @Nullable
+    public byte[] getTile(int x, int y, int zoom) {
+        long key = getKey(x, y, zoom);
+        byte[] data = tileCache.get(key);
+        if (data == null) {
+            data = readTile(x, y, zoom);
+            if (data == null) {
+                return null;
+            }
+            tileCache.put(key, data);
+            prefetchNeighbors(x, y, zoom);
+        }
+        return data != NO_TILE ? data : null;
+    }
+
+    /**
+     * Returns the value of an entry of the metadata table, or null if there is none.
+     */
+    @Nullable
+    public String getMetadata(String name) {
+        Cursor c = null;
+        try {
+            synchronized (databaseLock) {
+                c = database.query("metadata", new String[]{"value"}, "name = ?",
+                        new String[]{name}, null, null, null);
+                return c.moveToFirst() ? c.getString(0) : null;
+            }
+        } catch (SQLException e) {
+            Timber.w(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Runs a query returning a single number, e.g. the minimum zoom level of the tiles.
+     *
+     * @return the number, or -1 if the query didn't return any
+     */
+    public int getInt(String sql) {
+        Cursor c = null;
+        try {
+            synchronized (databaseLock) {
+                c = database.rawQuery(sql, new String[]{});
+                return c.moveToFirst() && !c.isNull(0) ? c.getInt(0) : -1;
+            }
+        } catch (SQLException e) {
+            Timber.w(e);
+            return -1;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the data of any tile in the file, or null if it doesn't have any.
+     */
+    @Nullable
+    public byte[] getAnyTile() {
+        Cursor c = null;
+        try {
+            synchronized (databaseLock) {
+                c = database.rawQuery("SELECT tile_data FROM tiles LIMIT 0,1", new String[]{});
+                return c.moveToFirst() ? c.getBlob(0) : null;
+            }
+        } catch (SQLException e) {
+            Timber.w(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    private void prefetchNeighbors(final int x, final int y, final int zoom) {
+        final int lastTile = (1 << zoom) - 1;
+        try {
+            prefetchExecutor.execute(() -> {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if ((dx != 0 || dy != 0) && nx >= 0 && ny >= 0 && nx <= lastTile && ny <= lastTile) {
+                            long key = getKey(nx, ny, zoom);
+                            if (tileCache.get(key) == null) {
+                                byte[] data = readTile(nx, ny, zoom);
+                                if (data != null) {
+                                    tileCache.put(key, data);
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // the reader has been released
+            Timber.d(e);
+        }
+    }
+
+    /**
+     * @return the data of the tile, {@link #NO_TILE} if the file doesn't have it or null if it
+     * couldn't be read
+     */
+    @Nullable
+    private byte[] readTile(int x, int y, int zoom) {
+        int row = (1 << zoom) - 1 - y;
+        Cursor c = null;
+        try {
+            synchronized (databaseLock) {
+                if (!database.isOpen()) {
+                    return null;
+                }
+
+                // a blob file descriptor would need shared memory of its own for every tile
+                c = database.rawQuery(TILE_QUERY, new String[]{String.valueOf(zoom),
+                        String.valueOf(x), String.valueOf(row)});
+                if (!c.moveToFirst()) {
+                    return NO_TILE;
+                }
+                byte[] data = c.getBlob(0);
+                return data != null ? data : NO_TILE;
+            }
+        } catch (SQLException | IllegalStateException e) {
+            // e.g. a tile too large for the cursor window
+            Timber.w(e, "Unable to read tile %d/%d/%d from %s", zoom, x, y, path);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    static long getKey(int x, int y, int zoom) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+}
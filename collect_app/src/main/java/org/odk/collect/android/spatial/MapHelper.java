@@ -80,6 +80,7 @@ public class MapHelper {
 
     private TilesOverlay osmTileOverlay;
     private TileOverlay googleTileOverlay;
+    private GoogleMapsMapBoxOfflineTileProvider googleTileProvider;
     private IRegisterReceiver iregisterReceiver;
 
     private final org.odk.collect.android.spatial.TileSourceFactory tileFactory;
@@ -238,16 +239,10 @@ public class MapHelper {
         switch (item) {
             case 0:
                 if (googleMap != null) {
-                    if (googleTileOverlay != null) {
-                        googleTileOverlay.remove();
-                    }
-
+                    removeGoogleTileOverlay();
                 } else {
                     //OSM
-                    if (osmTileOverlay != null) {
-                        osmMap.getOverlays().remove(osmTileOverlay);
-                        osmMap.invalidate();
-                    }
+                    removeOsmTileOverlay();
                 }
                 selectedLayer = item;
                 break;
@@ -262,22 +257,16 @@ public class MapHelper {
                         if (googleMap != null) {
                             try {
                                 //googleMap.clear();
-                                if (googleTileOverlay != null) {
-                                    googleTileOverlay.remove();
-                                }
+                                removeGoogleTileOverlay();
                                 TileOverlayOptions opts = new TileOverlayOptions();
-                                GoogleMapsMapBoxOfflineTileProvider provider =
-                                        new GoogleMapsMapBoxOfflineTileProvider(spfile);
-                                opts.tileProvider(provider);
+                                googleTileProvider = new GoogleMapsMapBoxOfflineTileProvider(spfile);
+                                opts.tileProvider(googleTileProvider);
                                 googleTileOverlay = googleMap.addTileOverlay(opts);
                             } catch (Exception e) {
                                 break;
                             }
                         } else {
-                            if (osmTileOverlay != null) {
-                                osmMap.getOverlays().remove(osmTileOverlay);
-                                osmMap.invalidate();
-                            }
+                            removeOsmTileOverlay();
                             osmMap.invalidate();
                             OsmMBTileProvider mbprovider = new OsmMBTileProvider(
                                     iregisterReceiver, spfile);
@@ -295,6 +284,39 @@ public class MapHelper {
         }
     }
 
+    /**
+     * Removes the offline layer shown, if any, releasing its file. To be called when the map is
+     * destroyed.
+     */
+    public void onDestroy() {
+        if (googleMap != null) {
+            removeGoogleTileOverlay();
+        } else if (osmMap != null) {
+            removeOsmTileOverlay();
+        }
+    }
+
+    private void removeGoogleTileOverlay() {
+        if (googleTileOverlay != null) {
+            googleTileOverlay.remove();
+            googleTileOverlay = null;
+        }
+        if (googleTileProvider != null) {
+            googleTileProvider.close();
+            googleTileProvider = null;
+        }
+    }
+
+    private void removeOsmTileOverlay() {
+        if (osmTileOverlay != null) {
+            osmMap.getOverlays().remove(osmTileOverlay);
+            // releases the tile provider and its file
+            osmTileOverlay.onDetach(osmMap);
+            osmTileOverlay = null;
+            osmMap.invalidate();
+        }
+    }
+
     private File[] getFileFromSelectedItem(int item) {
         File directory = new File(Collect.OFFLINE_LAYERS + SLASH + offilineOverlays[item]);
         return directory.listFiles(new FilenameFilter() {
@@ -61,8 +61,15 @@ public class OsmMBTileProvider extends MapTileProviderArray {
         Collections.addAll(mTileProviderList, tileProviderArray);
     }
 
+    @Override
+    public void detach() {
+        super.detach();
+        ((OsmMBTileSource) getTileSource()).close();
+    }
+
     // TODO: implement public Drawable getMapTile(final MapTile pTile) {}
     //       The current implementation is needlessly complex because it uses
-    //       MapTileProviderArray as a basis.
+    //       MapTileProviderArray as a basis. Tiles are cached and prefetched by
+    //       MBTilesReader so the module provider's threads only decode them.
 
 }
\ No newline at end of file
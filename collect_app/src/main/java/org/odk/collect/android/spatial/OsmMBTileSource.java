@@ -18,8 +18,6 @@
 
 package org.odk.collect.android.spatial;
 
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
@@ -43,7 +41,7 @@ public class OsmMBTileSource extends BitmapTileSourceBase {
     public static final String COL_TILES_TILE_ROW = "tile_row";
     public static final String COL_TILES_TILE_DATA = "tile_data";
 
-    protected SQLiteDatabase database;
+    protected MBTilesReader reader;
 
     // Reasonable defaults ..
     public static final int MIN_ZOOM = 8;
@@ -58,10 +56,10 @@ public class OsmMBTileSource extends BitmapTileSourceBase {
     protected OsmMBTileSource(int minZoom,
                               int maxZoom,
                               int tileSizePixels,
-                              SQLiteDatabase db) {
+                              MBTilesReader reader) {
         super("MBTiles", minZoom, maxZoom, tileSizePixels, ".png");
 
-        database = db;
+        this.reader = reader;
     }
 
     /**
@@ -72,84 +70,51 @@ public class OsmMBTileSource extends BitmapTileSourceBase {
      * defined by this class are used.
      */
     public static OsmMBTileSource createFromFile(File file) {
-        int flags = SQLiteDatabase.NO_LOCALIZED_COLLATORS | SQLiteDatabase.OPEN_READONLY;
         int tileSize = TILE_SIZE_PIXELS;
 
         // Open the database
-        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getAbsolutePath(), null, flags);
+        MBTilesReader reader = MBTilesReader.acquire(file);
 
         // Get the tile size
-        Cursor cursor = db.rawQuery("SELECT tile_data FROM tiles LIMIT 0,1",
-                new String[]{});
-
-        if (cursor.getCount() != 0) {
-            cursor.moveToFirst();
-            InputStream is = new ByteArrayInputStream(cursor.getBlob(0));
-
-            Bitmap bitmap = BitmapFactory.decodeStream(is);
+        byte[] anyTile = reader.getAnyTile();
+        if (anyTile != null) {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(anyTile, 0, anyTile.length);
             if (bitmap != null) {
                 tileSize = bitmap.getHeight();
             }
             Timber.w("Found a tile size of %d", tileSize);
         }
-        cursor.close();
 
         // Get the minimum zoomlevel from the MBTiles file
-        int value = getInt(db, "SELECT MIN(zoom_level) FROM tiles;");
+        int value = reader.getInt("SELECT MIN(zoom_level) FROM tiles;");
         int minZoomLevel = value > -1 ? value : MIN_ZOOM;
 
         // Get the maximum zoomlevel from the MBTiles file
-        value = getInt(db, "SELECT MAX(zoom_level) FROM tiles;");
+        value = reader.getInt("SELECT MAX(zoom_level) FROM tiles;");
         int maxZoomLevel = value > -1 ? value : MAX_ZOOM;
 
-        return new OsmMBTileSource(minZoomLevel, maxZoomLevel, tileSize, db);
-    }
-
-    protected static int getInt(SQLiteDatabase db, String sql) {
-        Cursor cursor = db.rawQuery(sql, new String[]{});
-        int value = -1;
-
-        if (cursor.getCount() != 0) {
-            cursor.moveToFirst();
-            value = cursor.getInt(0);
-            Timber.e("Found a minimum zoomlevel of %d", value);
-        }
-
-        cursor.close();
-        return value;
+        return new OsmMBTileSource(minZoomLevel, maxZoomLevel, tileSize, reader);
     }
 
     public InputStream getInputStream(MapTile mapTile) {
-
         try {
-            InputStream ret = null;
-            final String[] tile = {COL_TILES_TILE_DATA};
-            final String[] xyz = {Integer.toString(mapTile.getX()),
-                    Double.toString(Math.pow(2, mapTile.getZoomLevel()) - mapTile.getY() - 1),
-                    Integer.toString(mapTile.getZoomLevel())};
-
-            final Cursor cur = database.query(TABLE_TILES,
-                    tile,
-                    "tile_column=? and tile_row=? and zoom_level=?",
-                    xyz,
-                    null,
-                    null,
-                    null);
-
-            if (cur.getCount() != 0) {
-                cur.moveToFirst();
-                ret = new ByteArrayInputStream(cur.getBlob(0));
+            byte[] data = reader.getTile(mapTile.getX(), mapTile.getY(), mapTile.getZoomLevel());
+            if (data != null) {
+                return new ByteArrayInputStream(data);
             }
-
-            cur.close();
-
-            if (ret != null) {
-                return ret;
-            }
-
         } catch (final Throwable e) {
             Timber.w(e, "Error getting db stream: %s", mapTile);
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Releases the file once the map doesn't show it anymore.
+     */
+    public void close() {
+        if (reader != null) {
+            reader.release();
+            reader = null;
+        }
+    }
+}
@@ -15,10 +15,11 @@
 package org.odk.collect.android.tasks;
 
 import android.content.ContentResolver;
-import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Bundle;
 
 import org.odk.collect.android.listeners.DeleteInstancesListener;
+import org.odk.collect.android.provider.InstanceProvider;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 
 import timber.log.Timber;
@@ -47,24 +48,21 @@ public class DeleteInstancesTask extends AsyncTask<Long, Integer, Integer> {
 
         toDeleteCount = params.length;
 
-        // delete files from database and then from file system
-        for (Long param : params) {
-            if (isCancelled()) {
-                break;
-            }
-            try {
-                Uri deleteForm =
-                        Uri.withAppendedPath(InstanceColumns.CONTENT_URI, param.toString());
-
-                int wasDeleted = contentResolver.delete(deleteForm, null, null);
-                deleted += wasDeleted;
-
-                successCount++;
-                publishProgress(successCount, toDeleteCount);
-
-            } catch (Exception ex) {
-                Timber.e("Exception during delete of: %s exception: %s", param.toString(), ex.toString());
-            }
+        // the instances are deleted from the database in a single transaction, their files are
+        // deleted in the background afterwards
+        long[] ids = new long[params.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = params[i];
+        }
+        try {
+            Bundle extras = new Bundle();
+            extras.putLongArray(InstanceProvider.EXTRA_INSTANCE_IDS, ids);
+            Bundle result = contentResolver.call(InstanceColumns.CONTENT_URI,
+                    InstanceProvider.METHOD_DELETE_INSTANCES, null, extras);
+            deleted = result != null ? result.getInt(InstanceProvider.EXTRA_DELETED_COUNT) : 0;
+            publishProgress(deleted, toDeleteCount);
+        } catch (Exception ex) {
+            Timber.e("Exception during delete of %d instances exception: %s", ids.length, ex.toString());
         }
         successCount = deleted;
         return deleted;
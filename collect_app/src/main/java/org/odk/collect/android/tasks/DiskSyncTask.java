@@ -23,6 +23,7 @@ import android.os.AsyncTask;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.database.FileHashCache;
 import org.odk.collect.android.listeners.DiskSyncListener;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.utilities.FileUtils;
@@ -32,8 +33,14 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import timber.log.Timber;
 
@@ -45,6 +52,8 @@ import timber.log.Timber;
  */
 public class DiskSyncTask extends AsyncTask<Void, String, String> {
 
+    private static final int MAX_PARSER_THREADS = 4;
+
     private static int counter;
     private DiskSyncListener listener;
     private String statusMessage = "";
@@ -65,7 +74,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
             File formDir = new File(Collect.FORMS_PATH);
             if (formDir.exists() && formDir.isDirectory()) {
                 // Get all the files in the /odk/foms directory
-                List<File> formsToAdd = new LinkedList<File>();
+                Set<File> formsToAdd = new HashSet<File>();
 
                 // Step 1: assemble the candidate form files
                 //         discard files beginning with "."
@@ -85,8 +94,9 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                 }
 
                 // Step 2: quickly run through and figure out what files we need to
-                // parse and update; this is quick, as we only calculate the md5
-                // and see if it has changed.
+                // parse and update; this is quick, as the md5 is only calculated
+                // for files whose size or last modified time changed.
+                FileHashCache fileHashCache = FileHashCache.getInstance();
                 List<UriFile> uriToUpdate = new ArrayList<UriFile>();
                 Cursor cursor = null;
                 // open the cursor within a try-catch block so it can always be closed.
@@ -112,7 +122,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                             // remove it from the list of forms (we only want forms
                             // we haven't added at the end)
                             formsToAdd.remove(sqlFile);
-                            String md5Computed = FileUtils.getMd5Hash(sqlFile);
+                            String md5Computed = fileHashCache.getMd5Hash(sqlFile);
                             if (md5Computed == null || md5 == null || !md5Computed.equals(md5)) {
                                 // Probably someone overwrite the file on the sdcard
                                 // So re-parse it and update it's information
@@ -130,6 +140,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                                     cursor.getColumnIndex(FormsColumns._ID));
 
                             idsToDelete.add(id);
+                            fileHashCache.remove(sqlFile);
                         }
                     }
                 } finally {
@@ -143,42 +154,32 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                     formsDao.deleteFormsFromIDs(idsToDelete.toArray(new String[idsToDelete.size()]));
                 }
 
-                // Step3: go through uriToUpdate to parse and update each in turn.
-                // This is slow because buildContentValues(...) is slow.
+                // Step3: parse the files in uriToUpdate and update each in turn.
+                // Parsing is slow so it is spread over several threads.
                 Collections.shuffle(uriToUpdate); // Big win if multiple DiskSyncTasks running
+                List<File> filesToUpdate = new ArrayList<File>();
                 for (UriFile entry : uriToUpdate) {
-                    Uri updateUri = entry.uri;
-                    File formDefFile = entry.file;
-                    // Probably someone overwrite the file on the sdcard
-                    // So re-parse it and update it's information
-                    ContentValues values;
-
-                    try {
-                        values = buildContentValues(formDefFile);
-                    } catch (IllegalArgumentException e) {
-                        errors.append(e.getMessage()).append("\r\n");
-                        File badFile = new File(formDefFile.getParentFile(),
-                                formDefFile.getName() + ".bad");
-                        badFile.delete();
-                        formDefFile.renameTo(badFile);
+                    filesToUpdate.add(entry.file);
+                }
+                List<ContentValues> updatedValues = buildContentValues(filesToUpdate, errors);
+                for (int i = 0; i < uriToUpdate.size(); i++) {
+                    ContentValues values = updatedValues.get(i);
+                    if (values == null) {
                         continue;
                     }
 
                     // update in content provider
                     int count =
                             Collect.getInstance().getContentResolver()
-                                    .update(updateUri, values, null, null);
+                                    .update(uriToUpdate.get(i).uri, values, null, null);
                     Timber.i("[%d] %d records successfully updated", instance, count);
                 }
                 uriToUpdate.clear();
 
                 // Step 4: go through the newly-discovered files in xFormsToAdd and add them.
-                // This is slow because buildContentValues(...) is slow.
-                //
-                Collections.shuffle(formsToAdd); // Big win if multiple DiskSyncTasks running
-                while (!formsToAdd.isEmpty()) {
-                    File formDefFile = formsToAdd.remove(0);
-
+                // Like in step 3, they are parsed on several threads.
+                List<File> filesToAdd = new ArrayList<File>();
+                for (File formDefFile : formsToAdd) {
                     // Since parsing is so slow, if there are multiple tasks,
                     // they may have already updated the database.
                     // Skip this file if that is the case.
@@ -187,18 +188,12 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                                 instance, formDefFile.getAbsolutePath());
                         continue;
                     }
+                    filesToAdd.add(formDefFile);
+                }
+                Collections.shuffle(filesToAdd); // Big win if multiple DiskSyncTasks running
 
-                    // Parse it for the first time...
-                    ContentValues values;
-
-                    try {
-                        values = buildContentValues(formDefFile);
-                    } catch (IllegalArgumentException e) {
-                        errors.append(e.getMessage()).append("\r\n");
-                        File badFile = new File(formDefFile.getParentFile(),
-                                formDefFile.getName() + ".bad");
-                        badFile.delete();
-                        formDefFile.renameTo(badFile);
+                for (ContentValues values : buildContentValues(filesToAdd, errors)) {
+                    if (values == null) {
                         continue;
                     }
 
@@ -240,6 +235,60 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
         return statusMessage;
     }
 
+    /**
+     * Parses the given files on a pool of threads. Files that fail to parse are renamed to
+     * .bad and the reason is appended to errors.
+     *
+     * @return the values for each file, in the same order, or null for the files that failed
+     */
+    private List<ContentValues> buildContentValues(List<File> formDefFiles, StringBuilder errors) {
+        List<ContentValues> values = new ArrayList<ContentValues>();
+        if (formDefFiles.isEmpty()) {
+            return values;
+        }
+
+        int threads = Math.max(1, Math.min(MAX_PARSER_THREADS,
+                Math.min(formDefFiles.size(), Runtime.getRuntime().availableProcessors())));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ContentValues>> results = new ArrayList<Future<ContentValues>>();
+            for (final File formDefFile : formDefFiles) {
+                results.add(executor.submit(new Callable<ContentValues>() {
+                    @Override
+                    public ContentValues call() {
+                        return buildContentValues(formDefFile);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < formDefFiles.size(); i++) {
+                try {
+                    values.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IllegalArgumentException)) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                    errors.append(e.getCause().getMessage()).append("\r\n");
+                    File formDefFile = formDefFiles.get(i);
+                    File badFile = new File(formDefFile.getParentFile(),
+                            formDefFile.getName() + ".bad");
+                    badFile.delete();
+                    formDefFile.renameTo(badFile);
+                    values.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the remaining files are picked up by the next scan
+            while (values.size() < formDefFiles.size()) {
+                values.add(null);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return values;
+    }
+
     /**
      * Attempts to parse the formDefFile as an XForm.
      * This is slow because FileUtils.parseXML is slow
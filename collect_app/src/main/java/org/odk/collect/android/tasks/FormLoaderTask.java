@@ -16,6 +16,7 @@ package org.odk.collect.android.tasks;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.os.AsyncTask;
 
 import org.apache.commons.io.IOUtils;
@@ -37,26 +38,26 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.ItemsetDbAdapter;
 import org.odk.collect.android.external.ExternalAnswerResolver;
 import org.odk.collect.android.external.ExternalDataHandler;
+import org.odk.collect.android.external.ExternalDataImportWorker;
 import org.odk.collect.android.external.ExternalDataManager;
 import org.odk.collect.android.external.ExternalDataManagerImpl;
-import org.odk.collect.android.external.ExternalDataReader;
 import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 import org.odk.collect.android.external.handler.ExternalDataHandlerPull;
 import org.odk.collect.android.listeners.FormLoaderListener;
+import org.odk.collect.android.logic.AnswerJournal;
 import org.odk.collect.android.logic.FileReferenceFactory;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.FormDefCache;
-import org.odk.collect.android.utilities.ZipUtils;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import au.com.bytecode.opencsv.CSVReader;
 import timber.log.Timber;
@@ -68,7 +69,7 @@ import timber.log.Timber;
  * @author Yaw Anokwa (yanokwa@gmail.com)
  */
 public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper> {
-    private static final String ITEMSETS_CSV = "itemsets.csv";
+    public static final String ITEMSETS_CSV = "itemsets.csv";
 
     private FormLoaderListener stateListener;
     private String errorMsg;
@@ -140,14 +141,17 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                 externalDataManager);
         formDef.getEvaluationContext().addFunctionHandler(externalDataHandlerPull);
 
+        Map<String, Set<String>> searchedColumns = ExternalDataUtil.getSearchedColumnsByDataSet(formDef);
         try {
-            loadExternalData(formMediaDir);
+            loadExternalData(formMediaDir, searchedColumns);
         } catch (Exception e) {
             Timber.e(e, "Exception thrown while loading external data");
             errorMsg = e.getMessage();
             return null;
         }
 
+        checkSearchIndex(searchedColumns, formMediaDir, formXml);
+
         if (isCancelled()) {
             // that means that the user has cancelled, so no need to go further
             return null;
@@ -272,7 +276,8 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                     c.moveToFirst(); // should be only one, ever, if any
                     final String oldmd5 = c.getString(c.getColumnIndex("hash"));
                     if (oldmd5.equals(csvmd5)) {
-                        // they're equal, do nothing
+                        // they're equal, only add the indexes if the table predates them
+                        ida.ensureIndexes(ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()));
                     } else {
                         // the csv has been updated, delete the old entries
                         ida.dropTable(ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()),
@@ -300,12 +305,16 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         if (instancePath != null) {
             File instanceXml = new File(instancePath);
 
-            // Use the savepoint file only if it's newer than the last manual save
+            // Use the savepoint file only if it or its journal is newer than the last manual save
             final File savepointFile = SaveToDiskTask.getSavepointFile(instanceXml.getName());
+            final File savepointJournalFile = SaveToDiskTask.getSavepointJournalFile(instanceXml.getName());
+            File journalFile = null;
             if (savepointFile.exists()
-                    && savepointFile.lastModified() > instanceXml.lastModified()) {
+                    && Math.max(savepointFile.lastModified(), savepointJournalFile.lastModified())
+                    > instanceXml.lastModified()) {
                 usedSavepoint = true;
                 instanceXml = savepointFile;
+                journalFile = savepointJournalFile.exists() ? savepointJournalFile : null;
                 Timber.w("Loading instance from savepoint file: %s",
                         savepointFile.getAbsolutePath());
             }
@@ -315,7 +324,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                 try {
                     Timber.i("Importing data");
                     publishProgress(Collect.getInstance().getString(R.string.survey_loading_reading_data_message));
-                    importData(instanceXml, fec);
+                    importData(instanceXml, journalFile, fec);
                     formDef.initialize(false, instanceInit);
                 } catch (RuntimeException e) {
                     Timber.e(e);
@@ -339,52 +348,31 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         return usedSavepoint;
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadExternalData(File mediaFolder) {
-        // SCTO-594
-        File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                return file.getName().toLowerCase(Locale.US).endsWith(".zip");
-            }
-        });
-
-        if (zipFiles != null) {
-            ZipUtils.unzip(zipFiles);
-            for (File zipFile : zipFiles) {
-                boolean deleted = zipFile.delete();
-                if (!deleted) {
-                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
-                }
-            }
-        }
-
-        File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                String lowerCaseName = file.getName().toLowerCase(Locale.US);
-                return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(
-                        ITEMSETS_CSV);
-            }
-        });
-
-        Map<String, File> externalDataMap = new HashMap<String, File>();
-
-        if (csvFiles != null) {
+    private void loadExternalData(File mediaFolder, Map<String, Set<String>> searchedColumns) {
+        new ExternalDataReaderImpl(this, searchedColumns).importMediaFolder(mediaFolder);
+    }
 
-            for (File csvFile : csvFiles) {
-                String dataSetName = csvFile.getName().substring(0,
-                        csvFile.getName().lastIndexOf("."));
-                externalDataMap.put(dataSetName, csvFile);
+    /**
+     * The search index is built when the data is imported. Data imported before the form
+     * searched it isn't indexed, so that is left to a background import and searches scan the
+     * data until then.
+     */
+    private void checkSearchIndex(Map<String, Set<String>> searchedColumns, File mediaFolder, File formFile) {
+        for (Map.Entry<String, Set<String>> entry : searchedColumns.entrySet()) {
+            File dbFile = new File(mediaFolder, entry.getKey() + ".db");
+            if (!dbFile.exists()) {
+                continue;
             }
-
-            if (!externalDataMap.isEmpty()) {
-
-                publishProgress(Collect.getInstance()
-                        .getString(R.string.survey_loading_reading_csv_message));
-
-                ExternalDataReader externalDataReader = new ExternalDataReaderImpl(this);
-                externalDataReader.doImport(externalDataMap);
+            ExternalSQLiteOpenHelper sqLiteOpenHelper = new ExternalSQLiteOpenHelper(dbFile);
+            try {
+                if (sqLiteOpenHelper.needsSearchIndex(entry.getValue())) {
+                    ExternalDataImportWorker.enqueue(mediaFolder, formFile);
+                    return;
+                }
+            } catch (SQLiteException e) {
+                Timber.w(e, "Could not check the search index of %s", dbFile.getName());
+            } finally {
+                sqLiteOpenHelper.close();
             }
         }
     }
@@ -405,11 +393,29 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
     }
 
     public static void importData(File instanceFile, FormEntryController fec) {
+        importData(instanceFile, null, fec);
+    }
+
+    /**
+     * Imports a saved instance into the form, after applying the answers of a savepoint journal
+     * to it if there is one.
+     */
+    private static void importData(File instanceFile, File journalFile, FormEntryController fec) {
         // convert files into a byte array
         byte[] fileBytes = FileUtils.getFileAsBytes(instanceFile);
 
         // get the root of the saved and template instances
         TreeElement savedRoot = XFormParser.restoreDataModel(fileBytes, null).getRoot();
+
+        if (journalFile != null) {
+            try {
+                int count = AnswerJournal.replay(journalFile, savedRoot);
+                Timber.i("Replayed %d changes from savepoint journal %s", count, journalFile.getName());
+            } catch (IOException e) {
+                // the answers in the savepoint itself are still good
+                Timber.e(e, "Unable to replay savepoint journal %s", journalFile.getName());
+            }
+        }
         TreeElement templateRoot = fec.getModel().getForm().getInstance().getRoot().deepCopy(true);
 
         // weak check for matching forms
@@ -549,6 +555,11 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                 ida.addRow(pathHash, columnHeaders, nextLine);
 
             }
+
+            if (columnHeaders != null) {
+                // index after the inserts so the rows don't have to be indexed one by one
+                ida.createIndexes(pathHash, columnHeaders);
+            }
         } catch (IOException e) {
             Timber.e(e, "Exception thrown while reading csv file");
         } finally {
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.tasks;
+
+import android.os.AsyncTask;
+import android.support.v4.app.DialogFragment;
+import android.support.v4.app.Fragment;
+
+import org.odk.collect.android.activities.FormEntryActivity;
+import org.odk.collect.android.fragments.dialogs.ProgressDialogFragment;
+import org.odk.collect.android.utilities.ImageConverter;
+import org.odk.collect.android.views.ODKView;
+import org.odk.collect.android.widgets.BaseImageWidget;
+import org.odk.collect.android.widgets.QuestionWidget;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+
+import timber.log.Timber;
+
+/**
+ * Converts an image that was just captured and moves it into the instance folder, reporting the
+ * progress of the conversion to the image widget waiting for it. A progress dialog is shown by
+ * the activity while it runs, as for {@link MediaLoadingTask}, so that the form isn't changed
+ * or another image captured until the image is set.
+ */
+public class ImageConversionTask extends AsyncTask<Void, Integer, File> {
+
+    private final String imagePath;
+    private final String instanceFolder;
+    private final int maxPixels;
+
+    private WeakReference<FormEntryActivity> formEntryActivity;
+
+    /**
+     * @param maxPixels the size to scale the image down to, see {@link ImageConverter#getMaxPixels}
+     */
+    public ImageConversionTask(FormEntryActivity formEntryActivity, String imagePath,
+                               String instanceFolder, int maxPixels) {
+        this.imagePath = imagePath;
+        this.instanceFolder = instanceFolder;
+        this.maxPixels = maxPixels;
+        onAttach(formEntryActivity);
+    }
+
+    public void onAttach(FormEntryActivity formEntryActivity) {
+        this.formEntryActivity = new WeakReference<>(formEntryActivity);
+    }
+
+    public void onDetach() {
+        formEntryActivity = null;
+    }
+
+    @Override
+    protected File doInBackground(Void... voids) {
+        ImageConverter.execute(imagePath, maxPixels, this::publishProgress);
+
+        File fi = new File(imagePath);
+        File nf = new File(instanceFolder + File.separator + System.currentTimeMillis() + ".jpg");
+        if (!fi.renameTo(nf)) {
+            Timber.e("Failed to rename %s", fi.getAbsolutePath());
+        } else {
+            Timber.i("Renamed %s to %s", fi.getAbsolutePath(), nf.getAbsolutePath());
+        }
+        return nf;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        FormEntryActivity activity = getActivity();
+        if (activity != null) {
+            QuestionWidget widget = activity.getWidgetWaitingForBinaryData();
+            if (widget instanceof BaseImageWidget) {
+                ((BaseImageWidget) widget).onImageConversionProgress(values[0]);
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(File result) {
+        FormEntryActivity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+
+        Fragment prev = activity.getSupportFragmentManager().findFragmentByTag(ProgressDialogFragment.COLLECT_PROGRESS_DIALOG_TAG);
+        if (prev != null) {
+            ((DialogFragment) prev).dismiss();
+        }
+
+        QuestionWidget widget = activity.getWidgetWaitingForBinaryData();
+        if (widget instanceof BaseImageWidget) {
+            ((BaseImageWidget) widget).onImageConversionProgress(ImageConverter.PROGRESS_DONE);
+        }
+
+        ODKView odkView = activity.getCurrentViewIfODKView();
+        if (odkView != null) {
+            odkView.setBinaryData(result);
+        }
+
+        activity.saveAnswersForCurrentScreen(FormEntryActivity.DO_NOT_EVALUATE_CONSTRAINTS);
+        activity.refreshCurrentView();
+    }
+
+    private FormEntryActivity getActivity() {
+        return formEntryActivity != null ? formEntryActivity.get() : null;
+    }
+}
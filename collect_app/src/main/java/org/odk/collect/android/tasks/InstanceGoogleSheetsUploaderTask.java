@@ -29,6 +29,7 @@ import org.odk.collect.android.upload.UploadException;
 import org.odk.collect.android.utilities.gdrive.GoogleAccountsManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import timber.log.Timber;
@@ -65,11 +66,15 @@ public class InstanceGoogleSheetsUploaderTask extends InstanceUploaderTask {
         }
 
         List<Instance> instancesToUpload = uploader.getInstancesFromIds(instanceIdsToUpload);
+        List<Instance> queuedInstances = new ArrayList<>();
+        String queuedDestinationUrl = null;
 
         for (int i = 0; i < instancesToUpload.size(); i++) {
             Instance instance = instancesToUpload.get(i);
 
             if (isCancelled()) {
+                // the queued instances have already been prepared so they are still sent
+                sendQueuedInstances(uploader, queuedInstances, outcome);
                 outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
                         Collect.getInstance().getString(R.string.instance_upload_cancelled));
                 return outcome;
@@ -86,28 +91,68 @@ public class InstanceGoogleSheetsUploaderTask extends InstanceUploaderTask {
                 outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
                         Collect.getInstance().getString(R.string.not_exactly_one_blank_form_for_this_form_id));
             } else {
-                try {
-                    String destinationUrl = uploader.getUrlToSubmitTo(instance, null, null);
-                    uploader.uploadOneSubmission(instance, destinationUrl);
-
-                    outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(), DEFAULT_SUCCESSFUL_TEXT);
+                String destinationUrl = uploader.getUrlToSubmitTo(instance, null, null);
+                if (!destinationUrl.equals(queuedDestinationUrl)) {
+                    sendQueuedInstances(uploader, queuedInstances, outcome);
+                    queuedDestinationUrl = destinationUrl;
+                }
 
-                    Collect.getInstance()
-                            .getDefaultTracker()
-                            .send(new HitBuilders.EventBuilder()
-                                    .setCategory("Submission")
-                                    .setAction("HTTP-Sheets")
-                                    .build());
+                try {
+                    uploader.queueSubmission(instance, destinationUrl);
+                    queuedInstances.add(instance);
                 } catch (UploadException e) {
                     Timber.d(e);
                     outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
                             e.getDisplayMessage());
                 }
+
+                if (queuedInstances.size() >= InstanceGoogleSheetsUploader.MAX_QUEUED_INSTANCES) {
+                    sendQueuedInstances(uploader, queuedInstances, outcome);
+                }
             }
         }
+
+        sendQueuedInstances(uploader, queuedInstances, outcome);
         return outcome;
     }
 
+    /**
+     * Sends the rows of the queued instances in as few requests as possible and records the
+     * outcome for each of them.
+     */
+    private void sendQueuedInstances(InstanceGoogleSheetsUploader uploader, List<Instance> queuedInstances,
+                                     Outcome outcome) {
+        if (queuedInstances.isEmpty()) {
+            return;
+        }
+
+        List<Instance> sentInstances = new ArrayList<>();
+        try {
+            uploader.flushSubmissions(sentInstances);
+        } catch (UploadException e) {
+            Timber.d(e);
+            for (Instance instance : queuedInstances) {
+                if (!sentInstances.contains(instance)) {
+                    outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
+                            e.getDisplayMessage());
+                }
+            }
+        } finally {
+            queuedInstances.clear();
+        }
+
+        for (Instance instance : sentInstances) {
+            outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(), DEFAULT_SUCCESSFUL_TEXT);
+
+            Collect.getInstance()
+                    .getDefaultTracker()
+                    .send(new HitBuilders.EventBuilder()
+                            .setCategory("Submission")
+                            .setAction("HTTP-Sheets")
+                            .build());
+        }
+    }
+
     public boolean isAuthFailed() {
         return authFailed;
     }
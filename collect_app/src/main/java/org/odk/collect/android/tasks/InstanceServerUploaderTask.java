@@ -22,6 +22,7 @@ import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.http.OpenRosaHttpInterface;
 import org.odk.collect.android.logic.PropertyManager;
 import org.odk.collect.android.upload.InstanceServerUploader;
+import org.odk.collect.android.upload.InstanceUploadScheduler;
 import org.odk.collect.android.upload.UploadAuthRequestedException;
 import org.odk.collect.android.upload.UploadException;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
@@ -55,7 +56,7 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
 
     @Override
     protected Outcome doInBackground(Long... instanceIdsToUpload) {
-        Outcome outcome = new Outcome();
+        final Outcome outcome = new Outcome();
 
         InstanceServerUploader uploader = new InstanceServerUploader(httpInterface, webCredentialsUtils, new HashMap<>());
         List<Instance> instancesToUpload = uploader.getInstancesFromIds(instanceIdsToUpload);
@@ -63,17 +64,18 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
         String deviceId = new PropertyManager(Collect.getInstance().getApplicationContext())
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
 
-        for (int i = 0; i < instancesToUpload.size(); i++) {
-            if (isCancelled()) {
-                return outcome;
-            }
-            Instance instance = instancesToUpload.get(i);
+        if (isCancelled()) {
+            return outcome;
+        }
 
-            publishProgress(i + 1, instancesToUpload.size());
+        final int total = instancesToUpload.size();
+        final InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader,
+                InstanceUploadScheduler.MAX_CONCURRENT_UPLOADS);
+        scheduler.upload(instancesToUpload, deviceId, completeDestinationUrl, new InstanceUploadScheduler.Listener() {
+            private int attempted;
 
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
                 outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
                         customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
                 Collect.getInstance()
@@ -82,16 +84,30 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
                                 .setCategory("Submission")
                                 .setAction("HTTP")
                                 .build());
-            } catch (UploadAuthRequestedException e) {
-                outcome.authRequestingServer = e.getAuthRequestingServer();
-                // Don't add the instance that caused an auth request to the map because we want to
-                // retry. Items present in the map are considered already attempted and won't be
-                // retried.
-            } catch (UploadException e) {
-                outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        e.getDisplayMessage());
+                onUploadAttempted();
             }
-        }
+
+            @Override
+            public void onUploadFailed(Instance instance, UploadException e) {
+                if (e instanceof UploadAuthRequestedException) {
+                    outcome.authRequestingServer = ((UploadAuthRequestedException) e).getAuthRequestingServer();
+                    // Don't add the instance that caused an auth request to the map because we want to
+                    // retry. Items present in the map are considered already attempted and won't be
+                    // retried.
+                } else {
+                    outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
+                            e.getDisplayMessage());
+                }
+                onUploadAttempted();
+            }
+
+            private void onUploadAttempted() {
+                publishProgress(++attempted, total);
+                if (isCancelled()) {
+                    scheduler.cancel();
+                }
+            }
+        });
         
         return outcome;
     }
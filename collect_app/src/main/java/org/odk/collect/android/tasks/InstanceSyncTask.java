@@ -19,7 +19,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
-import android.provider.BaseColumns;
 
 import org.apache.commons.io.FileUtils;
 import org.odk.collect.android.R;
@@ -33,20 +32,17 @@ import org.odk.collect.android.preferences.PreferenceKeys;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.utilities.EncryptionUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import org.odk.collect.android.utilities.XmlHeaderParser;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -77,7 +73,7 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         Timber.i("[%d] doInBackground begins!", instance);
 
         try {
-            List<String> candidateInstances = new LinkedList<String>();
+            List<String> candidateInstances = new ArrayList<>();
             File instancesPath = new File(Collect.INSTANCES_PATH);
             if (instancesPath.exists() && instancesPath.isDirectory()) {
                 File[] instanceFolders = instancesPath.listFiles();
@@ -104,6 +100,7 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                     }
                 }
                 Collections.sort(candidateInstances);
+                Set<String> newInstances = new LinkedHashSet<>(candidateInstances);
 
                 List<String> filesToRemove = new ArrayList<>();
 
@@ -118,18 +115,18 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                         return currentStatus;
                     }
 
+                    int filePathColumn = instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH);
+                    int statusColumn = instanceCursor.getColumnIndex(InstanceColumns.STATUS);
                     instanceCursor.moveToPosition(-1);
 
                     while (instanceCursor.moveToNext()) {
-                        String instanceFilename = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                        String instanceStatus = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.STATUS));
-                        if (candidateInstances.contains(instanceFilename) || instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
-                            candidateInstances.remove(instanceFilename);
-                        } else {
-                            filesToRemove.add(instanceFilename);
+                        String instanceFilename = instanceCursor.getString(filePathColumn);
+                        String instanceStatus = instanceCursor.getString(statusColumn);
+                        if (newInstances.remove(instanceFilename)
+                                || instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
+                            continue;
                         }
+                        filesToRemove.add(instanceFilename);
                     }
 
                 } finally {
@@ -138,58 +135,58 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                     }
                 }
 
-                instancesDao.deleteInstancesFromIDs(filesToRemove);
-
                 final boolean instanceSyncFlag = PreferenceManager.getDefaultSharedPreferences(
                         Collect.getInstance().getApplicationContext()).getBoolean(
                         PreferenceKeys.KEY_INSTANCE_SYNC, true);
 
-                int counter = 0;
+                // forms of the instances by form id, with null for the ids that have no form
+                Map<String, FormInfo> formsById = new HashMap<>();
+                List<ContentValues> instancesToSave = new ArrayList<>();
+                List<String> instanceIds = new ArrayList<>();
+                List<FormInfo> instanceForms = new ArrayList<>();
+
                 // Begin parsing and add them to the content provider
-                for (String candidateInstance : candidateInstances) {
-                    String instanceFormId = getFormIdFromInstance(candidateInstance);
+                for (String candidateInstance : newInstances) {
+                    Map<String, String> rootAttributes = getRootAttributesFromInstance(candidateInstance);
                     // only process if we can find the id from the instance file
-                    if (instanceFormId != null) {
-                        Cursor formCursor = null;
+                    if (rootAttributes == null) {
+                        continue;
+                    }
+
+                    String instanceFormId = getAttribute(rootAttributes, "id");
+                    if (!formsById.containsKey(instanceFormId)) {
+                        formsById.put(instanceFormId, getFormInfo(instanceFormId));
+                    }
+                    FormInfo form = formsById.get(instanceFormId);
+                    if (form != null) {
+                        // add missing fields into content values
+                        ContentValues values = new ContentValues();
+                        values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
+                        values.put(InstanceColumns.SUBMISSION_URI, form.submissionUri);
+                        values.put(InstanceColumns.DISPLAY_NAME, form.displayName);
+                        values.put(InstanceColumns.JR_FORM_ID, form.jrFormId);
+                        values.put(InstanceColumns.JR_VERSION, form.jrVersion);
+                        values.put(InstanceColumns.STATUS, instanceSyncFlag
+                                ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
+                        values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
+
+                        instancesToSave.add(values);
+                        instanceIds.add(getAttribute(rootAttributes, "instanceID"));
+                        instanceForms.add(form);
+                    }
+                }
+
+                // save the new instance objects and remove the missing ones together
+                List<Uri> savedInstances = instancesDao.replaceInstances(filesToRemove, instancesToSave);
+
+                int counter = savedInstances.size();
+                for (int i = 0; i < savedInstances.size(); i++) {
+                    if (instanceForms.get(i).encrypted) {
                         try {
-                            String selection = FormsColumns.JR_FORM_ID + " = ? ";
-                            String[] selectionArgs = new String[]{instanceFormId};
-                            // retrieve the form definition
-                            formCursor = new FormsDao().getFormsCursor(selection, selectionArgs);
-                            // TODO: optimize this by caching the previously found form definition
-                            // TODO: optimize this by caching unavailable form definition to skip
-                            if (formCursor != null && formCursor.moveToFirst()) {
-                                String submissionUri = null;
-                                if (!formCursor.isNull(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI))) {
-                                    submissionUri = formCursor.getString(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI));
-                                }
-                                String jrFormId = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_FORM_ID));
-                                String jrVersion = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_VERSION));
-                                String formName = formCursor.getString(formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME));
-
-                                // add missing fields into content values
-                                ContentValues values = new ContentValues();
-                                values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
-                                values.put(InstanceColumns.SUBMISSION_URI, submissionUri);
-                                values.put(InstanceColumns.DISPLAY_NAME, formName);
-                                values.put(InstanceColumns.JR_FORM_ID, jrFormId);
-                                values.put(InstanceColumns.JR_VERSION, jrVersion);
-                                values.put(InstanceColumns.STATUS, instanceSyncFlag
-                                        ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
-                                values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
-                                // save the new instance object
-
-                                instancesDao.saveInstance(values);
-                                counter++;
-
-                                encryptInstanceIfNeeded(formCursor, candidateInstance, values, instancesDao);
-                            }
+                            encryptInstance(savedInstances.get(i), instancesToSave.get(i),
+                                    instanceIds.get(i), instancesDao);
                         } catch (IOException | EncryptionException e) {
                             Timber.w(e);
-                        } finally {
-                            if (formCursor != null) {
-                                formCursor.close();
-                            }
                         }
                     }
                 }
@@ -205,54 +202,63 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         return currentStatus;
     }
 
-    private String getFormIdFromInstance(final String instancePath) {
-        String instanceFormId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    /**
+     * Reads the attributes of the root element of an instance, which has the id of its form and
+     * its instanceID, without reading the rest of it.
+     */
+    private Map<String, String> getRootAttributesFromInstance(final String instancePath) {
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceFormId = element.getAttribute("id");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
+            return XmlHeaderParser.parseRootAttributes(new File(instancePath));
+        } catch (IOException e) {
             Timber.w("Unable to read form id from %s", instancePath);
+            return null;
         }
-        return instanceFormId;
     }
 
-    private String getInstanceIdFromInstance(final String instancePath) {
-        String instanceId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceId = element.getAttribute("instanceID");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            Timber.w("Unable to read form instanceID from %s", instancePath);
-        }
-        return instanceId;
+    private static String getAttribute(Map<String, String> attributes, String name) {
+        String value = attributes.get(name);
+        return value != null ? value : "";
     }
 
-    private void encryptInstanceIfNeeded(Cursor formCursor, String candidateInstance,
-                                         ContentValues values, InstancesDao instancesDao)
-            throws EncryptionException, IOException {
+    /**
+     * Returns what's needed from a form to add its instances, or null if there's no form with
+     * that id.
+     */
+    private FormInfo getFormInfo(String jrFormId) {
+        Cursor formCursor = null;
+        try {
+            String selection = FormsColumns.JR_FORM_ID + " = ? ";
+            String[] selectionArgs = new String[]{jrFormId};
+            // retrieve the form definition
+            formCursor = new FormsDao().getFormsCursor(selection, selectionArgs);
+            if (formCursor == null || !formCursor.moveToFirst()) {
+                return null;
+            }
 
-        Cursor instanceCursor = new InstancesDao().getInstancesCursorForFilePath(candidateInstance);
-        if (instanceCursor != null && instanceCursor.moveToFirst()) {
-            if (shouldInstanceBeEncrypted(formCursor)) {
-                encryptInstance(instanceCursor, candidateInstance, values, instancesDao);
+            FormInfo form = new FormInfo();
+            if (!formCursor.isNull(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI))) {
+                form.submissionUri = formCursor.getString(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI));
+            }
+            form.jrFormId = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_FORM_ID));
+            form.jrVersion = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_VERSION));
+            form.displayName = formCursor.getString(formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME));
+            form.encrypted = shouldInstanceBeEncrypted(formCursor);
+            return form;
+        } finally {
+            if (formCursor != null) {
+                formCursor.close();
             }
         }
     }
 
-    private void encryptInstance(Cursor instanceCursor, String candidateInstance,
-                                 ContentValues values, InstancesDao instancesDao)
+    private void encryptInstance(Uri uri, ContentValues values, String instanceId,
+                                 InstancesDao instancesDao)
             throws EncryptionException, IOException {
 
+        String candidateInstance = values.getAsString(InstanceColumns.INSTANCE_FILE_PATH);
         File instanceXml = new File(candidateInstance);
         if (!new File(instanceXml.getParentFile(), "submission.xml.enc").exists()) {
-            Uri uri = Uri.parse(InstanceColumns.CONTENT_URI + "/" + instanceCursor.getInt(instanceCursor.getColumnIndex(BaseColumns._ID)));
-            FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(getInstanceIdFromInstance(candidateInstance), null, false);
+            FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(instanceId, null, false);
             EncryptionUtils.EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri, instanceMetadata);
 
             if (formInfo != null) {
@@ -277,6 +283,14 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         return base64RSAPublicKey != null && !base64RSAPublicKey.isEmpty();
     }
 
+    private static class FormInfo {
+        String submissionUri;
+        String jrFormId;
+        String jrVersion;
+        String displayName;
+        boolean encrypted;
+    }
+
     @Override
     protected void onPostExecute(String result) {
         super.onPostExecute(result);
@@ -27,7 +27,7 @@ import java.lang.ref.WeakReference;
 
 import timber.log.Timber;
 
-public class MediaLoadingTask extends AsyncTask<Uri, Void, File> {
+public class MediaLoadingTask extends AsyncTask<Uri, Integer, File> {
 
     private WeakReference<FormEntryActivity> formEntryActivity;
 
@@ -66,7 +66,8 @@ public class MediaLoadingTask extends AsyncTask<Uri, Void, File> {
                         // apply image conversion if the widget is an image widget
                         if (questionWidget instanceof BaseImageWidget ||
                                 questionWidget instanceof ImageWebViewWidget) {
-                            ImageConverter.execute(newFile.getPath(), questionWidget, formEntryActivity.get());
+                            ImageConverter.execute(newFile.getPath(), questionWidget, formEntryActivity.get(),
+                                    this::publishProgress);
                         }
 
                         return newFile;
@@ -86,6 +87,16 @@ public class MediaLoadingTask extends AsyncTask<Uri, Void, File> {
 
     }
 
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (formEntryActivity != null && formEntryActivity.get() != null) {
+            QuestionWidget questionWidget = formEntryActivity.get().getWidgetWaitingForBinaryData();
+            if (questionWidget instanceof BaseImageWidget) {
+                ((BaseImageWidget) questionWidget).onImageConversionProgress(values[0]);
+            }
+        }
+    }
+
     @Override
     protected void onPostExecute(File result) {
         Fragment prev = formEntryActivity.get().getSupportFragmentManager().findFragmentByTag(ProgressDialogFragment.COLLECT_PROGRESS_DIALOG_TAG);
@@ -23,9 +23,12 @@ import android.os.AsyncTask;
 import org.javarosa.core.services.transport.payload.ByteArrayPayload;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.listeners.SavePointListener;
+import org.odk.collect.android.logic.AnswerJournal;
 import org.odk.collect.android.logic.FormController;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -37,6 +40,9 @@ import timber.log.Timber;
 public class SavePointTask extends AsyncTask<Void, Void, String> {
 
     private static final Object LOCK = new Object();
+
+    // the savepoint is written in full again once its journal is this big
+    private static final long MAX_JOURNAL_SIZE = 256 * 1024;
     private static int lastPriorityUsed;
 
     private final SavePointListener listener;
@@ -57,16 +63,39 @@ public class SavePointTask extends AsyncTask<Void, Void, String> {
 
             long start = System.currentTimeMillis();
 
+            FormController formController = Collect.getInstance().getFormController();
             try {
-                FormController formController = Collect.getInstance().getFormController();
-                File temp = SaveToDiskTask.getSavepointFile(formController.getInstanceFile().getName());
+                String instanceName = formController.getInstanceFile().getName();
+                File temp = SaveToDiskTask.getSavepointFile(instanceName);
+                File journal = SaveToDiskTask.getSavepointJournalFile(instanceName);
+
+                List<AnswerJournal.Entry> changes = formController.takeChangesSinceSavepoint();
+                if (changes != null && temp.exists() && journal.length() < MAX_JOURNAL_SIZE) {
+                    // only append what changed since the last savepoint
+                    if (!changes.isEmpty()) {
+                        AnswerJournal.append(journal, changes);
+                    }
+
+                    long end = System.currentTimeMillis();
+                    Timber.i("Savepoint journal ms: %s, %d changes to %s", Long.toString(end - start),
+                            changes.size(), journal.toString());
+                    return null;
+                }
+
                 ByteArrayPayload payload = formController.getFilledInFormXml();
 
                 if (priority < lastPriorityUsed) {
+                    // the next savepoint has to write everything that was taken
+                    formController.requireFullSavepoint();
                     Timber.w("Savepoint thread (p=%d) was cancelled (b) because another one is waiting (p=%d)", priority, lastPriorityUsed);
                     return null;
                 }
 
+                // the journal only applies to the previous savepoint so it goes first
+                if (journal.exists() && !journal.delete()) {
+                    throw new IOException("Cannot delete " + journal.getAbsolutePath());
+                }
+
                 // write out xml
                 SaveToDiskTask.writeFile(payload, temp.getAbsolutePath());
 
@@ -75,6 +104,9 @@ public class SavePointTask extends AsyncTask<Void, Void, String> {
 
                 return null;
             } catch (Exception e) {
+                if (formController != null) {
+                    formController.requireFullSavepoint();
+                }
                 String msg = e.getMessage();
                 Timber.e(e);
                 return msg;
@@ -235,6 +235,14 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
         return new File(tempDir, instanceName + ".save");
     }
 
+    /**
+     * Return the journal of the answers changed since the savepoint file was written.
+     */
+    static File getSavepointJournalFile(String instanceName) {
+        File tempDir = new File(Collect.CACHE_PATH);
+        return new File(tempDir, instanceName + ".save.journal");
+    }
+
     /**
      * Return the formIndex file for a given instance.
      */
@@ -245,7 +253,9 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
 
     public static void removeSavepointFiles(String instanceName) {
         File savepointFile = getSavepointFile(instanceName);
+        File savepointJournalFile = getSavepointJournalFile(instanceName);
         File formIndexFile = getFormIndexFile(instanceName);
+        FileUtils.deleteAndReport(savepointJournalFile);
         FileUtils.deleteAndReport(savepointFile);
         FileUtils.deleteAndReport(formIndexFile);
     }
@@ -34,6 +34,7 @@ public class SmsNotificationReceiver extends BroadcastReceiver {
     SmsSubmissionManagerContract submissionManagerContract;
 
     private SmsSubmission smsSubmission;
+    private SmsProgress progress;
     private NotificationManagerCompat notificationManager;
     private Context context;
 
@@ -50,7 +51,12 @@ public class SmsNotificationReceiver extends BroadcastReceiver {
 
         String instanceId = intent.getExtras().getString(SMS_INSTANCE_ID);
         resultCode = intent.getExtras().getInt(SMS_RESULT_CODE);
-        smsSubmission = submissionManagerContract.getSubmissionModel(instanceId);
+        smsSubmission = submissionManagerContract.getSubmissionDetails(instanceId);
+        progress = submissionManagerContract.getSubmissionProgress(instanceId);
+        if (smsSubmission == null || progress == null) {
+            Timber.w("No SMS submission for instance id %s", instanceId);
+            return;
+        }
         notificationManager = NotificationManagerCompat.from(context);
 
         sendBundledNotification();
@@ -108,14 +114,13 @@ public class SmsNotificationReceiver extends BroadcastReceiver {
      * at which it's data is needed.
      */
     private void deleteIfSubmissionCompleted() {
-        if (smsSubmission.isSubmissionComplete()) {
+        if (progress.isComplete()) {
             submissionManagerContract.forgetSubmission(smsSubmission.getInstanceId());
         }
     }
 
     private String getContentText() {
         Date date = smsSubmission.getLastUpdated();
-        SmsProgress progress = smsSubmission.getCompletion();
 
         return SmsService.getDisplaySubtext(resultCode, date, progress, context);
     }
@@ -17,6 +17,7 @@ import org.odk.collect.android.tasks.sms.models.Message;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
@@ -57,6 +58,7 @@ public class SmsSender {
 
         ArrayList<PendingIntent> sentIntents = new ArrayList<>();
         ArrayList<String> messages = new ArrayList<>();
+        List<Integer> messageIds = new ArrayList<>();
 
         for (Message message : model.getMessages()) {
 
@@ -77,9 +79,11 @@ public class SmsSender {
                 return false;
             }
 
-            submissionManager.markMessageAsSending(instanceId, message.getId());
+            messageIds.add(message.getId());
         }
 
+        submissionManager.markMessagesAsSending(instanceId, messageIds);
+
         smsManager.sendMultipartTextMessage(gateway, null, messages, sentIntents, null);
 
         Timber.i("Sending a SMS of instance id %s", instanceId);
@@ -260,15 +260,21 @@ public class SmsService {
 
         smsSubmissionManager.updateMessageStatus(resultCode, instanceId, messageId);
 
-        SmsSubmission model = smsSubmissionManager.getSubmissionModel(instanceId);
+        // only the counts are needed here, the messages aren't read again after every result
+        SmsSubmission model = smsSubmissionManager.getSubmissionDetails(instanceId);
+        SmsProgress progress = smsSubmissionManager.getSubmissionProgress(instanceId);
+        if (model == null || progress == null) {
+            Timber.w("No SMS submission for instance id %s", instanceId);
+            return;
+        }
 
-        resultCode = model.validateResultCode(resultCode);
+        resultCode = SmsSubmission.validateResultCode(resultCode, progress.isComplete());
 
         SmsRxEvent event = new SmsRxEvent();
         event.setInstanceId(instanceId);
         event.setLastUpdated(model.getLastUpdated());
         event.setResultCode(resultCode);
-        event.setProgress(model.getCompletion());
+        event.setProgress(progress);
 
         rxEventBus.post(event);
 
@@ -283,8 +289,8 @@ public class SmsService {
          * If not and the message isn't still sending then that means an error occurred
          * so that error message is persisted along with SUBMISSION_STATUS_FAILED
          * */
-        if (model.isSubmissionComplete()) {
-            markInstanceAsSubmittedOrDelete(instanceId, model.getCompletion(), model.getLastUpdated(), context);
+        if (progress.isComplete()) {
+            markInstanceAsSubmittedOrDelete(instanceId, progress, model.getLastUpdated(), context);
         } else if (resultCode != RESULT_OK && resultCode != RESULT_OK_OTHERS_PENDING) {
             updateInstanceStatusFailedText(instanceId, event);
         }
@@ -1,153 +1,390 @@
 package org.odk.collect.android.tasks.sms;
 
 import android.app.Activity;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.text.TextUtils;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
 
 import org.odk.collect.android.tasks.sms.contracts.SmsSubmissionManagerContract;
 import org.odk.collect.android.tasks.sms.models.Message;
+import org.odk.collect.android.tasks.sms.models.SmsProgress;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 
-import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import timber.log.Timber;
+
+/**
+ * Keeps the state of SMS submissions in a database with a row per message, so that the status
+ * of a message is updated without rewriting the whole submission.
+ *
+ * Submissions used to be kept as JSON in shared preferences, those are moved to the database
+ * when the manager is created.
+ */
 public class SmsSubmissionManager implements SmsSubmissionManagerContract {
-    private static SharedPreferences preferences;
-    private final SharedPreferences.Editor editor;
 
     public static final String PREF_FILE_NAME = "submissions_preferences";
     public static final String KEY_SUBMISSION = "submissions_list_key_";
 
-    public SmsSubmissionManager(Context context) {
-        preferences = context.getSharedPreferences(PREF_FILE_NAME, Context.MODE_PRIVATE);
-        editor = preferences.edit();
-    }
+    private static final String DATABASE_NAME = "sms_submissions.db";
+    private static final int DATABASE_VERSION = 1;
 
-    public SmsSubmission getSubmissionModel(String instanceId) {
-        Type submissionModel = new TypeToken<SmsSubmission>() {
-        }.getType();
+    private static final String SUBMISSIONS_TABLE_NAME = "submissions";
+    private static final String MESSAGES_TABLE_NAME = "messages";
+    private static final String KEY_INSTANCE_ID = "instance_id";
+    private static final String KEY_NOTIFICATION_ID = "notification_id";
+    private static final String KEY_JOB_ID = "job_id";
+    private static final String KEY_DISPLAY_NAME = "display_name";
+    private static final String KEY_LAST_UPDATED = "last_updated";
+    private static final String KEY_MESSAGE_ID = "message_id";
+    private static final String KEY_PART_NUMBER = "part_number";
+    private static final String KEY_TEXT = "text";
+    private static final String KEY_RESULT_CODE = "result_code";
 
-        String submissionGson = preferences.getString(KEY_SUBMISSION + instanceId, "");
+    private static final String MESSAGE_WHERE = KEY_INSTANCE_ID + "=? AND " + KEY_MESSAGE_ID + "=?";
 
-        SmsSubmission model;
+    private static DatabaseHelper dbHelper;
 
-        if (TextUtils.isEmpty(submissionGson)) {
-            return null;
+    private final DatabaseHelper helper;
+
+    public SmsSubmissionManager(Context context) {
+        helper = getDatabaseHelper(context.getApplicationContext());
+        importSharedPreferences(context);
+    }
+
+    private static synchronized DatabaseHelper getDatabaseHelper(Context context) {
+        if (dbHelper == null || dbHelper.context != context) {
+            dbHelper = new DatabaseHelper(context);
         }
+        return dbHelper;
+    }
 
+    /**
+     * Moves the submissions kept in shared preferences by earlier versions to the database.
+     */
+    private void importSharedPreferences(Context context) {
+        SharedPreferences preferences = context.getSharedPreferences(PREF_FILE_NAME, Context.MODE_PRIVATE);
+        Map<String, ?> entries = preferences.getAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Gson gson = new Gson();
         try {
-            model = new Gson().fromJson(submissionGson, submissionModel);
-        } catch (Exception e) {
-            model = null;
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                    if (entry.getKey().startsWith(KEY_SUBMISSION) && entry.getValue() instanceof String) {
+                        try {
+                            SmsSubmission model = gson.fromJson((String) entry.getValue(), SmsSubmission.class);
+                            if (model != null && model.getInstanceId() != null) {
+                                saveSubmission(db, model);
+                            }
+                        } catch (JsonParseException e) {
+                            Timber.w(e, "Unable to import SMS submission %s", entry.getKey());
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            preferences.edit().clear().apply();
+        } catch (SQLException e) {
+            Timber.e(e);
         }
+    }
 
-        return model;
+    public SmsSubmission getSubmissionModel(String instanceId) {
+        return getSubmission(instanceId, true);
     }
 
     @Override
-    public boolean markMessageAsSent(String instanceId, int messageId) {
+    public SmsSubmission getSubmissionDetails(String instanceId) {
+        return getSubmission(instanceId, false);
+    }
 
-        SmsSubmission model = getSubmissionModel(instanceId);
+    private SmsSubmission getSubmission(String instanceId, boolean withMessages) {
+        Cursor c = null;
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            c = db.query(SUBMISSIONS_TABLE_NAME,
+                    new String[]{KEY_NOTIFICATION_ID, KEY_JOB_ID, KEY_DISPLAY_NAME, KEY_LAST_UPDATED},
+                    KEY_INSTANCE_ID + "=?", new String[]{instanceId}, null, null, null);
+            if (!c.moveToFirst()) {
+                return null;
+            }
 
-        if (model == null) {
-            return false;
+            SmsSubmission model = new SmsSubmission();
+            model.setInstanceId(instanceId);
+            model.setNotificationId(c.getInt(0));
+            model.setJobId(c.getInt(1));
+            model.setDisplayName(c.getString(2));
+            model.setLastUpdated(c.isNull(3) ? null : new Date(c.getLong(3)));
+            if (withMessages) {
+                model.setMessages(getMessages(db, instanceId));
+            }
+            return model;
+        } catch (SQLException e) {
+            Timber.e(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
+    }
 
-        List<Message> list = model.getMessages();
-
-        boolean updated = false;
-        for (Message message : list) {
-            if (message.getId() == messageId) {
-                message.setResultCode(Activity.RESULT_OK);
-                list.set(list.indexOf(message), message);
-
-                updated = true;
+    private List<Message> getMessages(SQLiteDatabase db, String instanceId) {
+        List<Message> messages = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = db.query(MESSAGES_TABLE_NAME,
+                    new String[]{KEY_MESSAGE_ID, KEY_PART_NUMBER, KEY_TEXT, KEY_RESULT_CODE},
+                    KEY_INSTANCE_ID + "=?", new String[]{instanceId}, null, null,
+                    KEY_PART_NUMBER + ", rowid");
+            while (c.moveToNext()) {
+                Message message = new Message();
+                message.setId(c.getInt(0));
+                message.setPartNumber(c.getInt(1));
+                message.setText(c.getString(2));
+                message.setResultCode(c.getInt(3));
+                messages.add(message);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
             }
         }
+        return messages;
+    }
 
-        model.setMessages(list);
-        saveSubmission(model);
-
-        return updated;
+    @Override
+    public boolean markMessageAsSent(String instanceId, int messageId) {
+        return setResultCode(instanceId, messageId, Activity.RESULT_OK) > 0;
     }
 
     @Override
     public void markMessageAsSending(String instanceId, int messageId) {
-        SmsSubmission model = getSubmissionModel(instanceId);
+        setResultCode(instanceId, messageId, SmsService.RESULT_SENDING);
+    }
 
-        if (model == null) {
+    @Override
+    public void markMessagesAsSending(String instanceId, List<Integer> messageIds) {
+        if (messageIds.isEmpty()) {
             return;
         }
 
-        List<Message> list = model.getMessages();
-
-        for (Message message : list) {
-            if (message.getId() == messageId) {
-                message.setResultCode(SmsService.RESULT_SENDING);
-                list.set(list.indexOf(message), message);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(KEY_RESULT_CODE, SmsService.RESULT_SENDING);
+                for (int messageId : messageIds) {
+                    db.update(MESSAGES_TABLE_NAME, values, MESSAGE_WHERE,
+                            new String[]{instanceId, String.valueOf(messageId)});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
+        } catch (SQLException e) {
+            Timber.e(e);
         }
+    }
 
-        model.setMessages(list);
-        saveSubmission(model);
+    private int setResultCode(String instanceId, int messageId, int resultCode) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_RESULT_CODE, resultCode);
+        try {
+            return helper.getWritableDatabase().update(MESSAGES_TABLE_NAME, values, MESSAGE_WHERE,
+                    new String[]{instanceId, String.valueOf(messageId)});
+        } catch (SQLException e) {
+            Timber.e(e);
+            return 0;
+        }
     }
 
     @Override
     public void forgetSubmission(String instanceId) {
-
-        editor.remove(KEY_SUBMISSION + instanceId);
-        editor.commit();
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                String[] args = {instanceId};
+                db.delete(MESSAGES_TABLE_NAME, KEY_INSTANCE_ID + "=?", args);
+                db.delete(SUBMISSIONS_TABLE_NAME, KEY_INSTANCE_ID + "=?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
     }
 
     public void saveSubmission(SmsSubmission model) {
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                saveSubmission(db, model);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
 
-        Type submissionModel = new TypeToken<SmsSubmission>() {
-        }.getType();
-
-        String data = new Gson().toJson(model, submissionModel);
-        editor.putString(KEY_SUBMISSION + model.getInstanceId(), data);
-        editor.commit();
+    private static void saveSubmission(SQLiteDatabase db, SmsSubmission model) {
+        String instanceId = model.getInstanceId();
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_INSTANCE_ID, instanceId);
+        values.put(KEY_NOTIFICATION_ID, model.getNotificationId());
+        values.put(KEY_JOB_ID, model.getJobId());
+        values.put(KEY_DISPLAY_NAME, model.getDisplayName());
+        values.put(KEY_LAST_UPDATED, model.getLastUpdated() != null ? model.getLastUpdated().getTime() : null);
+        db.insertWithOnConflict(SUBMISSIONS_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+        db.delete(MESSAGES_TABLE_NAME, KEY_INSTANCE_ID + "=?", new String[]{instanceId});
+        if (model.getMessages() != null) {
+            for (Message message : model.getMessages()) {
+                ContentValues messageValues = new ContentValues();
+                messageValues.put(KEY_INSTANCE_ID, instanceId);
+                messageValues.put(KEY_MESSAGE_ID, message.getId());
+                messageValues.put(KEY_PART_NUMBER, message.getPartNumber());
+                messageValues.put(KEY_TEXT, message.getText());
+                messageValues.put(KEY_RESULT_CODE, message.getResultCode());
+                db.insertWithOnConflict(MESSAGES_TABLE_NAME, null, messageValues, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        }
     }
 
     public void clearSubmissions() {
-        preferences.edit().clear().apply();
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(MESSAGES_TABLE_NAME, null, null);
+                db.delete(SUBMISSIONS_TABLE_NAME, null, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
     }
 
     public int checkNextMessageResultCode(String instanceId) {
-        SmsSubmission model = getSubmissionModel(instanceId);
-
-        Message message = model.getNextUnsentMessage();
-
-        if (message == null) {
+        Cursor c = null;
+        try {
+            c = helper.getReadableDatabase().query(MESSAGES_TABLE_NAME, new String[]{KEY_RESULT_CODE},
+                    KEY_INSTANCE_ID + "=? AND " + KEY_RESULT_CODE + "!=?",
+                    new String[]{instanceId, String.valueOf(Activity.RESULT_OK)}, null, null,
+                    KEY_PART_NUMBER + ", rowid", "1");
+            return c.moveToFirst() ? c.getInt(0) : Activity.RESULT_OK;
+        } catch (SQLException e) {
+            Timber.e(e);
             return Activity.RESULT_OK;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
+    }
 
-        return message.getResultCode();
+    @Override
+    public SmsProgress getSubmissionProgress(String instanceId) {
+        Cursor c = null;
+        try {
+            c = helper.getReadableDatabase().rawQuery("SELECT COUNT(*), SUM(CASE WHEN "
+                            + KEY_RESULT_CODE + "=? THEN 1 ELSE 0 END) FROM " + MESSAGES_TABLE_NAME
+                            + " WHERE " + KEY_INSTANCE_ID + "=?",
+                    new String[]{String.valueOf(Activity.RESULT_OK), instanceId});
+            if (!c.moveToFirst() || c.getInt(0) == 0) {
+                return null;
+            }
+            return new SmsProgress(c.getInt(1), c.getInt(0));
+        } catch (SQLException e) {
+            Timber.e(e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
     }
 
     @Override
     public void updateMessageStatus(int resultCode, String instanceId, int messageId) {
-        SmsSubmission model = getSubmissionModel(instanceId);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(KEY_RESULT_CODE, resultCode);
+                int updated = db.update(MESSAGES_TABLE_NAME, values, MESSAGE_WHERE,
+                        new String[]{instanceId, String.valueOf(messageId)});
+
+                if (updated > 0) {
+                    ContentValues submissionValues = new ContentValues();
+                    submissionValues.put(KEY_LAST_UPDATED, System.currentTimeMillis());
+                    db.update(SUBMISSIONS_TABLE_NAME, submissionValues, KEY_INSTANCE_ID + "=?",
+                            new String[]{instanceId});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
 
-        if (model == null) {
-            return;
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        private final Context context;
+
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this.context = context;
         }
 
-        List<Message> list = model.getMessages();
-        for (Message message : list) {
-            if (message.getId() == messageId) {
-                message.setResultCode(resultCode);
-                list.set(list.indexOf(message), message);
-            }
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + SUBMISSIONS_TABLE_NAME + " ("
+                    + KEY_INSTANCE_ID + " text primary key, "
+                    + KEY_NOTIFICATION_ID + " integer not null, "
+                    + KEY_JOB_ID + " integer not null, "
+                    + KEY_DISPLAY_NAME + " text, "
+                    + KEY_LAST_UPDATED + " integer);");
+            db.execSQL("CREATE TABLE " + MESSAGES_TABLE_NAME + " ("
+                    + KEY_INSTANCE_ID + " text not null, "
+                    + KEY_MESSAGE_ID + " integer not null, "
+                    + KEY_PART_NUMBER + " integer not null, "
+                    + KEY_TEXT + " text, "
+                    + KEY_RESULT_CODE + " integer not null, "
+                    + "primary key (" + KEY_INSTANCE_ID + ", " + KEY_MESSAGE_ID + "));");
         }
 
-        model.setMessages(list);
-        model.setLastUpdated(new Date());
-        saveSubmission(model);
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // nothing to upgrade yet
+        }
     }
-}
\ No newline at end of file
+}
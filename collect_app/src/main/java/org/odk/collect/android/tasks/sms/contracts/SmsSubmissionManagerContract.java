@@ -1,7 +1,10 @@
 package org.odk.collect.android.tasks.sms.contracts;
 
+import org.odk.collect.android.tasks.sms.models.SmsProgress;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 
+import java.util.List;
+
 /**
  * Contract for a component that's utilized to track sms submissions.
  */
@@ -9,10 +12,23 @@ public interface SmsSubmissionManagerContract {
 
     SmsSubmission getSubmissionModel(String instanceId);
 
+    /**
+     * Returns the submission without its messages, for when only its details are needed.
+     */
+    SmsSubmission getSubmissionDetails(String instanceId);
+
+    /**
+     * Returns how many messages of the submission were sent out of how many it has, counted
+     * without reading them, or null if there's no such submission.
+     */
+    SmsProgress getSubmissionProgress(String instanceId);
+
     boolean markMessageAsSent(String instanceId, int messageId);
 
     void markMessageAsSending(String instanceId, int messageId);
 
+    void markMessagesAsSending(String instanceId, List<Integer> messageIds);
+
     void forgetSubmission(String instanceId);
 
     void saveSubmission(SmsSubmission model);
@@ -23,6 +23,10 @@ public class Message {
         return id;
     }
 
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public void setPartNumber(int partNumber) {
         this.partNumber = partNumber;
     }
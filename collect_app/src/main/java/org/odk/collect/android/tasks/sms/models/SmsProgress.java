@@ -4,10 +4,22 @@ public class SmsProgress {
     private double totalCount;
     private double completedCount;
 
+    public SmsProgress() {
+    }
+
+    public SmsProgress(double completedCount, double totalCount) {
+        this.completedCount = completedCount;
+        this.totalCount = totalCount;
+    }
+
     public double getPercentage() {
         return (completedCount / totalCount) * 100;
     }
 
+    public boolean isComplete() {
+        return completedCount == totalCount;
+    }
+
     public double getTotalCount() {
         return totalCount;
     }
@@ -61,16 +61,16 @@ public class SmsSubmission {
     public SmsProgress getCompletion() {
         SmsProgress progress = new SmsProgress();
 
-        int total = 0;
+        int sent = 0;
 
         for (Message message : messages) {
             if (message.isSent()) {
-                total++;
+                sent++;
             }
         }
 
-        progress.setCompletedCount(total);
-        progress.setTotalCount(total);
+        progress.setCompletedCount(sent);
+        progress.setTotalCount(messages.size());
 
         return progress;
     }
@@ -82,11 +82,12 @@ public class SmsSubmission {
      * because the SmsStatus is being used to serve SmsSender Layer and it's status is also tied to the UI.
      *
      * @param resultCode that was received from the broadcast receiver of the message that was just sent.
+     * @param submissionComplete whether all the messages of the submission have been sent.
      * @return the SmsStatus that will be transferred via the event.
      */
-    public int validateResultCode(int resultCode) {
+    public static int validateResultCode(int resultCode, boolean submissionComplete) {
         if (resultCode == Activity.RESULT_OK) {
-            if (!isSubmissionComplete()) {
+            if (!submissionComplete) {
                 return SmsService.RESULT_OK_OTHERS_PENDING;
             }
         }
@@ -120,6 +121,10 @@ public class SmsSubmission {
         this.notificationId = new Random().nextInt(Integer.MAX_VALUE);
     }
 
+    public void setNotificationId(int notificationId) {
+        this.notificationId = notificationId;
+    }
+
     public String getDisplayName() {
         return displayName;
     }
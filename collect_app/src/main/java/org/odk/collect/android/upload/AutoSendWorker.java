@@ -22,7 +22,7 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
@@ -45,6 +45,7 @@ import org.odk.collect.android.utilities.WebCredentialsUtils;
 import org.odk.collect.android.utilities.InstanceUploaderUtils;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.PreferenceKeys;
+import org.odk.collect.android.provider.InstanceProvider;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 import org.odk.collect.android.utilities.gdrive.GoogleAccountsManager;
 
@@ -109,9 +110,8 @@ public class AutoSendWorker extends Worker {
         String protocol = (String) settings.get(PreferenceKeys.KEY_PROTOCOL);
 
         InstanceUploader uploader;
-        Map<String, String> resultMessagesByInstanceId = new HashMap<>();
+        final Map<String, String> resultMessagesByInstanceId = new HashMap<>();
         String deviceId = null;
-        boolean anyFailure = false;
 
         if (protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets))) {
             if (PermissionUtils.checkIfGetAccountsPermissionGranted(getApplicationContext())) {
@@ -142,10 +142,13 @@ public class AutoSendWorker extends Worker {
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
         }
 
-        for (Instance instance : toUpload) {
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, null);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
+        final boolean googleSheets = protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets));
+        final boolean[] anyFailure = {false};
+        final List<Long> instancesToDelete = new ArrayList<>();
+
+        InstanceUploadScheduler.Listener listener = new InstanceUploadScheduler.Listener() {
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
                 resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
                         customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
 
@@ -156,31 +159,59 @@ public class AutoSendWorker extends Worker {
                 // communicated to the user. Maybe successful delete should also be communicated?
                 if (InstanceUploader.formShouldBeAutoDeleted(instance.getJrFormId(),
                         (boolean) GeneralSharedPreferences.getInstance().get(PreferenceKeys.KEY_DELETE_AFTER_SEND))) {
-                    Uri deleteForm = Uri.withAppendedPath(InstanceColumns.CONTENT_URI, instance.getDatabaseId().toString());
-                    Collect.getInstance().getContentResolver().delete(deleteForm, null, null);
+                    instancesToDelete.add(instance.getDatabaseId());
                 }
 
                 Collect.getInstance()
                         .getDefaultTracker()
                         .send(new HitBuilders.EventBuilder()
                                 .setCategory("Submission")
-                                .setAction(protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets)) ?
-                                        "HTTP-Sheets auto" : "HTTP auto")
+                                .setAction(googleSheets ? "HTTP-Sheets auto" : "HTTP auto")
                                 .build());
-            } catch (UploadException e) {
+            }
+
+            @Override
+            public void onUploadFailed(Instance instance, UploadException e) {
                 Timber.d(e);
-                anyFailure = true;
+                anyFailure[0] = true;
                 resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
                         e.getDisplayMessage());
             }
+        };
+
+        if (googleSheets) {
+            // the Google Sheets uploader keeps state between submissions so it sends them one
+            // after the other, appending the rows of several submissions at once
+            ((InstanceGoogleSheetsUploader) uploader).uploadSubmissions(toUpload, listener);
+        } else {
+            new InstanceUploadScheduler(uploader, InstanceUploadScheduler.MAX_CONCURRENT_UPLOADS)
+                    .upload(toUpload, deviceId, null, listener);
         }
 
+        // only once the statuses are saved, so that submitted instances are kept as sent
+        deleteInstances(instancesToDelete);
+
         String message = formatOverallResultMessage(resultMessagesByInstanceId);
-        showUploadStatusNotification(anyFailure, message);
+        showUploadStatusNotification(anyFailure[0], message);
 
         return Result.SUCCESS;
     }
 
+    private void deleteInstances(List<Long> instanceIds) {
+        if (instanceIds.isEmpty()) {
+            return;
+        }
+
+        long[] ids = new long[instanceIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = instanceIds.get(i);
+        }
+        Bundle extras = new Bundle();
+        extras.putLongArray(InstanceProvider.EXTRA_INSTANCE_IDS, ids);
+        Collect.getInstance().getContentResolver().call(InstanceColumns.CONTENT_URI,
+                InstanceProvider.METHOD_DELETE_INSTANCES, null, extras);
+    }
+
     /**
      * Returns whether the currently-available connection type is included in the app-level auto-send
      * settings.
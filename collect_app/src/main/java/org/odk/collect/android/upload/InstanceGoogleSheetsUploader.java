@@ -16,6 +16,7 @@ package org.odk.collect.android.upload;
 
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
 import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.GoogleAuthUtil;
@@ -43,6 +44,7 @@ import org.odk.collect.android.exception.MultipleFoldersFoundException;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.PreferenceKeys;
 import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.UrlUtils;
 import org.odk.collect.android.utilities.gdrive.DriveHelper;
 import org.odk.collect.android.utilities.gdrive.GoogleAccountsManager;
@@ -56,6 +58,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -66,6 +69,9 @@ import timber.log.Timber;
 import static org.odk.collect.android.logic.FormController.INSTANCE_ID;
 
 public class InstanceGoogleSheetsUploader extends InstanceUploader {
+    // instances whose rows are appended together
+    public static final int MAX_QUEUED_INSTANCES = 50;
+
     private static final String PARENT_KEY = "PARENT_KEY";
     private static final String KEY = "KEY";
 
@@ -80,6 +86,18 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
 
     private Spreadsheet spreadsheet;
 
+    // blank forms parsed during this upload, with a copy of their blank instance to import into
+    private final Map<String, FormDef> formDefs = new HashMap<>();
+    private final Map<String, TreeElement> blankInstanceRoots = new HashMap<>();
+
+    // header rows of the sheets in the current spreadsheet, by sheet title
+    private final Map<String, List<Object>> sheetHeaders = new HashMap<>();
+
+    // rows waiting to be appended, by sheet title, and the instances they belong to with the
+    // titles of the sheets they have rows in
+    private final Map<String, List<List<Object>>> pendingRows = new LinkedHashMap<>();
+    private final Map<Instance, Set<String>> pendingInstances = new LinkedHashMap<>();
+
     public InstanceGoogleSheetsUploader(GoogleAccountsManager accountsManager) {
         this.accountsManager = accountsManager;
         driveHelper = accountsManager.getDriveHelper();
@@ -118,6 +136,82 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
 
     @Override
     public String uploadOneSubmission(Instance instance, String spreadsheetUrl) throws UploadException {
+        queueSubmission(instance, spreadsheetUrl);
+        flushSubmissions(new ArrayList<>());
+        // Google Sheets can't provide a custom success message
+        return null;
+    }
+
+    /**
+     * Uploads the instances, appending the rows of up to {@link #MAX_QUEUED_INSTANCES} instances
+     * for the same spreadsheet together, and reports the outcome of each to the listener once
+     * its rows have been sent. The statuses of the instances are written together at the end.
+     */
+    public void uploadSubmissions(List<Instance> instances, InstanceUploadScheduler.Listener listener) {
+        List<Instance> queuedInstances = new ArrayList<>();
+        String queuedSpreadsheetUrl = null;
+
+        beginStatusBatch();
+        try {
+            for (Instance instance : instances) {
+                String spreadsheetUrl = getUrlToSubmitTo(instance, null, null);
+                if (!spreadsheetUrl.equals(queuedSpreadsheetUrl)) {
+                    sendQueuedSubmissions(queuedInstances, listener);
+                    queuedSpreadsheetUrl = spreadsheetUrl;
+                }
+
+                try {
+                    queueSubmission(instance, spreadsheetUrl);
+                    queuedInstances.add(instance);
+                } catch (UploadException e) {
+                    listener.onUploadFailed(instance, e);
+                }
+
+                if (queuedInstances.size() >= MAX_QUEUED_INSTANCES) {
+                    sendQueuedSubmissions(queuedInstances, listener);
+                }
+            }
+            sendQueuedSubmissions(queuedInstances, listener);
+        } finally {
+            endStatusBatch();
+        }
+    }
+
+    private void sendQueuedSubmissions(List<Instance> queuedInstances, InstanceUploadScheduler.Listener listener) {
+        if (queuedInstances.isEmpty()) {
+            return;
+        }
+
+        List<Instance> sentInstances = new ArrayList<>();
+        UploadException failure = null;
+        try {
+            flushSubmissions(sentInstances);
+        } catch (UploadException e) {
+            failure = e;
+        }
+
+        for (Instance instance : queuedInstances) {
+            if (sentInstances.contains(instance)) {
+                listener.onUploadSucceeded(instance, null);
+            } else if (failure != null) {
+                listener.onUploadFailed(instance, failure);
+            }
+        }
+        queuedInstances.clear();
+    }
+
+    /**
+     * Prepares the rows of an instance and adds them to the ones waiting to be sent by
+     * {@link #flushSubmissions(List)}. Media files are uploaded and missing sheets and headers are
+     * created right away. The instance's status is only updated once its rows are sent, or if
+     * it can't be prepared.
+     */
+    public void queueSubmission(Instance instance, String spreadsheetUrl) throws UploadException {
+        // queued rows belong to the current spreadsheet
+        if (!pendingInstances.isEmpty() && !spreadsheetUrl.equals(spreadsheet.getSpreadsheetUrl())) {
+            flushSubmissions(new ArrayList<>());
+        }
+
         File instanceFile = new File(instance.getInstanceFilePath());
 
         // Get corresponding blank form and verify there is exactly 1
@@ -141,15 +235,80 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
             if (key == null) {
                 key = PropertyUtils.genUUID();
             }
-            insertRows(instance, instanceElement, null, key, instanceFile, spreadsheet.getSheets().get(0).getProperties().getTitle());
+
+            // the rows are only queued once the whole instance could be prepared
+            Map<String, List<List<Object>>> rows = new LinkedHashMap<>();
+            insertRows(instance, instanceElement, null, key, instanceFile, spreadsheet.getSheets().get(0).getProperties().getTitle(), rows);
+            queueRows(instance, spreadsheetUrl, rows);
         } catch (UploadException e) {
             saveFailedStatusToDatabase(instance);
             throw e;
         }
+    }
 
-        saveSuccessStatusToDatabase(instance);
-        // Google Sheets can't provide a custom success message
-        return null;
+    /**
+     * Adds the rows of an instance, by sheet title, to the ones waiting to be sent.
+     */
+    @VisibleForTesting
+    void queueRows(Instance instance, String spreadsheetUrl, Map<String, List<List<Object>>> rows)
+            throws UploadException {
+        setUpSpreadsheet(spreadsheetUrl);
+        for (Map.Entry<String, List<List<Object>>> sheetRows : rows.entrySet()) {
+            List<List<Object>> queuedRows = pendingRows.get(sheetRows.getKey());
+            if (queuedRows == null) {
+                queuedRows = new ArrayList<>();
+                pendingRows.put(sheetRows.getKey(), queuedRows);
+            }
+            queuedRows.addAll(sheetRows.getValue());
+        }
+        pendingInstances.put(instance, rows.keySet());
+    }
+
+    /**
+     * Appends the rows of all queued instances with one request per sheet and updates the
+     * status of the instances. If a request fails, the sheets after it aren't written and only
+     * the instances with rows in sheets that weren't written are marked as failed, so that
+     * retrying them doesn't append the rows of the others again.
+     *
+     * @param sentInstances the instances whose rows were all appended are added to it, also when
+     *                      an exception is thrown
+     */
+    public void flushSubmissions(List<Instance> sentInstances) throws UploadException {
+        if (pendingInstances.isEmpty()) {
+            return;
+        }
+
+        Set<String> writtenSheets = new HashSet<>();
+        IOException failure = null;
+        beginStatusBatch();
+        try {
+            for (Map.Entry<String, List<List<Object>>> sheetRows : pendingRows.entrySet()) {
+                try {
+                    sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), sheetRows.getKey(),
+                            new ValueRange().setValues(sheetRows.getValue()));
+                    writtenSheets.add(sheetRows.getKey());
+                } catch (IOException e) {
+                    failure = e;
+                    break;
+                }
+            }
+            for (Map.Entry<Instance, Set<String>> instanceSheets : pendingInstances.entrySet()) {
+                if (writtenSheets.containsAll(instanceSheets.getValue())) {
+                    saveSuccessStatusToDatabase(instanceSheets.getKey());
+                    sentInstances.add(instanceSheets.getKey());
+                } else {
+                    saveFailedStatusToDatabase(instanceSheets.getKey());
+                }
+            }
+        } finally {
+            pendingRows.clear();
+            pendingInstances.clear();
+            endStatusBatch();
+        }
+
+        if (failure != null) {
+            throw new UploadException(failure);
+        }
     }
 
     @Override
@@ -163,15 +322,15 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 : urlString;
     }
 
-    private void insertRows(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle)
-            throws UploadException {
-        insertRow(instance, element, parentKey, key, instanceFile, sheetTitle);
+    private void insertRows(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle,
+                            Map<String, List<List<Object>>> rows) throws UploadException {
+        insertRow(instance, element, parentKey, key, instanceFile, sheetTitle, rows);
 
         int repeatIndex = 0;
         for (int i = 0; i < element.getNumChildren(); i++) {
             TreeElement child = element.getChildAt(i);
             if (child.isRepeatable() && child.getMultiplicity() != TreeReference.INDEX_TEMPLATE) {
-                insertRows(instance, child, key, getKeyBasedOnParentKey(key, child.getName(), repeatIndex++), instanceFile, getElementTitle(child));
+                insertRows(instance, child, key, getKeyBasedOnParentKey(key, child.getName(), repeatIndex++), instanceFile, getElementTitle(child), rows);
             }
             if (child.getMultiplicity() == TreeReference.INDEX_TEMPLATE) {
                 repeatIndex = 0;
@@ -186,23 +345,23 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 + "[" + (repeatIndex + 1) + "]";
     }
 
-    private void insertRow(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle)
-            throws UploadException {
+    private void insertRow(Instance instance, TreeElement element, String parentKey, String key, File instanceFile, String sheetTitle,
+                           Map<String, List<List<Object>>> rows) throws UploadException {
         try {
-            List<List<Object>> sheetCells = getSheetCells(sheetTitle);
-            boolean newSheet = sheetCells == null || sheetCells.isEmpty();
+            List<Object> headers = getSheetHeaders(sheetTitle);
+            boolean newSheet = headers == null;
             List<Object> columnTitles = getColumnTitles(element, newSheet);
             ensureNumberOfColumnsIsValid(columnTitles.size());
 
             if (!newSheet) { // we are editing an existed sheet
-                if (isAnyColumnHeaderEmpty(sheetCells.get(0))) {
+                if (isAnyColumnHeaderEmpty(headers)) {
                     // Insert a header row again to fill empty headers
                     sheetsHelper.updateRow(spreadsheet.getSpreadsheetId(), sheetTitle + "!A1",
                             new ValueRange().setValues(Collections.singletonList(columnTitles)));
-                    sheetCells = getSheetCells(sheetTitle); // read sheet cells again to update
+                    headers = readSheetHeaders(sheetTitle); // read the headers again to update
                 }
-                disallowMissingColumns(sheetCells.get(0), columnTitles);
-                addAltitudeAndAccuracyTitles(sheetCells.get(0), columnTitles);
+                disallowMissingColumns(headers, columnTitles);
+                addAltitudeAndAccuracyTitles(headers, columnTitles);
                 ensureNumberOfColumnsIsValid(columnTitles.size());  // Call again to ensure valid number of columns
 
             } else { // new sheet
@@ -212,14 +371,18 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
                 }
                 sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), sheetTitle,
                         new ValueRange().setValues(Collections.singletonList(columnTitles)));
-                sheetCells = getSheetCells(sheetTitle); // read sheet cells again to update
+                headers = readSheetHeaders(sheetTitle); // read the headers again to update
             }
 
             HashMap<String, String> answers = getAnswers(instance, element, columnTitles, instanceFile, parentKey, key);
 
             if (shouldRowBeInserted(answers)) {
-                sheetsHelper.insertRow(spreadsheet.getSpreadsheetId(), sheetTitle,
-                        new ValueRange().setValues(Collections.singletonList(prepareListOfValues(sheetCells.get(0), columnTitles, answers))));
+                List<List<Object>> sheetRows = rows.get(sheetTitle);
+                if (sheetRows == null) {
+                    sheetRows = new ArrayList<>();
+                    rows.put(sheetTitle, sheetRows);
+                }
+                sheetRows.add(prepareListOfValues(headers, columnTitles, answers));
             }
         } catch (IOException e) {
             throw new UploadException(e);
@@ -293,11 +456,22 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
     }
 
     private TreeElement getInstanceElement(String formFilePath, File instanceFile) throws UploadException {
-        FormDef formDef;
-        try {
-            formDef = XFormUtils.getFormFromInputStream(new FileInputStream(new File(formFilePath)));
-        } catch (FileNotFoundException e) {
-            throw new UploadException(e);
+        FormDef formDef = formDefs.get(formFilePath);
+        if (formDef == null) {
+            File formFile = new File(formFilePath);
+            formDef = FormDefCache.readCache(formFile);
+            if (formDef == null) {
+                try {
+                    formDef = XFormUtils.getFormFromInputStream(new FileInputStream(formFile));
+                } catch (FileNotFoundException e) {
+                    throw new UploadException(e);
+                }
+            }
+            formDefs.put(formFilePath, formDef);
+            blankInstanceRoots.put(formFilePath, formDef.getMainInstance().getRoot().deepCopy(true));
+        } else {
+            // the previous instance of this form was imported into the form's main instance
+            formDef.getMainInstance().setRoot(blankInstanceRoots.get(formFilePath).deepCopy(true));
         }
         FormLoaderTask.importData(instanceFile, new FormEntryController(new FormEntryModel(formDef)));
         return formDef.getMainInstance().getRoot();
@@ -317,12 +491,18 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         Set<String> sheetTitles = getSheetTitles(element);
 
         try {
+            boolean sheetAdded = false;
             for (String sheetTitle : sheetTitles) {
                 if (!doesSheetExist(sheetTitle)) {
                     sheetsHelper.addSheet(spreadsheet.getSpreadsheetId(), sheetTitle);
+                    sheetAdded = true;
                 }
             }
-            spreadsheet = sheetsHelper.getSpreadsheet(spreadsheet.getSpreadsheetId());
+            if (sheetAdded) {
+                String spreadsheetUrl = spreadsheet.getSpreadsheetUrl();
+                spreadsheet = sheetsHelper.getSpreadsheet(spreadsheet.getSpreadsheetId());
+                spreadsheet.setSpreadsheetUrl(spreadsheetUrl);
+            }
         } catch (IOException e) {
             throw new UploadException(e);
         }
@@ -527,8 +707,26 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
         return list;
     }
 
-    private List<List<Object>> getSheetCells(String sheetTitle) throws IOException {
-        return sheetsHelper.getSheetCells(spreadsheet.getSpreadsheetId(), sheetTitle);
+    /**
+     * Returns the header row of a sheet, only reading it from the spreadsheet the first time.
+     *
+     * @return the headers, or null if the sheet is empty
+     */
+    private List<Object> getSheetHeaders(String sheetTitle) throws IOException {
+        List<Object> headers = sheetHeaders.get(sheetTitle);
+        return headers != null ? headers : readSheetHeaders(sheetTitle);
+    }
+
+    private List<Object> readSheetHeaders(String sheetTitle) throws IOException {
+        // only the first row is needed, not the whole sheet
+        List<List<Object>> sheetCells = sheetsHelper.getSheetCells(spreadsheet.getSpreadsheetId(),
+                "'" + sheetTitle.replace("'", "''") + "'!1:1");
+        if (sheetCells == null || sheetCells.isEmpty()) {
+            sheetHeaders.remove(sheetTitle);
+            return null;
+        }
+        sheetHeaders.put(sheetTitle, sheetCells.get(0));
+        return sheetCells.get(0);
     }
 
     private boolean isAnyColumnHeaderEmpty(List<Object> columnHeaders) {
@@ -545,6 +743,7 @@ public class InstanceGoogleSheetsUploader extends InstanceUploader {
             try {
                 spreadsheet = sheetsHelper.getSpreadsheet(UrlUtils.getSpreadsheetID(urlString));
                 spreadsheet.setSpreadsheetUrl(urlString);
+                sheetHeaders.clear();
             } catch (GoogleJsonResponseException e) {
                 String message = e.getMessage();
                 if (e.getDetails() != null && e.getDetails().getCode() == 403) {
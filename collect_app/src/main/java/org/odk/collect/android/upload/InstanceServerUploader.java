@@ -21,9 +21,11 @@ import android.support.annotation.NonNull;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.SubmissionUploadProgress;
 import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.http.HttpHeadResult;
 import org.odk.collect.android.http.OpenRosaHttpInterface;
+import org.odk.collect.android.http.OpenRosaHttpInterface.UploadProgressListener;
 import org.odk.collect.android.preferences.PreferenceKeys;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.ResponseMessageParser;
@@ -36,8 +38,11 @@ import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -50,6 +55,9 @@ public class InstanceServerUploader extends InstanceUploader {
     private final OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
     private final Map<Uri, Uri> uriRemap;
+    private final SubmissionUploadProgress uploadProgress = SubmissionUploadProgress.getInstance();
+    private final Set<Uri> probedUris = new HashSet<>();
+    private final Map<Uri, Object> probeLocks = new HashMap<>();
 
     public InstanceServerUploader(OpenRosaHttpInterface httpInterface,
                                   WebCredentialsUtils webCredentialsUtils,
@@ -75,79 +83,22 @@ public class InstanceServerUploader extends InstanceUploader {
         // We already issued a head request and got a response, so we know it was an
         // OpenRosa-compliant server. We also know the proper URL to send the submission to and
         // the proper scheme.
-        if (uriRemap.containsKey(submissionUri)) {
-            openRosaServer = true;
-            submissionUri = uriRemap.get(submissionUri);
-            Timber.i("Using Uri remap for submission %s. Now: %s", instance.getDatabaseId(),
-                    submissionUri.toString());
-        } else {
-            if (submissionUri.getHost() == null) {
-                saveFailedStatusToDatabase(instance);
-                throw new UploadException(FAIL + "Host name may not be null");
-            }
-
-            URI uri;
-            try {
-                uri = URI.create(submissionUri.toString());
-            } catch (IllegalArgumentException e) {
-                saveFailedStatusToDatabase(instance);
-                Timber.d(e.getMessage() != null ? e.getMessage() : e.toString());
-                throw new UploadException(Collect.getInstance().getString(R.string.url_error));
-            }
-
-            HttpHeadResult headResult;
-            Map<String, String> responseHeaders;
-            try {
-                headResult = httpInterface.head(uri, webCredentialsUtils.getCredentials(uri));
-                responseHeaders = headResult.getHeaders();
-            } catch (Exception e) {
-                saveFailedStatusToDatabase(instance);
-                throw new UploadException(FAIL
-                        + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        Uri remappedUri;
+        // Only one upload to a URI issues the head request, the others wait for its result
+        synchronized (getProbeLock(submissionUri)) {
+            remappedUri = getRemappedUri(submissionUri);
+            if (remappedUri == null && !isProbed(submissionUri)) {
+                remappedUri = probeServer(instance, submissionUri, urlString);
             }
+        }
 
-            if (headResult.getStatusCode() == HttpsURLConnection.HTTP_UNAUTHORIZED) {
-                saveFailedStatusToDatabase(instance);
-                throw new UploadAuthRequestedException(Collect.getInstance().getString(R.string.server_auth_credentials, submissionUri.getHost()),
-                        submissionUri);
-            } else if (headResult.getStatusCode() == HttpsURLConnection.HTTP_NO_CONTENT) {
-                // Redirect header received
-                if (responseHeaders.containsKey("Location")) {
-                    try {
-                        Uri newURI = Uri.parse(URLDecoder.decode(responseHeaders.get("Location"), "utf-8"));
-                        // Allow redirects within same host. This could be redirecting to HTTPS.
-                        if (submissionUri.getHost().equalsIgnoreCase(newURI.getHost())) {
-                            openRosaServer = true;
-                            // Re-add params if server didn't respond with params
-                            if (newURI.getQuery() == null) {
-                                newURI = newURI.buildUpon()
-                                        .encodedQuery(submissionUri.getEncodedQuery())
-                                        .build();
-                            }
-                            uriRemap.put(submissionUri, newURI);
-                            submissionUri = newURI;
-                        } else {
-                            // Don't follow a redirection attempt to a different host.
-                            // We can't tell if this is a spoof or not.
-                            saveFailedStatusToDatabase(instance);
-                            throw new UploadException(FAIL
-                                    + "Unexpected redirection attempt to a different host: "
-                                    + newURI.toString());
-                        }
-                    } catch (Exception e) {
-                        saveFailedStatusToDatabase(instance);
-                        throw new UploadException(FAIL + urlString + " " + e.toString());
-                    }
-                }
-            } else {
-                Timber.w("Status code on Head request: %d", headResult.getStatusCode());
-                if (headResult.getStatusCode() >= HttpsURLConnection.HTTP_OK
-                        && headResult.getStatusCode() < HttpsURLConnection.HTTP_MULT_CHOICE) {
-                    saveFailedStatusToDatabase(instance);
-                    throw new UploadException(FAIL + "Invalid status code on Head request. If "
-                            + "you have a web proxy, you may need to log in to your network.");
-                }
+        if (remappedUri != null) {
+            openRosaServer = true;
+            if (!remappedUri.equals(submissionUri)) {
+                Timber.i("Using Uri remap for submission %s. Now: %s", instance.getDatabaseId(),
+                        remappedUri.toString());
             }
+            submissionUri = remappedUri;
         }
 
         // When encrypting submissions, there is a failure window that may mark the submission as
@@ -175,13 +126,34 @@ public class InstanceServerUploader extends InstanceUploader {
             throw new UploadException("Error reading files to upload");
         }
 
+        // OpenRosa servers keep the attachments of posts marked as incomplete, so a submission
+        // that was split into several posts only needs the attachments the server didn't accept
+        UploadProgressListener progressListener = null;
+        if (openRosaServer) {
+            List<File> remainingFiles = uploadProgress.getRemainingFiles(instanceFile, submissionFile, files);
+            if (remainingFiles.size() < files.size()) {
+                Timber.i("Resuming submission %s, %d of %d attachments left", instance.getDatabaseId(),
+                        remainingFiles.size(), files.size());
+                files = remainingFiles;
+            }
+
+            final File finalInstanceFile = instanceFile;
+            final File finalSubmissionFile = submissionFile;
+            progressListener = new UploadProgressListener() {
+                @Override
+                public void onFilesAcknowledged(List<File> acknowledgedFiles) {
+                    uploadProgress.addAcknowledgedFiles(finalInstanceFile, finalSubmissionFile, acknowledgedFiles);
+                }
+            };
+        }
+
         ResponseMessageParser messageParser;
 
         try {
             URI uri = URI.create(submissionUri.toString());
 
             messageParser = httpInterface.uploadSubmissionFile(files, submissionFile, uri,
-                    webCredentialsUtils.getCredentials(uri));
+                    webCredentialsUtils.getCredentials(uri), progressListener);
 
             int responseCode = messageParser.getResponseCode();
 
@@ -211,6 +183,7 @@ public class InstanceServerUploader extends InstanceUploader {
                     + (e.getMessage() != null ? e.getMessage() : e.toString()));
         }
 
+        uploadProgress.clear(instanceFile);
         saveSuccessStatusToDatabase(instance);
 
         if (messageParser.isValid()) {
@@ -220,6 +193,113 @@ public class InstanceServerUploader extends InstanceUploader {
         return null;
     }
 
+    private Uri getRemappedUri(Uri submissionUri) {
+        synchronized (uriRemap) {
+            return uriRemap.get(submissionUri);
+        }
+    }
+
+    private boolean isProbed(Uri submissionUri) {
+        synchronized (probedUris) {
+            return probedUris.contains(submissionUri);
+        }
+    }
+
+    private Object getProbeLock(Uri submissionUri) {
+        synchronized (probeLocks) {
+            Object probeLock = probeLocks.get(submissionUri);
+            if (probeLock == null) {
+                probeLock = new Object();
+                probeLocks.put(submissionUri, probeLock);
+            }
+            return probeLock;
+        }
+    }
+
+    /**
+     * Issues a head request to find out where the server wants submissions to go. Redirects are
+     * remembered in uriRemap and answers without one in probedUris. Other status codes may be
+     * temporary so they aren't remembered.
+     *
+     * @return the URI the server redirected to, or null if there was no redirect
+     */
+    private Uri probeServer(Instance instance, Uri submissionUri, String urlString) throws UploadException {
+        if (submissionUri.getHost() == null) {
+            saveFailedStatusToDatabase(instance);
+            throw new UploadException(FAIL + "Host name may not be null");
+        }
+
+        URI uri;
+        try {
+            uri = URI.create(submissionUri.toString());
+        } catch (IllegalArgumentException e) {
+            saveFailedStatusToDatabase(instance);
+            Timber.d(e.getMessage() != null ? e.getMessage() : e.toString());
+            throw new UploadException(Collect.getInstance().getString(R.string.url_error));
+        }
+
+        HttpHeadResult headResult;
+        Map<String, String> responseHeaders;
+        try {
+            headResult = httpInterface.head(uri, webCredentialsUtils.getCredentials(uri));
+            responseHeaders = headResult.getHeaders();
+        } catch (Exception e) {
+            saveFailedStatusToDatabase(instance);
+            throw new UploadException(FAIL
+                    + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        }
+
+        if (headResult.getStatusCode() == HttpsURLConnection.HTTP_UNAUTHORIZED) {
+            saveFailedStatusToDatabase(instance);
+            throw new UploadAuthRequestedException(Collect.getInstance().getString(R.string.server_auth_credentials, submissionUri.getHost()),
+                    submissionUri);
+        } else if (headResult.getStatusCode() == HttpsURLConnection.HTTP_NO_CONTENT) {
+            // Redirect header received
+            if (responseHeaders.containsKey("Location")) {
+                try {
+                    Uri newURI = Uri.parse(URLDecoder.decode(responseHeaders.get("Location"), "utf-8"));
+                    // Allow redirects within same host. This could be redirecting to HTTPS.
+                    if (submissionUri.getHost().equalsIgnoreCase(newURI.getHost())) {
+                        // Re-add params if server didn't respond with params
+                        if (newURI.getQuery() == null) {
+                            newURI = newURI.buildUpon()
+                                    .encodedQuery(submissionUri.getEncodedQuery())
+                                    .build();
+                        }
+                        synchronized (uriRemap) {
+                            uriRemap.put(submissionUri, newURI);
+                        }
+                        return newURI;
+                    } else {
+                        // Don't follow a redirection attempt to a different host.
+                        // We can't tell if this is a spoof or not.
+                        saveFailedStatusToDatabase(instance);
+                        throw new UploadException(FAIL
+                                + "Unexpected redirection attempt to a different host: "
+                                + newURI.toString());
+                    }
+                } catch (Exception e) {
+                    saveFailedStatusToDatabase(instance);
+                    throw new UploadException(FAIL + urlString + " " + e.toString());
+                }
+            }
+
+            // No redirect, so the next submissions to this URI can skip the head request
+            synchronized (probedUris) {
+                probedUris.add(submissionUri);
+            }
+        } else {
+            Timber.w("Status code on Head request: %d", headResult.getStatusCode());
+            if (headResult.getStatusCode() >= HttpsURLConnection.HTTP_OK
+                    && headResult.getStatusCode() < HttpsURLConnection.HTTP_MULT_CHOICE) {
+                saveFailedStatusToDatabase(instance);
+                throw new UploadException(FAIL + "Invalid status code on Head request. If "
+                        + "you have a web proxy, you may need to log in to your network.");
+            }
+        }
+        return null;
+    }
+
     private List<File> getFilesInParentDirectory(File instanceFile, File submissionFile, boolean openRosaServer) {
         List<File> files = new ArrayList<>();
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.upload;
+
+import org.odk.collect.android.dto.Instance;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads instances with several uploads running at the same time, but no more than
+ * {@link #MAX_CONCURRENT_UPLOADS_PER_SERVER} to the same server. The smallest instances are sent
+ * first so that as many instances as possible are submitted if the connection drops.
+ *
+ * The uploader is used from several threads at once so it has to be thread-safe, or the
+ * scheduler has to be created with a single concurrent upload.
+ */
+public class InstanceUploadScheduler {
+    public static final int MAX_CONCURRENT_UPLOADS = 6;
+    static final int MAX_CONCURRENT_UPLOADS_PER_SERVER = 3;
+
+    public interface Listener {
+        /**
+         * Called once an instance has been submitted, with the message returned by the uploader.
+         */
+        void onUploadSucceeded(Instance instance, String customMessage);
+
+        void onUploadFailed(Instance instance, UploadException e);
+    }
+
+    private final InstanceUploader uploader;
+    private final int maxConcurrentUploads;
+
+    private final Object lock = new Object();
+    private final LinkedList<PendingUpload> pendingUploads = new LinkedList<>();
+    private final Map<String, Integer> activeUploadsByServer = new HashMap<>();
+    private boolean cancelled;
+
+    public InstanceUploadScheduler(InstanceUploader uploader, int maxConcurrentUploads) {
+        this.uploader = uploader;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    /**
+     * Uploads the instances and returns once all of them have been attempted or the scheduler
+     * has been cancelled. The listener is called from the upload threads, but never for two
+     * instances at the same time. The statuses of the instances are written together, so they
+     * may not be in the database yet when the listener is called, but are once this returns.
+     */
+    public void upload(List<Instance> instances, String deviceId, String overrideUrl,
+                       final Listener listener) {
+        synchronized (lock) {
+            cancelled = false;
+            pendingUploads.clear();
+            for (Instance instance : instances) {
+                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, overrideUrl);
+                pendingUploads.add(new PendingUpload(instance, destinationUrl,
+                        getServer(destinationUrl), getInstanceSize(instance)));
+            }
+            Collections.sort(pendingUploads, new Comparator<PendingUpload>() {
+                @Override
+                public int compare(PendingUpload a, PendingUpload b) {
+                    return a.size < b.size ? -1 : (a.size == b.size ? 0 : 1);
+                }
+            });
+        }
+
+        int threads = Math.max(1, Math.min(maxConcurrentUploads, instances.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        uploader.beginStatusBatch();
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        uploadPendingInstances(listener);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+            uploader.endStatusBatch();
+        }
+    }
+
+    /**
+     * Stops starting new uploads. Uploads that have already started are completed.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            cancelled = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void uploadPendingInstances(Listener listener) throws InterruptedException {
+        PendingUpload pendingUpload = takeNextUpload();
+        while (pendingUpload != null) {
+            try {
+                String customMessage = uploader.uploadOneSubmission(pendingUpload.instance,
+                        pendingUpload.destinationUrl);
+                synchronized (listener) {
+                    listener.onUploadSucceeded(pendingUpload.instance, customMessage);
+                }
+            } catch (UploadException e) {
+                synchronized (listener) {
+                    listener.onUploadFailed(pendingUpload.instance, e);
+                }
+            } finally {
+                finishUpload(pendingUpload);
+            }
+            pendingUpload = takeNextUpload();
+        }
+    }
+
+    /**
+     * Returns the smallest pending upload whose server can take another upload, waiting for an
+     * upload to finish if there is none.
+     *
+     * @return the upload, or null if there are no uploads left or the scheduler was cancelled
+     */
+    private PendingUpload takeNextUpload() throws InterruptedException {
+        synchronized (lock) {
+            while (!cancelled && !pendingUploads.isEmpty()) {
+                Iterator<PendingUpload> iterator = pendingUploads.iterator();
+                while (iterator.hasNext()) {
+                    PendingUpload pendingUpload = iterator.next();
+                    int activeUploads = getActiveUploads(pendingUpload.server);
+                    if (activeUploads < MAX_CONCURRENT_UPLOADS_PER_SERVER) {
+                        iterator.remove();
+                        activeUploadsByServer.put(pendingUpload.server, activeUploads + 1);
+                        return pendingUpload;
+                    }
+                }
+                lock.wait();
+            }
+            return null;
+        }
+    }
+
+    private void finishUpload(PendingUpload pendingUpload) {
+        synchronized (lock) {
+            activeUploadsByServer.put(pendingUpload.server, getActiveUploads(pendingUpload.server) - 1);
+            lock.notifyAll();
+        }
+    }
+
+    private int getActiveUploads(String server) {
+        Integer activeUploads = activeUploadsByServer.get(server);
+        return activeUploads != null ? activeUploads : 0;
+    }
+
+    static String getServer(String destinationUrl) {
+        try {
+            URI uri = URI.create(destinationUrl);
+            if (uri.getHost() != null) {
+                return uri.getHost().toLowerCase(Locale.US) + ":" + uri.getPort();
+            }
+        } catch (IllegalArgumentException e) {
+            // the uploader reports invalid URLs
+        }
+        return destinationUrl;
+    }
+
+    /**
+     * Returns the total size of the files in the instance's folder, which are the ones that may
+     * be sent with it.
+     */
+    static long getInstanceSize(Instance instance) {
+        if (instance.getInstanceFilePath() == null) {
+            return 0;
+        }
+
+        File instanceDir = new File(instance.getInstanceFilePath()).getParentFile();
+        File[] files = instanceDir != null ? instanceDir.listFiles() : null;
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static class PendingUpload {
+        final Instance instance;
+        final String destinationUrl;
+        final String server;
+        final long size;
+
+        PendingUpload(Instance instance, String destinationUrl, String server, long size) {
+            this.instance = instance;
+            this.destinationUrl = destinationUrl;
+            this.server = server;
+            this.size = size;
+        }
+    }
+}
@@ -14,9 +14,12 @@
 
 package org.odk.collect.android.upload;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -28,11 +31,22 @@ import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.utilities.ApplicationConstants;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
 
 import static org.odk.collect.android.provider.FormsProviderAPI.FormsColumns.AUTO_DELETE;
 
 public abstract class InstanceUploader {
+    // written before the batch ends so that a long upload that's interrupted keeps most of them
+    private static final int MAX_BATCHED_STATUSES = 50;
+
+    // statuses waiting to be written by instance id, see beginStatusBatch()
+    private final Map<Long, String> batchedStatuses = new LinkedHashMap<>();
+    private int statusBatchDepth;
+
     /**
      * Uploads the specified instance to the specified destination URL. It may return a custom
      * success message on completion or null if none is available. Errors result in an UploadException.
@@ -83,22 +97,87 @@ public abstract class InstanceUploader {
         return instancesToUpload;
     }
 
-    void saveSuccessStatusToDatabase(Instance instance) {
-        Uri instanceDatabaseUri = Uri.withAppendedPath(InstanceProviderAPI.InstanceColumns.CONTENT_URI,
-                instance.getDatabaseId().toString());
+    /**
+     * Keeps the statuses saved from now on to write them together, in a single transaction and
+     * with a single change notification, when the batch ends. Batches may be nested, the statuses
+     * are written when the outermost one ends. Can be called from several threads.
+     */
+    public void beginStatusBatch() {
+        synchronized (batchedStatuses) {
+            statusBatchDepth++;
+        }
+    }
 
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(InstanceProviderAPI.InstanceColumns.STATUS, InstanceProviderAPI.STATUS_SUBMITTED);
-        Collect.getInstance().getContentResolver().update(instanceDatabaseUri, contentValues, null, null);
+    /**
+     * Ends a batch started with {@link #beginStatusBatch()}.
+     */
+    public void endStatusBatch() {
+        Map<Long, String> statuses;
+        synchronized (batchedStatuses) {
+            statusBatchDepth--;
+            if (statusBatchDepth > 0 || batchedStatuses.isEmpty()) {
+                return;
+            }
+            statuses = new LinkedHashMap<>(batchedStatuses);
+            batchedStatuses.clear();
+        }
+        writeStatuses(statuses);
+    }
+
+    void saveSuccessStatusToDatabase(Instance instance) {
+        saveStatusToDatabase(instance, InstanceProviderAPI.STATUS_SUBMITTED);
     }
 
     void saveFailedStatusToDatabase(Instance instance) {
-        Uri instanceDatabaseUri = Uri.withAppendedPath(InstanceProviderAPI.InstanceColumns.CONTENT_URI,
-                instance.getDatabaseId().toString());
+        saveStatusToDatabase(instance, InstanceProviderAPI.STATUS_SUBMISSION_FAILED);
+    }
+
+    private void saveStatusToDatabase(Instance instance, String status) {
+        Map<Long, String> statuses = new LinkedHashMap<>();
+        synchronized (batchedStatuses) {
+            if (statusBatchDepth > 0) {
+                batchedStatuses.put(instance.getDatabaseId(), status);
+                if (batchedStatuses.size() < MAX_BATCHED_STATUSES) {
+                    return;
+                }
+                statuses.putAll(batchedStatuses);
+                batchedStatuses.clear();
+            } else {
+                statuses.put(instance.getDatabaseId(), status);
+            }
+        }
+        writeStatuses(statuses);
+    }
+
+    private static void writeStatuses(Map<Long, String> statuses) {
+        if (statuses.size() == 1) {
+            Map.Entry<Long, String> status = statuses.entrySet().iterator().next();
+            Collect.getInstance().getContentResolver().update(getInstanceUri(status.getKey()),
+                    getStatusValues(status.getValue()), null, null);
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (Map.Entry<Long, String> status : statuses.entrySet()) {
+            operations.add(ContentProviderOperation.newUpdate(getInstanceUri(status.getKey()))
+                    .withValues(getStatusValues(status.getValue()))
+                    .build());
+        }
+        try {
+            Collect.getInstance().getContentResolver().applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Timber.e(e, "Unable to update the status of %d instances", statuses.size());
+        }
+    }
+
+    private static Uri getInstanceUri(Long databaseId) {
+        return Uri.withAppendedPath(InstanceProviderAPI.InstanceColumns.CONTENT_URI, databaseId.toString());
+    }
 
+    private static ContentValues getStatusValues(String status) {
         ContentValues contentValues = new ContentValues();
-        contentValues.put(InstanceProviderAPI.InstanceColumns.STATUS, InstanceProviderAPI.STATUS_SUBMISSION_FAILED);
-        Collect.getInstance().getContentResolver().update(instanceDatabaseUri, contentValues, null, null);
+        contentValues.put(InstanceProviderAPI.InstanceColumns.STATUS, status);
+        return contentValues;
     }
 
     /**
@@ -16,12 +16,16 @@ package org.odk.collect.android.utilities;
 
 import org.kxml2.kdom.Document;
 
+import java.net.HttpURLConnection;
+
 public class DocumentFetchResult {
     public final String errorMessage;
     public final int responseCode;
     public final Document doc;
     public final boolean isOpenRosaResponse;
     private String hash;
+    private String eTag;
+    private String lastModified;
 
     public DocumentFetchResult(String msg, int response) {
         responseCode = response;
@@ -41,4 +45,28 @@ public class DocumentFetchResult {
     public String getHash() {
         return hash;
     }
+
+    /**
+     * Returns whether the document wasn't sent because it didn't change since it was last
+     * fetched, see {@link org.odk.collect.android.http.CollectServerClient#getXmlDocumentIfChanged}.
+     */
+    public boolean isNotModified() {
+        return errorMessage == null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Sets the validators to fetch the document with next time to only get it if it changed.
+     */
+    public void setCacheValidators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
 }
\ No newline at end of file
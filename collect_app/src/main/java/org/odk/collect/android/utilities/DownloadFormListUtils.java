@@ -27,6 +27,7 @@ import org.kxml2.kdom.Element;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.database.FileHashCache;
 import org.odk.collect.android.http.CollectServerClient;
 import org.odk.collect.android.logic.FormDetails;
 import org.odk.collect.android.logic.ManifestFile;
@@ -37,7 +38,9 @@ import java.io.File;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -61,12 +64,27 @@ public class DownloadFormListUtils {
 
     @Inject CollectServerClient collectServerClient;
 
+    // only set while the form list is downloaded for the update checks
+    private FormListCache formListCache;
+
     public DownloadFormListUtils() {
         Collect.getInstance().getComponent().inject(this);
     }
 
-    public HashMap<String, FormDetails> downloadFormList(boolean alwaysCheckMediaFiles) {
-        return downloadFormList(null, null, null, alwaysCheckMediaFiles);
+    /**
+     * Downloads the form list of the configured server for the update checks, always checking
+     * the media files. The form list and the manifests are only downloaded and parsed again if
+     * the server says they changed since the last check, otherwise the ones kept from that check
+     * are compared with the forms on the device.
+     */
+    public HashMap<String, FormDetails> downloadFormListIfChanged() {
+        formListCache = FormListCache.load();
+        try {
+            return downloadFormList(null, null, null, true);
+        } finally {
+            formListCache.save();
+            formListCache = null;
+        }
     }
 
     public HashMap<String, FormDetails> downloadFormList(@Nullable String url, @Nullable String username,
@@ -106,7 +124,25 @@ public class DownloadFormListUtils {
             }
         }
 
-        DocumentFetchResult result = collectServerClient.getXmlDocument(downloadListUrl);
+        DocumentFetchResult result = formListCache != null
+                ? collectServerClient.getXmlDocumentIfChanged(downloadListUrl,
+                        formListCache.getFormListETag(downloadListUrl),
+                        formListCache.getFormListLastModified(downloadListUrl))
+                : collectServerClient.getXmlDocument(downloadListUrl);
+
+        if (result.isNotModified()) {
+            List<FormDetails> cachedForms = formListCache.getForms(downloadListUrl);
+            if (cachedForms != null) {
+                clearTemporaryCredentials(url);
+                for (FormDetails form : cachedForms) {
+                    formList.put(form.getFormID(), getFormDetails(form.getFormName(), form.getDownloadUrl(),
+                            form.getManifestUrl(), form.getFormID(), form.getFormVersion(), null,
+                            form.getHash(), alwaysCheckMediaFiles));
+                }
+                return formList;
+            }
+            result = collectServerClient.getXmlDocument(downloadListUrl);
+        }
 
         clearTemporaryCredentials(url);
 
@@ -120,6 +156,12 @@ public class DownloadFormListUtils {
             return formList;
         }
 
+        // the new list is kept once it has been parsed successfully
+        List<FormDetails> serverForms = new ArrayList<>();
+        if (formListCache != null) {
+            formListCache.clearForms();
+        }
+
         if (result.isOpenRosaResponse) {
             // Attempt OpenRosa 1.0 parsing
             Element xformsElement = result.doc.getRootElement();
@@ -244,25 +286,14 @@ public class DownloadFormListUtils {
                                     R.string.parse_openrosa_formlist_failed, error)));
                     return formList;
                 }
-                boolean isNewerFormVersionAvailable = false;
-                boolean areNewerMediaFilesAvailable = false;
-                ManifestFile manifestFile = null;
-                if (isThisFormAlreadyDownloaded(formId)) {
-                    isNewerFormVersionAvailable = isNewerFormVersionAvailable(FormDownloader.getMd5Hash(hash));
-                    if ((!isNewerFormVersionAvailable || alwaysCheckMediaFiles) && manifestUrl != null) {
-                        manifestFile = getManifestFile(manifestUrl);
-                        if (manifestFile != null) {
-                            List<MediaFile> newMediaFiles = manifestFile.getMediaFiles();
-                            if (newMediaFiles != null && !newMediaFiles.isEmpty()) {
-                                areNewerMediaFilesAvailable = areNewerMediaFilesAvailable(formId, version, newMediaFiles);
-                            }
-                        }
-                    }
-                }
-                formList.put(formId, new FormDetails(formName, downloadUrl, manifestUrl, formId,
-                        (version != null) ? version : majorMinorVersion, hash,
-                        manifestFile != null ? manifestFile.getHash() : null,
-                        isNewerFormVersionAvailable, areNewerMediaFilesAvailable));
+                formList.put(formId, getFormDetails(formName, downloadUrl, manifestUrl, formId,
+                        version, majorMinorVersion, hash, alwaysCheckMediaFiles));
+                serverForms.add(new FormDetails(formName, downloadUrl, manifestUrl, formId,
+                        (version != null) ? version : majorMinorVersion, hash, null, false, false));
+            }
+
+            if (formListCache != null) {
+                formListCache.putForms(downloadListUrl, result, serverForms);
             }
         } else {
             // Aggregate 0.9.x mode...
@@ -315,6 +346,34 @@ public class DownloadFormListUtils {
         return formList;
     }
 
+    /**
+     * Returns the details of a form of the form list, with whether it or its media files have
+     * been updated on the server since they were downloaded.
+     */
+    private FormDetails getFormDetails(String formName, String downloadUrl, String manifestUrl,
+                                       String formId, String version, String majorMinorVersion,
+                                       String hash, boolean alwaysCheckMediaFiles) {
+        boolean isNewerFormVersionAvailable = false;
+        boolean areNewerMediaFilesAvailable = false;
+        ManifestFile manifestFile = null;
+        if (isThisFormAlreadyDownloaded(formId)) {
+            isNewerFormVersionAvailable = isNewerFormVersionAvailable(FormDownloader.getMd5Hash(hash));
+            if ((!isNewerFormVersionAvailable || alwaysCheckMediaFiles) && manifestUrl != null) {
+                manifestFile = getManifestFile(manifestUrl);
+                if (manifestFile != null) {
+                    List<MediaFile> newMediaFiles = manifestFile.getMediaFiles();
+                    if (newMediaFiles != null && !newMediaFiles.isEmpty()) {
+                        areNewerMediaFilesAvailable = areNewerMediaFilesAvailable(formId, version, newMediaFiles);
+                    }
+                }
+            }
+        }
+        return new FormDetails(formName, downloadUrl, manifestUrl, formId,
+                (version != null) ? version : majorMinorVersion, hash,
+                manifestFile != null ? manifestFile.getHash() : null,
+                isNewerFormVersionAvailable, areNewerMediaFilesAvailable);
+    }
+
     private static boolean isThisFormAlreadyDownloaded(String formId) {
         Cursor cursor = new FormsDao().getFormsCursorForFormId(formId);
         return cursor == null || cursor.getCount() > 0;
@@ -325,7 +384,23 @@ public class DownloadFormListUtils {
             return null;
         }
 
-        DocumentFetchResult result = collectServerClient.getXmlDocument(manifestUrl);
+        DocumentFetchResult result;
+        if (formListCache != null) {
+            // the previous manifest is kept until a new one has been read
+            formListCache.keepManifest(manifestUrl);
+            result = collectServerClient.getXmlDocumentIfChanged(manifestUrl,
+                    formListCache.getManifestETag(manifestUrl),
+                    formListCache.getManifestLastModified(manifestUrl));
+            if (result.isNotModified()) {
+                ManifestFile cachedManifest = formListCache.getManifest(manifestUrl);
+                if (cachedManifest != null) {
+                    return cachedManifest;
+                }
+                result = collectServerClient.getXmlDocument(manifestUrl);
+            }
+        } else {
+            result = collectServerClient.getXmlDocument(manifestUrl);
+        }
 
         if (result.errorMessage != null) {
             return null;
@@ -416,7 +491,11 @@ public class DownloadFormListUtils {
             }
         }
 
-        return new ManifestFile(result.getHash(), files);
+        ManifestFile manifestFile = new ManifestFile(result.getHash(), files);
+        if (formListCache != null) {
+            formListCache.putManifest(manifestUrl, result, manifestFile);
+        }
+        return manifestFile;
     }
 
     private static boolean isNewerFormVersionAvailable(String md5Hash) {
@@ -426,10 +505,12 @@ public class DownloadFormListUtils {
     private static boolean areNewerMediaFilesAvailable(String formId, String formVersion, List<MediaFile> newMediaFiles) {
         String mediaDirPath = new FormsDao().getFormMediaPath(formId, formVersion);
         if (mediaDirPath != null) {
-            File[] localMediaFiles = new File(mediaDirPath).listFiles();
+            File mediaDir = new File(mediaDirPath);
+            File[] localMediaFiles = mediaDir.listFiles();
             if (localMediaFiles != null) {
+                Set<String> localMediaHashes = getLocalMediaHashes(localMediaFiles);
                 for (MediaFile newMediaFile : newMediaFiles) {
-                    if (!isMediaFileAlreadyDownloaded(localMediaFiles, newMediaFile)) {
+                    if (!isMediaFileAlreadyDownloaded(mediaDir, localMediaHashes, newMediaFile)) {
                         return true;
                     }
                 }
@@ -441,18 +522,37 @@ public class DownloadFormListUtils {
         return false;
     }
 
-    private static boolean isMediaFileAlreadyDownloaded(File[] localMediaFiles, MediaFile newMediaFile) {
-        // TODO Zip files are ignored we should find a way to take them into account too
-        if (newMediaFile.getFilename().endsWith(".zip")) {
+    /**
+     * Returns the hashes of the media files of a form. Only the files that changed since they
+     * were last hashed are read.
+     */
+    private static Set<String> getLocalMediaHashes(File[] localMediaFiles) {
+        FileHashCache fileHashCache = FileHashCache.getInstance();
+        Set<String> hashes = new HashSet<>();
+        for (File localMediaFile : localMediaFiles) {
+            if (localMediaFile.isFile()) {
+                String md5 = fileHashCache.getMd5Hash(localMediaFile);
+                if (md5 != null) {
+                    hashes.add(md5);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static boolean isMediaFileAlreadyDownloaded(File mediaDir, Set<String> localMediaHashes,
+                                                        MediaFile newMediaFile) {
+        String mediaFileHash = FormDownloader.getMd5Hash(newMediaFile.getHash());
+        if (mediaFileHash == null || localMediaHashes.contains(mediaFileHash)) {
             return true;
         }
 
-        String mediaFileHash = newMediaFile.getHash();
-        mediaFileHash = mediaFileHash.substring(4, mediaFileHash.length());
-        for (File localMediaFile : localMediaFiles) {
-            if (mediaFileHash.equals(FileUtils.getMd5Hash(localMediaFile))) {
-                return true;
-            }
+        // zip files are deleted once they're extracted when the form is opened. Archives
+        // extracted before their hashes were kept can't be compared and are assumed up to date.
+        File archive = new File(mediaDir, newMediaFile.getFilename());
+        if (newMediaFile.getFilename().endsWith(".zip") && !archive.exists()) {
+            String extractedHash = FileHashCache.getInstance().getExtractedArchiveMd5Hash(archive);
+            return extractedHash == null || mediaFileHash.equals(extractedHash);
         }
         return false;
     }
@@ -32,15 +32,15 @@ import org.odk.collect.android.logic.FormController.InstanceMetadata;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -53,6 +53,11 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -98,6 +103,7 @@ public class EncryptionUtils {
             "base64EncryptedElementSignature";
     private static final String NEW_LINE = "\n";
     private static final String ENCRYPTION_PROVIDER = "BC";
+    private static final int ENCRYPTION_BUFFER_SIZE = 64 * 1024;
 
     private EncryptionUtils() {
     }
@@ -175,7 +181,10 @@ public class EncryptionUtils {
         }
 
         public void appendFileSignatureSource(File file) {
-            String md5Hash = FileUtils.getMd5Hash(file);
+            appendFileSignatureSource(file, FileUtils.getMd5Hash(file));
+        }
+
+        public void appendFileSignatureSource(File file, String md5Hash) {
             appendElementSignatureSource(file.getName() + "::" + md5Hash);
         }
 
@@ -378,52 +387,115 @@ public class EncryptionUtils {
         return new EncryptedFormInformation(formId, formVersion, instanceMetadata, pk);
     }
 
-    private static void encryptFile(File file, EncryptedFormInformation formInfo)
-            throws IOException, EncryptionException {
-        File encryptedFile = new File(file.getParentFile(), file.getName()
-                + ".enc");
-
-        if (encryptedFile.exists() && !encryptedFile.delete()) {
-            throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath()
-                    + ". Perhaps the file is locked?");
-        }
-
-        // add elementSignatureSource for this file...
-        formInfo.appendFileSignatureSource(file);
-
-        RandomAccessFile randomAccessFile = null;
+    /**
+     * Encrypts a file to a sibling file with an .enc suffix, streaming it through the cipher so
+     * that only a buffer's worth of the file is held in memory. The MD5 hash of the plaintext
+     * needed for the element signature is computed from the same read.
+     *
+     * @return the MD5 hash of the unencrypted file
+     */
+    private static String encryptFile(File file, File encryptedFile, Cipher cipher)
+            throws EncryptionException {
+        InputStream fin = null;
         CipherOutputStream cipherOutputStream = null;
         try {
-            Cipher c = formInfo.getCipher();
-
-            randomAccessFile = new RandomAccessFile(encryptedFile, "rws");
-            ByteArrayOutputStream encryptedData = new ByteArrayOutputStream();
-            cipherOutputStream = new CipherOutputStream(encryptedData, c);
-            InputStream fin = new FileInputStream(file);
-            byte[] buffer = new byte[2048];
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            fin = new FileInputStream(file);
+            cipherOutputStream = new CipherOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(encryptedFile), ENCRYPTION_BUFFER_SIZE), cipher);
+            byte[] buffer = new byte[ENCRYPTION_BUFFER_SIZE];
             int len = fin.read(buffer);
             while (len != -1) {
+                md.update(buffer, 0, len);
                 cipherOutputStream.write(buffer, 0, len);
                 len = fin.read(buffer);
             }
-            fin.close();
-            cipherOutputStream.flush();
+            // writes the final block and closes the file
             cipherOutputStream.close();
-
-            randomAccessFile.write(encryptedData.toByteArray());
+            cipherOutputStream = null;
 
             Timber.i("Encrpyted:%s -> %s", file.getName(), encryptedFile.getName());
+
+            StringBuilder md5 = new StringBuilder(new BigInteger(1, md.digest()).toString(16));
+            while (md5.length() < 32) {
+                md5.insert(0, "0");
+            }
+            return md5.toString();
         } catch (Exception e) {
             String msg = "Error encrypting: " + file.getName() + " -> "
                     + encryptedFile.getName();
             Timber.e(e, "%s due to %s ", msg, e.getMessage());
             throw new EncryptionException(msg, e);
         } finally {
+            IOUtils.closeQuietly(fin);
             IOUtils.closeQuietly(cipherOutputStream);
+        }
+    }
 
-            if (randomAccessFile != null) {
-                randomAccessFile.close();
+    /**
+     * Encrypts the given files in parallel and adds their signature sources to formInfo in
+     * order. The ciphers are taken from formInfo in order before any work starts because every
+     * call to {@link EncryptedFormInformation#getCipher()} advances the IV.
+     */
+    private static void encryptFiles(List<File> files, EncryptedFormInformation formInfo)
+            throws IOException, EncryptionException {
+        List<File> encryptedFiles = new ArrayList<>();
+        List<Cipher> ciphers = new ArrayList<>();
+        for (File file : files) {
+            File encryptedFile = new File(file.getParentFile(), file.getName() + ".enc");
+            if (encryptedFile.exists() && !encryptedFile.delete()) {
+                throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath()
+                        + ". Perhaps the file is locked?");
             }
+            encryptedFiles.add(encryptedFile);
+
+            try {
+                ciphers.add(formInfo.getCipher());
+            } catch (Exception e) {
+                String msg = "Error encrypting: " + file.getName() + " -> "
+                        + encryptedFile.getName();
+                Timber.e(e, "%s due to %s ", msg, e.getMessage());
+                throw new EncryptionException(msg, e);
+            }
+        }
+
+        int threads = Math.max(1, Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> hashes = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final File encryptedFile = encryptedFiles.get(i);
+                final Cipher cipher = ciphers.get(i);
+                hashes.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws EncryptionException {
+                        return encryptFile(file, encryptedFile, cipher);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                String md5Hash;
+                try {
+                    md5Hash = hashes.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof EncryptionException) {
+                        throw (EncryptionException) e.getCause();
+                    }
+                    throw new EncryptionException("Error encrypting: " + files.get(i).getName(),
+                            e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EncryptionException("Interrupted while encrypting: "
+                            + files.get(i).getName(), e);
+                }
+                formInfo.appendFileSignatureSource(files.get(i), md5Hash);
+            }
+        } finally {
+            // stops the remaining files after a failure
+            executor.shutdownNow();
         }
     }
 
@@ -482,13 +554,10 @@ public class EncryptionUtils {
                 filesToProcess.add(f);
             }
         }
-        // encrypt here...
-        for (File f : filesToProcess) {
-            encryptFile(f, formInfo);
-        }
-
-        // encrypt the submission.xml as the last file...
-        encryptFile(submissionXml, formInfo);
+        // encrypt here, with the submission.xml as the last file...
+        List<File> filesToEncrypt = new ArrayList<File>(filesToProcess);
+        filesToEncrypt.add(submissionXml);
+        encryptFiles(filesToEncrypt, formInfo);
 
         return filesToProcess;
     }
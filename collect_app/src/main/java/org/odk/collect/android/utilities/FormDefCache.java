@@ -4,18 +4,41 @@ import org.javarosa.core.model.FormDef;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.odk.collect.android.application.Collect;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
 import timber.log.Timber;
 
-/** Methods for reading from and writing to the FormDef cache */
+/**
+ * Methods for reading from and writing to the FormDef cache.
+ *
+ * The cache has two tiers: an in-process LRU of serialized FormDefs and .formdef files on disk.
+ * Entries are keyed by the form's path, last modified time and size so an unchanged form can be
+ * found without hashing its contents. Each .formdef file starts with a header holding a format
+ * version and a checksum of the serialized FormDef so stale or truncated files are discarded.
+ */
 public class FormDefCache {
 
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x4F444B46; // "ODKF"
+    // magic, format version, form last modified, form length, checksum, payload length
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+    private static final long MEMORY_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final FormDefMemoryCache MEMORY_CACHE = new FormDefMemoryCache(MEMORY_CACHE_MAX_BYTES);
+
     private FormDefCache() {
         // Private constructor
     }
@@ -30,7 +53,9 @@ public class FormDefCache {
      */
     public static void writeCache(FormDef formDef, String formPath) throws IOException {
         final long formSaveStart = System.currentTimeMillis();
-        File cachedFormDefFile = FormDefCache.getCacheFile(new File(formPath));
+        final File formXml = new File(formPath);
+        final String cacheKey = getCacheKey(formXml);
+        File cachedFormDefFile = getCacheFile(cacheKey);
         final File tempCacheFile = File.createTempFile("cache", null,
                 new File(Collect.CACHE_PATH));
         Timber.i("Started saving %s to the cache via temp file %s",
@@ -38,9 +63,9 @@ public class FormDefCache {
 
         Exception caughtException = null;
         try {
-            DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempCacheFile));
-            formDef.writeExternal(dos);
-            dos.close();
+            byte[] serializedFormDef = serializeFormDef(formDef);
+            writeCacheFile(tempCacheFile, formXml, serializedFormDef);
+            MEMORY_CACHE.put(cacheKey, serializedFormDef);
         } catch (IOException exception) {
             caughtException = exception;
         }
@@ -77,13 +102,30 @@ public class FormDefCache {
      * @return a FormDef, or null if the form is not present in the cache
      */
     public static FormDef readCache(File formXml) {
-        final File cachedForm = getCacheFile(formXml);
+        final String cacheKey = getCacheKey(formXml);
+        final long start = System.currentTimeMillis();
+
+        byte[] serializedFormDef = MEMORY_CACHE.get(cacheKey);
+        if (serializedFormDef != null) {
+            Timber.i("Attempting to load %s from the in-memory cache.", formXml.getName());
+            final FormDef deserializedFormDef = deserializeFormDef(serializedFormDef);
+            if (deserializedFormDef != null) {
+                Timber.i("Loaded in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
+                return deserializedFormDef;
+            }
+            MEMORY_CACHE.remove(cacheKey);
+        }
+
+        final File cachedForm = getCacheFile(cacheKey);
         if (cachedForm.exists()) {
             Timber.i("Attempting to load %s from cached file: %s.",
                     formXml.getName(), cachedForm.getName());
-            final long start = System.currentTimeMillis();
-            final FormDef deserializedFormDef = deserializeFormDef(cachedForm);
+            serializedFormDef = readCacheFile(cachedForm, formXml);
+            final FormDef deserializedFormDef = serializedFormDef != null
+                    ? deserializeFormDef(serializedFormDef)
+                    : null;
             if (deserializedFormDef != null) {
+                MEMORY_CACHE.put(cacheKey, serializedFormDef);
                 Timber.i("Loaded in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
                 return deserializedFormDef;
             }
@@ -98,23 +140,122 @@ public class FormDefCache {
     }
 
     /**
-     * Builds and returns a File object for the cached version of a form.
+     * Returns the path of the cache file for a form in its current state. The path changes
+     * whenever the form file is modified.
      * @param formXml the File containing the XML form
+     * @return the absolute path of the .formdef file
+     */
+    public static String getCacheFilePath(File formXml) {
+        return getCacheFile(getCacheKey(formXml)).getAbsolutePath();
+    }
+
+    /**
+     * Drops every entry from the in-memory tier. Files on disk are left untouched.
+     */
+    public static void clearMemoryCache() {
+        MEMORY_CACHE.clear();
+    }
+
+    /**
+     * Builds the cache key of a form from its path, last modified time and size. This is much
+     * cheaper than hashing the contents of the form and changes whenever the form file does.
+     */
+    static String getCacheKey(File formXml) {
+        String fingerprint = formXml.getAbsolutePath() + ":" + formXml.lastModified() + ":" + formXml.length();
+        return FileUtils.getMd5Hash(new ByteArrayInputStream(fingerprint.getBytes()));
+    }
+
+    /**
+     * Builds and returns a File object for the cached version of a form.
+     * @param cacheKey the key returned by {@link #getCacheKey(File)}
      * @return a File object
      */
-    private static File getCacheFile(File formXml) {
-        return new File(Collect.CACHE_PATH + File.separator +
-                FileUtils.getMd5Hash(formXml) + ".formdef");
+    private static File getCacheFile(String cacheKey) {
+        return new File(Collect.CACHE_PATH + File.separator + cacheKey + ".formdef");
+    }
+
+    private static byte[] serializeFormDef(FormDef formDef) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(BUFFER_SIZE);
+        DataOutputStream dos = new DataOutputStream(bos);
+        formDef.writeExternal(dos);
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    private static void writeCacheFile(File cacheFile, File formXml, byte[] serializedFormDef) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(cacheFile), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeLong(formXml.lastModified());
+            dos.writeLong(formXml.length());
+            dos.writeLong(getChecksum(serializedFormDef));
+            dos.writeInt(serializedFormDef.length);
+            dos.write(serializedFormDef);
+        }
+    }
+
+    /**
+     * Maps a .formdef file into memory, validates its header against the form it was built
+     * from and returns the serialized FormDef it holds.
+     * @return the serialized FormDef, or null if the file is stale or corrupted
+     */
+    private static byte[] readCacheFile(File cacheFile, File formXml) {
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            long fileLength = channel.size();
+            if (fileLength < HEADER_SIZE) {
+                Timber.w("Cache file %s is truncated", cacheFile.getName());
+                return null;
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            if (buffer.getInt() != MAGIC) {
+                Timber.w("Cache file %s has an unknown format", cacheFile.getName());
+                return null;
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                Timber.w("Cache file %s has format version %d, expected %d",
+                        cacheFile.getName(), formatVersion, FORMAT_VERSION);
+                return null;
+            }
+            if (buffer.getLong() != formXml.lastModified() || buffer.getLong() != formXml.length()) {
+                Timber.w("Cache file %s is stale", cacheFile.getName());
+                return null;
+            }
+            long checksum = buffer.getLong();
+            int payloadLength = buffer.getInt();
+            if (payloadLength < 0 || payloadLength != fileLength - HEADER_SIZE) {
+                Timber.w("Cache file %s is truncated", cacheFile.getName());
+                return null;
+            }
+
+            byte[] serializedFormDef = new byte[payloadLength];
+            buffer.get(serializedFormDef);
+            if (getChecksum(serializedFormDef) != checksum) {
+                Timber.w("Cache file %s failed checksum verification", cacheFile.getName());
+                return null;
+            }
+            return serializedFormDef;
+        } catch (IOException e) {
+            Timber.e(e);
+            return null;
+        }
+    }
+
+    private static long getChecksum(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return crc32.getValue();
     }
 
-    private static FormDef deserializeFormDef(File serializedFormDef) {
-        FileInputStream fis;
+    private static FormDef deserializeFormDef(byte[] serializedFormDef) {
         FormDef fd;
         try {
             // create new form def
             fd = new FormDef();
-            fis = new FileInputStream(serializedFormDef);
-            DataInputStream dis = new DataInputStream(fis);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(serializedFormDef));
 
             // read serialized formdef into new formdef
             fd.readExternal(dis, ExtUtil.defaultPrototypes());
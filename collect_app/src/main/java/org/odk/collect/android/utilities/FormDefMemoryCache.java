@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process tier of the {@link FormDefCache}. Keeps the serialized bytes of recently loaded
+ * FormDefs, evicting the least recently used entries once the total size exceeds a byte budget.
+ *
+ * Serialized bytes are kept rather than FormDef objects because a FormDef is mutated as soon as
+ * a form is filled in, so every form session needs its own fresh copy.
+ */
+class FormDefMemoryCache {
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long currentBytes;
+
+    FormDefMemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, byte[] serializedFormDef) {
+        if (serializedFormDef.length > maxBytes) {
+            // Caching it would evict everything else, so don't
+            remove(key);
+            return;
+        }
+
+        byte[] previous = entries.put(key, serializedFormDef);
+        if (previous != null) {
+            currentBytes -= previous.length;
+        }
+        currentBytes += serializedFormDef.length;
+
+        Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            currentBytes -= eldest.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    synchronized void remove(String key) {
+        byte[] removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.length;
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    synchronized long sizeInBytes() {
+        return currentBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
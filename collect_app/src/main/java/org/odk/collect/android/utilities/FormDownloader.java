@@ -25,6 +25,8 @@ import org.kxml2.kdom.Element;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.database.FileHashCache;
+import org.odk.collect.android.external.ExternalDataImportWorker;
 import org.odk.collect.android.http.CollectServerClient;
 import org.odk.collect.android.listeners.FormDownloaderListener;
 import org.odk.collect.android.logic.FormDetails;
@@ -36,11 +38,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -51,10 +65,23 @@ public class FormDownloader {
     private static final String MD5_COLON_PREFIX = "md5:";
     private static final String TEMP_DOWNLOAD_EXTENSION = ".tempDownload";
 
+    // forms are downloaded side by side, each with up to MAX_CONCURRENT_MEDIA_DOWNLOADS media
+    // files in flight, but never with more than MAX_CONNECTIONS_PER_HOST requests to one server
+    private static final int MAX_CONCURRENT_FORMS = 3;
+    private static final int MAX_CONCURRENT_MEDIA_DOWNLOADS = 4;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
     private FormDownloaderListener stateListener;
 
     private FormsDao formsDao;
 
+    private ExecutorService mediaExecutor;
+    private final Map<String, Semaphore> hostPermits = new HashMap<>();
+    // form file paths picked by downloads that are still in progress
+    private final Set<String> reservedFormPaths = new HashSet<>();
+    // forms are installed one at a time so they don't race for the same database rows
+    private final Object installLock = new Object();
+
     @Inject CollectServerClient collectServerClient;
 
     public FormDownloader() {
@@ -88,26 +115,68 @@ public class FormDownloader {
         }
     }
 
+    /**
+     * Downloads the given forms, several at a time. Each form is still downloaded to temporary
+     * files and only installed once everything it needs has been fetched, so a cancelled or
+     * failed download never leaves a partial form behind.
+     *
+     * @return the outcome of each form that was processed before the task was cancelled
+     */
     public HashMap<FormDetails, String> downloadForms(List<FormDetails> toDownload) {
         formsDao = new FormsDao();
-        int total = toDownload.size();
-        int count = 1;
+        final int total = toDownload.size();
+        final AtomicInteger count = new AtomicInteger();
 
         final HashMap<FormDetails, String> result = new HashMap<>();
+        if (toDownload.isEmpty()) {
+            return result;
+        }
 
-        for (FormDetails fd : toDownload) {
-            try {
-                String message = processOneForm(total, count++, fd);
-                result.put(fd, message.isEmpty() ?
-                        Collect.getInstance().getString(R.string.success) : message);
-            } catch (TaskCancelledException cd) {
-                break;
+        ExecutorService formExecutor = Executors.newFixedThreadPool(Math.min(total, MAX_CONCURRENT_FORMS));
+        mediaExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_MEDIA_DOWNLOADS);
+        try {
+            Map<FormDetails, Future<String>> downloads = new LinkedHashMap<>();
+            for (final FormDetails fd : toDownload) {
+                downloads.put(fd, formExecutor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws TaskCancelledException {
+                        return processOneForm(total, count.incrementAndGet(), fd);
+                    }
+                }));
             }
+
+            for (Map.Entry<FormDetails, Future<String>> download : downloads.entrySet()) {
+                try {
+                    String message = download.getValue().get();
+                    result.put(download.getKey(), message.isEmpty() ?
+                            Collect.getInstance().getString(R.string.success) : message);
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof TaskCancelledException)) {
+                        throw propagate(e.getCause());
+                    }
+                    // forms that haven't started yet stop as soon as they see the cancellation
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            formExecutor.shutdown();
+            mediaExecutor.shutdown();
         }
 
         return result;
     }
 
+    private static RuntimeException propagate(Throwable throwable) {
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+        return new RuntimeException(throwable);
+    }
+
     /**
      * Processes one form download.
      *
@@ -136,8 +205,9 @@ public class FormDownloader {
 
             if (fd.getManifestUrl() != null) {
                 // use a temporary media path until everything is ok.
+                // forms downloaded at the same time can't share it.
                 tempMediaPath = new File(Collect.CACHE_PATH,
-                        String.valueOf(System.currentTimeMillis())).getAbsolutePath();
+                        System.currentTimeMillis() + "_" + count).getAbsolutePath();
                 finalMediaPath = FileUtils.constructMediaPath(
                         fileResult.getFile().getAbsolutePath());
                 String error = downloadManifestAndMediaFiles(tempMediaPath, finalMediaPath, fd,
@@ -180,7 +250,9 @@ public class FormDownloader {
 
         if ((stateListener == null || !stateListener.isTaskCanceled()) && message.isEmpty() && parsedFields != null) {
             if (isSubmissionOk(parsedFields)) {
-                installEverything(tempMediaPath, fileResult, parsedFields);
+                synchronized (installLock) {
+                    installEverything(tempMediaPath, fileResult, parsedFields);
+                }
                 installed = true;
             } else {
                 message += Collect.getInstance().getString(R.string.xform_parse_error,
@@ -208,6 +280,9 @@ public class FormDownloader {
             if (tempMediaPath != null) {
                 File formMediaPath = new File(uriResult.getMediaPath());
                 FileUtils.moveMediaFiles(tempMediaPath, formMediaPath);
+
+                // import any external data now rather than when the form is first opened
+                ExternalDataImportWorker.enqueue(formMediaPath, fileResult.getFile());
             }
         } catch (IOException e) {
             Timber.e(e);
@@ -321,16 +396,26 @@ public class FormDownloader {
         rootName = rootName.trim();
 
         // proposed name of xml file...
-        String path = Collect.FORMS_PATH + File.separator + rootName + ".xml";
-        int i = 2;
-        File f = new File(path);
-        while (f.exists()) {
-            path = Collect.FORMS_PATH + File.separator + rootName + "_" + i + ".xml";
+        File f;
+        synchronized (reservedFormPaths) {
+            String path = Collect.FORMS_PATH + File.separator + rootName + ".xml";
+            int i = 2;
             f = new File(path);
-            i++;
+            while (f.exists() || reservedFormPaths.contains(path)) {
+                path = Collect.FORMS_PATH + File.separator + rootName + "_" + i + ".xml";
+                f = new File(path);
+                i++;
+            }
+            reservedFormPaths.add(path);
         }
 
-        downloadFile(f, url);
+        try {
+            downloadFile(f, url);
+        } finally {
+            synchronized (reservedFormPaths) {
+                reservedFormPaths.remove(f.getPath());
+            }
+        }
 
         boolean isNew = true;
 
@@ -395,6 +480,8 @@ public class FormDownloader {
                 InputStream is = null;
                 OutputStream os = null;
 
+                Semaphore permits = getHostPermits(downloadUrl);
+                permits.acquire();
                 try {
                     is = collectServerClient.getHttpInputStream(downloadUrl, null).getInputStream();
                     os = new FileOutputStream(tempFile);
@@ -441,6 +528,7 @@ public class FormDownloader {
                             Timber.e(e);
                         }
                     }
+                    permits.release();
                 }
 
             if (stateListener != null && stateListener.isTaskCanceled()) {
@@ -467,6 +555,30 @@ public class FormDownloader {
         }
     }
 
+    /**
+     * Returns the permits that bound the number of concurrent requests to the host of a url.
+     */
+    private Semaphore getHostPermits(String url) {
+        String host;
+        try {
+            host = new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            host = null;
+        }
+        if (host == null) {
+            host = "";
+        }
+
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+                hostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
     private static class UriResult {
 
         private final Uri uri;
@@ -525,7 +637,14 @@ public class FormDownloader {
 
         List<MediaFile> files = new ArrayList<MediaFile>();
 
-        DocumentFetchResult result = collectServerClient.getXmlDocument(fd.getManifestUrl());
+        DocumentFetchResult result;
+        Semaphore permits = getHostPermits(fd.getManifestUrl());
+        permits.acquire();
+        try {
+            result = collectServerClient.getXmlDocument(fd.getManifestUrl());
+        } finally {
+            permits.release();
+        }
 
         if (result.errorMessage != null) {
             return result.errorMessage;
@@ -617,7 +736,6 @@ public class FormDownloader {
 
         // OK we now have the full set of files to download...
         Timber.i("Downloading %d media files.", files.size());
-        int mediaCount = 0;
         if (!files.isEmpty()) {
             File tempMediaDir = new File(tempMediaPath);
             File finalMediaDir = new File(finalMediaPath);
@@ -625,44 +743,100 @@ public class FormDownloader {
             FileUtils.checkMediaPath(tempMediaDir);
             FileUtils.checkMediaPath(finalMediaDir);
 
+            AtomicInteger mediaCount = new AtomicInteger();
+            List<Future<Void>> downloads = new ArrayList<>();
             for (MediaFile toDownload : files) {
-                ++mediaCount;
-                if (stateListener != null) {
-                    stateListener.progressUpdate(
-                            Collect.getInstance().getString(R.string.form_download_progress,
-                                    fd.getFormName(),
-                                    String.valueOf(mediaCount), String.valueOf(files.size())),
-                            String.valueOf(count), String.valueOf(total));
+                downloads.add(mediaExecutor.submit(new MediaFileDownload(toDownload, tempMediaDir,
+                        finalMediaDir, fd, mediaCount, files.size(), count, total)));
+            }
+            awaitMediaDownloads(downloads);
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the media downloads of a form. If one of them fails the ones that haven't
+     * started are dropped and its exception is rethrown, like when they ran one after the other.
+     */
+    private void awaitMediaDownloads(List<Future<Void>> downloads) throws Exception {
+        Exception failure = null;
+        for (Future<Void> download : downloads) {
+            try {
+                download.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception
+                            ? (Exception) e.getCause()
+                            : propagate(e.getCause());
+                    for (Future<Void> other : downloads) {
+                        other.cancel(false);
+                    }
                 }
+            } catch (CancellationException e) {
+                // dropped after an earlier failure
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-                //try {
-                File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
-                File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+    private class MediaFileDownload implements Callable<Void> {
+        private final MediaFile toDownload;
+        private final File tempMediaDir;
+        private final File finalMediaDir;
+        private final FormDetails fd;
+        private final AtomicInteger mediaCount;
+        private final int mediaTotal;
+        private final int count;
+        private final int total;
+
+        MediaFileDownload(MediaFile toDownload, File tempMediaDir, File finalMediaDir,
+                          FormDetails fd, AtomicInteger mediaCount, int mediaTotal, int count,
+                          int total) {
+            this.toDownload = toDownload;
+            this.tempMediaDir = tempMediaDir;
+            this.finalMediaDir = finalMediaDir;
+            this.fd = fd;
+            this.mediaCount = mediaCount;
+            this.mediaTotal = mediaTotal;
+            this.count = count;
+            this.total = total;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (stateListener != null) {
+                stateListener.progressUpdate(
+                        Collect.getInstance().getString(R.string.form_download_progress,
+                                fd.getFormName(),
+                                String.valueOf(mediaCount.incrementAndGet()), String.valueOf(mediaTotal)),
+                        String.valueOf(count), String.valueOf(total));
+            }
+
+            File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
+            File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+
+            if (!finalMediaFile.exists()) {
+                downloadFile(tempMediaFile, toDownload.getDownloadUrl());
+            } else {
+                String currentFileHash = FileHashCache.getInstance().getMd5Hash(finalMediaFile);
+                String downloadFileHash = getMd5Hash(toDownload.getHash());
 
-                if (!finalMediaFile.exists()) {
+                if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
+                    // if the hashes match, it's the same file
+                    // otherwise delete our current one and replace it with the new one
+                    FileUtils.deleteAndReport(finalMediaFile);
                     downloadFile(tempMediaFile, toDownload.getDownloadUrl());
                 } else {
-                    String currentFileHash = FileUtils.getMd5Hash(finalMediaFile);
-                    String downloadFileHash = getMd5Hash(toDownload.getHash());
-
-                    if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
-                        // if the hashes match, it's the same file
-                        // otherwise delete our current one and replace it with the new one
-                        FileUtils.deleteAndReport(finalMediaFile);
-                        downloadFile(tempMediaFile, toDownload.getDownloadUrl());
-                    } else {
-                        // exists, and the hash is the same
-                        // no need to download it again
-                        Timber.i("Skipping media file fetch -- file hashes identical: %s",
-                                finalMediaFile.getAbsolutePath());
-                    }
+                    // exists, and the hash is the same
+                    // no need to download it again
+                    Timber.i("Skipping media file fetch -- file hashes identical: %s",
+                            finalMediaFile.getAbsolutePath());
                 }
-                //  } catch (Exception e) {
-                //  return e.getLocalizedMessage();
-                //}
             }
+            return null;
         }
-        return null;
     }
 
     public static String getMd5Hash(String hash) {
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.logic.FormDetails;
+import org.odk.collect.android.logic.ManifestFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the last form list and manifests fetched by the form update checks on disk, together
+ * with the validators the server sent them with, so that they're only downloaded and parsed
+ * again once they changed.
+ *
+ * Only what the server sent is kept: whether there are updates is checked against the forms on
+ * the device every time.
+ */
+public class FormListCache {
+
+    private static final String CACHE_FILE_NAME = "form_list_cache.json";
+
+    private String formListUrl;
+    private String formListETag;
+    private String formListLastModified;
+    private List<FormDetails> forms;
+    private Map<String, CachedManifest> manifests = new HashMap<>();
+
+    // manifests of the current form list, the others are dropped when the cache is saved
+    private transient Map<String, CachedManifest> usedManifests = new HashMap<>();
+    // whether the whole form list was read, otherwise not all of its manifests have been seen
+    private transient boolean formListRead;
+
+    /**
+     * Reads the cache from disk, or returns an empty one if there is none or it can't be read.
+     */
+    public static FormListCache load() {
+        File file = getCacheFile();
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+                FormListCache cache = new Gson().fromJson(reader, FormListCache.class);
+                if (cache != null) {
+                    if (cache.manifests == null) {
+                        cache.manifests = new HashMap<>();
+                    }
+                    cache.usedManifests = new HashMap<>();
+                    return cache;
+                }
+            } catch (IOException | JsonParseException e) {
+                Timber.w(e, "Unable to read the form list cache");
+            }
+        }
+        return new FormListCache();
+    }
+
+    /**
+     * Writes the cache to disk. The manifests of forms that are no longer in the form list are
+     * only dropped if the form list was read, so that they're kept when the check failed.
+     */
+    public void save() {
+        if (formListRead) {
+            manifests = usedManifests;
+        }
+        File file = getCacheFile();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            new Gson().toJson(this, writer);
+        } catch (IOException e) {
+            Timber.w(e, "Unable to write the form list cache");
+            FileUtils.deleteAndReport(file);
+        }
+    }
+
+    @Nullable
+    public String getFormListETag(String url) {
+        return url.equals(formListUrl) ? formListETag : null;
+    }
+
+    @Nullable
+    public String getFormListLastModified(String url) {
+        return url.equals(formListUrl) ? formListLastModified : null;
+    }
+
+    /**
+     * Returns the forms of the form list last fetched from the url, or null if there are none.
+     */
+    @Nullable
+    public List<FormDetails> getForms(String url) {
+        if (!url.equals(formListUrl) || forms == null) {
+            return null;
+        }
+        formListRead = true;
+        return forms;
+    }
+
+    public void putForms(String url, DocumentFetchResult result, List<FormDetails> forms) {
+        formListRead = true;
+        formListUrl = url;
+        formListETag = result.getETag();
+        formListLastModified = result.getLastModified();
+        this.forms = forms;
+    }
+
+    /**
+     * Forgets the form list, e.g. because the one sent by the server couldn't be used.
+     */
+    public void clearForms() {
+        formListUrl = null;
+        formListETag = null;
+        formListLastModified = null;
+        forms = null;
+    }
+
+    @Nullable
+    public String getManifestETag(String url) {
+        CachedManifest manifest = manifests.get(url);
+        return manifest != null ? manifest.eTag : null;
+    }
+
+    @Nullable
+    public String getManifestLastModified(String url) {
+        CachedManifest manifest = manifests.get(url);
+        return manifest != null ? manifest.lastModified : null;
+    }
+
+    /**
+     * Returns the manifest last fetched from the url, or null if there is none, and keeps it
+     * in the cache.
+     */
+    @Nullable
+    public ManifestFile getManifest(String url) {
+        CachedManifest manifest = manifests.get(url);
+        if (manifest == null) {
+            return null;
+        }
+        usedManifests.put(url, manifest);
+        return manifest.manifestFile;
+    }
+
+    /**
+     * Keeps the manifest last fetched from the url in the cache, e.g. while it's fetched again,
+     * so that it isn't dropped if that fails.
+     */
+    public void keepManifest(String url) {
+        CachedManifest manifest = manifests.get(url);
+        if (manifest != null) {
+            usedManifests.put(url, manifest);
+        }
+    }
+
+    public void putManifest(String url, DocumentFetchResult result, ManifestFile manifestFile) {
+        CachedManifest manifest = new CachedManifest();
+        manifest.eTag = result.getETag();
+        manifest.lastModified = result.getLastModified();
+        manifest.manifestFile = manifestFile;
+        manifests.put(url, manifest);
+        usedManifests.put(url, manifest);
+    }
+
+    private static File getCacheFile() {
+        return new File(Collect.METADATA_PATH, CACHE_FILE_NAME);
+    }
+
+    private static class CachedManifest {
+        String eTag;
+        String lastModified;
+        ManifestFile manifestFile;
+    }
+}
@@ -34,30 +34,64 @@ import timber.log.Timber;
 import static org.odk.collect.android.preferences.PreferenceKeys.KEY_IMAGE_SIZE;
 import static org.odk.collect.android.utilities.ApplicationConstants.XML_OPENROSA_NAMESPACE;
 
+/**
+ * Rotates images according to their EXIF orientation and scales them down to the size set in the
+ * form or in the settings. The image is decoded at most once, already downsampled close to the
+ * target size, and rotated and scaled in the same step. Nothing is decoded if the image doesn't
+ * need to change.
+ *
+ * This reads and writes the whole image so it shouldn't be called from the UI thread.
+ */
 public class ImageConverter {
 
+    public static final int PROGRESS_READ = 10;
+    public static final int PROGRESS_DECODED = 50;
+    public static final int PROGRESS_TRANSFORMED = 75;
+    public static final int PROGRESS_DONE = 100;
+
+    public interface ProgressListener {
+        /**
+         * Called from the thread doing the conversion with a percentage of the work done.
+         */
+        void onImageConversionProgress(int progress);
+    }
+
     private ImageConverter() {
     }
 
     public static void execute(String imagePath, QuestionWidget questionWidget, Context context) {
-        rotateImageIfNeeded(imagePath);
-        scaleDownImageIfNeeded(imagePath, questionWidget, context);
+        execute(imagePath, questionWidget, context, null);
     }
 
-    private static void scaleDownImageIfNeeded(String imagePath, QuestionWidget questionWidget, Context context) {
-        Integer maxPixels;
+    public static void execute(String imagePath, QuestionWidget questionWidget, Context context,
+                               ProgressListener progressListener) {
+        execute(imagePath, getMaxPixels(questionWidget, context), progressListener);
+    }
 
+    /**
+     * Converts the image with settings read beforehand with {@link #getMaxPixels}, so that the
+     * widget the image is for doesn't have to be kept while the image is converted.
+     *
+     * @param maxPixels the max pixels of the long edge, or 0 to keep the original size
+     */
+    public static void execute(String imagePath, int maxPixels, ProgressListener progressListener) {
+        convertImage(imagePath, getRotation(imagePath), maxPixels, progressListener);
+    }
+
+    /**
+     * @return the max pixels of the long edge of images for the widget, set in the form or else
+     * in the settings, or 0 if they should keep their original size
+     */
+    public static int getMaxPixels(QuestionWidget questionWidget, Context context) {
+        Integer maxPixels = null;
         if (questionWidget != null) {
             maxPixels = getMaxPixelsFromFormIfDefined(questionWidget);
 
             if (maxPixels == null) {
                 maxPixels = getMaxPixelsFromSettings(context);
             }
-
-            if (maxPixels != null && maxPixels > 0) {
-                scaleDownImage(imagePath, maxPixels);
-            }
         }
+        return maxPixels != null && maxPixels > 0 ? maxPixels : 0;
     }
 
     private static Integer getMaxPixelsFromFormIfDefined(QuestionWidget questionWidget) {
@@ -93,69 +127,131 @@ public class ImageConverter {
     }
 
     /**
-     * This method is used to reduce an original picture size.
-     * maxPixels refers to the max pixels of the long edge, the short edge is scaled proportionately.
+     * Sometimes an image might be taken up sideways.
+     * https://github.com/opendatakit/collect/issues/36
+     *
+     * @return the clockwise rotation in degrees that the EXIF orientation of the image asks for
      */
-    private static void scaleDownImage(String imagePath, int maxPixels) {
-        Bitmap image = FileUtils.getBitmap(imagePath, new BitmapFactory.Options());
-
-        if (image != null) {
-            double originalWidth = image.getWidth();
-            double originalHeight = image.getHeight();
-
-            if (originalWidth > originalHeight && originalWidth > maxPixels) {
-                int newHeight = (int) (originalHeight / (originalWidth / maxPixels));
-
-                image = Bitmap.createScaledBitmap(image, maxPixels, newHeight, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
-            } else if (originalHeight > maxPixels) {
-                int newWidth = (int) (originalWidth / (originalHeight / maxPixels));
-
-                image = Bitmap.createScaledBitmap(image, newWidth, maxPixels, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
+    private static int getRotation(String imagePath) {
+        try {
+            ExifInterface exif = new ExifInterface(imagePath);
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
             }
+        } catch (IOException e) {
+            Timber.w(e);
+            return 0;
         }
     }
 
     /**
-     * Sometimes an image might be taken up sideways.
-     * https://github.com/opendatakit/collect/issues/36
+     * Rotates the image and reduces its size so that its long edge is at most maxPixels, the short
+     * edge being scaled proportionately.
+     *
+     * @param maxPixels the max pixels of the long edge, or 0 to keep the original size
      */
-    private static void rotateImageIfNeeded(String imagePath) {
-        ExifInterface exif = null;
-        try {
-            exif = new ExifInterface(imagePath);
-        } catch (IOException e) {
-            Timber.w(e);
+    private static void convertImage(String imagePath, int rotation, int maxPixels,
+                                     ProgressListener progressListener) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        reportProgress(progressListener, PROGRESS_READ);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Timber.w("Unable to read the size of %s", imagePath);
+            reportProgress(progressListener, PROGRESS_DONE);
+            return;
         }
 
-        if (exif != null) {
-            Bitmap image = FileUtils.getBitmap(imagePath, new BitmapFactory.Options());
+        // the size once rotated, which is the one max pixels applies to
+        boolean sideways = rotation == 90 || rotation == 270;
+        int width = sideways ? options.outHeight : options.outWidth;
+        int height = sideways ? options.outWidth : options.outHeight;
+        int[] newSize = getScaledSize(width, height, maxPixels);
 
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotateBitmap(image, 90, imagePath);
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotateBitmap(image, 180, imagePath);
-                    break;
+        if (rotation == 0 && newSize == null) {
+            reportProgress(progressListener, PROGRESS_DONE);
+            return;
+        }
 
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotateBitmap(image, 270, imagePath);
-                    break;
-            }
+        int newWidth = newSize != null ? newSize[0] : width;
+        int newHeight = newSize != null ? newSize[1] : height;
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = getSampleSize(Math.max(width, height), Math.max(newWidth, newHeight));
+        Bitmap image = FileUtils.getBitmap(imagePath, options);
+        reportProgress(progressListener, PROGRESS_DECODED);
+
+        if (image == null) {
+            Timber.w("Unable to decode %s", imagePath);
+            reportProgress(progressListener, PROGRESS_DONE);
+            return;
         }
-    }
 
-    private static void rotateBitmap(Bitmap image, int degrees, String imagePath) {
+        Bitmap converted = image;
         try {
+            // the decoded image isn't rotated yet
+            float scaleX = (float) (sideways ? newHeight : newWidth) / image.getWidth();
+            float scaleY = (float) (sideways ? newWidth : newHeight) / image.getHeight();
+
             Matrix matrix = new Matrix();
-            matrix.postRotate(degrees);
-            image = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
+            matrix.postScale(scaleX, scaleY);
+            matrix.postRotate(rotation);
+            converted = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
         } catch (OutOfMemoryError e) {
             Timber.w(e);
         }
-        FileUtils.saveBitmapToFile(image, imagePath);
+        reportProgress(progressListener, PROGRESS_TRANSFORMED);
+
+        FileUtils.saveBitmapToFile(converted, imagePath);
+        if (converted != image) {
+            converted.recycle();
+        }
+        image.recycle();
+        reportProgress(progressListener, PROGRESS_DONE);
+    }
+
+    /**
+     * @return the width and height the image has to be scaled to, or null if it's small enough
+     */
+    private static int[] getScaledSize(int width, int height, int maxPixels) {
+        if (maxPixels <= 0) {
+            return null;
+        }
+
+        double originalWidth = width;
+        double originalHeight = height;
+
+        if (originalWidth > originalHeight && originalWidth > maxPixels) {
+            return new int[]{maxPixels, (int) (originalHeight / (originalWidth / maxPixels))};
+        } else if (originalHeight > maxPixels) {
+            return new int[]{(int) (originalWidth / (originalHeight / maxPixels)), maxPixels};
+        }
+        return null;
+    }
+
+    /**
+     * Returns the largest power of two to downsample the image by while decoding it that still
+     * leaves its long edge at least as large as the target, which is then reached by scaling.
+     */
+    static int getSampleSize(int longEdge, int targetLongEdge) {
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= targetLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static void reportProgress(ProgressListener progressListener, int progress) {
+        if (progressListener != null) {
+            progressListener.onImageConversionProgress(progress);
+        }
     }
 }
@@ -413,6 +413,41 @@ public class MediaUtils {
         return count;
     }
 
+    /**
+     * Removes the images, audio and video in any of the folders from the media provider, with a
+     * single delete for each type of media.
+     *
+     * @return the number of media entries removed
+     */
+    public static int deleteMediaInFoldersFromMediaProvider(List<File> folders) {
+        if (folders.isEmpty()) {
+            return 0;
+        }
+
+        StringBuilder select = new StringBuilder();
+        String[] selectArgs = new String[folders.size()];
+        for (int i = 0; i < folders.size(); i++) {
+            if (i > 0) {
+                select.append(" OR ");
+            }
+            select.append(MediaStore.MediaColumns.DATA).append(" like ? escape '!'");
+            selectArgs[i] = escapePath(folders.get(i).getAbsolutePath() + File.separator) + "%";
+        }
+
+        ContentResolver cr = Collect.getInstance().getContentResolver();
+        Uri[] mediaUris = {Images.Media.EXTERNAL_CONTENT_URI, Audio.Media.EXTERNAL_CONTENT_URI,
+                Video.Media.EXTERNAL_CONTENT_URI};
+        int count = 0;
+        for (Uri mediaUri : mediaUris) {
+            try {
+                count += cr.delete(mediaUri, select.toString(), selectArgs);
+            } catch (Exception e) {
+                Timber.e(e, "Unable to delete media in %d folders from %s", folders.size(), mediaUri);
+            }
+        }
+        return count;
+    }
+
     /**
      * Consolidates the file path determination functionality of the various
      * media prompts. Beginning with KitKat, the responses use a different
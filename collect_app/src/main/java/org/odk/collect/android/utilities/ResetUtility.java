@@ -56,6 +56,7 @@ public class ResetUtility {
                     }
                     break;
                 case ResetAction.RESET_CACHE:
+                    FormDefCache.clearMemoryCache();
                     if (deleteFolderContents(Collect.CACHE_PATH)) {
                         failedResetActions.remove(failedResetActions.indexOf(ResetAction.RESET_CACHE));
                     }
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+import static org.odk.collect.android.utilities.FileUtils.AUTO_DELETE;
+import static org.odk.collect.android.utilities.FileUtils.AUTO_SEND;
+import static org.odk.collect.android.utilities.FileUtils.BASE64_RSA_PUBLIC_KEY;
+import static org.odk.collect.android.utilities.FileUtils.FORMID;
+import static org.odk.collect.android.utilities.FileUtils.SUBMISSIONURI;
+import static org.odk.collect.android.utilities.FileUtils.TITLE;
+import static org.odk.collect.android.utilities.FileUtils.VERSION;
+
+/**
+ * Reads the metadata of forms and instances with a pull parser, without building a document and
+ * without reading further than the metadata. For forms that's the head, with the title, the
+ * attributes of the main instance and of the submission, which skips the body. Secondary
+ * instances, e.g. large itemsets, are skipped over without being kept.
+ */
+public final class XmlHeaderParser {
+
+    private static final String XFORMS_NAMESPACE = "http://www.w3.org/2002/xforms";
+
+    private XmlHeaderParser() {
+
+    }
+
+    /**
+     * Reads the title, the id and version of the main instance and the submission attributes of
+     * a form, with the same keys as {@link FileUtils#parseXML(File)}.
+     *
+     * @throws IllegalStateException if the form can't be read or doesn't have a main instance
+     */
+    public static HashMap<String, String> parseFormHeader(File xmlFile) {
+        Reader reader = openReader(xmlFile);
+        try {
+            KXmlParser parser = createParser(reader);
+            HashMap<String, String> fields = new HashMap<>();
+
+            nextStartTag(parser);
+            String html = parser.getNamespace();
+
+            if (!findChild(parser, html, "head")) {
+                throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
+            }
+
+            boolean titleFound = false;
+            boolean modelFound = false;
+            boolean instanceFound = false;
+            int headDepth = parser.getDepth();
+            while (nextInside(parser, headDepth) && !(titleFound && modelFound)) {
+                if (parser.getEventType() != XmlPullParser.START_TAG) {
+                    continue;
+                }
+
+                if (!titleFound && "title".equals(parser.getName()) && html.equals(parser.getNamespace())) {
+                    titleFound = true;
+                    fields.put(TITLE, readText(parser));
+                } else if (!modelFound && "model".equalsIgnoreCase(parser.getName())) {
+                    modelFound = true;
+                    instanceFound = readModel(parser, fields);
+                } else {
+                    skip(parser);
+                }
+            }
+
+            if (!instanceFound) {
+                throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
+            }
+            return fields;
+        } catch (XmlPullParserException | IOException e) {
+            Timber.e(e, "Unable to parse XML document %s", xmlFile.getAbsolutePath());
+            throw new IllegalStateException("Unable to parse XML document", e);
+        } finally {
+            close(reader, xmlFile);
+        }
+    }
+
+    /**
+     * Reads the attributes of the root element of an instance, e.g. the id of its form, without
+     * reading any further.
+     *
+     * @return the attributes by name, ignoring their namespace
+     */
+    public static Map<String, String> parseRootAttributes(File xmlFile) throws IOException {
+        Reader reader = openReader(xmlFile);
+        try {
+            KXmlParser parser = createParser(reader);
+            nextStartTag(parser);
+
+            Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            return attributes;
+        } catch (XmlPullParserException | IllegalStateException e) {
+            throw new IOException("Unable to parse XML document " + xmlFile.getAbsolutePath(), e);
+        } finally {
+            close(reader, xmlFile);
+        }
+    }
+
+    /**
+     * Reads the values an attribute has on the elements of the body of a form, e.g. the
+     * appearances of its questions, skipping the head with its instances.
+     */
+    public static List<String> parseBodyAttributeValues(File xmlFile, String attributeName) throws IOException {
+        Reader reader = openReader(xmlFile);
+        try {
+            KXmlParser parser = createParser(reader);
+            nextStartTag(parser);
+
+            List<String> values = new ArrayList<>();
+            if (!findChild(parser, parser.getNamespace(), "body")) {
+                return values;
+            }
+
+            int bodyDepth = parser.getDepth();
+            while (nextInside(parser, bodyDepth)) {
+                if (parser.getEventType() == XmlPullParser.START_TAG) {
+                    String value = parser.getAttributeValue(null, attributeName);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+            }
+            return values;
+        } catch (XmlPullParserException | IllegalStateException e) {
+            throw new IOException("Unable to parse XML document " + xmlFile.getAbsolutePath(), e);
+        } finally {
+            close(reader, xmlFile);
+        }
+    }
+
+    /**
+     * Reads the main instance and the submission from the model the parser is at, leaving the
+     * parser at the end of the model.
+     *
+     * @return whether the main instance had a data element
+     */
+    private static boolean readModel(KXmlParser parser, Map<String, String> fields)
+            throws XmlPullParserException, IOException {
+        boolean instanceFound = false;
+        boolean instanceSeen = false;
+        boolean submissionSeen = false;
+        int modelDepth = parser.getDepth();
+        while (nextInside(parser, modelDepth)) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+
+            if (!instanceSeen && "instance".equalsIgnoreCase(parser.getName())) {
+                instanceSeen = true;
+                instanceFound = readMainInstance(parser, fields);
+            } else if (!submissionSeen && "submission".equals(parser.getName())
+                    && XFORMS_NAMESPACE.equals(parser.getNamespace())) {
+                submissionSeen = true;
+                readSubmission(parser, fields);
+                skip(parser);
+            } else {
+                skip(parser);
+            }
+        }
+
+        if (!submissionSeen) {
+            Timber.i("XML file does not have a submission element");
+            // and that's totally fine.
+        }
+        return instanceFound;
+    }
+
+    private static boolean readMainInstance(KXmlParser parser, Map<String, String> fields)
+            throws XmlPullParserException, IOException {
+        int instanceDepth = parser.getDepth();
+        boolean found = false;
+        while (nextInside(parser, instanceDepth)) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+
+            if (!found) {
+                // this is the first data element
+                found = true;
+                String id = parser.getAttributeValue(null, "id");
+                String version = parser.getAttributeValue(null, "version");
+                String uiVersion = parser.getAttributeValue(null, "uiVersion");
+                if (uiVersion != null) {
+                    // pre-OpenRosa 1.0 variant of spec
+                    Timber.e("Obsolete use of uiVersion -- IGNORED -- only using version: %s",
+                            version);
+                }
+
+                fields.put(FORMID, id == null ? parser.getNamespace() : id);
+                fields.put(VERSION, version);
+            }
+            skip(parser);
+        }
+        return found;
+    }
+
+    private static void readSubmission(KXmlParser parser, Map<String, String> fields) {
+        String base64RsaPublicKey = parser.getAttributeValue(null, "base64RsaPublicKey");
+        fields.put(SUBMISSIONURI, parser.getAttributeValue(null, "action"));
+        fields.put(BASE64_RSA_PUBLIC_KEY,
+                base64RsaPublicKey == null || base64RsaPublicKey.trim().length() == 0
+                        ? null : base64RsaPublicKey.trim());
+        fields.put(AUTO_DELETE, parser.getAttributeValue(null, "auto-delete"));
+        fields.put(AUTO_SEND, parser.getAttributeValue(null, "auto-send"));
+    }
+
+    /**
+     * Moves to a child of the element the parser is at, skipping the other children.
+     *
+     * @return whether the child was found
+     */
+    private static boolean findChild(KXmlParser parser, String namespace, String name)
+            throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        while (nextInside(parser, depth)) {
+            if (parser.getEventType() == XmlPullParser.START_TAG) {
+                if (name.equals(parser.getName()) && namespace.equals(parser.getNamespace())) {
+                    return true;
+                }
+                skip(parser);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next event within the element at the given depth.
+     *
+     * @return false once the end of that element has been reached
+     */
+    private static boolean nextInside(KXmlParser parser, int depth) throws XmlPullParserException, IOException {
+        int event = parser.next();
+        return event != XmlPullParser.END_DOCUMENT
+                && !(event == XmlPullParser.END_TAG && parser.getDepth() == depth);
+    }
+
+    private static void nextStartTag(KXmlParser parser) throws XmlPullParserException, IOException {
+        int event = parser.next();
+        while (event != XmlPullParser.START_TAG) {
+            if (event == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("No root element");
+            }
+            event = parser.next();
+        }
+    }
+
+    /**
+     * Moves to the end of the element the parser is at without keeping anything in it.
+     */
+    private static void skip(KXmlParser parser) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        while (nextInside(parser, depth)) {
+            // nothing to keep
+        }
+    }
+
+    /**
+     * Returns the trimmed text in the element the parser is at, leaving it at its end.
+     */
+    private static String readText(KXmlParser parser) throws XmlPullParserException, IOException {
+        StringBuilder text = new StringBuilder();
+        int depth = parser.getDepth();
+        while (nextInside(parser, depth)) {
+            if (parser.getEventType() == XmlPullParser.TEXT) {
+                text.append(parser.getText());
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private static KXmlParser createParser(Reader reader) throws XmlPullParserException {
+        KXmlParser parser = new KXmlParser();
+        parser.setInput(reader);
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        return parser;
+    }
+
+    private static Reader openReader(File xmlFile) {
+        try {
+            return new InputStreamReader(new FileInputStream(xmlFile), "UTF-8");
+        } catch (IOException e) {
+            Timber.d(e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void close(Reader reader, File xmlFile) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Timber.w("%s error closing from reader", xmlFile.getAbsolutePath());
+        }
+    }
+}
@@ -31,6 +31,7 @@ import android.util.DisplayMetrics;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -42,6 +43,7 @@ import org.odk.collect.android.activities.DrawActivity;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.utilities.ApplicationConstants;
 import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageConverter;
 import org.odk.collect.android.utilities.MediaManager;
 import org.odk.collect.android.utilities.MediaUtils;
 import org.odk.collect.android.utilities.ViewIds;
@@ -51,12 +53,15 @@ import java.io.File;
 
 import timber.log.Timber;
 
-public abstract class BaseImageWidget extends QuestionWidget implements FileWidget {
+public abstract class BaseImageWidget extends QuestionWidget implements FileWidget,
+        ImageConverter.ProgressListener {
     @Nullable
     protected ImageView imageView;
     protected String binaryName;
     protected TextView errorTextView;
     protected LinearLayout answerLayout;
+    @Nullable
+    private ProgressBar conversionProgressBar;
 
     protected ImageClickHandler imageClickHandler;
     protected ExternalImageCaptureHandler imageCaptureHandler;
@@ -126,6 +131,27 @@ public abstract class BaseImageWidget extends QuestionWidget implements FileWidg
         }
     }
 
+    /**
+     * Shows how far the conversion of a new image has gone. Has to be called from the UI thread.
+     */
+    @Override
+    public void onImageConversionProgress(int progress) {
+        if (progress >= ImageConverter.PROGRESS_DONE) {
+            if (conversionProgressBar != null) {
+                answerLayout.removeView(conversionProgressBar);
+                conversionProgressBar = null;
+            }
+            return;
+        }
+
+        if (conversionProgressBar == null) {
+            conversionProgressBar = new ProgressBar(getContext(), null, android.R.attr.progressBarStyleHorizontal);
+            conversionProgressBar.setMax(ImageConverter.PROGRESS_DONE);
+            answerLayout.addView(conversionProgressBar);
+        }
+        conversionProgressBar.setProgress(progress);
+    }
+
     @Override
     public void setOnLongClickListener(OnLongClickListener l) {
         if (imageView != null) {
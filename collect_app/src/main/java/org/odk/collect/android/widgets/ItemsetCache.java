@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.widgets;
+
+import android.support.v4.util.LruCache;
+
+import org.javarosa.core.model.FormDef;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Compiled itemset queries and the choices they returned for a loaded form. Cascading selects
+ * are displayed over and over with the same filter values while swiping through a form, so
+ * the choices are kept by query and argument values instead of reading them from the database
+ * every time. The cache goes away with the form: itemsets.csv is only re-read when a form is
+ * loaded, which builds a new FormDef.
+ *
+ * Only the labels and values of the choices are kept. Widgets get SelectChoices of their own
+ * since javarosa changes them once they're in use, e.g. when they're selected.
+ */
+final class ItemsetCache {
+
+    // bounds the total number of choices held, not the number of lists
+    private static final int MAX_CACHED_CHOICES = 20000;
+    private static final char KEY_SEPARATOR = '\u001F';
+
+    private static final Map<FormDef, ItemsetCache> CACHES = new WeakHashMap<>();
+
+    private final Map<String, ItemsetQuery> queries = new HashMap<>();
+    private final LruCache<String, List<Choice>> choices =
+            new LruCache<String, List<Choice>>(MAX_CACHED_CHOICES) {
+                @Override
+                protected int sizeOf(String key, List<Choice> value) {
+                    return value.size() + 1;
+                }
+            };
+
+    ItemsetCache() {
+
+    }
+
+    static ItemsetCache forForm(FormDef formDef) {
+        if (formDef == null) {
+            return new ItemsetCache();
+        }
+        synchronized (CACHES) {
+            ItemsetCache cache = CACHES.get(formDef);
+            if (cache == null) {
+                cache = new ItemsetCache();
+                CACHES.put(formDef, cache);
+            }
+            return cache;
+        }
+    }
+
+    synchronized ItemsetQuery getQuery(String nodesetString) {
+        return queries.get(nodesetString);
+    }
+
+    synchronized void putQuery(String nodesetString, ItemsetQuery query) {
+        queries.put(nodesetString, query);
+    }
+
+    List<Choice> getChoices(String key) {
+        return choices.get(key);
+    }
+
+    void putChoices(String key, List<Choice> itemsetChoices) {
+        choices.put(key, Collections.unmodifiableList(itemsetChoices));
+    }
+
+    static String getChoicesKey(String tableName, String language, String selection,
+                                String[] selectionArgs) {
+        StringBuilder sb = new StringBuilder(tableName)
+                .append(KEY_SEPARATOR).append(language)
+                .append(KEY_SEPARATOR).append(selection);
+        for (String selectionArg : selectionArgs) {
+            sb.append(KEY_SEPARATOR).append(selectionArg);
+        }
+        return sb.toString();
+    }
+
+    static final class Choice {
+        private final String label;
+        private final String value;
+
+        Choice(String label, String value) {
+            this.label = label;
+            this.value = value;
+        }
+
+        String getLabel() {
+            return label;
+        }
+
+        String getValue() {
+            return value;
+        }
+    }
+}
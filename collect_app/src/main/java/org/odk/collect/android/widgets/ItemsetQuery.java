@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.widgets;
+
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.odk.collect.android.utilities.XPathParseTool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * The query attribute of an itemset question turned into a database selection and the parsed
+ * expressions of its arguments. A query only depends on the form definition so it is compiled
+ * once and reused every time the question is displayed.
+ */
+final class ItemsetQuery {
+
+    private static final String QUOTATION_MARK = "\"";
+
+    private final String listName;
+    private final String selection;
+    private final List<String> arguments;
+    private final XPathExpression[] expressions;
+    private final int invalidArgumentIndex;
+
+    private ItemsetQuery(String listName, String selection, List<String> arguments,
+                         XPathExpression[] expressions, int invalidArgumentIndex) {
+        this.listName = listName;
+        this.selection = selection;
+        this.arguments = arguments;
+        this.expressions = expressions;
+        this.invalidArgumentIndex = invalidArgumentIndex;
+    }
+
+    /**
+     * @param nodesetString the query attribute, e.g.
+     *                      instance('cities')/root/item[state=/data/state and county=/data/county]
+     */
+    static ItemsetQuery compile(String nodesetString, XPathParseTool parseTool) {
+        List<String> arguments = new ArrayList<>();
+        String selection = getSelectionStringAndPopulateArguments(getQueryString(nodesetString), arguments);
+
+        // parse out the list name, between the ''
+        String listName = nodesetString.substring(nodesetString.indexOf('\'') + 1, nodesetString.lastIndexOf('\''));
+
+        XPathExpression[] expressions = new XPathExpression[arguments.size()];
+        int invalidArgumentIndex = -1;
+        for (int i = 0; i < arguments.size(); i++) {
+            try {
+                expressions[i] = parseTool.parseXPath(arguments.get(i));
+            } catch (XPathSyntaxException e) {
+                Timber.e(e);
+                invalidArgumentIndex = i;
+                break;
+            }
+        }
+
+        return new ItemsetQuery(listName, selection, Collections.unmodifiableList(arguments),
+                expressions, invalidArgumentIndex);
+    }
+
+    String getListName() {
+        return listName;
+    }
+
+    String getSelection() {
+        return selection;
+    }
+
+    int getArgumentCount() {
+        return arguments.size();
+    }
+
+    String getArgument(int index) {
+        return arguments.get(index);
+    }
+
+    /**
+     * @return the parsed argument, or null if it couldn't be parsed
+     */
+    XPathExpression getExpression(int index) {
+        return expressions[index];
+    }
+
+    /**
+     * @return the index of the first argument that couldn't be parsed, or -1 if all of them were
+     */
+    int getInvalidArgumentIndex() {
+        return invalidArgumentIndex;
+    }
+
+    private static String getQueryString(String nodesetStr) {
+        // isolate the string between between the [ ] characters
+        return nodesetStr.substring(nodesetStr.indexOf('[') + 1, nodesetStr.lastIndexOf(']'));
+    }
+
+    private static String getSelectionStringAndPopulateArguments(String queryString, List<String> arguments) {
+        StringBuilder selectionString = new StringBuilder();
+        // add the list name as the first argument, which will always be there
+        selectionString.append("list_name=?");
+
+        // check to see if there are any arguments
+        if (queryString.indexOf('=') != -1) {
+            selectionString.append(" and ");
+        }
+
+        // can't just split on 'and' or 'or' because they have different
+        // behavior, so loop through and break them off until we don't have any more
+        // must include the spaces in indexOf so we don't match words like "land"
+        int andIndex;
+        int orIndex = -1;
+
+        while ((andIndex = queryString.indexOf(" and ")) != -1 || (orIndex = queryString.indexOf(" or ")) != -1) {
+            if (andIndex != -1) {
+                String[] pair = queryString
+                        .substring(0, andIndex)
+                        .split("=");
+
+                if (pair.length == 2) {
+                    selectionString
+                            .append(QUOTATION_MARK)
+                            .append(pair[0].trim())
+                            .append(QUOTATION_MARK)
+                            .append("=? and ");
+
+                    arguments
+                            .add(pair[1]
+                                    .trim());
+                }
+                // move string forward to after " and "
+                queryString = queryString.substring(andIndex + 5, queryString.length());
+            } else {
+                String subString = queryString.substring(0, orIndex);
+                String[] pair = subString.split("=");
+
+                if (pair.length == 2) {
+                    selectionString
+                            .append(QUOTATION_MARK)
+                            .append(pair[0].trim())
+                            .append(QUOTATION_MARK)
+                            .append("=? or ");
+                    arguments.add(pair[1].trim());
+                }
+                // move string forward to after " or "
+                queryString = queryString.substring(orIndex + 4, queryString.length());
+                orIndex = -1;
+            }
+        }
+
+        // parse the last segment (or only segment if there are no 'and' or 'or' clauses
+        String[] pair = queryString.split("=");
+        if (pair.length == 2) {
+            selectionString
+                    .append(QUOTATION_MARK)
+                    .append(pair[0].trim())
+                    .append(QUOTATION_MARK)
+                    .append("=?");
+            arguments.add(pair[1].trim());
+        }
+        return selectionString.toString();
+    }
+}
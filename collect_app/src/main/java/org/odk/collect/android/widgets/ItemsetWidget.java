@@ -28,7 +28,6 @@ import org.javarosa.core.model.instance.TreeElement;
 import org.javarosa.form.api.FormEntryPrompt;
 import org.javarosa.xpath.XPathNodeset;
 import org.javarosa.xpath.expr.XPathExpression;
-import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.ItemsetDbAdapter;
@@ -38,6 +37,7 @@ import org.odk.collect.android.utilities.XPathParseTool;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import timber.log.Timber;
@@ -51,8 +51,6 @@ import timber.log.Timber;
 @SuppressLint("ViewConstructor")
 public class ItemsetWidget extends AbstractSelectOneWidget {
 
-    private static final String QUOTATION_MARK = "\"";
-
     private final FormEntryPrompt formEntryPrompt;
     private final XPathParseTool parseTool;
     private final ItemsetDbAdapter adapter;
@@ -85,15 +83,23 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
     }
 
     private List<SelectChoice> getItems() {
-        String nodesetString = getNodesetString();
+        FormController formController = Collect.getInstance().getFormController();
+        if (formController == null) {
+            Timber.w("Can't instantiate ItemsetWidget with a null FormController.");
+            return null;
+        }
 
-        List<String> arguments = new ArrayList<>();
-        String selectionString = getSelectionStringAndPopulateArguments(getQueryString(nodesetString), arguments);
+        ItemsetCache cache = ItemsetCache.forForm(formController.getFormDef());
+        String nodesetString = getNodesetString();
+        ItemsetQuery query = cache.getQuery(nodesetString);
+        if (query == null) {
+            query = ItemsetQuery.compile(nodesetString, parseTool);
+            cache.putQuery(nodesetString, query);
+        }
 
-        FormController formController = Collect.getInstance().getFormController();
-        String[] selectionArgs = getSelectionArgs(arguments, nodesetString, formController);
+        String[] selectionArgs = getSelectionArgs(query, formController);
 
-        return selectionArgs == null ? null : getItemsFromDatabase(selectionString, selectionArgs, formController);
+        return selectionArgs == null ? null : getItemsFromDatabase(query.getSelection(), selectionArgs, formController, cache);
     }
 
     private String getNodesetString() {
@@ -103,104 +109,22 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         return formEntryPrompt.getQuestion().getAdditionalAttribute(null, "query");
     }
 
-    private String getQueryString(String nodesetStr) {
-        // isolate the string between between the [ ] characters
-        return nodesetStr.substring(nodesetStr.indexOf('[') + 1, nodesetStr.lastIndexOf(']'));
-    }
-
-    private String getSelectionStringAndPopulateArguments(String queryString, List<String> arguments) {
-        StringBuilder selectionString = new StringBuilder();
-        // add the list name as the first argument, which will always be there
-        selectionString.append("list_name=?");
-
-        // check to see if there are any arguments
-        if (queryString.indexOf('=') != -1) {
-            selectionString.append(" and ");
-        }
-
-        // can't just split on 'and' or 'or' because they have different
-        // behavior, so loop through and break them off until we don't have any more
-        // must include the spaces in indexOf so we don't match words like "land"
-        int andIndex;
-        int orIndex = -1;
-
-        while ((andIndex = queryString.indexOf(" and ")) != -1 || (orIndex = queryString.indexOf(" or ")) != -1) {
-            if (andIndex != -1) {
-                String[] pair = queryString
-                        .substring(0, andIndex)
-                        .split("=");
-
-                if (pair.length == 2) {
-                    selectionString
-                            .append(QUOTATION_MARK)
-                            .append(pair[0].trim())
-                            .append(QUOTATION_MARK)
-                            .append("=? and ");
-
-                    arguments
-                            .add(pair[1]
-                                    .trim());
-                }
-                // move string forward to after " and "
-                queryString = queryString.substring(andIndex + 5, queryString.length());
-            } else {
-                String subString = queryString.substring(0, orIndex);
-                String[] pair = subString.split("=");
-
-                if (pair.length == 2) {
-                    selectionString
-                            .append(QUOTATION_MARK)
-                            .append(pair[0].trim())
-                            .append(QUOTATION_MARK)
-                            .append("=? or ");
-                    arguments.add(pair[1].trim());
-                }
-                // move string forward to after " or "
-                queryString = queryString.substring(orIndex + 4, queryString.length());
-                orIndex = -1;
-            }
-        }
-
-        // parse the last segment (or only segment if there are no 'and' or 'or' clauses
-        String[] pair = queryString.split("=");
-        if (pair.length == 2) {
-            selectionString
-                    .append(QUOTATION_MARK)
-                    .append(pair[0].trim())
-                    .append(QUOTATION_MARK)
-                    .append("=?");
-            arguments.add(pair[1].trim());
-        }
-        return selectionString.toString();
-    }
-
-    private String[] getSelectionArgs(List<String> arguments, String nodesetStr, FormController formController) {
+    private String[] getSelectionArgs(ItemsetQuery query, FormController formController) {
         // +1 is for the list_name
-        String[] selectionArgs = new String[arguments.size() + 1];
-
-        // parse out the list name, between the ''
-        String listName = nodesetStr.substring(nodesetStr.indexOf('\'') + 1, nodesetStr.lastIndexOf('\''));
-
-        selectionArgs[0] = listName; // first argument is always listname
+        String[] selectionArgs = new String[query.getArgumentCount() + 1];
 
-        if (formController == null) {
-            Timber.w("Can't instantiate ItemsetWidget with a null FormController.");
-            return null;
-        }
+        selectionArgs[0] = query.getListName(); // first argument is always listname
 
         // loop through the arguments, evaluate any expressions and build the query string for the DB
-        for (int i = 0; i < arguments.size(); i++) {
-            XPathExpression xpr;
-            try {
-                xpr = parseTool.parseXPath(arguments.get(i));
-            } catch (XPathSyntaxException e) {
-                Timber.e(e);
+        for (int i = 0; i < query.getArgumentCount(); i++) {
+            if (i == query.getInvalidArgumentIndex()) {
                 TextView error = new TextView(getContext());
-                error.setText(String.format(getContext().getString(R.string.parser_exception), arguments.get(i)));
+                error.setText(String.format(getContext().getString(R.string.parser_exception), query.getArgument(i)));
                 addAnswerView(error);
                 break;
             }
 
+            XPathExpression xpr = query.getExpression(i);
             if (xpr != null) {
                 FormDef form = formController.getFormDef();
                 TreeElement treeElement = form.getMainInstance().resolveReference(
@@ -222,54 +146,42 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         return selectionArgs;
     }
 
-    private List<SelectChoice> getItemsFromDatabase(String selection, String[] selectionArgs, FormController formController) {
+    private List<SelectChoice> getItemsFromDatabase(String selection, String[] selectionArgs,
+                                                    FormController formController, ItemsetCache cache) {
         List<SelectChoice> items = new ArrayList<>();
 
         File itemsetFile =  fileUtil.getItemsetFile(formController.getMediaFolder().getAbsolutePath());
 
         if (itemsetFile.exists()) {
-            adapter.open();
-
             // name of the itemset table for this form
             String pathHash = ItemsetDbAdapter.getMd5FromString(itemsetFile.getAbsolutePath());
-            try {
-                Cursor c = adapter.query(pathHash, selection, selectionArgs);
-                if (c != null) {
-                    c.move(-1);
-                    int index = 0;
-                    while (c.moveToNext()) {
-                        String label;
-                        String val;
-
-                        // try to get the value associated with the label:lang
-                        // string if that doen't exist, then just use label
-                        String lang = "";
-                        if (formController.getLanguages() != null && formController.getLanguages().length > 0) {
-                            lang = formController.getLanguage();
-                        }
-
-                        // apparently you only need the double quotes in the
-                        // column name when creating the column with a : included
-                        String labelLang = "label" + "::" + lang;
-                        int langCol = c.getColumnIndex(labelLang);
-                        if (langCol == -1) {
-                            label = c.getString(c.getColumnIndex("label"));
-                        } else {
-                            label = c.getString(c.getColumnIndex(labelLang));
-                        }
-
-                        val = c.getString(c.getColumnIndex("name"));
-                        SelectChoice selectChoice = new SelectChoice(null, label, val, false);
-                        selectChoice.setIndex(index);
-                        items.add(selectChoice);
-                        index++;
-                    }
-                    c.close();
+
+            // try to get the value associated with the label:lang
+            // string if that doen't exist, then just use label
+            String lang = "";
+            if (formController.getLanguages() != null && formController.getLanguages().length > 0) {
+                lang = formController.getLanguage();
+            }
+
+            // arguments that couldn't be evaluated are left out of the key so don't cache them
+            String choicesKey = Arrays.asList(selectionArgs).contains(null)
+                    ? null
+                    : ItemsetCache.getChoicesKey(pathHash, lang, selection, selectionArgs);
+            List<ItemsetCache.Choice> choices = choicesKey != null ? cache.getChoices(choicesKey) : null;
+            if (choices == null) {
+                choices = readChoices(pathHash, lang, selection, selectionArgs);
+                if (choices != null && choicesKey != null) {
+                    cache.putChoices(choicesKey, choices);
+                }
+            }
+
+            if (choices != null) {
+                for (int index = 0; index < choices.size(); index++) {
+                    ItemsetCache.Choice choice = choices.get(index);
+                    SelectChoice selectChoice = new SelectChoice(null, choice.getLabel(), choice.getValue(), false);
+                    selectChoice.setIndex(index);
+                    items.add(selectChoice);
                 }
-            } catch (SQLiteException e) {
-                Timber.i(e);
-            } finally {
-                adapter.close();
             }
         } else {
             TextView error = new TextView(getContext());
@@ -278,4 +190,42 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         }
         return items;
     }
+
+    /**
+     * @return the labels and values of the choices, or null if they couldn't be read
+     */
+    private List<ItemsetCache.Choice> readChoices(String pathHash, String lang, String selection,
+                                                  String[] selectionArgs) {
+        adapter.open();
+        try {
+            Cursor c = adapter.query(pathHash, selection, selectionArgs);
+            if (c == null) {
+                return null;
+            }
+
+            List<ItemsetCache.Choice> choices = new ArrayList<>();
+            try {
+                // apparently you only need the double quotes in the
+                // column name when creating the column with a : included
+                String labelLang = "label" + "::" + lang;
+                int langCol = c.getColumnIndex(labelLang);
+                int labelCol = langCol == -1 ? c.getColumnIndex("label") : langCol;
+
+                c.move(-1);
+                while (c.moveToNext()) {
+                    String label = c.getString(labelCol);
+                    String val = c.getString(c.getColumnIndex("name"));
+                    choices.add(new ItemsetCache.Choice(label, val));
+                }
+            } finally {
+                c.close();
+            }
+            return choices;
+        } catch (SQLiteException e) {
+            Timber.i(e);
+            return null;
+        } finally {
+            adapter.close();
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package org.odk.collect.android.database;
+
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.utilities.FileUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileHashCacheTest {
+
+    // old enough for the hash to be remembered
+    private static final long LAST_MODIFIED = System.currentTimeMillis() - 60000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileHashCache fileHashCache;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        Collect.createODKDirs();
+
+        fileHashCache = new FileHashCache();
+        file = temporaryFolder.newFile("form.xml");
+    }
+
+    @Test
+    public void unchangedFilesAreNotReadAgain() throws IOException {
+        write(file, "first", LAST_MODIFIED);
+        String md5 = fileHashCache.getMd5Hash(file);
+        assertEquals(FileUtils.getMd5Hash(file), md5);
+
+        // same size and timestamp, so the remembered hash is returned
+        write(file, "other", LAST_MODIFIED);
+        assertEquals(md5, fileHashCache.getMd5Hash(file));
+    }
+
+    @Test
+    public void filesAreReadAgainWhenTheirSizeOrTimestampChanges() throws IOException {
+        write(file, "first", LAST_MODIFIED);
+        fileHashCache.getMd5Hash(file);
+
+        write(file, "longer", LAST_MODIFIED);
+        assertEquals(FileUtils.getMd5Hash(file), fileHashCache.getMd5Hash(file));
+
+        write(file, "second", LAST_MODIFIED + 2000);
+        assertEquals(FileUtils.getMd5Hash(file), fileHashCache.getMd5Hash(file));
+    }
+
+    @Test
+    public void recentlyModifiedFilesAreNotRemembered() throws IOException {
+        long lastModified = System.currentTimeMillis();
+        write(file, "first", lastModified);
+        String md5 = fileHashCache.getMd5Hash(file);
+
+        write(file, "other", lastModified);
+        assertNotEquals(md5, fileHashCache.getMd5Hash(file));
+    }
+
+    @Test
+    public void hashesAreKeptWhenTheAppIsRestarted() throws IOException {
+        write(file, "first", LAST_MODIFIED);
+        String md5 = fileHashCache.getMd5Hash(file);
+
+        write(file, "other", LAST_MODIFIED);
+        assertEquals(md5, new FileHashCache().getMd5Hash(file));
+    }
+
+    @Test
+    public void removedFilesAreReadAgain() throws IOException {
+        write(file, "first", LAST_MODIFIED);
+        fileHashCache.getMd5Hash(file);
+
+        fileHashCache.remove(file);
+        write(file, "other", LAST_MODIFIED);
+        assertEquals(FileUtils.getMd5Hash(file), fileHashCache.getMd5Hash(file));
+    }
+
+    @Test
+    public void hashesOfExtractedArchivesAreKeptAfterTheyAreDeleted() throws IOException {
+        File archive = temporaryFolder.newFile("media.zip");
+        write(archive, "archive", LAST_MODIFIED);
+        String md5 = FileUtils.getMd5Hash(archive);
+
+        fileHashCache.putExtractedArchive(archive);
+        assertTrue(archive.delete());
+        assertEquals(md5, fileHashCache.getExtractedArchiveMd5Hash(archive));
+
+        fileHashCache.remove(archive);
+        assertNull(fileHashCache.getExtractedArchiveMd5Hash(archive));
+    }
+
+    private static void write(File file, String content, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+}
@@ -0,0 +1,122 @@
+package org.odk.collect.android.database;
+
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class SubmissionUploadProgressTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File instanceDirectory;
+    private File instanceFile;
+    private File submissionFile;
+    private List<File> attachments;
+
+    @Before
+    public void setup() throws IOException {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        Collect.createODKDirs();
+
+        instanceDirectory = temporaryFolder.newFolder("instance");
+        instanceFile = createFile(instanceDirectory, "instance.xml", 10);
+        submissionFile = createFile(temporaryFolder.getRoot(), "submission.xml", 10);
+        attachments = Arrays.asList(createFile(instanceDirectory, "first.jpg", 100),
+                createFile(instanceDirectory, "second.jpg", 200),
+                createFile(instanceDirectory, "third.jpg", 300));
+    }
+
+    @Test
+    public void uploadsResumeWithTheAttachmentsThatWereNotAcknowledged() {
+        SubmissionUploadProgress progress = new SubmissionUploadProgress();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 2));
+
+        assertEquals(attachments.subList(2, 3), progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void progressIsKeptWhenTheAppIsRestarted() {
+        new SubmissionUploadProgress().addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 1));
+
+        assertEquals(attachments.subList(1, 3),
+                new SubmissionUploadProgress().getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void changedAttachmentsAreSentAgain() throws IOException {
+        SubmissionUploadProgress progress = new SubmissionUploadProgress();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 2));
+
+        createFile(instanceDirectory, "first.jpg", 150);
+
+        assertEquals(Arrays.asList(attachments.get(0), attachments.get(2)),
+                progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void everythingIsSentAgainWhenTheSubmissionChanges() throws IOException {
+        SubmissionUploadProgress progress = new SubmissionUploadProgress();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 2));
+
+        createFile(temporaryFolder.getRoot(), "submission.xml", 20);
+
+        assertEquals(attachments, progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void progressIsForgottenWhenTheInstanceIsSubmitted() {
+        SubmissionUploadProgress progress = new SubmissionUploadProgress();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 2));
+
+        progress.clear(instanceFile);
+
+        assertEquals(attachments, progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void progressOfInstancesInDeletedFoldersIsForgotten() throws IOException {
+        File otherDirectory = temporaryFolder.newFolder("instance-other");
+        File otherInstanceFile = createFile(otherDirectory, "instance.xml", 10);
+        List<File> otherAttachments = Collections.singletonList(createFile(otherDirectory, "first.jpg", 100));
+
+        SubmissionUploadProgress progress = new SubmissionUploadProgress();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments.subList(0, 2));
+        progress.addAcknowledgedFiles(otherInstanceFile, submissionFile, otherAttachments);
+
+        progress.clearFolders(Collections.singletonList(instanceDirectory));
+
+        assertEquals(attachments, progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+        // a folder whose name starts with the name of the deleted one is kept
+        assertEquals(Collections.emptyList(),
+                progress.getRemainingFiles(otherInstanceFile, submissionFile, otherAttachments));
+    }
+
+    private static File createFile(File directory, String name, int size) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,64 @@
+package org.odk.collect.android.external;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalDataSearchIndexTest {
+
+    @Test
+    public void documentContainsTheDistinctLowercaseTrigrams() {
+        assertEquals("ban ana nan", ExternalDataSearchIndex.toTrigramDocument("BANANA"));
+        assertEquals("", ExternalDataSearchIndex.toTrigramDocument("ab"));
+        assertEquals("", ExternalDataSearchIndex.toTrigramDocument(null));
+    }
+
+    @Test
+    public void charactersTheTokenizerDropsAreEscaped() {
+        assertEquals("az20b", ExternalDataSearchIndex.toTrigramDocument("a b"));
+    }
+
+    @Test
+    public void everyTrigramOfAQueriedValueIsInTheDocumentOfAMatchingValue() {
+        Set<String> documentTokens = new HashSet<>(Arrays.asList(
+                ExternalDataSearchIndex.toTrigramDocument("Nairobi West, Kenya").split(" ")));
+
+        String[] matchArgs = ExternalDataSearchIndex.getMatchArguments(
+                Collections.singletonList("c_name"), "OBI WEST");
+        for (String term : matchArgs[0].split(" ")) {
+            assertTrue(term, documentTokens.contains(term.substring("c_name:".length())));
+        }
+    }
+
+    @Test
+    public void matchArgumentsAreBuiltPerColumn() {
+        List<String> columns = Arrays.asList("c_name", "c_region");
+        assertArrayEquals(new String[]{"c_name:abc c_name:bcd", "c_region:abc c_region:bcd"},
+                ExternalDataSearchIndex.getMatchArguments(columns, "ABcd"));
+    }
+
+    @Test
+    public void indexIsNotUsedForShortValuesOrWildcards() {
+        List<String> columns = Collections.singletonList("c_name");
+        assertNull(ExternalDataSearchIndex.getMatchArguments(columns, "ab"));
+        assertNull(ExternalDataSearchIndex.getMatchArguments(columns, "ab%cd"));
+        assertNull(ExternalDataSearchIndex.getMatchArguments(columns, "ab_cd"));
+        assertNull(ExternalDataSearchIndex.getMatchArguments(columns, null));
+    }
+
+    @Test
+    public void candidateSelectionHasOneMatchPerColumn() {
+        assertEquals("rowid IN (SELECT docid FROM externalData_fts WHERE externalData_fts MATCH ?"
+                        + " UNION SELECT docid FROM externalData_fts WHERE externalData_fts MATCH ?)",
+                ExternalDataSearchIndex.createCandidateSelection(Arrays.asList("c_a", "c_b")));
+    }
+}
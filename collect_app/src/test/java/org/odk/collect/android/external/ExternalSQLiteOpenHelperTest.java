@@ -0,0 +1,257 @@
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalSQLiteOpenHelperTest {
+
+    private static final List<String> NOT_SEARCHED = Collections.emptyList();
+    private static final List<String> LABEL_SEARCHED = Collections.singletonList("c_label");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ExternalDataReader externalDataReader = mock(ExternalDataReader.class);
+    private File csvFile;
+    private File dbFile;
+    private ExternalSQLiteOpenHelper helper;
+
+    @Before
+    public void setup() {
+        csvFile = new File(temporaryFolder.getRoot(), "fruits.csv");
+        dbFile = new File(temporaryFolder.getRoot(), "fruits.db");
+        helper = new ExternalSQLiteOpenHelper(dbFile);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    @Test
+    public void csvIsImportedIntoANewDatabase() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        assertEquals(rows("mango|Mango", "banana|Banana"), readRows());
+    }
+
+    @Test
+    public void tableIsImportedWhenAnEarlierImportStoppedBeforeCreatingIt() throws IOException {
+        // the schema version is committed as soon as the database is opened
+        helper.getWritableDatabase().close();
+        writeCsv("name_key,label", "mango,Mango");
+
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+
+        assertEquals(rows("mango|Mango"), readRows());
+    }
+
+    @Test
+    public void insertedRowIsAddedWithoutMovingTheRowsAfterIt() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+        double bananaSortValue = readSortValue("banana");
+
+        writeCsv("name_key,label", "mango,Mango", "apple,Apple", "banana,Banana");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+
+        assertEquals(rows("mango|Mango", "apple|Apple", "banana|Banana"), readRows());
+        assertEquals(bananaSortValue, readSortValue("banana"), 0);
+    }
+
+    @Test
+    public void deletedRowIsRemovedWithoutMovingTheRowsAfterIt() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "apple,Apple", "banana,Banana");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+        double bananaSortValue = readSortValue("banana");
+
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+
+        assertEquals(rows("mango|Mango", "banana|Banana"), readRows());
+        assertEquals(bananaSortValue, readSortValue("banana"), 0);
+    }
+
+    @Test
+    public void modifiedRowIsUpdated() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        writeCsv("name_key,label", "mango,Ripe mango", "banana,Banana");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+
+        assertEquals(rows("mango|Ripe mango", "banana|Banana"), readRows());
+    }
+
+    @Test
+    public void reorderedRowsFollowTheNewCsvOrder() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "apple,Apple", "banana,Banana");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        writeCsv("name_key,label", "banana,Banana", "mango,Mango", "apple,Apple");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+        assertEquals(rows("banana|Banana", "mango|Mango", "apple|Apple"), readRows());
+
+        writeCsv("name_key,label", "apple,Apple", "banana,Banana", "mango,Mango");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+        assertEquals(rows("apple|Apple", "banana|Banana", "mango|Mango"), readRows());
+    }
+
+    @Test
+    public void sortColumnOfTheCsvIsUsedWhenThereIsOne() throws IOException {
+        writeCsv("name_key,label,sortby", "mango,Mango,2", "banana,Banana,1");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        writeCsv("name_key,label,sortby", "mango,Mango,2", "banana,Banana,3");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+
+        assertEquals(rows("mango|Mango", "banana|Banana"), readRows());
+    }
+
+    @Test
+    public void csvWithoutKeyColumnCannotBeUpdatedInPlace() throws IOException {
+        writeCsv("name,label", "mango,Mango");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        assertFalse(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+    }
+
+    @Test
+    public void csvWithRepeatedKeysCannotBeUpdatedInPlace() throws IOException {
+        writeCsv("name_key,label", "mango,Mango");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+
+        writeCsv("name_key,label", "mango,Mango", "mango,Ripe mango");
+        assertFalse(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+    }
+
+    @Test
+    public void searchedColumnsAreIndexedWhenImported() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+
+        helper.importFromCSV(csvFile, externalDataReader, null, LABEL_SEARCHED);
+
+        assertFalse(helper.needsSearchIndex(LABEL_SEARCHED));
+        assertEquals(rows("banana|Banana"), searchLabels("anan"));
+    }
+
+    @Test
+    public void searchIndexIsUpdatedWithTheData() throws IOException {
+        writeCsv("name_key,label", "mango,Mango", "banana,Banana");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+        assertTrue(helper.needsSearchIndex(LABEL_SEARCHED));
+
+        writeCsv("name_key,label", "mango,Ripe mango", "banana,Banana");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, LABEL_SEARCHED));
+
+        assertEquals(rows("mango|Ripe mango"), searchLabels("ripe"));
+    }
+
+    @Test
+    public void dataVersionIsStoredInTheDatabaseAndOnlyChangesWithTheData() throws IOException {
+        writeCsv("name_key,label", "mango,Mango");
+        helper.importFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED);
+        ExternalSQLiteOpenHelper.onDataChanged();
+        long importedVersion = readDataVersion();
+        assertTrue(importedVersion > 0);
+
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+        ExternalSQLiteOpenHelper.onDataChanged();
+        assertEquals(importedVersion, readDataVersion());
+
+        writeCsv("name_key,label", "mango,Ripe mango");
+        assertTrue(helper.updateFromCSV(csvFile, externalDataReader, null, NOT_SEARCHED));
+        ExternalSQLiteOpenHelper.onDataChanged();
+        assertTrue(readDataVersion() > importedVersion);
+    }
+
+    private long readDataVersion() {
+        // a new helper has nothing cached, like after the app is restarted
+        ExternalSQLiteOpenHelper newHelper = new ExternalSQLiteOpenHelper(dbFile);
+        try {
+            return newHelper.getDataVersion();
+        } finally {
+            newHelper.close();
+        }
+    }
+
+    private void writeCsv(String... lines) throws IOException {
+        FileWriter writer = new FileWriter(csvFile);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the csv columns of every row in sort order, separated by |
+     */
+    private List<String> readRows() {
+        return queryRows(null, null);
+    }
+
+    /**
+     * @return the rows whose indexed label may contain the given value
+     */
+    private List<String> searchLabels(String value) {
+        return queryRows(ExternalDataSearchIndex.createCandidateSelection(LABEL_SEARCHED),
+                ExternalDataSearchIndex.getMatchArguments(LABEL_SEARCHED, value));
+    }
+
+    private List<String> queryRows(String selection, String[] selectionArgs) {
+        List<String> rows = new ArrayList<>();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        Cursor cursor = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, new String[] {"c_name_key", "c_label"},
+                selection, selectionArgs, null, null, ExternalDataUtil.SORT_COLUMN_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getString(0) + "|" + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private double readSortValue(String key) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        return Double.parseDouble(DatabaseUtils.stringForQuery(db, "SELECT " + ExternalDataUtil.SORT_COLUMN_NAME
+                + " FROM " + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + " WHERE c_name_key = ?", new String[] {key}));
+    }
+
+    private static List<String> rows(String... rows) {
+        List<String> list = new ArrayList<>();
+        for (String row : rows) {
+            list.add(row);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,55 @@
+package org.odk.collect.android.external.handler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PullDataCacheTest {
+
+    @Test
+    public void lookupsAreCountedAsHitsAndMisses() {
+        PullDataCache cache = new PullDataCache(10);
+
+        assertNull(cache.get("fruits", 1, "name", "key", "1"));
+        cache.put("fruits", 1, "name", "key", "1", "Mango");
+        assertEquals("Mango", cache.get("fruits", 1, "name", "key", "1"));
+        assertNull(cache.get("fruits", 1, "name", "key", "2"));
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void everyPartOfTheLookupIsPartOfTheKey() {
+        PullDataCache cache = new PullDataCache(10);
+        cache.put("fruits", 1, "name", "key", "1", "Mango");
+
+        assertNull(cache.get("vegetables", 1, "name", "key", "1"));
+        assertNull(cache.get("fruits", 1, "color", "key", "1"));
+        assertNull(cache.get("fruits", 1, "name", "name", "1"));
+        assertNull(cache.get("fruits", 1, "name", "key", "11"));
+    }
+
+    @Test
+    public void entriesOfADataSetAreDroppedWhenItsDataChanges() {
+        PullDataCache cache = new PullDataCache(10);
+        cache.put("fruits", 1, "name", "key", "1", "Mango");
+        cache.put("vegetables", 1, "name", "key", "1", "Carrot");
+
+        assertNull(cache.get("fruits", 2, "name", "key", "1"));
+        assertEquals("Carrot", cache.get("vegetables", 1, "name", "key", "1"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        PullDataCache cache = new PullDataCache(2);
+        cache.put("fruits", 1, "name", "key", "1", "Mango");
+        cache.put("fruits", 1, "name", "key", "2", "Apple");
+        cache.put("fruits", 1, "name", "key", "3", "Banana");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("fruits", 1, "name", "key", "1"));
+    }
+}
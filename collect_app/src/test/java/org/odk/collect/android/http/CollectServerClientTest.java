@@ -7,15 +7,29 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.injection.DaggerTestComponent;
 import org.odk.collect.android.injection.TestComponent;
 import org.odk.collect.android.utilities.DocumentFetchResult;
+import org.odk.collect.android.utilities.WebCredentialsUtils;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @RunWith(RobolectricTestRunner.class)
 public class CollectServerClientTest {
@@ -49,6 +63,42 @@ public class CollectServerClientTest {
         assertTrue(fetchResult.isOpenRosaResponse);
     }
 
+    @Test
+    public void testGetXMLDocumentKeepsCacheValidators() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-OpenRosa-Version", "1.0");
+        headers.put("etag", "\"v1\"");
+        headers.put("Last-Modified", "Tue, 01 May 2018 10:00:00 GMT");
+
+        OpenRosaHttpInterface httpInterface = mock(OpenRosaHttpInterface.class);
+        when(httpInterface.get(any(URI.class), anyString(), nullable(HttpCredentialsInterface.class)))
+                .thenReturn(new HttpGetResult(new ByteArrayInputStream("<forms/>".getBytes()),
+                        headers, "hash", HttpURLConnection.HTTP_OK));
+
+        DocumentFetchResult fetchResult = new CollectServerClient(httpInterface, mock(WebCredentialsUtils.class))
+                .getXmlDocument(URL_STRING);
+        assertNull(fetchResult.errorMessage);
+        assertFalse(fetchResult.isNotModified());
+        assertEquals("\"v1\"", fetchResult.getETag());
+        assertEquals("Tue, 01 May 2018 10:00:00 GMT", fetchResult.getLastModified());
+    }
+
+    @Test
+    public void testGetXMLDocumentIfChangedWhenNotModified() throws Exception {
+        OpenRosaHttpInterface httpInterface = mock(OpenRosaHttpInterface.class);
+        when(httpInterface.getIfChanged(any(URI.class), anyString(), nullable(HttpCredentialsInterface.class),
+                eq("\"v1\""), eq("Tue, 01 May 2018 10:00:00 GMT")))
+                .thenReturn(new HttpGetResult(null, new HashMap<String, String>(), "",
+                        HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        DocumentFetchResult fetchResult = new CollectServerClient(httpInterface, mock(WebCredentialsUtils.class))
+                .getXmlDocumentIfChanged(URL_STRING, "\"v1\"", "Tue, 01 May 2018 10:00:00 GMT");
+        assertNull(fetchResult.errorMessage);
+        assertNull(fetchResult.doc);
+        assertTrue(fetchResult.isNotModified());
+        assertEquals("\"v1\"", fetchResult.getETag());
+    }
+
     @Test
     public void testGetPlainTextMimeType() {
         assertEquals(CollectServerClient.getPlainTextMimeType(), "text/plain");
@@ -0,0 +1,84 @@
+package org.odk.collect.android.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.httpclientandroidlib.auth.AuthScope;
+import org.opendatakit.httpclientandroidlib.client.CookieStore;
+import org.opendatakit.httpclientandroidlib.client.protocol.HttpClientContext;
+import org.opendatakit.httpclientandroidlib.impl.cookie.BasicClientCookie;
+import org.opendatakit.httpclientandroidlib.protocol.HttpContext;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class HttpClientConnectionTest {
+
+    @Test
+    public void requestsHaveCookiesOfTheirOwn() {
+        HttpClientConnection connection = new HttpClientConnection();
+        HttpClientContext first = HttpClientContext.adapt(connection.createRequestContext());
+        HttpClientContext second = HttpClientContext.adapt(connection.createRequestContext());
+
+        first.getCookieStore().addCookie(new BasicClientCookie("session", "first"));
+
+        assertNotSame(first.getCookieStore(), second.getCookieStore());
+        assertEquals(1, first.getCookieStore().getCookies().size());
+        assertTrue(second.getCookieStore().getCookies().isEmpty());
+    }
+
+    @Test
+    public void cookiesOfConcurrentRequestsAreKept() throws Exception {
+        final HttpClientConnection connection = new HttpClientConnection();
+        final CountDownLatch started = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<CookieStore> first = executor.submit(() -> setSessionCookie(connection, "first", started));
+            Future<CookieStore> second = executor.submit(() -> setSessionCookie(connection, "second", started));
+
+            assertEquals("first", first.get().getCookies().get(0).getValue());
+            assertEquals("second", second.get().getCookies().get(0).getValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void requestsShareCredentialsAndAuthCache() {
+        HttpClientConnection connection = new HttpClientConnection();
+        connection.addCredentials("user", "password", "example.com");
+
+        HttpContext first = connection.createRequestContext();
+        HttpContext second = connection.createRequestContext();
+
+        HttpClientContext firstContext = HttpClientContext.adapt(first);
+        HttpClientContext secondContext = HttpClientContext.adapt(second);
+        assertSame(firstContext.getCredentialsProvider(), secondContext.getCredentialsProvider());
+        assertSame(firstContext.getAuthCache(), secondContext.getAuthCache());
+        assertNotNull(secondContext.getCredentialsProvider()
+                .getCredentials(new AuthScope("example.com", 443, null, "Basic")));
+    }
+
+    private static CookieStore setSessionCookie(HttpClientConnection connection, String session,
+                                                CountDownLatch started) throws InterruptedException {
+        CookieStore cookieStore = HttpClientContext.adapt(connection.createRequestContext()).getCookieStore();
+
+        // both requests are under way before either gets its session
+        started.countDown();
+        started.await();
+        cookieStore.addCookie(new BasicClientCookie("session", session));
+
+        // the other request starting after this one doesn't clear the session
+        HttpClientContext.adapt(connection.createRequestContext());
+        return cookieStore;
+    }
+}
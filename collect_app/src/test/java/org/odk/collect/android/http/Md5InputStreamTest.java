@@ -0,0 +1,53 @@
+package org.odk.collect.android.http;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class Md5InputStreamTest {
+
+    private static final byte[] BODY = "hello world".getBytes();
+    private static final String BODY_MD5 = "5eb63bbbe01eeed093cb22bb8f5acdc3";
+
+    @Test
+    public void hashIsComputedWhileTheStreamIsRead() throws Exception {
+        Md5InputStream stream = new Md5InputStream(new ByteArrayInputStream(BODY));
+        byte[] buffer = new byte[4];
+        while (stream.read(buffer, 0, buffer.length) != -1) {
+            // consuming the body
+        }
+
+        assertEquals(BODY_MD5, stream.getHash());
+    }
+
+    @Test
+    public void restOfTheStreamIsHashedWhenItIsClosedEarly() throws Exception {
+        Md5InputStream stream = new Md5InputStream(new ByteArrayInputStream(BODY));
+        stream.read();
+        stream.skip(3);
+        stream.close();
+
+        assertEquals(BODY_MD5, stream.getHash());
+    }
+
+    @Test
+    public void closingAWrappingStreamClosesTheHashingStream() throws Exception {
+        Md5InputStream stream = new Md5InputStream(new ByteArrayInputStream(BODY));
+        InputStream wrapper = new BufferedInputStream(stream);
+        wrapper.read();
+        wrapper.close();
+
+        assertEquals(BODY_MD5, stream.getHash());
+    }
+
+    @Test
+    public void emptyStreamHasTheHashOfNoBytes() throws Exception {
+        Md5InputStream stream = new Md5InputStream(new ByteArrayInputStream(new byte[0]));
+
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", stream.getHash());
+    }
+}
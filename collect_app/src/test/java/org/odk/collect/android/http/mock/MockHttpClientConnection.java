@@ -42,6 +42,13 @@ public class MockHttpClientConnection implements OpenRosaHttpInterface {
         return new HttpGetResult(is, headers, "test-hash", HttpURLConnection.HTTP_OK);
     }
 
+    @Override
+    @NonNull
+    public HttpGetResult getIfChanged(@NonNull URI uri, @Nullable String contentType, @Nullable HttpCredentialsInterface credentials,
+                                      @Nullable String eTag, @Nullable String lastModified) throws Exception {
+        return get(uri, contentType, credentials);
+    }
+
     @NonNull
     @Override
     public HttpHeadResult head(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws Exception {
@@ -50,7 +57,7 @@ public class MockHttpClientConnection implements OpenRosaHttpInterface {
 
     @NonNull
     @Override
-    public ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials) throws IOException {
+    public ResponseMessageParser uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials, @Nullable UploadProgressListener progressListener) throws IOException {
         return null;
     }
 }
@@ -0,0 +1,103 @@
+package org.odk.collect.android.logic;
+
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.core.model.instance.TreeElement;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AnswerJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replayingAJournalAppliesTheLatestAnswers() throws IOException {
+        TreeElement root = createInstance();
+        TreeElement name = root.getChild("name", 0);
+        TreeElement age = root.getChild("age", 0);
+        File journal = new File(temporaryFolder.getRoot(), "instance.save.journal");
+
+        name.setValue(new StringData("Alice"));
+        age.setValue(new StringData("30"));
+        AnswerJournal.append(journal, Arrays.asList(
+                AnswerJournal.Entry.forAnswer(name), AnswerJournal.Entry.forAnswer(age)));
+        name.setValue(new StringData("Bob"));
+        age.setValue(null);
+        AnswerJournal.append(journal, Arrays.asList(
+                AnswerJournal.Entry.forAnswer(name), AnswerJournal.Entry.forAnswer(age)));
+
+        TreeElement saved = createInstance();
+        assertEquals(4, AnswerJournal.replay(journal, saved));
+        assertEquals("Bob", saved.getChild("name", 0).getValue().uncast().getString());
+        assertNull(saved.getChild("age", 0).getValue());
+    }
+
+    @Test
+    public void replayingAJournalCreatesNewRepeats() throws IOException {
+        TreeElement root = createInstance();
+        TreeElement repeat = new TreeElement("person", 1);
+        TreeElement child = new TreeElement("child", 0);
+        repeat.addChild(child);
+        root.addChild(repeat);
+        child.setValue(new StringData("Carol"));
+        File journal = new File(temporaryFolder.getRoot(), "instance.save.journal");
+
+        AnswerJournal.append(journal, Arrays.asList(
+                AnswerJournal.Entry.forNode(repeat), AnswerJournal.Entry.forAnswer(child)));
+
+        TreeElement saved = createInstance();
+        AnswerJournal.replay(journal, saved);
+        TreeElement savedRepeat = saved.getChild("person", 1);
+        assertNotNull(savedRepeat);
+        assertEquals("Carol", savedRepeat.getChild("child", 0).getValue().uncast().getString());
+    }
+
+    @Test
+    public void anIncompleteEntryAtTheEndIsIgnored() throws IOException {
+        TreeElement root = createInstance();
+        TreeElement name = root.getChild("name", 0);
+        name.setValue(new StringData("Alice"));
+        File journal = new File(temporaryFolder.getRoot(), "instance.save.journal");
+        AnswerJournal.append(journal, Collections.singletonList(AnswerJournal.Entry.forAnswer(name)));
+        long completeLength = journal.length();
+
+        name.setValue(new StringData("Bob"));
+        AnswerJournal.append(journal, Collections.singletonList(AnswerJournal.Entry.forAnswer(name)));
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        file.setLength(completeLength + 5);
+        file.close();
+
+        TreeElement saved = createInstance();
+        assertEquals(1, AnswerJournal.replay(journal, saved));
+        assertEquals("Alice", saved.getChild("name", 0).getValue().uncast().getString());
+    }
+
+    @Test(expected = IOException.class)
+    public void replayingAFileThatIsNotAJournalFails() throws IOException {
+        File journal = new File(temporaryFolder.getRoot(), "instance.save.journal");
+        FileOutputStream out = new FileOutputStream(journal);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6});
+        out.close();
+
+        AnswerJournal.replay(journal, createInstance());
+    }
+
+    private static TreeElement createInstance() {
+        TreeElement root = new TreeElement("data", 0);
+        root.addChild(new TreeElement("name", 0));
+        root.addChild(new TreeElement("age", 0));
+        return root;
+    }
+}
@@ -0,0 +1,103 @@
+package org.odk.collect.android.logic;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.instance.InstanceInitializationFactory;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FormControllerTraversalTest {
+
+    private static final String FORM = "<?xml version=\"1.0\"?>\n"
+            + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\""
+            + " xmlns:jr=\"http://openrosa.org/javarosa\">\n"
+            + "  <h:head>\n"
+            + "    <h:title>Traversal</h:title>\n"
+            + "    <model>\n"
+            + "      <instance>\n"
+            + "        <data id=\"traversal\">\n"
+            + "          <count>3</count><hidden/>\n"
+            + "          <person jr:template=\"\"><name/></person>\n"
+            + "          <last/>\n"
+            + "        </data>\n"
+            + "      </instance>\n"
+            + "      <bind nodeset=\"/data/count\" type=\"int\"/>\n"
+            + "      <bind nodeset=\"/data/hidden\" type=\"string\" relevant=\"false()\"/>\n"
+            + "      <bind nodeset=\"/data/person/name\" type=\"string\"/>\n"
+            + "      <bind nodeset=\"/data/last\" type=\"string\"/>\n"
+            + "    </model>\n"
+            + "  </h:head>\n"
+            + "  <h:body>\n"
+            + "    <input ref=\"/data/count\"><label>Count</label></input>\n"
+            + "    <input ref=\"/data/hidden\"><label>Hidden</label></input>\n"
+            + "    <repeat nodeset=\"/data/person\" jr:count=\"/data/count\">\n"
+            + "      <input ref=\"/data/person/name\"><label>Name</label></input>\n"
+            + "    </repeat>\n"
+            + "    <input ref=\"/data/last\"><label>Last</label></input>\n"
+            + "  </h:body>\n"
+            + "</h:html>\n";
+
+    private FormController formController;
+
+    @Before
+    public void setup() {
+        FormDef formDef = XFormUtils.getFormFromInputStream(
+                new ByteArrayInputStream(FORM.getBytes(Charset.forName("UTF-8"))));
+        formDef.initialize(true, new InstanceInitializationFactory());
+        formController = new FormController(null, new FormEntryController(new FormEntryModel(formDef)), null);
+    }
+
+    @Test
+    public void irrelevantQuestionsAreSkippedAndCountedRepeatsCreated() {
+        List<String> visited = new ArrayList<>();
+        FormIndex index = formController.getNextRelevantIndex(FormIndex.createBeginningOfFormIndex(), true);
+        while (index.isInForm()) {
+            int event = formController.getEvent(index);
+            if (event == FormEntryController.EVENT_QUESTION || event == FormEntryController.EVENT_REPEAT) {
+                visited.add(index.getReference().toString(true));
+            }
+            index = formController.getNextRelevantIndex(index, event != FormEntryController.EVENT_REPEAT);
+        }
+
+        assertEquals(Arrays.asList("/data/count[1]", "/data/person[1]", "/data/person[2]",
+                "/data/person[3]", "/data/last[1]"), visited);
+    }
+
+    @Test
+    public void descendingVisitsTheQuestionsOfEveryRepeatInstance() {
+        int names = 0;
+        FormIndex index = formController.getNextRelevantIndex(FormIndex.createBeginningOfFormIndex(), true);
+        while (index.isInForm()) {
+            if (formController.getEvent(index) == FormEntryController.EVENT_QUESTION
+                    && index.getReference().toString(false).equals("/data/person/name")) {
+                names++;
+            }
+            index = formController.getNextRelevantIndex(index, true);
+        }
+
+        assertEquals(3, names);
+    }
+
+    @Test
+    public void traversalDoesNotMoveTheCurrentIndex() {
+        FormIndex start = formController.getFormIndex();
+
+        FormIndex index = formController.getNextRelevantIndex(FormIndex.createBeginningOfFormIndex(), true);
+        while (index.isInForm()) {
+            index = formController.getNextRelevantIndex(index, true);
+        }
+
+        assertEquals(start, formController.getFormIndex());
+    }
+}
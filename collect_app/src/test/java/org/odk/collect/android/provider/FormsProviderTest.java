@@ -0,0 +1,141 @@
+package org.odk.collect.android.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.utilities.FormDefCache;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FormsProviderTest {
+
+    private static final long LAST_MODIFIED = System.currentTimeMillis() - 60000;
+
+    private FormsProvider formsProvider;
+    private File formFile;
+
+    @Before
+    public void setup() throws IOException {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+        Collect.createODKDirs();
+
+        formsProvider = Robolectric.setupContentProvider(FormsProvider.class, FormsProviderAPI.AUTHORITY);
+        formFile = new File(Collect.FORMS_PATH, "form.xml");
+        write(formFile, "<h:html/>", LAST_MODIFIED);
+    }
+
+    @Test
+    public void cachePathFollowsTheFormFileWhenUpdatedById() throws IOException {
+        long id = insertForm();
+        String insertedCachePath = getCachePath(id);
+
+        write(formFile, "<h:html></h:html>", LAST_MODIFIED + 2000);
+        ContentValues values = new ContentValues();
+        values.put(FormsColumns.FORM_FILE_PATH, formFile.getAbsolutePath());
+        formsProvider.update(getUri(id), values, null, null);
+
+        assertNotEquals(insertedCachePath, getCachePath(id));
+        assertEquals(FormDefCache.getCacheFilePath(formFile), getCachePath(id));
+    }
+
+    @Test
+    public void cachePathFollowsTheFormFileWhenUpdatedBySelection() throws IOException {
+        long id = insertForm();
+
+        write(formFile, "<h:html></h:html>", LAST_MODIFIED + 2000);
+        ContentValues values = new ContentValues();
+        values.put(FormsColumns.FORM_FILE_PATH, formFile.getAbsolutePath());
+        formsProvider.update(FormsColumns.CONTENT_URI, values, FormsColumns._ID + "=?",
+                new String[]{String.valueOf(id)});
+
+        assertEquals(FormDefCache.getCacheFilePath(formFile), getCachePath(id));
+    }
+
+    @Test
+    public void cacheOfAFormModifiedInPlaceIsDeletedWithIt() throws IOException {
+        long id = insertForm();
+        File insertedCache = new File(getCachePath(id));
+        write(insertedCache, "cache", LAST_MODIFIED);
+
+        // the row isn't updated, e.g. because the form was replaced on the sdcard
+        write(formFile, "<h:html></h:html>", LAST_MODIFIED + 2000);
+        File currentCache = new File(FormDefCache.getCacheFilePath(formFile));
+        write(currentCache, "cache", LAST_MODIFIED + 2000);
+
+        formsProvider.delete(getUri(id), null, null);
+
+        assertFalse(insertedCache.exists());
+        assertFalse(currentCache.exists());
+        assertFalse(formFile.exists());
+    }
+
+    @Test
+    public void cacheOfAFormModifiedInPlaceIsDeletedWhenTheFormIsUpdated() throws IOException {
+        long id = insertForm();
+
+        write(formFile, "<h:html></h:html>", LAST_MODIFIED + 2000);
+        File staleCache = new File(FormDefCache.getCacheFilePath(formFile));
+        write(staleCache, "cache", LAST_MODIFIED + 2000);
+
+        ContentValues values = new ContentValues();
+        values.put(FormsColumns.FORM_FILE_PATH, formFile.getAbsolutePath());
+        formsProvider.update(getUri(id), values, null, null);
+
+        assertFalse(staleCache.exists());
+        assertTrue(formFile.exists());
+    }
+
+    private long insertForm() {
+        ContentValues values = new ContentValues();
+        values.put(FormsColumns.FORM_FILE_PATH, formFile.getAbsolutePath());
+        values.put(FormsColumns.DISPLAY_NAME, "Form");
+        values.put(FormsColumns.JR_FORM_ID, "form");
+        return ContentUris.parseId(formsProvider.insert(FormsColumns.CONTENT_URI, values));
+    }
+
+    private String getCachePath(long id) {
+        Cursor cursor = formsProvider.query(getUri(id), null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(cursor.getColumnIndex(FormsColumns.JRCACHE_FILE_PATH));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri getUri(long id) {
+        return ContentUris.withAppendedId(FormsColumns.CONTENT_URI, id);
+    }
+
+    private static void write(File file, String content, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+}
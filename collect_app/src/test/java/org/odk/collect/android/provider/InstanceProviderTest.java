@@ -0,0 +1,243 @@
+package org.odk.collect.android.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.odk.collect.android.database.SubmissionUploadProgress;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstanceProviderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final InstanceFilesCleaner filesCleaner = mock(InstanceFilesCleaner.class);
+    private InstanceProvider instanceProvider;
+
+    @Before
+    public void setup() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+
+        instanceProvider = Robolectric.setupContentProvider(InstanceProvider.class);
+        instanceProvider.filesCleaner = filesCleaner;
+    }
+
+    @Test
+    public void givenInstancesAreDeletedAtOnce() throws IOException {
+        long first = insertInstance("first", InstanceProviderAPI.STATUS_COMPLETE);
+        long second = insertInstance("second", InstanceProviderAPI.STATUS_INCOMPLETE);
+        long kept = insertInstance("kept", InstanceProviderAPI.STATUS_COMPLETE);
+        int notifications = shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().size();
+
+        assertEquals(2, deleteInstances(first, second));
+
+        assertFalse(exists(first));
+        assertFalse(exists(second));
+        assertTrue(exists(kept));
+        assertEquals(notifications + 1,
+                shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().size());
+    }
+
+    @Test
+    public void moreInstancesThanSqliteVariablesCanBeDeleted() throws IOException {
+        long first = insertInstance("first", InstanceProviderAPI.STATUS_COMPLETE);
+        long last = insertInstance("last", InstanceProviderAPI.STATUS_COMPLETE);
+
+        long[] ids = new long[2500];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = -i;
+        }
+        ids[0] = first;
+        ids[ids.length - 1] = last;
+
+        assertEquals(2, deleteInstances(ids));
+        assertFalse(exists(first));
+        assertFalse(exists(last));
+    }
+
+    @Test
+    public void submittedInstancesAreMarkedAsDeleted() throws IOException {
+        long submitted = insertInstance("submitted", InstanceProviderAPI.STATUS_SUBMITTED);
+
+        assertEquals(1, deleteInstances(submitted));
+
+        Cursor cursor = query(submitted);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertFalse(cursor.isNull(cursor.getColumnIndex(InstanceColumns.DELETED_DATE)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void filesAreDeletedAfterTheInstances() throws IOException {
+        long first = insertInstance("first", InstanceProviderAPI.STATUS_COMPLETE);
+        long second = insertInstance("second", InstanceProviderAPI.STATUS_COMPLETE);
+        File firstDirectory = getInstanceDirectory("first");
+        File secondDirectory = getInstanceDirectory("second");
+
+        deleteInstances(first, second);
+
+        // the files are only queued to be deleted
+        assertTrue(firstDirectory.exists());
+        assertTrue(secondDirectory.exists());
+        List<File> directories = getQueuedDirectories();
+        assertEquals(new HashSet<>(Arrays.asList(firstDirectory, secondDirectory)), new HashSet<>(directories));
+
+        InstanceFilesCleaner.deleteDirectories(directories);
+        assertFalse(firstDirectory.exists());
+        assertFalse(secondDirectory.exists());
+    }
+
+    @Test
+    public void uploadProgressIsForgottenWithTheFiles() throws IOException {
+        long instance = insertInstance("instance", InstanceProviderAPI.STATUS_COMPLETE);
+        File instanceFile = new File(getInstanceDirectory("instance"), "instance.xml");
+        // kept outside of the instance folder so that only the recorded progress changes
+        File submissionFile = temporaryFolder.newFile("submission.xml");
+        List<File> attachments = Collections.singletonList(temporaryFolder.newFile("attachment.jpg"));
+        SubmissionUploadProgress progress = SubmissionUploadProgress.getInstance();
+        progress.addAcknowledgedFiles(instanceFile, submissionFile, attachments);
+        assertTrue(progress.getRemainingFiles(instanceFile, submissionFile, attachments).isEmpty());
+
+        deleteInstances(instance);
+        InstanceFilesCleaner.deleteDirectories(getQueuedDirectories());
+
+        assertEquals(attachments, progress.getRemainingFiles(instanceFile, submissionFile, attachments));
+    }
+
+    @Test
+    public void filesAreKeptWhenTheBatchDeletingTheirInstanceIsRolledBack() throws IOException {
+        long instance = insertInstance("instance", InstanceProviderAPI.STATUS_COMPLETE);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(getUri(instance)).build());
+        operations.add(ContentProviderOperation.newDelete(Uri.parse("content://unknown/uri")).build());
+        try {
+            instanceProvider.applyBatch(operations);
+            fail();
+        } catch (IllegalArgumentException | OperationApplicationException e) {
+            // expected
+        }
+
+        assertTrue(exists(instance));
+        verify(filesCleaner, never()).delete(anyList());
+        assertTrue(getInstanceDirectory("instance").exists());
+    }
+
+    @Test
+    public void filesAreDeletedOnceTheBatchDeletingTheirInstanceIsCommitted() throws Exception {
+        long instance = insertInstance("instance", InstanceProviderAPI.STATUS_COMPLETE);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(getUri(instance)).build());
+        instanceProvider.applyBatch(operations);
+
+        assertFalse(exists(instance));
+        assertEquals(Arrays.asList(getInstanceDirectory("instance")), getQueuedDirectories());
+    }
+
+    @Test
+    public void nothingIsDeletedWithoutIds() {
+        Bundle result = instanceProvider.call(InstanceProvider.METHOD_DELETE_INSTANCES, null, new Bundle());
+
+        assertNotNull(result);
+        assertEquals(0, result.getInt(InstanceProvider.EXTRA_DELETED_COUNT));
+        verify(filesCleaner, never()).delete(anyList());
+    }
+
+    @Test
+    public void unknownMethodsAreNotHandled() {
+        assertNull(instanceProvider.call("unknown", null, null));
+    }
+
+    private long insertInstance(String name, String status) throws IOException {
+        File directory = getInstanceDirectory(name);
+        assertTrue(directory.mkdirs());
+        File instanceFile = new File(directory, name + ".xml");
+        assertTrue(instanceFile.createNewFile());
+
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.DISPLAY_NAME, name);
+        values.put(InstanceColumns.INSTANCE_FILE_PATH, instanceFile.getAbsolutePath());
+        values.put(InstanceColumns.JR_FORM_ID, "form");
+        values.put(InstanceColumns.STATUS, status);
+        return ContentUris.parseId(instanceProvider.insert(InstanceColumns.CONTENT_URI, values));
+    }
+
+    private File getInstanceDirectory(String name) {
+        return new File(temporaryFolder.getRoot(), name);
+    }
+
+    private int deleteInstances(long... ids) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(InstanceProvider.EXTRA_INSTANCE_IDS, ids);
+        Bundle result = instanceProvider.call(InstanceProvider.METHOD_DELETE_INSTANCES, null, extras);
+        return result.getInt(InstanceProvider.EXTRA_DELETED_COUNT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<File> getQueuedDirectories() {
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(filesCleaner).delete(captor.capture());
+        return (List<File>) captor.getValue();
+    }
+
+    private boolean exists(long id) {
+        Cursor cursor = query(id);
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query(long id) {
+        return instanceProvider.query(getUri(id), null, null, null, null);
+    }
+
+    private static Uri getUri(long id) {
+        return ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, id);
+    }
+}
@@ -2,6 +2,8 @@ package org.odk.collect.android.sms;
 
 import android.content.Context;
 
+import com.google.gson.Gson;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,10 +11,14 @@ import org.odk.collect.android.sms.base.BaseSmsTest;
 import org.odk.collect.android.sms.base.SampleData;
 import org.odk.collect.android.tasks.sms.SmsSubmissionManager;
 import org.odk.collect.android.tasks.sms.models.Message;
+import org.odk.collect.android.tasks.sms.models.SmsProgress;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -34,7 +40,7 @@ public class SmsSubmissionManagerTest extends BaseSmsTest {
     }
 
     /***
-     * Checks to see if the model that was persisted to shared preferences actually exists.
+     * Checks to see if the model that was saved actually exists.
      */
     @Test
     public void getSubmissionTest() {
@@ -125,4 +131,73 @@ public class SmsSubmissionManagerTest extends BaseSmsTest {
 
         assertTrue(message.isSending());
     }
+
+    @Test
+    public void markMessagesAsSendingTest() {
+        SmsSubmission model = manager.getSubmissionModel(TEST_INSTANCE_ID);
+
+        List<Integer> messageIds = new ArrayList<>();
+        for (Message message : model.getMessages()) {
+            if (!message.isSent()) {
+                messageIds.add(message.getId());
+            }
+        }
+
+        manager.markMessagesAsSending(TEST_INSTANCE_ID, messageIds);
+
+        model = manager.getSubmissionModel(TEST_INSTANCE_ID);
+
+        assertTrue(model.getMessages().get(0).isSent());
+        assertTrue(model.getMessages().get(1).isSending());
+        assertTrue(model.getMessages().get(2).isSending());
+    }
+
+    @Test
+    public void completionCountsAllMessagesTest() {
+        SmsProgress progress = manager.getSubmissionModel(TEST_INSTANCE_ID).getCompletion();
+
+        assertEquals(1, progress.getCompletedCount(), 0);
+        assertEquals(3, progress.getTotalCount(), 0);
+    }
+
+    @Test
+    public void submissionProgressIsCountedTest() {
+        SmsProgress progress = manager.getSubmissionProgress(TEST_INSTANCE_ID);
+
+        assertEquals(1, progress.getCompletedCount(), 0);
+        assertEquals(3, progress.getTotalCount(), 0);
+        assertFalse(progress.isComplete());
+
+        for (Message message : manager.getSubmissionModel(TEST_INSTANCE_ID).getMessages()) {
+            manager.markMessageAsSent(TEST_INSTANCE_ID, message.getId());
+        }
+
+        assertTrue(manager.getSubmissionProgress(TEST_INSTANCE_ID).isComplete());
+        assertNull(manager.getSubmissionProgress("unknown_instance"));
+    }
+
+    /**
+     * Submissions saved to shared preferences by earlier versions are moved to the database
+     * when a manager is created.
+     */
+    @Test
+    public void submissionsInSharedPreferencesAreImportedTest() {
+        Context context = RuntimeEnvironment.application;
+
+        SmsSubmission saved = SampleData.generateSampleModel();
+        saved.setNotificationId();
+        context.getSharedPreferences(SmsSubmissionManager.PREF_FILE_NAME, Context.MODE_PRIVATE).edit()
+                .putString(SmsSubmissionManager.KEY_SUBMISSION + TEST_INSTANCE_ID, new Gson().toJson(saved))
+                .commit();
+
+        SmsSubmission model = new SmsSubmissionManager(context).getSubmissionModel(TEST_INSTANCE_ID);
+
+        assertNotNull(model);
+        assertEquals(saved.getNotificationId(), model.getNotificationId());
+        assertEquals(saved.getLastUpdated().getTime(), model.getLastUpdated().getTime());
+        assertEquals(3, model.getMessages().size());
+        assertEquals(saved.getMessages().get(1).getId(), model.getMessages().get(1).getId());
+        assertTrue(context.getSharedPreferences(SmsSubmissionManager.PREF_FILE_NAME, Context.MODE_PRIVATE)
+                .getAll().isEmpty());
+    }
 }
@@ -0,0 +1,145 @@
+package org.odk.collect.android.spatial;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class MBTilesReaderTest {
+
+    private static final byte[] TILE = {1, 2, 3};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() {
+        file = new File(temporaryFolder.getRoot(), "layer.mbtiles");
+    }
+
+    @Test
+    public void tilesAreAddressedWithYGrowingSouthwards() {
+        createTilesTable();
+        // TMS row 0 is the southernmost row
+        insertTile(2, 1, 0, TILE);
+
+        MBTilesReader reader = MBTilesReader.acquire(file);
+        try {
+            assertArrayEquals(TILE, reader.getTile(1, 3, 2));
+            assertNull(reader.getTile(1, 0, 2));
+        } finally {
+            reader.release();
+        }
+    }
+
+    @Test
+    public void missingTilesAreRemembered() {
+        createTilesTable();
+
+        MBTilesReader reader = MBTilesReader.acquire(file);
+        try {
+            assertNull(reader.getTile(0, 0, 0));
+
+            insertTile(0, 0, 0, TILE);
+            assertNull(reader.getTile(0, 0, 0));
+        } finally {
+            reader.release();
+        }
+    }
+
+    @Test
+    public void tilesThatCouldNotBeReadAreReadAgain() {
+        // no tiles table yet, so reading fails
+        SQLiteDatabase.openOrCreateDatabase(file, null).close();
+
+        MBTilesReader reader = MBTilesReader.acquire(file);
+        try {
+            assertNull(reader.getTile(0, 0, 0));
+
+            createTilesTable();
+            insertTile(0, 0, 0, TILE);
+            assertArrayEquals(TILE, reader.getTile(0, 0, 0));
+        } finally {
+            reader.release();
+        }
+    }
+
+    @Test
+    public void readerIsSharedUntilEveryMapReleasesIt() {
+        createTilesTable();
+        insertTile(0, 0, 0, TILE);
+
+        MBTilesReader first = MBTilesReader.acquire(file);
+        MBTilesReader second = MBTilesReader.acquire(file);
+        assertSame(first, second);
+
+        first.release();
+        assertArrayEquals(TILE, second.getTile(0, 0, 0));
+
+        second.release();
+        MBTilesReader third = MBTilesReader.acquire(file);
+        try {
+            assertNotSame(first, third);
+            assertArrayEquals(TILE, third.getTile(0, 0, 0));
+        } finally {
+            third.release();
+        }
+    }
+
+    @Test
+    public void metadataIsRead() {
+        createTilesTable();
+        insertTile(3, 0, 0, TILE);
+
+        MBTilesReader reader = MBTilesReader.acquire(file);
+        try {
+            assertEquals("png", reader.getMetadata("format"));
+            assertNull(reader.getMetadata("bounds"));
+            assertEquals(3, reader.getInt("SELECT MIN(zoom_level) FROM tiles"));
+        } finally {
+            reader.release();
+        }
+    }
+
+    private void createTilesTable() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER,"
+                    + " tile_data BLOB)");
+            db.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+            db.execSQL("INSERT INTO metadata VALUES ('format', 'png')");
+        } finally {
+            db.close();
+        }
+    }
+
+    private void insertTile(int zoom, int column, int row, byte[] data) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            ContentValues values = new ContentValues();
+            values.put("zoom_level", zoom);
+            values.put("tile_column", column);
+            values.put("tile_row", row);
+            values.put("tile_data", data);
+            db.insert("tiles", null, values);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.odk.collect.android.tasks;
+
+import android.database.Cursor;
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.provider.FormsProvider;
+import org.odk.collect.android.provider.FormsProviderAPI;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskSyncTaskTest {
+
+    @Before
+    public void setup() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+        Collect.createODKDirs();
+        Robolectric.setupContentProvider(FormsProvider.class, FormsProviderAPI.AUTHORITY);
+    }
+
+    @Test
+    public void eachFormIsAddedWithTheFieldsOfItsOwnFile() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            writeForm("form" + i + ".xml", "Form " + i, "form" + i);
+        }
+
+        assertEquals("", new DiskSyncTask().doInBackground());
+
+        Map<String, String> titles = getTitlesByFileName();
+        assertEquals(10, titles.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Form " + i, titles.get("form" + i + ".xml"));
+        }
+    }
+
+    @Test
+    public void onlyChangedFormsAreUpdated() throws IOException {
+        writeForm("first.xml", "First", "first");
+        writeForm("second.xml", "Second", "second");
+        new DiskSyncTask().doInBackground();
+
+        writeForm("second.xml", "Second changed", "second");
+        new DiskSyncTask().doInBackground();
+
+        Map<String, String> titles = getTitlesByFileName();
+        assertEquals("First", titles.get("first.xml"));
+        assertEquals("Second changed", titles.get("second.xml"));
+    }
+
+    @Test
+    public void formsWhoseFilesAreGoneAreRemoved() throws IOException {
+        File first = writeForm("first.xml", "First", "first");
+        writeForm("second.xml", "Second", "second");
+        new DiskSyncTask().doInBackground();
+
+        assertTrue(first.delete());
+        new DiskSyncTask().doInBackground();
+
+        Map<String, String> titles = getTitlesByFileName();
+        assertEquals(1, titles.size());
+        assertEquals("Second", titles.get("second.xml"));
+    }
+
+    @Test
+    public void formsThatCannotBeParsedAreSetAsideWithoutStoppingTheOthers() throws IOException {
+        writeForm("first.xml", "First", "first");
+        File bad = new File(Collect.FORMS_PATH, "bad.xml");
+        write(bad, "<h:html");
+        writeForm("second.xml", "Second", "second");
+
+        String message = new DiskSyncTask().doInBackground();
+
+        assertTrue(message.contains("bad.xml"));
+        assertFalse(bad.exists());
+        assertTrue(new File(Collect.FORMS_PATH, "bad.xml.bad").exists());
+        Map<String, String> titles = getTitlesByFileName();
+        assertEquals(2, titles.size());
+        assertEquals("First", titles.get("first.xml"));
+        assertEquals("Second", titles.get("second.xml"));
+    }
+
+    private static File writeForm(String fileName, String title, String formId) throws IOException {
+        File file = new File(Collect.FORMS_PATH, fileName);
+        write(file, "<?xml version=\"1.0\"?>\n"
+                + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">\n"
+                + "  <h:head>\n"
+                + "    <h:title>" + title + "</h:title>\n"
+                + "    <model>\n"
+                + "      <instance><data id=\"" + formId + "\"><name/></data></instance>\n"
+                + "      <bind nodeset=\"/data/name\" type=\"string\"/>\n"
+                + "    </model>\n"
+                + "  </h:head>\n"
+                + "  <h:body><input ref=\"/data/name\"><label>Name</label></input></h:body>\n"
+                + "</h:html>\n");
+        return file;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Map<String, String> getTitlesByFileName() {
+        Map<String, String> titles = new HashMap<>();
+        Cursor cursor = new FormsDao().getFormsCursor();
+        try {
+            while (cursor.moveToNext()) {
+                titles.put(new File(cursor.getString(cursor.getColumnIndex(FormsColumns.FORM_FILE_PATH))).getName(),
+                        cursor.getString(cursor.getColumnIndex(FormsColumns.DISPLAY_NAME)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return titles;
+    }
+}
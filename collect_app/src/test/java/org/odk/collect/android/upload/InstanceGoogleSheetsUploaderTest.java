@@ -0,0 +1,168 @@
+package org.odk.collect.android.upload;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Environment;
+
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.dto.Instance;
+import org.odk.collect.android.provider.InstanceProvider;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.utilities.gdrive.GoogleAccountsManager;
+import org.odk.collect.android.utilities.gdrive.SheetsHelper;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstanceGoogleSheetsUploaderTest {
+
+    private static final String SPREADSHEET_URL = "https://docs.google.com/spreadsheets/d/spreadsheet/edit";
+
+    private final SheetsHelper sheetsHelper = mock(SheetsHelper.class);
+    private InstanceProvider instanceProvider;
+    private InstanceGoogleSheetsUploader uploader;
+
+    @Before
+    public void setup() throws IOException {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+
+        instanceProvider = Robolectric.setupContentProvider(InstanceProvider.class, InstanceProviderAPI.AUTHORITY);
+
+        when(sheetsHelper.getSpreadsheet(anyString())).thenReturn(new Spreadsheet().setSpreadsheetId("spreadsheet"));
+        GoogleAccountsManager accountsManager = mock(GoogleAccountsManager.class);
+        when(accountsManager.getSheetsHelper()).thenReturn(sheetsHelper);
+        uploader = new InstanceGoogleSheetsUploader(accountsManager);
+    }
+
+    @Test
+    public void rowsOfQueuedInstancesAreAppendedWithOneRequestPerSheet() throws Exception {
+        Instance first = insertInstance("first");
+        Instance second = insertInstance("second");
+        uploader.queueRows(first, SPREADSHEET_URL, rows("data"));
+        uploader.queueRows(second, SPREADSHEET_URL, rows("data", "repeat"));
+
+        List<Instance> sentInstances = new ArrayList<>();
+        uploader.flushSubmissions(sentInstances);
+
+        verify(sheetsHelper, times(1)).insertRow(eq("spreadsheet"), eq("data"), any(ValueRange.class));
+        verify(sheetsHelper, times(1)).insertRow(eq("spreadsheet"), eq("repeat"), any(ValueRange.class));
+        assertEquals(2, sentInstances.size());
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(first));
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(second));
+    }
+
+    @Test
+    public void onlyInstancesWithAllTheirRowsAppendedAreSentWhenASheetFails() throws Exception {
+        doThrow(new IOException("quota")).when(sheetsHelper)
+                .insertRow(anyString(), eq("repeat"), any(ValueRange.class));
+
+        Instance sent = insertInstance("sent");
+        Instance failed = insertInstance("failed");
+        uploader.queueRows(sent, SPREADSHEET_URL, rows("data"));
+        uploader.queueRows(failed, SPREADSHEET_URL, rows("data", "repeat"));
+
+        List<Instance> sentInstances = new ArrayList<>();
+        try {
+            uploader.flushSubmissions(sentInstances);
+            fail();
+        } catch (UploadException e) {
+            // expected
+        }
+
+        assertEquals(Collections.singletonList(sent), sentInstances);
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(sent));
+        assertEquals(InstanceProviderAPI.STATUS_SUBMISSION_FAILED, getStatus(failed));
+    }
+
+    @Test
+    public void failedRowsAreNotAppendedAgainWithTheNextInstances() throws Exception {
+        doThrow(new IOException("quota")).when(sheetsHelper)
+                .insertRow(anyString(), eq("data"), any(ValueRange.class));
+        Instance failed = insertInstance("failed");
+        uploader.queueRows(failed, SPREADSHEET_URL, rows("data"));
+        try {
+            uploader.flushSubmissions(new ArrayList<>());
+            fail();
+        } catch (UploadException e) {
+            // expected
+        }
+
+        doThrow(new IOException("quota")).when(sheetsHelper)
+                .insertRow(anyString(), eq("other"), any(ValueRange.class));
+        Instance next = insertInstance("next");
+        uploader.queueRows(next, SPREADSHEET_URL, rows("other"));
+        try {
+            uploader.flushSubmissions(new ArrayList<>());
+            fail();
+        } catch (UploadException e) {
+            // expected
+        }
+
+        verify(sheetsHelper, times(1)).insertRow(anyString(), eq("data"), any(ValueRange.class));
+    }
+
+    private static Map<String, List<List<Object>>> rows(String... sheetTitles) {
+        Map<String, List<List<Object>>> rows = new LinkedHashMap<>();
+        for (String sheetTitle : sheetTitles) {
+            List<List<Object>> sheetRows = new ArrayList<>();
+            sheetRows.add(Collections.<Object>singletonList(sheetTitle));
+            rows.put(sheetTitle, sheetRows);
+        }
+        return rows;
+    }
+
+    private Instance insertInstance(String name) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.DISPLAY_NAME, name);
+        values.put(InstanceColumns.INSTANCE_FILE_PATH, "/instances/" + name + "/" + name + ".xml");
+        values.put(InstanceColumns.JR_FORM_ID, "form");
+        values.put(InstanceColumns.STATUS, InstanceProviderAPI.STATUS_COMPLETE);
+        long id = ContentUris.parseId(instanceProvider.insert(InstanceColumns.CONTENT_URI, values));
+
+        return new Instance.Builder()
+                .databaseId(id)
+                .submissionUri(SPREADSHEET_URL)
+                .build();
+    }
+
+    private String getStatus(Instance instance) {
+        Cursor cursor = instanceProvider.query(
+                ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, instance.getDatabaseId()),
+                null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(cursor.getColumnIndex(InstanceColumns.STATUS));
+        } finally {
+            cursor.close();
+        }
+    }
+}
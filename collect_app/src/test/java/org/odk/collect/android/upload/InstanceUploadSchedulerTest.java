@@ -0,0 +1,158 @@
+package org.odk.collect.android.upload;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.android.dto.Instance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InstanceUploadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void smallestInstancesAreUploadedFirst() throws IOException {
+        Instance large = createInstance(1L, "http://a.example.com/submission", 3000);
+        Instance small = createInstance(2L, "http://a.example.com/submission", 10);
+        Instance medium = createInstance(3L, "http://a.example.com/submission", 500);
+
+        RecordingUploader uploader = new RecordingUploader();
+        RecordingListener listener = new RecordingListener();
+        new InstanceUploadScheduler(uploader, 1).upload(Arrays.asList(large, small, medium), null, null, listener);
+
+        assertEquals(Arrays.asList(2L, 3L, 1L), uploader.uploadedIds);
+        assertEquals(Arrays.asList(2L, 3L, 1L), listener.succeededIds);
+    }
+
+    @Test
+    public void failuresAreReportedForEachInstance() throws IOException {
+        Instance failing = createInstance(1L, "http://a.example.com/submission", 10);
+        Instance succeeding = createInstance(2L, "http://a.example.com/submission", 20);
+
+        RecordingUploader uploader = new RecordingUploader();
+        uploader.failingIds.add(1L);
+        RecordingListener listener = new RecordingListener();
+        new InstanceUploadScheduler(uploader, InstanceUploadScheduler.MAX_CONCURRENT_UPLOADS)
+                .upload(Arrays.asList(failing, succeeding), null, null, listener);
+
+        assertEquals(Collections.singletonList(1L), listener.failedIds);
+        assertEquals(Collections.singletonList(2L), listener.succeededIds);
+    }
+
+    @Test
+    public void uploadsToTheSameServerAreLimited() throws IOException {
+        List<Instance> instances = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            instances.add(createInstance(i, "http://a.example.com/submission", 10));
+            instances.add(createInstance(100 + i, "http://b.example.com/submission", 10));
+        }
+
+        RecordingUploader uploader = new RecordingUploader();
+        RecordingListener listener = new RecordingListener();
+        new InstanceUploadScheduler(uploader, InstanceUploadScheduler.MAX_CONCURRENT_UPLOADS)
+                .upload(instances, null, null, listener);
+
+        assertEquals(20, listener.succeededIds.size());
+        assertTrue(uploader.maxConcurrentUploads <= InstanceUploadScheduler.MAX_CONCURRENT_UPLOADS_PER_SERVER);
+    }
+
+    @Test
+    public void noUploadsAreStartedAfterCancelling() throws IOException {
+        List<Instance> instances = new ArrayList<>();
+        for (long i = 0; i < 5; i++) {
+            instances.add(createInstance(i, "http://a.example.com/submission", 10 + i));
+        }
+
+        RecordingUploader uploader = new RecordingUploader();
+        final InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader, 1);
+        scheduler.upload(instances, null, null, new RecordingListener() {
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
+                scheduler.cancel();
+            }
+        });
+
+        assertEquals(Collections.singletonList(0L), uploader.uploadedIds);
+    }
+
+    private Instance createInstance(long id, String submissionUri, int size) throws IOException {
+        File instanceDir = temporaryFolder.newFolder();
+        File instanceFile = new File(instanceDir, "instance.xml");
+        FileOutputStream out = new FileOutputStream(instanceFile);
+        out.write(new byte[size]);
+        out.close();
+
+        return new Instance.Builder()
+                .databaseId(id)
+                .submissionUri(submissionUri)
+                .instanceFilePath(instanceFile.getAbsolutePath())
+                .build();
+    }
+
+    private static class RecordingUploader extends InstanceUploader {
+        final List<Long> uploadedIds = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> failingIds = new ArrayList<>();
+        final Map<String, Integer> activeUploads = new HashMap<>();
+        int maxConcurrentUploads;
+
+        @Override
+        public String uploadOneSubmission(Instance instance, String destinationUrl) throws UploadException {
+            synchronized (this) {
+                Integer active = activeUploads.get(destinationUrl);
+                active = active == null ? 1 : active + 1;
+                activeUploads.put(destinationUrl, active);
+                maxConcurrentUploads = Math.max(maxConcurrentUploads, active);
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                activeUploads.put(destinationUrl, activeUploads.get(destinationUrl) - 1);
+            }
+
+            uploadedIds.add(instance.getDatabaseId());
+            if (failingIds.contains(instance.getDatabaseId())) {
+                throw new UploadException("failed");
+            }
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public String getUrlToSubmitTo(Instance instance, String deviceId, String overrideURL) {
+            return instance.getSubmissionUri();
+        }
+    }
+
+    private static class RecordingListener implements InstanceUploadScheduler.Listener {
+        final List<Long> succeededIds = new ArrayList<>();
+        final List<Long> failedIds = new ArrayList<>();
+
+        @Override
+        public void onUploadSucceeded(Instance instance, String customMessage) {
+            succeededIds.add(instance.getDatabaseId());
+        }
+
+        @Override
+        public void onUploadFailed(Instance instance, UploadException e) {
+            failedIds.add(instance.getDatabaseId());
+        }
+    }
+}
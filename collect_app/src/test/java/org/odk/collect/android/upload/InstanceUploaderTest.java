@@ -0,0 +1,160 @@
+package org.odk.collect.android.upload;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Environment;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.dto.Instance;
+import org.odk.collect.android.provider.InstanceProvider;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstanceUploaderTest {
+
+    private InstanceProvider instanceProvider;
+
+    @Before
+    public void setup() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+
+        instanceProvider = Robolectric.setupContentProvider(InstanceProvider.class, InstanceProviderAPI.AUTHORITY);
+    }
+
+    @Test
+    public void statusesOfScheduledUploadsAreWrittenTogether() {
+        List<Instance> instances = Arrays.asList(insertInstance("first"), insertInstance("second"),
+                insertInstance("third"));
+        int notifications = getNotificationCount();
+
+        StatusSavingUploader uploader = new StatusSavingUploader();
+        uploader.failingIds.add(instances.get(1).getDatabaseId());
+        new InstanceUploadScheduler(uploader, 2).upload(instances, null, null, new InstanceUploadScheduler.Listener() {
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
+            }
+
+            @Override
+            public void onUploadFailed(Instance instance, UploadException e) {
+            }
+        });
+
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(instances.get(0)));
+        assertEquals(InstanceProviderAPI.STATUS_SUBMISSION_FAILED, getStatus(instances.get(1)));
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(instances.get(2)));
+        assertEquals(notifications + 1, getNotificationCount());
+    }
+
+    @Test
+    public void statusesAreOnlyWrittenOnceTheOutermostBatchEnds() {
+        Instance instance = insertInstance("instance");
+
+        StatusSavingUploader uploader = new StatusSavingUploader();
+        uploader.beginStatusBatch();
+        uploader.beginStatusBatch();
+        uploader.saveSuccessStatusToDatabase(instance);
+        uploader.endStatusBatch();
+        assertEquals(InstanceProviderAPI.STATUS_COMPLETE, getStatus(instance));
+
+        uploader.endStatusBatch();
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(instance));
+    }
+
+    @Test
+    public void statusesAreWrittenRightAwayOutsideOfABatch() {
+        Instance instance = insertInstance("instance");
+
+        new StatusSavingUploader().saveFailedStatusToDatabase(instance);
+
+        assertEquals(InstanceProviderAPI.STATUS_SUBMISSION_FAILED, getStatus(instance));
+    }
+
+    @Test
+    public void longBatchesAreWrittenAsTheyGo() {
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            instances.add(insertInstance("instance" + i));
+        }
+
+        StatusSavingUploader uploader = new StatusSavingUploader();
+        uploader.beginStatusBatch();
+        for (Instance instance : instances) {
+            uploader.saveSuccessStatusToDatabase(instance);
+        }
+
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(instances.get(0)));
+        assertEquals(InstanceProviderAPI.STATUS_COMPLETE, getStatus(instances.get(instances.size() - 1)));
+
+        uploader.endStatusBatch();
+        assertEquals(InstanceProviderAPI.STATUS_SUBMITTED, getStatus(instances.get(instances.size() - 1)));
+    }
+
+    private Instance insertInstance(String name) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.DISPLAY_NAME, name);
+        values.put(InstanceColumns.INSTANCE_FILE_PATH, "/instances/" + name + "/" + name + ".xml");
+        values.put(InstanceColumns.JR_FORM_ID, "form");
+        values.put(InstanceColumns.STATUS, InstanceProviderAPI.STATUS_COMPLETE);
+        long id = ContentUris.parseId(instanceProvider.insert(InstanceColumns.CONTENT_URI, values));
+
+        return new Instance.Builder()
+                .databaseId(id)
+                .submissionUri("https://example.com")
+                .build();
+    }
+
+    private String getStatus(Instance instance) {
+        Cursor cursor = instanceProvider.query(
+                ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, instance.getDatabaseId()),
+                null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(cursor.getColumnIndex(InstanceColumns.STATUS));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int getNotificationCount() {
+        return shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris().size();
+    }
+
+    private static class StatusSavingUploader extends InstanceUploader {
+        final List<Long> failingIds = new ArrayList<>();
+
+        @Override
+        public String uploadOneSubmission(Instance instance, String destinationUrl) throws UploadException {
+            if (failingIds.contains(instance.getDatabaseId())) {
+                saveFailedStatusToDatabase(instance);
+                throw new UploadException("failed");
+            }
+            saveSuccessStatusToDatabase(instance);
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public String getUrlToSubmitTo(Instance instance, String deviceId, String overrideURL) {
+            return instance.getSubmissionUri();
+        }
+    }
+}
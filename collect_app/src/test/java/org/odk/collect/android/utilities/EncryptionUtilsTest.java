@@ -0,0 +1,148 @@
+package org.odk.collect.android.utilities;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.logic.FormController.InstanceMetadata;
+import org.odk.collect.android.utilities.EncryptionUtils.EncryptedFormInformation;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EncryptionUtilsTest {
+
+    // formId, version, base64RsaEncryptedSymmetricKey and instanceId come before the files
+    private static final int SIGNATURE_HEADER_LINES = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File instanceXml;
+    private File submissionXml;
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private EncryptedFormInformation formInfo;
+    private byte[] ivSeed;
+
+    @Before
+    public void setup() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        File instanceDir = temporaryFolder.newFolder("instance");
+        instanceXml = write(new File(instanceDir, "instance.xml"), 100);
+        submissionXml = write(new File(instanceDir, "submission.xml"), 1000);
+        // large enough for several buffers and for the work to be spread over threads
+        for (int i = 0; i < 8; i++) {
+            write(new File(instanceDir, "image" + i + ".jpg"), 50000 * i + 7);
+        }
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(EncryptionUtils.RSA_ALGORITHM);
+        generator.initialize(2048);
+        formInfo = new EncryptedFormInformation("form", "1",
+                new InstanceMetadata("uuid:instance", null, false), generator.generateKeyPair().getPublic());
+        ivSeed = formInfo.ivSeedArray.clone();
+    }
+
+    @Test
+    public void everyFileIsSignedInTheOrderOfItsInitializationVector() throws Exception {
+        EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+
+        List<String> signedFiles = getSignedFiles();
+        assertEquals(9, signedFiles.size());
+        assertEquals("submission.xml", signedFiles.get(signedFiles.size() - 1).split("::")[0]);
+
+        for (int i = 0; i < signedFiles.size(); i++) {
+            String[] nameAndHash = signedFiles.get(i).split("::");
+            byte[] plaintext = contents.get(nameAndHash[0]);
+            assertEquals(FileUtils.getMd5Hash(new ByteArrayInputStream(plaintext)), nameAndHash[1]);
+
+            File encryptedFile = new File(instanceXml.getParentFile(), nameAndHash[0] + ".enc");
+            assertArrayEquals(plaintext, decrypt(encryptedFile, i));
+        }
+    }
+
+    @Test
+    public void theManifestListsTheEncryptedFiles() throws Exception {
+        EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+
+        String manifest = new String(read(submissionXml), "UTF-8");
+        for (int i = 0; i < 8; i++) {
+            assertTrue(manifest.contains("image" + i + ".jpg.enc"));
+        }
+        assertTrue(manifest.contains("submission.xml.enc"));
+        assertTrue(new File(instanceXml.getParentFile(), "image0.jpg").exists());
+    }
+
+    private List<String> getSignedFiles() {
+        List<String> lines = Arrays.asList(formInfo.elementSignatureSource.toString().split("\n"));
+        return new ArrayList<>(lines.subList(SIGNATURE_HEADER_LINES, lines.size()));
+    }
+
+    /**
+     * Decrypts a file with the initialization vector of the given position in the order files
+     * are encrypted in, as a server would.
+     */
+    private byte[] decrypt(File encryptedFile, int position) throws Exception {
+        byte[] iv = ivSeed.clone();
+        for (int i = 0; i <= position; i++) {
+            ++iv[i % iv.length];
+        }
+        Cipher cipher = Cipher.getInstance(EncryptionUtils.SYMMETRIC_ALGORITHM, BouncyCastleProvider.PROVIDER_NAME);
+        cipher.init(Cipher.DECRYPT_MODE, formInfo.symmetricKey, new IvParameterSpec(iv));
+        return cipher.doFinal(read(encryptedFile));
+    }
+
+    private File write(File file, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        contents.put(file.getName(), data);
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FormDefMemoryCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedWhenOverBudget() {
+        FormDefMemoryCache cache = new FormDefMemoryCache(30);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+
+        // Touch "a" so that "b" becomes the least recently used entry
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[10]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(30, cache.sizeInBytes());
+    }
+
+    @Test
+    public void replacingAnEntryUpdatesTheSize() {
+        FormDefMemoryCache cache = new FormDefMemoryCache(100);
+        cache.put("a", new byte[10]);
+        cache.put("a", new byte[25]);
+
+        assertEquals(1, cache.size());
+        assertEquals(25, cache.sizeInBytes());
+    }
+
+    @Test
+    public void entriesLargerThanTheBudgetAreNotCached() {
+        FormDefMemoryCache cache = new FormDefMemoryCache(10);
+        cache.put("a", new byte[5]);
+        cache.put("b", new byte[11]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(5, cache.sizeInBytes());
+    }
+
+    @Test
+    public void removeAndClearReleaseTheBudget() {
+        FormDefMemoryCache cache = new FormDefMemoryCache(100);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[20]);
+
+        cache.remove("a");
+        assertEquals(20, cache.sizeInBytes());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+    }
+}
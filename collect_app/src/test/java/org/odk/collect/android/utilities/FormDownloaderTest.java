@@ -0,0 +1,204 @@
+package org.odk.collect.android.utilities;
+
+import android.database.Cursor;
+import android.os.Environment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.http.CollectServerClient;
+import org.odk.collect.android.http.HttpGetResult;
+import org.odk.collect.android.listeners.FormDownloaderListener;
+import org.odk.collect.android.logic.FormDetails;
+import org.odk.collect.android.provider.FormsProvider;
+import org.odk.collect.android.provider.FormsProviderAPI;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class FormDownloaderTest {
+
+    private final CollectServerClient serverClient = mock(CollectServerClient.class);
+    private FormDownloader formDownloader;
+
+    @Before
+    public void setup() {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        ShadowApplication.getInstance().grantPermissions("android.permission.READ_EXTERNAL_STORAGE");
+        ShadowApplication.getInstance().grantPermissions("android.permission.WRITE_EXTERNAL_STORAGE");
+        Collect.createODKDirs();
+        Robolectric.setupContentProvider(FormsProvider.class, FormsProviderAPI.AUTHORITY);
+
+        formDownloader = new FormDownloader();
+        formDownloader.collectServerClient = serverClient;
+    }
+
+    @Test
+    public void everyFormIsDownloadedWithItsOwnResult() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        when(serverClient.getHttpInputStream(anyString(), nullable(String.class))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return getForm((String) invocation.getArgument(0));
+        });
+
+        final Set<String> counts = Collections.synchronizedSet(new HashSet<String>());
+        formDownloader.setDownloaderListener(new FormDownloaderListener() {
+            @Override
+            public void progressUpdate(String currentFile, String progress, String total) {
+                counts.add(progress);
+            }
+
+            @Override
+            public boolean isTaskCanceled() {
+                return false;
+            }
+        });
+
+        List<FormDetails> forms = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            forms.add(getFormDetails("Form " + i, "form" + i));
+        }
+        HashMap<FormDetails, String> result = formDownloader.downloadForms(forms);
+
+        assertEquals(6, result.size());
+        for (FormDetails form : forms) {
+            assertEquals(RuntimeEnvironment.application.getString(R.string.success), result.get(form));
+        }
+        assertEquals(6, getFormCount());
+        assertEquals(6, counts.size());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void formsWithTheSameTitleGetFilesOfTheirOwn() throws Exception {
+        when(serverClient.getHttpInputStream(anyString(), nullable(String.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return getForm((String) invocation.getArgument(0));
+        });
+
+        List<FormDetails> forms = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            forms.add(getFormDetails("Same", "same" + i));
+        }
+        formDownloader.downloadForms(forms);
+
+        Set<String> paths = new HashSet<>();
+        Cursor cursor = new FormsDao().getFormsCursor();
+        try {
+            while (cursor.moveToNext()) {
+                paths.add(cursor.getString(cursor.getColumnIndex(FormsProviderAPI.FormsColumns.FORM_FILE_PATH)));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(3, paths.size());
+        for (String path : paths) {
+            assertTrue(new File(path).exists());
+        }
+    }
+
+    @Test
+    public void nothingIsInstalledOrLeftBehindWhenCancelled() throws Exception {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        when(serverClient.getHttpInputStream(anyString(), nullable(String.class))).thenAnswer(invocation -> {
+            cancelled.set(true);
+            return getForm((String) invocation.getArgument(0));
+        });
+        formDownloader.setDownloaderListener(new FormDownloaderListener() {
+            @Override
+            public void progressUpdate(String currentFile, String progress, String total) {
+            }
+
+            @Override
+            public boolean isTaskCanceled() {
+                return cancelled.get();
+            }
+        });
+
+        List<FormDetails> forms = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            forms.add(getFormDetails("Form " + i, "form" + i));
+        }
+        HashMap<FormDetails, String> result = formDownloader.downloadForms(forms);
+
+        assertTrue(result.isEmpty());
+        assertEquals(0, getFormCount());
+        assertEquals(0, listFiles(Collect.FORMS_PATH, ".xml"));
+        assertEquals(0, listFiles(Collect.CACHE_PATH, ".tempDownload"));
+    }
+
+    private static FormDetails getFormDetails(String name, String formId) {
+        return new FormDetails(name, "https://example.com/" + formId, null, formId, null,
+                null, null, false, false);
+    }
+
+    private static HttpGetResult getForm(String downloadUrl) {
+        String formId = downloadUrl.substring(downloadUrl.lastIndexOf('/') + 1);
+        String form = "<?xml version=\"1.0\"?>\n"
+                + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">\n"
+                + "  <h:head>\n"
+                + "    <h:title>" + formId + "</h:title>\n"
+                + "    <model>\n"
+                + "      <instance><data id=\"" + formId + "\"><name/></data></instance>\n"
+                + "      <bind nodeset=\"/data/name\" type=\"string\"/>\n"
+                + "    </model>\n"
+                + "  </h:head>\n"
+                + "  <h:body><input ref=\"/data/name\"><label>Name</label></input></h:body>\n"
+                + "</h:html>\n";
+        return new HttpGetResult(new ByteArrayInputStream(form.getBytes(Charset.forName("UTF-8"))),
+                new HashMap<String, String>(), "", 200);
+    }
+
+    private static int getFormCount() {
+        Cursor cursor = new FormsDao().getFormsCursor();
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int listFiles(String path, String extension) {
+        int count = 0;
+        File[] files = new File(path).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(extension)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
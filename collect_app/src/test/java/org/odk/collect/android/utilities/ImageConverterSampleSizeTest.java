@@ -0,0 +1,23 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageConverterSampleSizeTest {
+
+    @Test
+    public void imagesAreNotDownsampledBelowTheTargetSize() {
+        assertEquals(1, ImageConverter.getSampleSize(4000, 3000));
+        assertEquals(1, ImageConverter.getSampleSize(3000, 3000));
+        assertEquals(2, ImageConverter.getSampleSize(4000, 2000));
+        assertEquals(4, ImageConverter.getSampleSize(8000, 1024));
+        assertEquals(8, ImageConverter.getSampleSize(8000, 1000));
+        assertEquals(8, ImageConverter.getSampleSize(6000, 640));
+    }
+
+    @Test
+    public void imagesSmallerThanTheTargetAreDecodedAtFullSize() {
+        assertEquals(1, ImageConverter.getSampleSize(500, 640));
+    }
+}
@@ -0,0 +1,104 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class XmlHeaderParserTest {
+
+    private static final String FORM = "<?xml version=\"1.0\"?>\n"
+            + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">\n"
+            + "  <h:head>\n"
+            + "    <h:title> Sample <b>Form</b></h:title>\n"
+            + "    <model>\n"
+            + "      <itext><translation lang=\"en\"><text id=\"a\"><value>A</value></text></translation></itext>\n"
+            + "      <instance>\n"
+            + "        <data id=\"sample\" version=\"2018010101\"><name/><meta><instanceID/></meta></data>\n"
+            + "      </instance>\n"
+            + "      <instance id=\"choices\">\n"
+            + "        <root id=\"secondary\"><item><name>a</name></item></root>\n"
+            + "      </instance>\n"
+            + "      <bind nodeset=\"/data/name\" type=\"string\"/>\n"
+            + "      <submission action=\"https://example.com/submission\" base64RsaPublicKey=\" key \""
+            + " auto-send=\"true\" auto-delete=\"false\" method=\"form-data-post\"/>\n"
+            + "    </model>\n"
+            + "  </h:head>\n"
+            + "  <h:body><input ref=\"/data/name\"><label>Name</label></input></h:body>\n"
+            + "</h:html>\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void formHeaderIsReadFromTheMainInstanceAndSubmission() throws IOException {
+        HashMap<String, String> fields = XmlHeaderParser.parseFormHeader(write(FORM));
+
+        assertEquals("Sample Form", fields.get(FileUtils.TITLE));
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertEquals("2018010101", fields.get(FileUtils.VERSION));
+        assertEquals("https://example.com/submission", fields.get(FileUtils.SUBMISSIONURI));
+        assertEquals("key", fields.get(FileUtils.BASE64_RSA_PUBLIC_KEY));
+        assertEquals("true", fields.get(FileUtils.AUTO_SEND));
+        assertEquals("false", fields.get(FileUtils.AUTO_DELETE));
+    }
+
+    @Test
+    public void formWithoutSubmissionOnlyHasTheInstanceFields() throws IOException {
+        String form = FORM.replaceAll("<submission[^>]*/>", "")
+                .replace(" version=\"2018010101\"", "");
+        HashMap<String, String> fields = XmlHeaderParser.parseFormHeader(write(form));
+
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertNull(fields.get(FileUtils.VERSION));
+        assertFalse(fields.containsKey(FileUtils.SUBMISSIONURI));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void formWithoutDataElementCannotBeParsed() throws IOException {
+        XmlHeaderParser.parseFormHeader(write(FORM.replaceAll("<data .*</data>", "")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void malformedFormCannotBeParsed() throws IOException {
+        XmlHeaderParser.parseFormHeader(write(FORM.substring(0, FORM.indexOf("<instance>"))));
+    }
+
+    @Test
+    public void attributesOfTheBodyAreRead() throws IOException {
+        String form = FORM.replace("<input ref=\"/data/name\">",
+                "<input ref=\"/data/name\" appearance=\"minimal\"><hint appearance=\"x\"/>")
+                .replace("<data id=\"sample\"", "<data appearance=\"head\" id=\"sample\"");
+
+        assertEquals(Arrays.asList("minimal", "x"),
+                XmlHeaderParser.parseBodyAttributeValues(write(form), "appearance"));
+    }
+
+    @Test
+    public void rootAttributesOfInstanceAreRead() throws IOException {
+        Map<String, String> attributes = XmlHeaderParser.parseRootAttributes(
+                write("<?xml version='1.0' ?><data id=\"sample\" version=\"1\" "
+                        + "xmlns:orx=\"http://openrosa.org/xforms\"><name>a</name></data>"));
+
+        assertEquals("sample", attributes.get("id"));
+        assertEquals("1", attributes.get("version"));
+    }
+
+    private File write(String contents) throws IOException {
+        File file = temporaryFolder.newFile();
+        FileWriter writer = new FileWriter(file);
+        writer.write(contents);
+        writer.close();
+        return file;
+    }
+}
@@ -0,0 +1,50 @@
+package org.odk.collect.android.widgets;
+
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.junit.Test;
+import org.odk.collect.android.utilities.XPathParseTool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemsetQueryTest {
+
+    @Test
+    public void queryIsTurnedIntoASelectionWithOneArgumentPerFilter() {
+        ItemsetQuery query = ItemsetQuery.compile(
+                "instance('cities')/root/item[state=/data/state and county=/data/county]",
+                new XPathParseTool());
+
+        assertEquals("cities", query.getListName());
+        assertEquals("list_name=? and \"state\"=? and \"county\"=?", query.getSelection());
+        assertEquals(2, query.getArgumentCount());
+        assertEquals("/data/state", query.getArgument(0));
+        assertEquals("/data/county", query.getArgument(1));
+        assertNotNull(query.getExpression(0));
+        assertNotNull(query.getExpression(1));
+        assertEquals(-1, query.getInvalidArgumentIndex());
+    }
+
+    @Test
+    public void orClausesAreKept() {
+        ItemsetQuery query = ItemsetQuery.compile(
+                "instance('cities')/root/item[state=/data/state or county=/data/county]",
+                new XPathParseTool());
+
+        assertEquals("list_name=? and \"state\"=? or \"county\"=?", query.getSelection());
+    }
+
+    @Test
+    public void firstArgumentThatCantBeParsedIsReported() throws XPathSyntaxException {
+        XPathParseTool parseTool = mock(XPathParseTool.class);
+        when(parseTool.parseXPath("/data/county")).thenThrow(new XPathSyntaxException("invalid"));
+
+        ItemsetQuery query = ItemsetQuery.compile(
+                "instance('cities')/root/item[state=/data/state and county=/data/county]",
+                parseTool);
+
+        assertEquals(1, query.getInvalidArgumentIndex());
+    }
+}
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -157,6 +158,20 @@ public class ItemsetWidgetTest extends QuestionWidgetTest<ItemsetWidget, StringD
         assertEquals(answer.getDisplayText(), selectedChoice);
     }
 
+    @Test
+    public void widgetsShowingTheSameItemsetHaveChoicesOfTheirOwn() {
+        ItemsetWidget first = createWidget();
+        // the cursor has been read, so the choices can only come from the cache
+        ItemsetWidget second = createWidget();
+
+        assertEquals(choices.size(), second.items.size());
+        for (int i = 0; i < first.items.size(); i++) {
+            assertNotSame(first.items.get(i), second.items.get(i));
+            assertEquals(first.items.get(i).getValue(), second.items.get(i).getValue());
+            assertEquals(i, second.items.get(i).getIndex());
+        }
+    }
+
     private Map<String, String> createChoices() {
         int choiceCount = (Math.abs(random.nextInt()) % 3) + 2;
 